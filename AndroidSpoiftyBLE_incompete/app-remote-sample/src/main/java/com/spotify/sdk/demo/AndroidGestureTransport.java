@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link GestureTransport} over the wearable's GATT service.
+ *
+ * <p>Connections are managed by a {@link BleConnectionManager}. On every connection the MTU is
+ * raised for raw sample frames, then services are discovered and the subscribed
+ * characteristics are enabled one descriptor write at a time. The listener runs on the GATT
+ * callback thread.
+ */
+@SuppressLint("MissingPermission")
+final class AndroidGestureTransport implements GestureTransport {
+
+  private static final String TAG = AndroidGestureTransport.class.getSimpleName();
+
+  static final UUID UUID_SERVICE = UUID.fromString("66df5109-edde-4f8a-a5e1-02e02a69cbd5");
+  private static final UUID UUID_GESTURES = UUID.fromString("741c12b9-e13c-4992-8a5e-fce46dec0bff");
+  private static final UUID UUID_RAW_SAMPLES =
+      UUID.fromString("741c12ba-e13c-4992-8a5e-fce46dec0bff");
+  private static final UUID UUID_CLIENT_CHARACTERISTIC_CONFIG =
+      UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+  // Large enough for one raw sample frame (230 bytes) in a single notification.
+  private static final int MTU = 247;
+
+  private static final Channel[] CHANNELS = Channel.values();
+
+  private final BleConnectionManager mConnection;
+  private volatile Listener mListener;
+  private volatile int mSubscriptions;
+
+  // GATT callback thread only.
+  private final BluetoothGattCharacteristic[] mCharacteristics =
+      new BluetoothGattCharacteristic[CHANNELS.length];
+  private final ArrayDeque<BluetoothGattDescriptor> mPendingDescriptors = new ArrayDeque<>();
+
+  /** See {@link BleConnectionManager} for {@code slot} and {@code claimedAddresses}. */
+  AndroidGestureTransport(
+      Context context,
+      BluetoothAdapter adapter,
+      int slot,
+      Set<String> claimedAddresses,
+      BleConnectionManager.Listener stateListener) {
+    mConnection =
+        new BleConnectionManager(
+            context, adapter, UUID_SERVICE, slot, claimedAddresses, mGattCallback, stateListener);
+  }
+
+  /** The underlying connection, for its state and metrics. */
+  BleConnectionManager connection() {
+    return mConnection;
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public synchronized void subscribe(Channel channel) {
+    mSubscriptions |= 1 << channel.ordinal();
+  }
+
+  /** Main thread only. */
+  @Override
+  public void connect() {
+    mConnection.start();
+  }
+
+  /** Main thread only. */
+  @Override
+  public void disconnect() {
+    mConnection.stop();
+  }
+
+  // Only one GATT operation may be pending, so descriptors are written one after the other.
+  private void writeNextDescriptor(BluetoothGatt gatt) {
+    BluetoothGattDescriptor descriptor = mPendingDescriptors.poll();
+    if (descriptor != null) {
+      descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+      gatt.writeDescriptor(descriptor);
+    }
+  }
+
+  private final BluetoothGattCallback mGattCallback =
+      new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+          // Late callbacks from a client that was already replaced must not reset the live link.
+          if (!mConnection.isCurrent(gatt)) {
+            return;
+          }
+          Listener listener = mListener;
+          if (newState == BluetoothProfile.STATE_CONNECTED
+              && status == BluetoothGatt.GATT_SUCCESS) {
+            if (listener != null) {
+              listener.onConnected();
+            }
+            // Raw sample frames need a larger MTU; services are discovered once it is negotiated.
+            if (!gatt.requestMtu(MTU)) {
+              gatt.discoverServices();
+            }
+          } else if (newState == BluetoothProfile.STATE_DISCONNECTED && listener != null) {
+            listener.onDisconnected();
+          }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+          Log.d(TAG, "MTU " + mtu + " status " + status);
+          if (mConnection.isCurrent(gatt)) {
+            gatt.discoverServices();
+          }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+          BluetoothGattService service = gatt.getService(UUID_SERVICE);
+          if (service == null) {
+            Log.w(TAG, "Gesture service not found, status " + status);
+            return;
+          }
+          mCharacteristics[Channel.GESTURES.ordinal()] = service.getCharacteristic(UUID_GESTURES);
+          // Absent on firmware built without STREAM_RAW_SAMPLES.
+          mCharacteristics[Channel.RAW_SAMPLES.ordinal()] =
+              service.getCharacteristic(UUID_RAW_SAMPLES);
+
+          mPendingDescriptors.clear();
+          for (Channel channel : CHANNELS) {
+            BluetoothGattCharacteristic characteristic = mCharacteristics[channel.ordinal()];
+            if ((mSubscriptions & 1 << channel.ordinal()) == 0 || characteristic == null) {
+              continue;
+            }
+            gatt.setCharacteristicNotification(characteristic, true);
+            BluetoothGattDescriptor descriptor =
+                characteristic.getDescriptor(UUID_CLIENT_CHARACTERISTIC_CONFIG);
+            if (descriptor != null) {
+              mPendingDescriptors.add(descriptor);
+            }
+          }
+          writeNextDescriptor(gatt);
+        }
+
+        @Override
+        public void onDescriptorWrite(
+            BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+          writeNextDescriptor(gatt);
+        }
+
+        @Override
+        public void onCharacteristicChanged(
+            BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+          long receivedNanos = System.nanoTime();
+          Listener listener = mListener;
+          if (listener == null) {
+            return;
+          }
+          for (Channel channel : CHANNELS) {
+            if (characteristic == mCharacteristics[channel.ordinal()]) {
+              listener.onNotification(channel, characteristic.getValue(), receivedNanos);
+              return;
+            }
+          }
+        }
+      };
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.util.Log;
+
+import com.spotify.android.appremote.api.PlayerApi;
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.protocol.client.ErrorCallback;
+import com.spotify.sdk.demo.metrics.PipelineLatency;
+import com.spotify.sdk.demo.player.LatencyStats;
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+import com.spotify.sdk.demo.player.PlayerStateMirror;
+
+/**
+ * {@link PlayerController} backed by the App Remote {@link PlayerApi}. Commands issued while
+ * disconnected are dropped.
+ *
+ * <p>Toggles read their target from a {@link PlayerStateMirror} and cost a single IPC call. Only
+ * before the first PlayerState event do they fall back to fetching the state first.
+ *
+ * <p>Every acknowledged command records its IPC round trip, and for commands issued between
+ * {@link #beginGesture} and {@link #endGesture}, the time since the gesture was received.
+ *
+ * <p>Seeks and skips report to the {@link SettleListener} once they are acknowledged, fail or are
+ * dropped, so a {@link com.spotify.sdk.demo.player.CommandCoalescer} can send the next one.
+ */
+class AppRemotePlayerController implements PlayerController {
+
+  private static final String TAG = AppRemotePlayerController.class.getSimpleName();
+  private static final long NO_GESTURE = -1;
+
+  /** Notified on the main thread when a command has been acknowledged by Spotify. */
+  interface CommandListener {
+    void onCommandDone(String command);
+  }
+
+  /**
+   * Notified on any thread when a seek or skip will get no further callbacks, with the {@link
+   * System#nanoTime} at which it was issued.
+   */
+  interface SettleListener {
+    void onCommandSettled(PlayerCommand command, long issuedNanos);
+  }
+
+  private final PlayerStateMirror mMirror;
+  private final ErrorCallback mErrorCallback;
+  private final PipelineLatency mLatency;
+  private final LatencyStats mMirroredToggleLatency = new LatencyStats("toggle (mirrored)");
+  private final LatencyStats mFetchedToggleLatency = new LatencyStats("toggle (fetch state)");
+
+  private volatile SpotifyAppRemote mAppRemote;
+  private volatile CommandListener mCommandListener;
+  private volatile SettleListener mSettleListener;
+
+  /** A gesture being handled, and the thread handling it. */
+  private static final class GestureStamp {
+    final Thread mThread;
+    final long mNanos;
+
+    GestureStamp(Thread thread, long nanos) {
+      mThread = thread;
+      mNanos = nanos;
+    }
+  }
+
+  // Written by the gesture dispatcher, read by whichever thread issues a command: the
+  // coalescer's timer and the settle callbacks send queued commands too. One volatile reference
+  // keeps the thread and the time consistent with each other.
+  private volatile GestureStamp mGesture;
+
+  AppRemotePlayerController(
+      PlayerStateMirror mirror, ErrorCallback errorCallback, PipelineLatency latency) {
+    mMirror = mirror;
+    mErrorCallback = errorCallback;
+    mLatency = latency;
+  }
+
+  void setAppRemote(SpotifyAppRemote appRemote) {
+    mAppRemote = appRemote;
+    mMirror.reset();
+  }
+
+  void setCommandListener(CommandListener listener) {
+    mCommandListener = listener;
+  }
+
+  void setSettleListener(SettleListener listener) {
+    mSettleListener = listener;
+  }
+
+  private PlayerApi playerApi() {
+    SpotifyAppRemote appRemote = mAppRemote;
+    return appRemote != null && appRemote.isConnected() ? appRemote.getPlayerApi() : null;
+  }
+
+  /** Attributes commands issued on this thread to a gesture received at {@code receivedNanos}. */
+  void beginGesture(long receivedNanos) {
+    mGesture = new GestureStamp(Thread.currentThread(), receivedNanos);
+  }
+
+  void endGesture() {
+    mGesture = null;
+  }
+
+  private long gestureNanos() {
+    GestureStamp gesture = mGesture;
+    return gesture != null && gesture.mThread == Thread.currentThread()
+        ? gesture.mNanos
+        : NO_GESTURE;
+  }
+
+  private void recordAck(long startNanos, long gestureNanos) {
+    long nowNanos = System.nanoTime();
+    mLatency.record(PipelineLatency.Stage.IPC, nowNanos - startNanos);
+    if (gestureNanos != NO_GESTURE) {
+      mLatency.record(PipelineLatency.Stage.END_TO_END, nowNanos - gestureNanos);
+    }
+  }
+
+  private void notifyDone(String command) {
+    CommandListener listener = mCommandListener;
+    if (listener != null) {
+      listener.onCommandDone(command);
+    }
+  }
+
+  private void notifySettled(PlayerCommand command, long startNanos) {
+    SettleListener listener = mSettleListener;
+    if (listener != null) {
+      listener.onCommandSettled(command, startNanos);
+    }
+  }
+
+  private ErrorCallback settleOnError(PlayerCommand command, long startNanos) {
+    return throwable -> {
+      notifySettled(command, startNanos);
+      mErrorCallback.onError(throwable);
+    };
+  }
+
+  private void recordToggle(LatencyStats stats, long startNanos) {
+    stats.record(System.nanoTime() - startNanos);
+    Log.d(TAG, mMirroredToggleLatency + ", " + mFetchedToggleLatency);
+  }
+
+  @Override
+  public void skipNext() {
+    long startNanos = System.nanoTime();
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      notifySettled(PlayerCommand.SKIP_NEXT, startNanos);
+      return;
+    }
+    long gestureNanos = gestureNanos();
+    playerApi
+        .skipNext()
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              notifySettled(PlayerCommand.SKIP_NEXT, startNanos);
+              notifyDone("skip next");
+            })
+        .setErrorCallback(settleOnError(PlayerCommand.SKIP_NEXT, startNanos));
+  }
+
+  @Override
+  public void skipPrevious() {
+    long startNanos = System.nanoTime();
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      notifySettled(PlayerCommand.SKIP_PREVIOUS, startNanos);
+      return;
+    }
+    long gestureNanos = gestureNanos();
+    playerApi
+        .skipPrevious()
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              notifySettled(PlayerCommand.SKIP_PREVIOUS, startNanos);
+              notifyDone("skip previous");
+            })
+        .setErrorCallback(settleOnError(PlayerCommand.SKIP_PREVIOUS, startNanos));
+  }
+
+  @Override
+  public void togglePlayPause() {
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    long gestureNanos = gestureNanos();
+    if (!mMirror.hasState()) {
+      playerApi
+          .getPlayerState()
+          .setResultCallback(
+              playerState ->
+                  setPaused(playerApi, !playerState.isPaused, startNanos, gestureNanos, null))
+          .setErrorCallback(mErrorCallback);
+      return;
+    }
+    setPaused(
+        playerApi,
+        mMirror.togglePaused(startNanos),
+        startNanos,
+        gestureNanos,
+        mMirroredToggleLatency);
+  }
+
+  // stats is null on the fetch-first path, whose optimistic state was never applied.
+  private void setPaused(
+      PlayerApi playerApi,
+      boolean pause,
+      long startNanos,
+      long gestureNanos,
+      LatencyStats stats) {
+    (pause ? playerApi.pause() : playerApi.resume())
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              recordToggle(stats != null ? stats : mFetchedToggleLatency, startNanos);
+              notifyDone(pause ? "pause" : "play");
+            })
+        .setErrorCallback(
+            throwable -> {
+              if (stats != null) {
+                mMirror.revertPaused();
+              }
+              mErrorCallback.onError(throwable);
+            });
+  }
+
+  @Override
+  public void seekToRelativePosition(long milliseconds) {
+    long startNanos = System.nanoTime();
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      notifySettled(PlayerCommand.SEEK_RELATIVE, startNanos);
+      return;
+    }
+    long gestureNanos = gestureNanos();
+    playerApi
+        .seekToRelativePosition(milliseconds)
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              notifySettled(PlayerCommand.SEEK_RELATIVE, startNanos);
+              notifyDone(milliseconds < 0 ? "seek back" : "seek fwd");
+            })
+        .setErrorCallback(settleOnError(PlayerCommand.SEEK_RELATIVE, startNanos));
+  }
+
+  @Override
+  public void toggleShuffle() {
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    long gestureNanos = gestureNanos();
+    if (!mMirror.hasState()) {
+      playerApi
+          .toggleShuffle()
+          .setResultCallback(
+              empty -> {
+                recordAck(startNanos, gestureNanos);
+                notifyDone("toggle shuffle");
+              })
+          .setErrorCallback(mErrorCallback);
+      return;
+    }
+    playerApi
+        .setShuffle(mMirror.toggleShuffling(startNanos))
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              recordToggle(mMirroredToggleLatency, startNanos);
+              notifyDone("toggle shuffle");
+            })
+        .setErrorCallback(
+            throwable -> {
+              mMirror.revertShuffling();
+              mErrorCallback.onError(throwable);
+            });
+  }
+
+  @Override
+  public void toggleRepeat() {
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    long gestureNanos = gestureNanos();
+    if (!mMirror.hasState()) {
+      playerApi
+          .toggleRepeat()
+          .setResultCallback(
+              empty -> {
+                recordAck(startNanos, gestureNanos);
+                notifyDone("toggle repeat");
+              })
+          .setErrorCallback(mErrorCallback);
+      return;
+    }
+    playerApi
+        .setRepeat(mMirror.cycleRepeatMode(startNanos))
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              recordToggle(mMirroredToggleLatency, startNanos);
+              notifyDone("toggle repeat");
+            })
+        .setErrorCallback(
+            throwable -> {
+              mMirror.revertRepeatMode();
+              mErrorCallback.onError(throwable);
+            });
+  }
+
+  @Override
+  public void playUri(String uri) {
+    PlayerApi playerApi = playerApi();
+    if (playerApi == null) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    long gestureNanos = gestureNanos();
+    playerApi
+        .play(uri)
+        .setResultCallback(
+            empty -> {
+              recordAck(startNanos, gestureNanos);
+              notifyDone("play " + uri);
+            })
+        .setErrorCallback(mErrorCallback);
+  }
+}
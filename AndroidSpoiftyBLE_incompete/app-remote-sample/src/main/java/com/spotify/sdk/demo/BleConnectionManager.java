@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import com.spotify.sdk.demo.ble.ConnectionStateMachine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link ConnectionStateMachine} with the Android Bluetooth stack.
+ *
+ * <p>The address of the last peripheral that connected is kept in shared preferences, so a new
+ * run reconnects with {@code connectGatt(autoConnect)} instead of scanning. Scans are filtered on
+ * the gesture service UUID in the controller rather than by matching names in the app.
+ *
+ * <p>Several managers can run side by side, one per wearable slot. Each slot remembers its own
+ * address, and managers sharing a set of claimed addresses never connect to the same peripheral:
+ * a scan result already claimed by another slot is ignored.
+ *
+ * <p>GATT callbacks are forwarded unchanged to the app's callback, on the binder thread they
+ * arrive on. Connection state changes also feed the state machine, which runs on the main thread
+ * together with {@link #start}, {@link #stop} and the {@link Listener}.
+ */
+@SuppressLint("MissingPermission")
+final class BleConnectionManager implements ConnectionStateMachine.Driver {
+
+  /** Receives state changes on the main thread. */
+  interface Listener {
+    void onStateChanged(ConnectionStateMachine.State state);
+  }
+
+  private static final String TAG = BleConnectionManager.class.getSimpleName();
+  private static final String PREFS_NAME = "ble_connection";
+  private static final String KEY_ADDRESS = "device_address";
+
+  private final Context mContext;
+  private final BluetoothAdapter mAdapter;
+  private final List<ScanFilter> mScanFilters;
+  private final BluetoothGattCallback mAppCallback;
+  private final Listener mListener;
+  private final SharedPreferences mPreferences;
+  private final String mAddressKey;
+  private final Set<String> mClaimedAddresses;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final ConnectionStateMachine mMachine;
+  private final Runnable mTimer = this::onTimer;
+
+  // Written on the main thread only; volatile for isCurrent.
+  private volatile BluetoothGatt mGatt;
+  // Main thread only.
+  private BluetoothLeScanner mScanner;
+  private String mClaimedAddress;
+
+  /**
+   * @param slot wearable slot; slot 0 keeps the address saved by single device builds
+   * @param claimedAddresses shared by the managers of all slots; main thread only
+   */
+  BleConnectionManager(
+      Context context,
+      BluetoothAdapter adapter,
+      UUID serviceUuid,
+      int slot,
+      Set<String> claimedAddresses,
+      BluetoothGattCallback appCallback,
+      Listener listener) {
+    mContext = context.getApplicationContext();
+    mAdapter = adapter;
+    mScanFilters =
+        Collections.singletonList(
+            new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build());
+    mAppCallback = appCallback;
+    mListener = listener;
+    mPreferences = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    mAddressKey = slot == 0 ? KEY_ADDRESS : KEY_ADDRESS + "_" + slot;
+    mClaimedAddresses = claimedAddresses;
+    mMachine =
+        new ConnectionStateMachine.Builder()
+            .setAddress(mPreferences.getString(mAddressKey, null))
+            .build(this);
+  }
+
+  /** Connects to the wearable and keeps reconnecting until {@link #stop}. Main thread only. */
+  void start() {
+    mMachine.start(System.nanoTime());
+  }
+
+  /** Disconnects and stops reconnecting. Main thread only. */
+  void stop() {
+    mMachine.stop();
+  }
+
+  ConnectionStateMachine.State state() {
+    return mMachine.state();
+  }
+
+  /** Connection counters and latencies; main thread only. */
+  ConnectionStateMachine stateMachine() {
+    return mMachine;
+  }
+
+  /**
+   * Whether {@code gatt} is the client of the current connection attempt, rather than one that
+   * was already closed and replaced. Any thread.
+   */
+  boolean isCurrent(BluetoothGatt gatt) {
+    return gatt == mGatt;
+  }
+
+  private void onTimer() {
+    mMachine.onTimer();
+  }
+
+  @Override
+  public void connect(String address, boolean autoConnect) {
+    disconnect();
+    if (!mClaimedAddresses.add(address)) {
+      Log.d(TAG, address + " is in use by another slot");
+      mMainHandler.post(() -> mMachine.onDisconnected(System.nanoTime()));
+      return;
+    }
+    mClaimedAddress = address;
+    BluetoothDevice device = mAdapter.getRemoteDevice(address);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      mGatt =
+          device.connectGatt(mContext, autoConnect, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+    } else {
+      mGatt = device.connectGatt(mContext, autoConnect, mGattCallback);
+    }
+    if (mGatt == null) {
+      Log.w(TAG, "connectGatt failed for " + address);
+      mMainHandler.post(() -> mMachine.onDisconnected(System.nanoTime()));
+    }
+  }
+
+  @Override
+  public void disconnect() {
+    if (mGatt != null) {
+      mGatt.disconnect();
+      mGatt.close();
+      mGatt = null;
+    }
+    if (mClaimedAddress != null) {
+      mClaimedAddresses.remove(mClaimedAddress);
+      mClaimedAddress = null;
+    }
+  }
+
+  @Override
+  public void startScan() {
+    mScanner = mAdapter.getBluetoothLeScanner();
+    if (mScanner == null) {
+      // Bluetooth is off.
+      mMainHandler.post(mMachine::onScanFailed);
+      return;
+    }
+    ScanSettings settings =
+        new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+    mScanner.startScan(mScanFilters, settings, mScanCallback);
+  }
+
+  @Override
+  public void stopScan() {
+    if (mScanner != null && mAdapter.isEnabled()) {
+      mScanner.stopScan(mScanCallback);
+    }
+    mScanner = null;
+  }
+
+  @Override
+  public void schedule(long delayNanos) {
+    mMainHandler.removeCallbacks(mTimer);
+    mMainHandler.postDelayed(mTimer, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+  }
+
+  @Override
+  public void cancelTimer() {
+    mMainHandler.removeCallbacks(mTimer);
+  }
+
+  @Override
+  public void saveAddress(String address) {
+    mPreferences.edit().putString(mAddressKey, address).apply();
+  }
+
+  @Override
+  public void onStateChanged(ConnectionStateMachine.State state) {
+    Log.d(TAG, "state " + state);
+    mListener.onStateChanged(state);
+  }
+
+  private final ScanCallback mScanCallback =
+      new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+          String address = result.getDevice().getAddress();
+          mMainHandler.post(
+              () -> {
+                if (!mClaimedAddresses.contains(address)) {
+                  mMachine.onScanResult(address);
+                }
+              });
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+          Log.w(TAG, "scan failed: " + errorCode);
+          mMainHandler.post(mMachine::onScanFailed);
+        }
+      };
+
+  private final BluetoothGattCallback mGattCallback =
+      new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+          long nowNanos = System.nanoTime();
+          boolean connected =
+              newState == BluetoothProfile.STATE_CONNECTED && status == BluetoothGatt.GATT_SUCCESS;
+          if (connected || newState == BluetoothProfile.STATE_DISCONNECTED) {
+            String address = gatt.getDevice().getAddress();
+            mMainHandler.post(
+                () -> {
+                  // Late callbacks from a connection that was already replaced are dropped.
+                  if (gatt != mGatt) {
+                    return;
+                  }
+                  if (connected) {
+                    mMachine.onConnected(address, nowNanos);
+                  } else {
+                    mMachine.onDisconnected(nowNanos);
+                  }
+                });
+          }
+          mAppCallback.onConnectionStateChange(gatt, status, newState);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+          mAppCallback.onMtuChanged(gatt, mtu, status);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+          mAppCallback.onServicesDiscovered(gatt, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(
+            BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+          mAppCallback.onDescriptorWrite(gatt, descriptor, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(
+            BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+          mAppCallback.onCharacteristicChanged(gatt, characteristic);
+        }
+      };
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.protocol.types.Image;
+import com.spotify.protocol.types.ImageUri;
+import com.spotify.sdk.demo.cache.TwoTierCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cover art cache keyed by (image uri, dimension), backed by the App Remote {@code ImagesApi}.
+ * Results are delivered on the main thread.
+ */
+class CoverArtCache {
+
+  private static final String TAG = CoverArtCache.class.getSimpleName();
+  private static final long MAX_DISK_BYTES = 20 * 1024 * 1024;
+  private static final int JPEG_QUALITY = 90;
+  private static final long LOAD_TIMEOUT_SECONDS = 10;
+
+  private final ExecutorService mIoExecutor = Executors.newSingleThreadExecutor();
+  private final ScheduledExecutorService mTimeoutScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final TwoTierCache<Bitmap> mCache;
+  private volatile SpotifyAppRemote mAppRemote;
+
+  CoverArtCache(Context context) {
+    mCache =
+        new TwoTierCache.Builder<Bitmap>()
+            .setLoader(this::loadFromAppRemote)
+            .setMemoryTier(Runtime.getRuntime().maxMemory() / 8, Bitmap::getByteCount)
+            .setDiskTier(
+                new File(context.getCacheDir(), "cover-art"),
+                MAX_DISK_BYTES,
+                new TwoTierCache.Codec<Bitmap>() {
+                  @Override
+                  public void encode(Bitmap value, OutputStream out) throws IOException {
+                    if (!value.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                      throw new IOException("Could not compress cover art");
+                    }
+                  }
+
+                  @Override
+                  public Bitmap decode(InputStream in) throws IOException {
+                    Bitmap bitmap = BitmapFactory.decodeStream(in);
+                    if (bitmap == null) {
+                      throw new IOException("Corrupt cover art");
+                    }
+                    return bitmap;
+                  }
+                })
+            .setLoadTimeout(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, mTimeoutScheduler)
+            .setIoExecutor(mIoExecutor)
+            .setCallbackExecutor(mMainHandler::post)
+            .build();
+  }
+
+  void setAppRemote(SpotifyAppRemote appRemote) {
+    mAppRemote = appRemote;
+  }
+
+  static String key(ImageUri imageUri, Image.Dimension dimension) {
+    return imageUri.raw + '@' + dimension.name();
+  }
+
+  void get(ImageUri imageUri, Image.Dimension dimension, TwoTierCache.Callback<Bitmap> callback) {
+    mCache.get(key(imageUri, dimension), callback);
+  }
+
+  void onTrimMemory() {
+    mCache.trimMemory();
+    Log.d(TAG, mCache.toString());
+  }
+
+  void shutdown() {
+    mIoExecutor.shutdown();
+    mTimeoutScheduler.shutdownNow();
+  }
+
+  private void loadFromAppRemote(String key, TwoTierCache.Callback<Bitmap> callback) {
+    SpotifyAppRemote appRemote = mAppRemote;
+    if (appRemote == null || !appRemote.isConnected()) {
+      callback.onError(new IllegalStateException("App Remote is not connected"));
+      return;
+    }
+    int separator = key.lastIndexOf('@');
+    ImageUri imageUri = new ImageUri(key.substring(0, separator));
+    Image.Dimension dimension = Image.Dimension.valueOf(key.substring(separator + 1));
+    appRemote
+        .getImagesApi()
+        .getImage(imageUri, dimension)
+        .setResultCallback(callback::onResult)
+        .setErrorCallback(callback::onError);
+    Log.d(TAG, mCache.toString());
+  }
+}
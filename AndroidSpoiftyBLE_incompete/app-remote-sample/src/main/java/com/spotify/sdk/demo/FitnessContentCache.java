@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.spotify.android.appremote.api.ContentApi;
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.protocol.types.ListItem;
+import com.spotify.sdk.demo.browse.BrowseLoader;
+import com.spotify.sdk.demo.cache.TwoTierCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recommended fitness content with every browsable item replaced by its first children, cached in
+ * memory and on disk for a few hours so pre-run playlist selection opens without waiting on the
+ * App Remote, also after a restart. Results are delivered on the main thread.
+ */
+class FitnessContentCache {
+
+  private static final String TAG = FitnessContentCache.class.getSimpleName();
+  private static final String KEY = "recommended-" + ContentApi.ContentType.FITNESS;
+  private static final int CHILDREN_PER_ITEM = 3;
+  private static final int MAX_PARALLEL_CALLS = 3;
+  private static final long CALL_TIMEOUT_SECONDS = 5;
+  // Covers the root call plus a few rounds of child calls.
+  private static final long LOAD_TIMEOUT_SECONDS = 30;
+  private static final long EXPIRE_AFTER_HOURS = 6;
+  private static final long MAX_MEMORY_BYTES = 128 * 1024;
+  private static final long MAX_DISK_BYTES = 256 * 1024;
+  // Rough in-memory size of a ListItem and its strings.
+  private static final int ITEM_BYTES = 512;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Some items could not be expanded. The remaining items are delivered but not cached. */
+  static final class IncompleteContentException extends Exception {
+    final List<ListItem> items;
+
+    IncompleteContentException(List<ListItem> items, int missing) {
+      super(missing + " items could not be expanded");
+      this.items = items;
+    }
+  }
+
+  private final ExecutorService mIoExecutor = Executors.newSingleThreadExecutor();
+  private final ScheduledExecutorService mTimeoutScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final Gson mGson = new Gson();
+  private final BrowseLoader<ListItem> mBrowseLoader;
+  private final TwoTierCache<List<ListItem>> mCache;
+  private volatile SpotifyAppRemote mAppRemote;
+
+  FitnessContentCache(Context context) {
+    mBrowseLoader =
+        new BrowseLoader.Builder<ListItem>()
+            .setSource(new ContentSource())
+            .setMaxParallelism(MAX_PARALLEL_CALLS)
+            .setCallTimeout(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .setScheduler(mTimeoutScheduler)
+            .build();
+    mCache =
+        new TwoTierCache.Builder<List<ListItem>>()
+            .setLoader(this::loadFromAppRemote)
+            .setMemoryTier(MAX_MEMORY_BYTES, items -> items.size() * ITEM_BYTES)
+            .setDiskTier(
+                new File(context.getCacheDir(), "fitness-content"),
+                MAX_DISK_BYTES,
+                new TwoTierCache.Codec<List<ListItem>>() {
+                  @Override
+                  public void encode(List<ListItem> value, OutputStream out) throws IOException {
+                    Writer writer = new OutputStreamWriter(out, UTF_8);
+                    mGson.toJson(value.toArray(new ListItem[0]), writer);
+                    writer.flush();
+                  }
+
+                  @Override
+                  public List<ListItem> decode(InputStream in) throws IOException {
+                    Reader reader = new InputStreamReader(in, UTF_8);
+                    try {
+                      ListItem[] items = mGson.fromJson(reader, ListItem[].class);
+                      if (items == null) {
+                        throw new IOException("Empty fitness content");
+                      }
+                      return Arrays.asList(items);
+                    } catch (JsonParseException e) {
+                      throw new IOException("Corrupt fitness content", e);
+                    }
+                  }
+                })
+            .setExpireAfterWrite(EXPIRE_AFTER_HOURS, TimeUnit.HOURS)
+            .setLoadTimeout(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, mTimeoutScheduler)
+            .setIoExecutor(mIoExecutor)
+            .setCallbackExecutor(mMainHandler::post)
+            .build();
+  }
+
+  void setAppRemote(SpotifyAppRemote appRemote) {
+    mAppRemote = appRemote;
+  }
+
+  void get(TwoTierCache.Callback<List<ListItem>> callback) {
+    mCache.get(KEY, callback);
+  }
+
+  /** Loads the content in the background if it is not cached yet. */
+  void prefetch() {
+    mCache.get(
+        KEY,
+        new TwoTierCache.Callback<List<ListItem>>() {
+          @Override
+          public void onResult(List<ListItem> value) {}
+
+          @Override
+          public void onError(Throwable error) {
+            Log.d(TAG, "Prefetch failed: " + error);
+          }
+        });
+  }
+
+  void shutdown() {
+    Log.d(TAG, mCache + ", " + mBrowseLoader);
+    mIoExecutor.shutdown();
+    mTimeoutScheduler.shutdownNow();
+  }
+
+  private void loadFromAppRemote(String key, TwoTierCache.Callback<List<ListItem>> callback) {
+    mBrowseLoader.load(
+        new BrowseLoader.Listener<ListItem>() {
+          @Override
+          public void onLoaded(List<ListItem> items, int missing) {
+            if (missing == 0) {
+              callback.onResult(items);
+            } else {
+              callback.onError(new IncompleteContentException(items, missing));
+            }
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            callback.onError(error);
+          }
+        });
+  }
+
+  // Throws while disconnected; the loader turns that into a failed call.
+  private ContentApi contentApi() {
+    SpotifyAppRemote appRemote = mAppRemote;
+    if (appRemote == null || !appRemote.isConnected()) {
+      throw new IllegalStateException("App Remote is not connected");
+    }
+    return appRemote.getContentApi();
+  }
+
+  private final class ContentSource implements BrowseLoader.Source<ListItem> {
+
+    @Override
+    public void fetchRoots(BrowseLoader.Callback<ListItem> callback) {
+      contentApi()
+          .getRecommendedContentItems(ContentApi.ContentType.FITNESS)
+          .setResultCallback(listItems -> callback.onResult(Arrays.asList(listItems.items)))
+          .setErrorCallback(callback::onError);
+    }
+
+    @Override
+    public boolean isLeaf(ListItem item) {
+      return item.playable;
+    }
+
+    @Override
+    public void fetchChildren(ListItem parent, BrowseLoader.Callback<ListItem> callback) {
+      contentApi()
+          .getChildrenOfItem(parent, CHILDREN_PER_ITEM, 0)
+          .setResultCallback(listItems -> callback.onResult(Arrays.asList(listItems.items)))
+          .setErrorCallback(callback::onError);
+    }
+  }
+}
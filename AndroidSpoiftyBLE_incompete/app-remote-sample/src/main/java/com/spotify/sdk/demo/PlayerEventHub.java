@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.spotify.android.appremote.api.SpotifyAppRemote;
+import com.spotify.protocol.client.Subscription;
+import com.spotify.protocol.types.Capabilities;
+import com.spotify.protocol.types.PlayerContext;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.sdk.demo.player.ConflatingTopic;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Holds one App Remote subscription each for player state, player context and capabilities, and
+ * shares it between any number of listeners through a {@link ConflatingTopic}.
+ *
+ * <p>Each App Remote subscription is made only while its topic has subscribers and a remote is
+ * attached. Errors are reported on the main thread; the failed topic stays closed until {@link
+ * #retry} is called. Main thread only, except for the topics themselves.
+ */
+class PlayerEventHub {
+
+  private static final String TAG = PlayerEventHub.class.getSimpleName();
+
+  /** Receives App Remote subscription errors on the main thread. */
+  interface ErrorListener {
+    void onError(ConflatingTopic<?> topic, Throwable error);
+  }
+
+  private interface Source<T> {
+    Subscription<T> subscribe(SpotifyAppRemote remote);
+  }
+
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final Executor mMainExecutor = mMainHandler::post;
+  private final ErrorListener mErrorListener;
+
+  private final ConflatingTopic<PlayerState> mPlayerState = new ConflatingTopic<>("playerState");
+  private final ConflatingTopic<PlayerContext> mPlayerContext =
+      new ConflatingTopic<>("playerContext");
+  private final ConflatingTopic<Capabilities> mCapabilities =
+      new ConflatingTopic<>("capabilities");
+
+  private Upstream<PlayerState> mPlayerStateUpstream;
+  private Upstream<PlayerContext> mPlayerContextUpstream;
+  private Upstream<Capabilities> mCapabilitiesUpstream;
+
+  PlayerEventHub(ErrorListener errorListener) {
+    mErrorListener = errorListener;
+  }
+
+  /** Posts to the main thread; for subscribers that touch views. */
+  Executor mainExecutor() {
+    return mMainExecutor;
+  }
+
+  ConflatingTopic<PlayerState> playerState() {
+    return mPlayerState;
+  }
+
+  ConflatingTopic<PlayerContext> playerContext() {
+    return mPlayerContext;
+  }
+
+  ConflatingTopic<Capabilities> capabilities() {
+    return mCapabilities;
+  }
+
+  /** Feeds every topic from {@code remote}, replacing the previous remote. */
+  void attach(SpotifyAppRemote remote) {
+    mPlayerStateUpstream =
+        new Upstream<>(mPlayerState, remote, r -> r.getPlayerApi().subscribeToPlayerState());
+    mPlayerContextUpstream =
+        new Upstream<>(mPlayerContext, remote, r -> r.getPlayerApi().subscribeToPlayerContext());
+    mCapabilitiesUpstream =
+        new Upstream<>(mCapabilities, remote, r -> r.getUserApi().subscribeToCapabilities());
+    mPlayerState.setUpstream(mPlayerStateUpstream);
+    mPlayerContext.setUpstream(mPlayerContextUpstream);
+    mCapabilities.setUpstream(mCapabilitiesUpstream);
+  }
+
+  /**
+   * Cancels every App Remote subscription. Subscribers stay, but are not handed this remote's
+   * values again.
+   */
+  void detach() {
+    mPlayerState.setUpstream(null);
+    mPlayerContext.setUpstream(null);
+    mCapabilities.setUpstream(null);
+    mPlayerStateUpstream = null;
+    mPlayerContextUpstream = null;
+    mCapabilitiesUpstream = null;
+  }
+
+  /** Subscribes again to every topic whose App Remote subscription failed. */
+  void retry() {
+    retry(mPlayerStateUpstream);
+    retry(mPlayerContextUpstream);
+    retry(mCapabilitiesUpstream);
+  }
+
+  private static void retry(Upstream<?> upstream) {
+    if (upstream != null && upstream.mFailed) {
+      upstream.mTopic.reopen();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return mPlayerState + ", " + mPlayerContext + ", " + mCapabilities;
+  }
+
+  private final class Upstream<T> implements ConflatingTopic.Upstream {
+    final ConflatingTopic<T> mTopic;
+    private final SpotifyAppRemote mRemote;
+    private final Source<T> mSource;
+    private Subscription<T> mSubscription;
+    volatile boolean mFailed;
+
+    Upstream(ConflatingTopic<T> topic, SpotifyAppRemote remote, Source<T> source) {
+      mTopic = topic;
+      mRemote = remote;
+      mSource = source;
+    }
+
+    @Override
+    public void open() {
+      mFailed = false;
+      Subscription<T> subscription = mSource.subscribe(mRemote);
+      mSubscription = subscription;
+      subscription
+          .setEventCallback(
+              value -> {
+                // Drop events still in flight when the subscription was cancelled, which would
+                // bring back the latest value of a detached remote.
+                if (mSubscription == subscription) {
+                  mTopic.publish(value);
+                }
+              })
+          .setLifecycleCallback(
+              new Subscription.LifecycleCallback() {
+                @Override
+                public void onStart() {
+                  Log.d(TAG, mTopic.name() + " subscription started");
+                }
+
+                @Override
+                public void onStop() {
+                  Log.d(TAG, mTopic.name() + " subscription ended");
+                }
+              })
+          .setErrorCallback(
+              error -> {
+                // Ignore late errors from a subscription that was already replaced.
+                if (mSubscription == subscription) {
+                  mFailed = true;
+                  mMainHandler.post(() -> mErrorListener.onError(mTopic, error));
+                }
+              });
+    }
+
+    @Override
+    public void close() {
+      if (mSubscription != null && !mSubscription.isCanceled()) {
+        mSubscription.cancel();
+      }
+      mSubscription = null;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo;
+
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.SeekBar;
+
+import androidx.core.content.res.ResourcesCompat;
+import androidx.core.graphics.drawable.DrawableCompat;
+
+import com.spotify.android.appremote.demo.R;
+import com.spotify.protocol.types.PlayerState;
+import com.spotify.protocol.types.Repeat;
+import com.spotify.protocol.types.Track;
+
+import java.util.Locale;
+
+/**
+ * Applies {@link PlayerState} events to the player widgets, touching only the widgets whose
+ * source fields changed since the previous event. Tinted drawables are resolved once up front.
+ * Main thread only.
+ */
+class PlayerStateRenderer {
+
+  /** Receives position and duration updates for the seek bar. */
+  interface ProgressView {
+    void setDuration(long duration);
+
+    /** Re-anchors the progress on an authoritative position and speed. */
+    void sync(long position, float playbackSpeed);
+  }
+
+  private static final int[] SPEED_PERCENT = {50, 80, 100, 120, 150, 200, 300};
+  private static final int[] SPEED_DRAWABLES = {
+    R.drawable.ic_playback_speed_50,
+    R.drawable.ic_playback_speed_80,
+    R.drawable.ic_playback_speed_100,
+    R.drawable.ic_playback_speed_120,
+    R.drawable.ic_playback_speed_150,
+    R.drawable.ic_playback_speed_200,
+    R.drawable.ic_playback_speed_300
+  };
+
+  private final ImageView mShuffleButton;
+  private final ImageView mRepeatButton;
+  private final ImageView mPlayPauseButton;
+  private final ImageView mPlaybackSpeedButton;
+  private final Button mTrackButton;
+  private final SeekBar mSeekBar;
+  private final ProgressView mProgressView;
+
+  private final Drawable mShuffleOn;
+  private final Drawable mShuffleOff;
+  private final Drawable mRepeatAll;
+  private final Drawable mRepeatOne;
+  private final Drawable mRepeatOff;
+
+  private boolean mHasPrevious;
+  private boolean mShuffling;
+  private int mRepeatMode;
+  private boolean mPaused;
+  private float mPlaybackSpeed;
+  private long mPlaybackPosition;
+  private Track mTrack;
+
+  private long mApplied;
+  private long mSkipped;
+
+  PlayerStateRenderer(
+      Resources resources,
+      Resources.Theme theme,
+      ImageView shuffleButton,
+      ImageView repeatButton,
+      ImageView playPauseButton,
+      ImageView playbackSpeedButton,
+      Button trackButton,
+      SeekBar seekBar,
+      ProgressView progressView) {
+    mShuffleButton = shuffleButton;
+    mRepeatButton = repeatButton;
+    mPlayPauseButton = playPauseButton;
+    mPlaybackSpeedButton = playbackSpeedButton;
+    mTrackButton = trackButton;
+    mSeekBar = seekBar;
+    mProgressView = progressView;
+
+    int green = ResourcesCompat.getColor(resources, R.color.cat_medium_green, theme);
+    mShuffleOn = tinted(resources, theme, R.drawable.mediaservice_shuffle, green);
+    mShuffleOff = tinted(resources, theme, R.drawable.mediaservice_shuffle, Color.WHITE);
+    mRepeatAll = tinted(resources, theme, R.drawable.mediaservice_repeat_all, green);
+    mRepeatOne = tinted(resources, theme, R.drawable.mediaservice_repeat_one, green);
+    mRepeatOff = tinted(resources, theme, R.drawable.mediaservice_repeat_off, Color.WHITE);
+  }
+
+  private static Drawable tinted(Resources resources, Resources.Theme theme, int id, int color) {
+    Drawable drawable =
+        DrawableCompat.wrap(ResourcesCompat.getDrawable(resources, id, theme).mutate());
+    DrawableCompat.setTint(drawable, color);
+    return drawable;
+  }
+
+  /** Forgets the previous state so the next event redraws everything. */
+  void reset() {
+    mHasPrevious = false;
+    mTrack = null;
+  }
+
+  void render(PlayerState playerState) {
+    boolean full = !mHasPrevious;
+    mHasPrevious = true;
+
+    boolean shuffling = playerState.playbackOptions.isShuffling;
+    if (full || shuffling != mShuffling) {
+      mShuffling = shuffling;
+      mShuffleButton.setImageDrawable(shuffling ? mShuffleOn : mShuffleOff);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+
+    int repeatMode = playerState.playbackOptions.repeatMode;
+    if (full || repeatMode != mRepeatMode) {
+      mRepeatMode = repeatMode;
+      mRepeatButton.setImageDrawable(
+          repeatMode == Repeat.ALL ? mRepeatAll : repeatMode == Repeat.ONE ? mRepeatOne : mRepeatOff);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+
+    if (full || playerState.isPaused != mPaused) {
+      mPaused = playerState.isPaused;
+      mPlayPauseButton.setImageResource(mPaused ? R.drawable.btn_play : R.drawable.btn_pause);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+
+    boolean speedChanged = full || playerState.playbackSpeed != mPlaybackSpeed;
+    if (speedChanged) {
+      mPlaybackSpeed = playerState.playbackSpeed;
+      renderPlaybackSpeed(full);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+
+    Track track = playerState.track;
+    if (track != null) {
+      // The tag backs the "show PlayerState" dialog, so it always points at the latest state.
+      mTrackButton.setTag(playerState);
+    }
+    if (full || !sameTrack(track, mTrack)) {
+      mTrack = track;
+      renderTrack(track);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+
+    if (track != null
+        && (full || speedChanged || playerState.playbackPosition != mPlaybackPosition)) {
+      mPlaybackPosition = playerState.playbackPosition;
+      mProgressView.sync(mPlaybackPosition, mPlaybackSpeed);
+      mApplied++;
+    } else {
+      mSkipped++;
+    }
+  }
+
+  private void renderPlaybackSpeed(boolean full) {
+    if (full) {
+      mPlaybackSpeedButton.setVisibility(View.VISIBLE);
+    }
+    int percent = Math.round(mPlaybackSpeed * 100);
+    for (int i = 0; i < SPEED_PERCENT.length; i++) {
+      if (SPEED_PERCENT[i] == percent) {
+        mPlaybackSpeedButton.setImageResource(SPEED_DRAWABLES[i]);
+        break;
+      }
+    }
+  }
+
+  private void renderTrack(Track track) {
+    boolean episode = track != null && track.isPodcast && track.isEpisode;
+    mPlaybackSpeedButton.setEnabled(episode);
+    if (episode) {
+      mPlaybackSpeedButton.clearColorFilter();
+    } else {
+      mPlaybackSpeedButton.setColorFilter(Color.GRAY, PorterDuff.Mode.SRC_ATOP);
+    }
+    if (track != null) {
+      mTrackButton.setText(String.format(Locale.US, "%s\n%s", track.name, track.artist.name));
+      mSeekBar.setMax((int) track.duration);
+      mProgressView.setDuration(track.duration);
+    }
+    mSeekBar.setEnabled(true);
+  }
+
+  private static boolean sameTrack(Track a, Track b) {
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null) {
+      return false;
+    }
+    return a.duration == b.duration
+        && a.isEpisode == b.isEpisode
+        && a.isPodcast == b.isPodcast
+        && equal(a.uri, b.uri)
+        && equal(a.name, b.name)
+        && equal(a.artist != null ? a.artist.name : null, b.artist != null ? b.artist.name : null);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /** Widget updates performed. */
+  long applied() {
+    return mApplied;
+  }
+
+  /** Widget updates skipped because the source field did not change. */
+  long skipped() {
+    return mSkipped;
+  }
+}
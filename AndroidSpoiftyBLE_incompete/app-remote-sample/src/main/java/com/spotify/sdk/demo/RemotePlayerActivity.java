@@ -24,33 +24,20 @@ package com.spotify.sdk.demo;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
-import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 
 import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.fragment.app.FragmentActivity;
-import androidx.core.content.res.ResourcesCompat;
-import androidx.core.graphics.drawable.DrawableCompat;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.AppCompatImageButton;
 import androidx.appcompat.widget.AppCompatSeekBar;
@@ -58,6 +45,7 @@ import androidx.appcompat.widget.AppCompatTextView;
 import androidx.appcompat.widget.PopupMenu;
 
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -69,52 +57,141 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.spotify.android.appremote.api.ConnectionParams;
 import com.spotify.android.appremote.api.Connector;
-import com.spotify.android.appremote.api.ContentApi;
 import com.spotify.android.appremote.api.SpotifyAppRemote;
 import com.spotify.android.appremote.demo.R;
 import com.spotify.protocol.client.ErrorCallback;
-import com.spotify.protocol.client.Subscription;
 import com.spotify.protocol.types.Capabilities;
 import com.spotify.protocol.types.Image;
+import com.spotify.protocol.types.ImageUri;
 import com.spotify.protocol.types.ListItem;
 import com.spotify.protocol.types.PlaybackSpeed;
 import com.spotify.protocol.types.PlayerContext;
 import com.spotify.protocol.types.PlayerState;
-import com.spotify.protocol.types.Repeat;
-
+import com.spotify.protocol.types.Track;
+import com.spotify.sdk.demo.ble.ConnectionStateMachine;
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.cache.TwoTierCache;
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureCommandEngine;
+import com.spotify.sdk.demo.gesture.GestureEventQueue;
+import com.spotify.sdk.demo.gesture.GestureSmoother;
+import com.spotify.sdk.demo.metrics.PipelineLatency;
+import com.spotify.sdk.demo.ml.QuantizedModel;
+import com.spotify.sdk.demo.ml.SlidingWindowRecognizer;
+import com.spotify.sdk.demo.ml.StreamingGestureClassifier;
+import com.spotify.sdk.demo.player.CommandCoalescer;
+import com.spotify.sdk.demo.player.ConflatingTopic;
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerStateMirror;
+import com.spotify.sdk.demo.player.TempoMatcher;
+import com.spotify.sdk.demo.player.TrackProgressModel;
+import com.spotify.sdk.demo.sensor.CadenceEstimator;
+import com.spotify.sdk.demo.sensor.EmgOnsetDetector;
+import com.spotify.sdk.demo.sensor.RawSampleReassembler;
+import com.spotify.sdk.demo.sensor.SampleRing;
+import com.spotify.sdk.demo.session.WearableSession;
+import com.spotify.sdk.demo.trace.SessionJournal;
+import com.spotify.sdk.demo.trace.TraceRecorder;
+import com.spotify.sdk.demo.trace.TracingPlayerController;
+import com.spotify.sdk.demo.trace.TracingTransportListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class RemotePlayerActivity extends FragmentActivity {
   // Bluetooth
   BluetoothManager btManager;
   BluetoothAdapter btAdapter = null;
-  BluetoothLeScanner btScanner;
-  BluetoothGatt btGatt;
-  BluetoothGattService btGattservice;
-
-  BluetoothGattCharacteristic valueCharacteristic_read;
+  GestureTransport mGestureTransport;
+  BleConnectionManager mBleConnection;
+  // Optional second wearable; its gestures are fused with the first one's.
+  BleConnectionManager mSecondaryBleConnection;
+  WearableSession mWearableSession;
+  // Trace each wearable under its link index in the session, so a replay can fuse them again.
+  TracingTransportListener mTracingListener;
+  TracingTransportListener mSecondaryTracingListener;
+  // Records the current BLE session; null when not recording.
+  TraceRecorder mTraceRecorder;
+  // Journals player state while App Remote is connected; main thread only, null otherwise.
+  SessionJournal mSessionJournal;
 
-  String strAddress;
-  String strDeviceName;
-
-  // BLE.setLocalName("Demo Gyroscope") of Arduino Nano 33 IoT source Code
-  private final static String TEST_BLE_DEVICE_NAME = "GestureControlForRunners";
   private final static int REQUEST_ENABLE_BT = 1;
   private static final int PERMISSION_REQUEST_COARSE_LOCATION = 1;
   private static final int PERMISSION_REQUEST_FINE_LOCATION = 1;
 
-  private static final UUID UUID_Service = UUID.fromString("66df5109-edde-4f8a-a5e1-02e02a69cbd5");
-  private static final UUID UUID_VALUE_READ = UUID.fromString("741c12b9-e13c-4992-8a5e-fce46dec0bff");
-  private static final UUID UUID_CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-
-  boolean bleScanON = false;
-
-  String bleData = "";
+  private static final int GESTURE_QUEUE_CAPACITY = 64;
+
+  private static final int RAW_FEATURES = 8;
+  // About two seconds at 500 Hz.
+  private static final int RAW_RING_CAPACITY = 1024;
+  // Lost notifications up to this many samples are concealed by repeating the last sample.
+  private static final int RAW_MAX_CONCEALED_SAMPLES = 32;
+  private static final String GESTURE_MODEL_ASSET = "gesture_cnn.bin";
+  private static final String TRACE_DIRECTORY = "traces";
+  private static final String METRICS_DIRECTORY = "metrics";
+  private static final String JOURNAL_DIRECTORY = "sessions";
+  private static final long LATENCY_PANEL_REFRESH_MS = 500;
+  // One raw frame; must stay even so pooled activations can be reused between windows.
+  private static final int RAW_CLASSIFIER_HOP = 14;
+  private static final int RAW_SAMPLE_RATE_HZ = 500;
+  // Features 0 and 1 are the two EMG energies.
+  private static final int RAW_EMG_DOWN = 0;
+  private static final int RAW_EMG_UP = 1;
+  // Features 2 to 4 are the accelerometer axes, normalised as (a + 4) / 8 with a in g.
+  private static final int RAW_ACCEL_X = 2;
+  private static final int RAW_ACCEL_Y = 3;
+  private static final int RAW_ACCEL_Z = 4;
+
+  // Only touched from the primary transport's listener thread.
+  private final RawSampleReassembler mRawSamples =
+      new RawSampleReassembler(
+          new SampleRing(RAW_FEATURES, RAW_RING_CAPACITY), RAW_MAX_CONCEALED_SAMPLES);
+  private final EmgOnsetDetector mOnsetDetector =
+      new EmgOnsetDetector.Builder(RAW_EMG_DOWN, RAW_EMG_UP).setEnergyInput(true).build();
+  private final CadenceEstimator mCadenceEstimator =
+      new CadenceEstimator.Builder(RAW_SAMPLE_RATE_HZ, RAW_ACCEL_X, RAW_ACCEL_Y, RAW_ACCEL_Z)
+          .setFeatureScale(8f, -4f)
+          .build();
+  // Classifies the raw stream on the phone; null if the model could not be loaded.
+  private SlidingWindowRecognizer mRawRecognizer;
+  private int mLastRawClassId = -1;
+
+  private final PipelineLatency mLatency = new PipelineLatency();
+  private final PlayerStateMirror mPlayerStateMirror = new PlayerStateMirror();
+  private final AppRemotePlayerController mPlayerController =
+      new AppRemotePlayerController(mPlayerStateMirror, this::logError, mLatency);
+  // Traces the commands that actually reach the App Remote, after coalescing.
+  private final TracingPlayerController mTracedPlayerController =
+      new TracingPlayerController(mPlayerController);
+  // Gives up on seeks and skips the App Remote never answers; shut down in onDestroy.
+  private final ScheduledExecutorService mCommandTimer =
+      Executors.newSingleThreadScheduledExecutor();
+  // Commands from gestures and from the player buttons go through here, so bursts of seeks and
+  // skips are merged before they reach the App Remote.
+  private final CommandCoalescer mCommandCoalescer =
+      new CommandCoalescer.Builder().setScheduler(mCommandTimer).build(mTracedPlayerController);
+  private final GestureCommandEngine mGestureCommandEngine =
+      GestureCommandEngine.defaults().build(mCommandCoalescer);
+  // Off until the user starts it; fed from the transport thread.
+  private final TempoMatcher mTempoMatcher =
+      new TempoMatcher.Builder().build(mCommandCoalescer);
+  private volatile int mLastGestureId;
+  private volatile boolean mGestureLabelUpdatePending;
+  private volatile long mGestureLabelPostedNanos;
 
   // Spotify
   private static final String TAG = RemotePlayerActivity.class.getSimpleName();
@@ -133,6 +210,8 @@ public class RemotePlayerActivity extends FragmentActivity {
   Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
   TextView bleStatusTv;
+  // Debug readout of the pipeline latency percentiles; toggled by tapping bleStatusTv.
+  TextView mLatencyPanelTv;
 
   Button mBleConnectButton, mBleDisconnectButton;
   Button mConnectButton, mConnectAuthorizeButton;
@@ -140,6 +219,7 @@ public class RemotePlayerActivity extends FragmentActivity {
   Button mPlayerContextButton;
   Button mSubscribeToPlayerStateButton;
   Button mPlayerStateButton;
+  Button mTempoMatchButton;
   ImageView mCoverArtImageView;
   AppCompatTextView mImageLabel;
   AppCompatTextView mImageScaleTypeLabel;
@@ -151,122 +231,61 @@ public class RemotePlayerActivity extends FragmentActivity {
 
   List<View> mViews;
   TrackProgressBar mTrackProgressBar;
+  PlayerStateRenderer mPlayerStateRenderer;
 
-  Subscription<PlayerState> mPlayerStateSubscription;
-  Subscription<PlayerContext> mPlayerContextSubscription;
-  Subscription<Capabilities> mCapabilitiesSubscription;
+  CoverArtCache mCoverArtCache;
+  FitnessContentCache mFitnessContentCache;
+  // Key of the cover art currently shown or being loaded; main thread only.
+  String mCoverArtKey;
 
-  private final ErrorCallback mErrorCallback = this::logError;
+  // One App Remote subscription per event type, shared by the mirror, the journal and the UI.
+  PlayerEventHub mPlayerEvents;
+  // Main thread subscribers, present while the matching panel is subscribed.
+  ConflatingTopic.Subscriber<PlayerState> mPlayerStateUi;
+  ConflatingTopic.Subscriber<PlayerContext> mPlayerContextUi;
+  ConflatingTopic.Subscriber<Capabilities> mCapabilitiesUi;
 
-  private final Subscription.EventCallback<PlayerContext> mPlayerContextEventCallback =
-          new Subscription.EventCallback<PlayerContext>() {
-            @Override
-            public void onEvent(PlayerContext playerContext) {
-              mPlayerContextButton.setText(
-                      String.format(Locale.US, "%s\n%s", playerContext.title, playerContext.subtitle));
-              mPlayerContextButton.setTag(playerContext);
-            }
-          };
-
-  private final Subscription.EventCallback<PlayerState> mPlayerStateEventCallback =
-          new Subscription.EventCallback<PlayerState>() {
-            @Override
-            public void onEvent(PlayerState playerState) {
-
-              Drawable drawable =
-                      ResourcesCompat.getDrawable(
-                              getResources(), R.drawable.mediaservice_shuffle, getTheme());
-              if (!playerState.playbackOptions.isShuffling) {
-                mToggleShuffleButton.setImageDrawable(drawable);
-                DrawableCompat.setTint(mToggleShuffleButton.getDrawable(), Color.WHITE);
-              } else {
-                mToggleShuffleButton.setImageDrawable(drawable);
-                DrawableCompat.setTint(
-                        mToggleShuffleButton.getDrawable(),
-                        getResources().getColor(R.color.cat_medium_green));
-              }
-
-              if (playerState.playbackOptions.repeatMode == Repeat.ALL) {
-                mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_all);
-                DrawableCompat.setTint(
-                        mToggleRepeatButton.getDrawable(),
-                        getResources().getColor(R.color.cat_medium_green));
-              } else if (playerState.playbackOptions.repeatMode == Repeat.ONE) {
-                mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_one);
-                DrawableCompat.setTint(
-                        mToggleRepeatButton.getDrawable(),
-                        getResources().getColor(R.color.cat_medium_green));
-              } else {
-                mToggleRepeatButton.setImageResource(R.drawable.mediaservice_repeat_off);
-                DrawableCompat.setTint(mToggleRepeatButton.getDrawable(), Color.WHITE);
-              }
-
-              if (playerState.track != null) {
-                mPlayerStateButton.setText(
-                        String.format(
-                                Locale.US, "%s\n%s", playerState.track.name, playerState.track.artist.name));
-                mPlayerStateButton.setTag(playerState);
-              }
-              // Update progressbar
-              if (playerState.playbackSpeed > 0) {
-                mTrackProgressBar.unpause();
-              } else {
-                mTrackProgressBar.pause();
-              }
+  private final ErrorCallback mErrorCallback = this::logError;
 
-              // Invalidate play / pause
-              if (playerState.isPaused) {
-                mPlayPauseButton.setImageResource(R.drawable.btn_play);
-              } else {
-                mPlayPauseButton.setImageResource(R.drawable.btn_pause);
-              }
+  // Runs on the thread that delivers App Remote events, so gestures see every state change.
+  private final ConflatingTopic.Listener<PlayerState> mPlayerStateMirrorListener =
+      playerState -> {
+        mPlayerStateMirror.onPlayerState(
+            playerState.isPaused,
+            playerState.playbackOptions.isShuffling,
+            playerState.playbackOptions.repeatMode,
+            System.nanoTime());
+        journalPlayerState(playerState);
+      };
+
+  private final ConflatingTopic.Listener<PlayerContext> mPlayerContextJournalListener =
+      playerContext -> {
+        if (mSessionJournal != null) {
+          mSessionJournal.recordPlayerContext(
+              System.nanoTime(),
+              playerContext.uri,
+              playerContext.title,
+              playerContext.subtitle,
+              playerContext.type);
+        }
+      };
 
-              // Invalidate playback speed
-              mPlaybackSpeedButton.setVisibility(View.VISIBLE);
-              if (playerState.playbackSpeed == 0.5f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_50);
-              } else if (playerState.playbackSpeed == 0.8f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_80);
-              } else if (playerState.playbackSpeed == 1f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_100);
-              } else if (playerState.playbackSpeed == 1.2f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_120);
-              } else if (playerState.playbackSpeed == 1.5f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_150);
-              } else if (playerState.playbackSpeed == 2f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_200);
-              } else if (playerState.playbackSpeed == 3f) {
-                mPlaybackSpeedButton.setImageResource(R.drawable.ic_playback_speed_300);
-              }
-              if (playerState.track != null && playerState.track.isPodcast && playerState.track.isEpisode) {
-                mPlaybackSpeedButton.setEnabled(true);
-                mPlaybackSpeedButton.clearColorFilter();
-              } else {
-                mPlaybackSpeedButton.setEnabled(false);
-                mPlaybackSpeedButton.setColorFilter(Color.GRAY, PorterDuff.Mode.SRC_ATOP);
-              }
+  private final ConflatingTopic.Listener<PlayerState> mPlayerStateUiListener =
+      playerState -> {
+        mPlayerStateRenderer.render(playerState);
 
-              if (playerState.track != null) {
-                // Get image from track
-                mSpotifyAppRemote
-                        .getImagesApi()
-                        .getImage(playerState.track.imageUri, Image.Dimension.LARGE)
-                        .setResultCallback(
-                                bitmap -> {
-                                  mCoverArtImageView.setImageBitmap(bitmap);
-                                  mImageLabel.setText(
-                                          String.format(
-                                                  Locale.ENGLISH, "%d x %d", bitmap.getWidth(), bitmap.getHeight()));
-                                });
-                // Invalidate seekbar length and position
-                mSeekBar.setMax((int) playerState.track.duration);
-                mTrackProgressBar.setDuration(playerState.track.duration);
-                mTrackProgressBar.update(playerState.playbackPosition);
-              }
+        if (playerState.track != null) {
+          // Get image from track
+          showCoverArt(playerState.track.imageUri, Image.Dimension.LARGE);
+        }
+      };
 
-              mSeekBar.setEnabled(true);
-            }
-          };
+  private final ConflatingTopic.Listener<PlayerContext> mPlayerContextUiListener =
+      playerContext -> {
+        mPlayerContextButton.setText(
+            String.format(Locale.US, "%s\n%s", playerContext.title, playerContext.subtitle));
+        mPlayerContextButton.setTag(playerContext);
+      };
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
@@ -275,6 +294,7 @@ public class RemotePlayerActivity extends FragmentActivity {
     setContentView(R.layout.app_remote_layout);
 
     bleStatusTv = findViewById(R.id.ble_status_tv);
+    mLatencyPanelTv = findViewById(R.id.latency_panel_tv);
 
     mBleConnectButton = findViewById(R.id.ble_connect_button);
     mBleDisconnectButton = findViewById(R.id.ble_disconnect_button);
@@ -288,6 +308,7 @@ public class RemotePlayerActivity extends FragmentActivity {
     mPlayerStateButton = findViewById(R.id.current_track_label);
     mSubscribeToPlayerStateButton = findViewById(R.id.subscribe_to_player_state_button);
     mPlaybackSpeedButton = findViewById(R.id.playback_speed_button);
+    mTempoMatchButton = findViewById(R.id.tempo_match_button);
     mToggleRepeatButton = findViewById(R.id.toggle_repeat_button);
     mToggleShuffleButton = findViewById(R.id.toggle_shuffle_button);
     mPlayPauseButton = findViewById(R.id.play_pause_button);
@@ -298,6 +319,20 @@ public class RemotePlayerActivity extends FragmentActivity {
     mSeekBar.getIndeterminateDrawable().setColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP);
 
     mTrackProgressBar = new TrackProgressBar(mSeekBar);
+    mPlayerStateRenderer =
+        new PlayerStateRenderer(
+            getResources(),
+            getTheme(),
+            mToggleShuffleButton,
+            mToggleRepeatButton,
+            mPlayPauseButton,
+            mPlaybackSpeedButton,
+            mPlayerStateButton,
+            mSeekBar,
+            mTrackProgressBar);
+    mCoverArtCache = new CoverArtCache(this);
+    mFitnessContentCache = new FitnessContentCache(this);
+    mRawRecognizer = createRawRecognizer();
 
     mViews =
             Arrays.asList(
@@ -324,6 +359,7 @@ public class RemotePlayerActivity extends FragmentActivity {
                     findViewById(R.id.remove_uri),
                     findViewById(R.id.save_uri),
                     findViewById(R.id.get_fitness_recommended_items_button),
+                    mTempoMatchButton,
                     mSeekBar);
 
     // BLE
@@ -367,6 +403,49 @@ public class RemotePlayerActivity extends FragmentActivity {
       Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
       startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
     }
+    if (btAdapter != null) {
+      Set<String> claimedAddresses = new HashSet<>();
+      AndroidGestureTransport transport =
+          new AndroidGestureTransport(
+              this, btAdapter, 0, claimedAddresses, this::onBleStateChanged);
+      mBleConnection = transport.connection();
+      mGestureTransport = transport;
+      mTracingListener = new TracingTransportListener(0, mTransportListener);
+      mGestureTransport.subscribe(GestureTransport.Channel.RAW_SAMPLES);
+      // Picked up whenever a second wearable is in range; the status line follows the first.
+      AndroidGestureTransport secondary =
+          new AndroidGestureTransport(
+              this,
+              btAdapter,
+              1,
+              claimedAddresses,
+              state -> Log.d(TAG, "secondary wearable " + state));
+      mSecondaryBleConnection = secondary.connection();
+      mSecondaryTracingListener = new TracingTransportListener(1);
+      // Both links are traced; only the primary one feeds the raw sample path.
+      mWearableSession =
+          new WearableSession.Builder()
+              .addDevice("primary", transport, 1f, mTracingListener)
+              .addDevice("secondary", secondary, 1f, mSecondaryTracingListener)
+              .setQueueCapacity(GESTURE_QUEUE_CAPACITY)
+              // Uncertain windows are held back until the evidence is stable.
+              .setSmoothing(new GestureSmoother.Builder())
+              .setLatency(mLatency)
+              .build(mGestureHandler);
+      mWearableSession.start();
+    }
+
+    mPlayerController.setCommandListener(
+        command -> logMessage(getString(R.string.command_feedback, command)));
+    mPlayerController.setSettleListener(mCommandCoalescer::onCommandSettled);
+
+    mPlayerEvents = new PlayerEventHub(this::onPlayerEventError);
+    mPlayerEvents
+        .playerState()
+        .subscribe("mirror", ConflatingTopic.DIRECT, mPlayerStateMirrorListener);
+    mPlayerEvents
+        .playerContext()
+        .subscribe("journal", ConflatingTopic.DIRECT, mPlayerContextJournalListener);
 
     SpotifyAppRemote.setDebugMode(true);
 
@@ -374,13 +453,53 @@ public class RemotePlayerActivity extends FragmentActivity {
     onConnectAndAuthorizedClicked(null);
   }
 
+  @Override
+  protected void onStart() {
+    super.onStart();
+    if (mLatencyPanelTv.getVisibility() == View.VISIBLE) {
+      mRefreshLatencyPanel.run();
+    }
+    mTrackProgressBar.setVisible(true);
+  }
+
   @Override
   protected void onStop() {
     super.onStop();
+    mLatencyPanelTv.removeCallbacks(mRefreshLatencyPanel);
+    mTrackProgressBar.setVisible(false);
+    Log.d(
+        TAG,
+        "PlayerState widget updates: applied="
+            + mPlayerStateRenderer.applied()
+            + ", skipped="
+            + mPlayerStateRenderer.skipped());
+    Log.d(TAG, "player events: " + mPlayerEvents);
     SpotifyAppRemote.disconnect(mSpotifyAppRemote);
     onDisconnected();
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    if (mWearableSession != null) {
+      mWearableSession.disconnect();
+      mWearableSession.stop();
+    }
+    stopTrace();
+    stopJournal();
+    mCoverArtCache.shutdown();
+    mFitnessContentCache.shutdown();
+    mCommandTimer.shutdownNow();
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= TRIM_MEMORY_BACKGROUND) {
+      mCoverArtCache.onTrimMemory();
+    }
+  }
+
   private void onConnected() {
     for (View input : mViews) {
       input.setEnabled(true);
@@ -389,6 +508,7 @@ public class RemotePlayerActivity extends FragmentActivity {
     mConnectButton.setText(R.string.connected);
     mConnectAuthorizeButton.setEnabled(false);
     mConnectAuthorizeButton.setText(R.string.connected);
+    startJournal();
 
     onSubscribedToPlayerStateButtonClicked(null);
     onSubscribedToPlayerContextButtonClicked(null);
@@ -409,7 +529,14 @@ public class RemotePlayerActivity extends FragmentActivity {
     mConnectButton.setText(R.string.connect);
     mConnectAuthorizeButton.setEnabled(true);
     mConnectAuthorizeButton.setText(R.string.authorize);
+    cancelPlayerEventUi();
+    mPlayerEvents.detach();
+    stopJournal();
+    mTempoMatcher.setEnabled(false);
+    mTempoMatchButton.setText(R.string.tempo_match_start);
     mCoverArtImageView.setImageResource(R.drawable.widget_placeholder);
+    mCoverArtKey = null;
+    mPlayerStateRenderer.reset();
     mPlayerContextButton.setText(R.string.title_player_context);
     mPlayerStateButton.setText(R.string.title_current_track);
     mToggleRepeatButton.clearColorFilter();
@@ -422,200 +549,344 @@ public class RemotePlayerActivity extends FragmentActivity {
     mSubscribeToPlayerStateButton.setVisibility(View.VISIBLE);
   }
 
-  private ScanCallback leScanCallback = new ScanCallback() {
-    @SuppressLint("MissingPermission")
-    @Override
-    public void onScanResult(int callbackType, ScanResult result) {
-
-      //strAddress = result.getDevice().getAddress();
-
-
-      if (result.getScanRecord().getDeviceName() == null) {
-        strDeviceName = "Unknown";
-      } else {
-        strDeviceName = result.getScanRecord().getDeviceName();
-      }
-
-
-      if (bleScanON) {
-        if (strDeviceName.equals(TEST_BLE_DEVICE_NAME)) {
-          bleStatusTv.setText("Device Name: " + strDeviceName + "\n");
-          strAddress = result.getDevice().getAddress();
-          stopScanning();
+  // Runs on the primary transport's thread, ahead of the session's gesture decoding.
+  private final GestureTransport.Listener mTransportListener =
+      new GestureTransport.Listener() {
+        @Override
+        public void onConnected() {
+          mRawSamples.reset();
+          mOnsetDetector.reset();
+          mCadenceEstimator.reset();
+        }
 
-          if (btAdapter.isEnabled()) {
-            Toast.makeText(getApplicationContext(), "Stop Scan", Toast.LENGTH_SHORT).show();
-          } else {
-            Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-            startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
+        @Override
+        public void onNotification(
+            GestureTransport.Channel channel, byte[] value, long receivedNanos) {
+          if (channel == GestureTransport.Channel.RAW_SAMPLES && mRawSamples.onFrame(value)) {
+            mOnsetDetector.consume(mRawSamples.ring());
+            if (mCadenceEstimator.consume(mRawSamples.ring()) > 0) {
+              mTempoMatcher.onCadence(mCadenceEstimator.cadence(), System.nanoTime());
+            }
+            if (mRawRecognizer != null) {
+              mRawRecognizer.poll();
+            }
           }
-
-          bleConnect();
-        } else {
-          bleStatusTv.setText("Device not found");
         }
-      }
-      Log.d("LOG ", strAddress + "  : " + strDeviceName);
-    }
-
-  };
 
-  private BluetoothGattCallback connectecallabck = new BluetoothGattCallback() {
-    @SuppressLint("MissingPermission")
-    @Override
-    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-      super.onConnectionStateChange(gatt, status, newState);
-      btGatt = gatt;
-
-      if (newState == BluetoothProfile.STATE_CONNECTED) {
-        gatt.discoverServices(); // onServicesDiscovered() 호출 (서비스 연결 위해 꼭 필요)
-
-      } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-        // Can't see.
-      }
+        @Override
+        public void onDisconnected() {
+          // mBleConnection reconnects on its own.
+        }
+      };
+
+  private SlidingWindowRecognizer createRawRecognizer() {
+    QuantizedModel model;
+    try (InputStream in = getAssets().open(GESTURE_MODEL_ASSET)) {
+      model = QuantizedModel.load(in);
+    } catch (IOException e) {
+      Log.e(TAG, "Gesture model unavailable", e);
+      return null;
     }
+    SlidingWindowRecognizer recognizer =
+        new SlidingWindowRecognizer(
+            new StreamingGestureClassifier(model),
+            mRawSamples.ring(),
+            RAW_CLASSIFIER_HOP,
+            mRawWindowListener);
+    // Only windows that overlap muscle activity are classified.
+    recognizer.setGate((firstSample, endSample) -> mOnsetDetector.wasActiveSince(firstSample));
+    return recognizer;
+  }
 
-    @SuppressLint("MissingPermission")
-    @Override
-    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-      super.onServicesDiscovered(gatt, status);
-
-      BluetoothGattService service = gatt.getService(UUID_Service);
-      valueCharacteristic_read = service.getCharacteristic(UUID_VALUE_READ);
-
-      BluetoothGattDescriptor descriptor = valueCharacteristic_read.getDescriptor(UUID_CLIENT_CHARACTERISTIC_CONFIG);
-      if (descriptor != null) {
-        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        gatt.writeDescriptor(descriptor);
-      }
-      gatt.setCharacteristicNotification(valueCharacteristic_read, true);
+  // Runs on the transport thread. For now the phone-side result is only logged next to the
+  // labels the firmware sends, so both can be compared on the same session.
+  private final SlidingWindowRecognizer.Listener mRawWindowListener =
+      new SlidingWindowRecognizer.Listener() {
+        @Override
+        public void onWindowClassified(int classId, float confidence, long endSample) {
+          if (classId != mLastRawClassId) {
+            mLastRawClassId = classId;
+            Log.d(
+                TAG,
+                String.format(
+                    Locale.US,
+                    "phone classifier: %s (%.2f) at sample %d",
+                    Gesture.fromId(classId).label(),
+                    confidence,
+                    endSample));
+          }
+        }
+      };
 
-//      (RemotePlayerActivity.this).runOnUiThread(new Runnable(){
-//        @Override
-//        public void run() {
-//          btnAllEnable();
-//        }
-//      });
+  // Runs on the WearableSession fusion thread. Arduino sends data only when gesture state is
+  // changed, and fusion keeps it that way.
+  private final GestureEventQueue.Handler mGestureHandler =
+      new GestureEventQueue.Handler() {
+        @Override
+        public void onGestureEvent(
+            int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos) {
+          long pickupNanos = System.nanoTime();
+          mLatency.record(PipelineLatency.Stage.QUEUE_WAIT, pickupNanos - receivedNanos);
+          mLastGestureId = gestureId;
+          if (!mGestureLabelUpdatePending) {
+            mGestureLabelUpdatePending = true;
+            mGestureLabelPostedNanos = pickupNanos;
+            runOnUiThread(mShowGestureRunnable);
+          }
 
-    }
+          mPlayerController.beginGesture(receivedNanos);
+          PlayerCommand command = mGestureCommandEngine.onGesture(gestureId, receivedNanos);
+          mPlayerController.endGesture();
+          if (command != PlayerCommand.NONE) {
+            mLatency.record(PipelineLatency.Stage.DISPATCH, System.nanoTime() - pickupNanos);
+          }
+        }
+      };
 
-    // Arduino sends data only when gesture state is changed.
-    @Override
-    public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-      // The characteristic's value has changed, so you can get it here
-//        byte[] value = characteristic.getValue();
-      // Now you can do something with the value
-      bleData = characteristic.getStringValue(0);
-      (RemotePlayerActivity.this).runOnUiThread(new Runnable() {
+  // Shows the most recent gesture; bursts of events collapse into a single UI update.
+  private final Runnable mShowGestureRunnable =
+      new Runnable() {
         @Override
         public void run() {
-          bleStatusTv.setText("Read value :" + bleData);
+          mGestureLabelUpdatePending = false;
+          bleStatusTv.setText("Read value :" + Gesture.fromId(mLastGestureId).label());
+          mLatency.record(
+              PipelineLatency.Stage.UI, System.nanoTime() - mGestureLabelPostedNanos);
         }
-      });
-
-      switch (bleData) {
-        case "palm_left":
-          // define action here
-          break;
-        case "palm_right":
-          // define something here
-          break;
-        case "palm_up":
-          // define something here
-          break;
-        case "palm_down":
-          // define something here
-          break;
-        case "palm_center":
-          // define action here
-          break;
-        case "fist_left":
-          // do
-          break;
-        case "fist_right":
-          // dodo
-          break;
-        case "fist_up":
-          // dodosomething
-          break;
-        case "fist_down":
-          // dojo
-          break;
-        case "fist_center":
-          // doo
-          break;
-        default: // "idle" or other values
-          break;
-      }
+      };
+
+  public void onBleStatusClicked(View view) {
+    boolean show = mLatencyPanelTv.getVisibility() != View.VISIBLE;
+    mLatencyPanelTv.setVisibility(show ? View.VISIBLE : View.GONE);
+    mLatencyPanelTv.removeCallbacks(mRefreshLatencyPanel);
+    if (show) {
+      mRefreshLatencyPanel.run();
     }
-  };
-
-  @SuppressLint("MissingPermission")
-  public void startScanning() {
-    bleScanON = true;
-    btScanner.startScan(leScanCallback);
-    mBleConnectButton.setEnabled(false);
-
   }
 
-  @SuppressLint("MissingPermission")
-  public void stopScanning() {
-    bleScanON = false;
-    btScanner.stopScan(leScanCallback);
-  }
+  private final Runnable mRefreshLatencyPanel =
+      new Runnable() {
+        @Override
+        public void run() {
+          mLatencyPanelTv.setText(mLatency.summary());
+          mLatencyPanelTv.postDelayed(this, LATENCY_PANEL_REFRESH_MS);
+        }
+      };
 
-  @SuppressLint("MissingPermission")
-  private void bleScanAndConnect() {
-    if (btAdapter.isEnabled()) {
-      Toast.makeText(getApplicationContext(), "Scan Device ... ", Toast.LENGTH_SHORT).show();
-      btScanner = btAdapter.getBluetoothLeScanner();
+  // Writes the session's latency buckets next to its trace.
+  private void exportLatency() {
+    File dir = getExternalFilesDir(METRICS_DIRECTORY);
+    if (dir == null) {
+      dir = new File(getFilesDir(), METRICS_DIRECTORY);
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      Log.w(TAG, "Could not create " + dir);
+      return;
+    }
+    File file =
+        new File(
+            dir,
+            new SimpleDateFormat("'latency-'yyyyMMdd-HHmmss'.csv'", Locale.US).format(new Date()));
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+      mLatency.writeCsv(out);
+    } catch (IOException e) {
+      Log.w(TAG, "Could not export latency histograms", e);
+      return;
+    }
+    Log.d(TAG, "Latency histograms written to " + file + "\n" + mLatency.summary());
+  }
 
-      startScanning();
-    } else {
+  private void bleConnect() {
+    if (mBleConnection == null) {
+      bleStatusTv.setText("Bluetooth is not available");
+      return;
+    }
+    if (!btAdapter.isEnabled()) {
       Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
       startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
+      return;
     }
-    mBleConnectButton.setEnabled(false);
+    startTrace();
+    mLatency.reset();
+    mWearableSession.connect();
   }
 
+  // Every BLE session is traced to its own file, for replay with TraceReplayer. The recorder's
+  // writer opens, writes and closes the file off this thread.
+  private void startTrace() {
+    stopTrace();
+    File dir = getExternalFilesDir(TRACE_DIRECTORY);
+    if (dir == null) {
+      dir = new File(getFilesDir(), TRACE_DIRECTORY);
+    }
+    String name =
+        new SimpleDateFormat("'session-'yyyyMMdd-HHmmss'.trace'", Locale.US).format(new Date());
+    mTraceRecorder = TraceRecorder.start(new File(dir, name));
+    mTracingListener.setRecorder(mTraceRecorder);
+    mSecondaryTracingListener.setRecorder(mTraceRecorder);
+    mTracedPlayerController.setRecorder(mTraceRecorder);
+  }
 
-  @SuppressLint("MissingPermission")
-  public void bleConnect()
-  {
-    if(strDeviceName != null) {
-      if (strDeviceName.equals(TEST_BLE_DEVICE_NAME) ) {
-      bleStatusTv.setText("BLE device connected");
-      BluetoothDevice device = btAdapter.getRemoteDevice(strAddress);
-      device.connectGatt(getApplicationContext(),false,connectecallabck);
+  private void stopTrace() {
+    if (mTraceRecorder == null) {
+      return;
+    }
+    mTracingListener.setRecorder(null);
+    mSecondaryTracingListener.setRecorder(null);
+    mTracedPlayerController.setRecorder(null);
+    mTraceRecorder.close();
+    Log.d(TAG, "trace: " + mTraceRecorder);
+    mTraceRecorder = null;
+  }
 
-      mBleConnectButton.setEnabled(false);
-      mBleDisconnectButton.setEnabled(true);
+  // Each App Remote connection gets its own journal; the writer opens the file off this thread.
+  private void startJournal() {
+    stopJournal();
+    File dir = getExternalFilesDir(JOURNAL_DIRECTORY);
+    if (dir == null) {
+      dir = new File(getFilesDir(), JOURNAL_DIRECTORY);
+    }
+    String name =
+        new SimpleDateFormat("'session-'yyyyMMdd-HHmmss'.journal'", Locale.US).format(new Date());
+    mSessionJournal = SessionJournal.start(new File(dir, name));
+  }
 
-    } else {
-      Toast.makeText(getApplicationContext(),"device not found",Toast.LENGTH_SHORT).show();
-      bleStatusTv.setText("BLE device not found");
+  private void stopJournal() {
+    if (mSessionJournal == null) {
+      return;
     }
-    } else {
-      bleStatusTv.setText("Can't detect the device!!");
-      mBleConnectButton.setEnabled(true);
-      mBleDisconnectButton.setEnabled(false);
+    // Does not wait for the writer; drops and backpressure are final once closed.
+    mSessionJournal.close();
+    Log.d(TAG, "journal: " + mSessionJournal);
+    mSessionJournal = null;
+  }
+
+  private void journalPlayerState(PlayerState playerState) {
+    if (mSessionJournal == null) {
+      return;
     }
+    Track track = playerState.track;
+    mSessionJournal.recordPlayerState(
+        System.nanoTime(),
+        track != null ? track.uri : null,
+        track != null ? track.name : null,
+        track != null && track.artist != null ? track.artist.name : null,
+        playerState.isPaused,
+        playerState.playbackOptions.isShuffling,
+        playerState.playbackOptions.repeatMode,
+        playerState.playbackPosition,
+        track != null ? track.duration : 0,
+        playerState.playbackSpeed);
+  }
 
-    //btnAllEnable();
+  // Main thread.
+  private void onBleStateChanged(ConnectionStateMachine.State state) {
+    switch (state) {
+      case IDLE:
+        bleStatusTv.setText("No BLE device connected");
+        break;
+      case CONNECTING_DIRECT:
+        bleStatusTv.setText("Reconnecting to " + mBleConnection.stateMachine().address());
+        break;
+      case SCANNING:
+        bleStatusTv.setText("Scanning for the wearable...");
+        break;
+      case CONNECTING_SCANNED:
+        bleStatusTv.setText("Connecting...");
+        break;
+      case CONNECTED:
+        bleStatusTv.setText("BLE device connected");
+        break;
+      case BACKOFF:
+        bleStatusTv.setText("Wearable not found, retrying");
+        break;
+    }
+    mBleConnectButton.setEnabled(state == ConnectionStateMachine.State.IDLE);
+    mBleDisconnectButton.setEnabled(state != ConnectionStateMachine.State.IDLE);
   }
 
   @SuppressLint("MissingPermission")
   public void bleDisconnect()
   {
-    if(btGatt != null) {
-      btGatt.disconnect();
-      btGatt.close();
+    if (mBleConnection != null
+        && mBleConnection.state() != ConnectionStateMachine.State.IDLE) {
+      mWearableSession.disconnect();
+      stopTrace();
+      exportLatency();
+      ConnectionStateMachine connection = mBleConnection.stateMachine();
+      Log.d(
+          TAG,
+          String.format(
+              Locale.US,
+              "ble: attempts=%d direct=%d scanned=%d failed=%d drops=%d, %s, %s",
+              connection.attempts(),
+              connection.directConnects(),
+              connection.scanConnects(),
+              connection.failedAttempts(),
+              connection.drops(),
+              connection.connectStats(),
+              connection.reconnectStats()));
+      Log.d(
+          TAG,
+          "secondary ble: attempts="
+              + mSecondaryBleConnection.stateMachine().attempts()
+              + " drops="
+              + mSecondaryBleConnection.stateMachine().drops()
+              + ", "
+              + mWearableSession);
+      Log.d(
+          TAG,
+          String.format(
+              Locale.US,
+              "raw samples: received=%d concealed=%d lost=%d stale=%d resyncs=%d malformed=%d",
+              mRawSamples.samples(),
+              mRawSamples.concealedSamples(),
+              mRawSamples.lostSamples(),
+              mRawSamples.staleSamples(),
+              mRawSamples.resyncs(),
+              mRawSamples.malformedFrames()));
+      double minutes = mOnsetDetector.samples() / (60.0 * RAW_SAMPLE_RATE_HZ);
+      Log.d(
+          TAG,
+          String.format(
+              Locale.US,
+              "emg onsets: %d (%.1f/min), active %.1f%% of %d samples",
+              mOnsetDetector.onsets(),
+              minutes > 0 ? mOnsetDetector.onsets() / minutes : 0.0,
+              mOnsetDetector.samples() > 0
+                  ? 100.0 * mOnsetDetector.activeSamples() / mOnsetDetector.samples()
+                  : 0.0,
+              mOnsetDetector.samples()));
+      if (mRawRecognizer != null) {
+        long due = mRawRecognizer.classified() + mRawRecognizer.gated();
+        Log.d(
+            TAG,
+            String.format(
+                Locale.US,
+                "raw windows: classified=%d gated=%d (%.0f%% saved) skipped=%d"
+                    + " discontinuous=%d overrun=%d, %s",
+                mRawRecognizer.classified(),
+                mRawRecognizer.gated(),
+                due > 0 ? 100.0 * mRawRecognizer.gated() / due : 0.0,
+                mRawRecognizer.skipped(),
+                mRawRecognizer.discontinuous(),
+                mRawRecognizer.overrun(),
+                mRawRecognizer.inferenceStats()));
+      }
+      Log.d(
+          TAG,
+          String.format(
+              Locale.US,
+              "cadence: %.1f spm, estimates=%d missed=%d skipped=%d, %s",
+              mCadenceEstimator.cadence(),
+              mCadenceEstimator.estimates(),
+              mCadenceEstimator.missedEstimates(),
+              mCadenceEstimator.skippedSamples(),
+              mTempoMatcher));
+      Log.d(TAG, mCommandCoalescer.toString());
 
       if(btAdapter.isEnabled()){
         Toast.makeText(getApplicationContext(),"Disconnected the BLE device.", Toast.LENGTH_SHORT).show();
-        bleStatusTv.setText("No BLE device connected");
-        mBleConnectButton.setEnabled(true);
-        mBleDisconnectButton.setEnabled(false);
       }
       else
       {
@@ -631,7 +902,7 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   public void onBleConnectClicked(View v) {
-    bleScanAndConnect();  // scan and connect
+    bleConnect();
   }
 
   public void onBleDisconnectClicked(View v) {
@@ -662,6 +933,12 @@ public class RemotePlayerActivity extends FragmentActivity {
           @Override
           public void onConnected(SpotifyAppRemote spotifyAppRemote) {
             mSpotifyAppRemote = spotifyAppRemote;
+            mPlayerController.setAppRemote(spotifyAppRemote);
+            mCommandCoalescer.reset();
+            mCoverArtCache.setAppRemote(spotifyAppRemote);
+            mFitnessContentCache.setAppRemote(spotifyAppRemote);
+            mFitnessContentCache.prefetch();
+            mPlayerEvents.attach(spotifyAppRemote);
             RemotePlayerActivity.this.onConnected();
           }
 
@@ -697,20 +974,8 @@ public class RemotePlayerActivity extends FragmentActivity {
 
                 menu.setOnMenuItemClickListener(
                     item -> {
-                      mSpotifyAppRemote
-                          .getImagesApi()
-                          .getImage(
-                              playerState.track.imageUri, Image.Dimension.values()[item.getOrder()])
-                          .setResultCallback(
-                              bitmap -> {
-                                mCoverArtImageView.setImageBitmap(bitmap);
-                                mImageLabel.setText(
-                                    String.format(
-                                        Locale.ENGLISH,
-                                        "%d x %d",
-                                        bitmap.getWidth(),
-                                        bitmap.getHeight()));
-                              });
+                      showCoverArt(
+                          playerState.track.imageUri, Image.Dimension.values()[item.getOrder()]);
                       return false;
                     });
               })
@@ -718,6 +983,38 @@ public class RemotePlayerActivity extends FragmentActivity {
     }
   }
 
+  private void showCoverArt(ImageUri imageUri, Image.Dimension dimension) {
+    String key = CoverArtCache.key(imageUri, dimension);
+    if (key.equals(mCoverArtKey)) {
+      return;
+    }
+    mCoverArtKey = key;
+    mCoverArtCache.get(
+        imageUri,
+        dimension,
+        new TwoTierCache.Callback<Bitmap>() {
+          @Override
+          public void onResult(Bitmap bitmap) {
+            // A newer track may have been requested while this one was loading.
+            if (!key.equals(mCoverArtKey)) {
+              return;
+            }
+            mCoverArtImageView.setImageBitmap(bitmap);
+            mImageLabel.setText(
+                String.format(
+                    Locale.ENGLISH, "%d x %d", bitmap.getWidth(), bitmap.getHeight()));
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            if (key.equals(mCoverArtKey)) {
+              mCoverArtKey = null;
+            }
+            logError(error);
+          }
+        });
+  }
+
   public void onImageScaleTypeClicked(View view) {
     if (mSpotifyAppRemote != null) {
       mSpotifyAppRemote
@@ -791,110 +1088,50 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   public void onToggleShuffleButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .toggleShuffle()
-        .setResultCallback(
-            empty -> logMessage(getString(R.string.command_feedback, "toggle shuffle")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.toggleShuffle();
   }
 
   public void onToggleRepeatButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .toggleRepeat()
-        .setResultCallback(
-            empty -> logMessage(getString(R.string.command_feedback, "toggle repeat")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.toggleRepeat();
   }
 
   public void onSkipPreviousButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .skipPrevious()
-        .setResultCallback(
-            empty -> logMessage(getString(R.string.command_feedback, "skip previous")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.skipPrevious();
   }
 
   public void onPlayPauseButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .getPlayerState()
-        .setResultCallback(
-            playerState -> {
-              if (playerState.isPaused) {
-                mSpotifyAppRemote
-                    .getPlayerApi()
-                    .resume()
-                    .setResultCallback(
-                        empty -> logMessage(getString(R.string.command_feedback, "play")))
-                    .setErrorCallback(mErrorCallback);
-              } else {
-                mSpotifyAppRemote
-                    .getPlayerApi()
-                    .pause()
-                    .setResultCallback(
-                        empty -> logMessage(getString(R.string.command_feedback, "pause")))
-                    .setErrorCallback(mErrorCallback);
-              }
-            });
+    mCommandCoalescer.togglePlayPause();
   }
 
   public void onSkipNextButtonClicked(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .skipNext()
-        .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "skip next")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.skipNext();
   }
 
   public void onSeekBack(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .seekToRelativePosition(-15000)
-        .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "seek back")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.seekToRelativePosition(-GestureCommandEngine.DEFAULT_SEEK_MS);
   }
 
   public void onSeekForward(View view) {
-    mSpotifyAppRemote
-        .getPlayerApi()
-        .seekToRelativePosition(15000)
-        .setResultCallback(data -> logMessage(getString(R.string.command_feedback, "seek fwd")))
-        .setErrorCallback(mErrorCallback);
+    mCommandCoalescer.seekToRelativePosition(GestureCommandEngine.DEFAULT_SEEK_MS);
   }
 
   public void onSubscribeToCapabilitiesClicked(View view) {
-
-    if (mCapabilitiesSubscription != null && !mCapabilitiesSubscription.isCanceled()) {
-      mCapabilitiesSubscription.cancel();
-      mCapabilitiesSubscription = null;
+    if (mCapabilitiesUi != null) {
+      mCapabilitiesUi.cancel();
     }
-
-    mCapabilitiesSubscription =
-        (Subscription<Capabilities>)
-            mSpotifyAppRemote
-                .getUserApi()
-                .subscribeToCapabilities()
-                .setEventCallback(
-                    capabilities ->
-                        logMessage(
-                            getString(
-                                R.string.on_demand_feedback,
-                                    capabilities.canPlayOnDemand)))
-                .setErrorCallback(mErrorCallback);
-
-    mSpotifyAppRemote
-        .getUserApi()
-        .getCapabilities()
-        .setResultCallback(
-            capabilities ->
-                logMessage(
-                    getString(
-                        R.string.on_demand_feedback,
-                            capabilities.canPlayOnDemand)))
-        .setErrorCallback(mErrorCallback);
+    mPlayerEvents.retry();
+
+    // The first subscriber opens the App Remote subscription, which starts with the current
+    // value; later ones are handed the latest value straight away.
+    mCapabilitiesUi =
+        mPlayerEvents
+            .capabilities()
+            .subscribe(
+                "capabilities ui",
+                mPlayerEvents.mainExecutor(),
+                capabilities ->
+                    logMessage(
+                        getString(R.string.on_demand_feedback, capabilities.canPlayOnDemand)));
   }
 
   public void onGetCollectionStateClicked(View view) {
@@ -928,40 +1165,75 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   public void onGetFitnessRecommendedContentItemsClicked(View view) {
-    mSpotifyAppRemote
-        .getContentApi()
-        .getRecommendedContentItems(ContentApi.ContentType.FITNESS)
-        .setResultCallback(
-            listItems -> {
-              final CountDownLatch latch = new CountDownLatch(listItems.items.length);
-              final List<ListItem> combined = new ArrayList<>(50);
-              for (int j = 0; j < listItems.items.length; j++) {
-                if (listItems.items[j].playable) {
-                  combined.add(listItems.items[j]);
-                  handleLatch(latch, combined);
-                } else {
-                  mSpotifyAppRemote
-                      .getContentApi()
-                      .getChildrenOfItem(listItems.items[j], 3, 0)
-                      .setResultCallback(
-                          childListItems -> {
-                            combined.addAll(Arrays.asList(childListItems.items));
-                            handleLatch(latch, combined);
-                          })
-                      .setErrorCallback(mErrorCallback);
-                }
-              }
-            })
-        .setErrorCallback(mErrorCallback);
+    mFitnessContentCache.get(
+        new TwoTierCache.Callback<List<ListItem>>() {
+          @Override
+          public void onResult(List<ListItem> items) {
+            showBrowseContent(items);
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            if (error instanceof FitnessContentCache.IncompleteContentException) {
+              Log.w(TAG, error.getMessage());
+              showBrowseContent(((FitnessContentCache.IncompleteContentException) error).items);
+            } else {
+              logError(error);
+            }
+          }
+        });
+  }
+
+  // Matching picks from the fitness content whose titles carry a tempo, e.g. "Running 160 BPM".
+  public void onTempoMatchClicked(View view) {
+    if (mTempoMatcher.isEnabled()) {
+      mTempoMatcher.setEnabled(false);
+      mTempoMatchButton.setText(R.string.tempo_match_start);
+      return;
+    }
+    mFitnessContentCache.get(
+        new TwoTierCache.Callback<List<ListItem>>() {
+          @Override
+          public void onResult(List<ListItem> items) {
+            startTempoMatching(items);
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            if (error instanceof FitnessContentCache.IncompleteContentException) {
+              startTempoMatching(((FitnessContentCache.IncompleteContentException) error).items);
+            } else {
+              logError(error);
+            }
+          }
+        });
   }
 
-  private void handleLatch(CountDownLatch latch, List<ListItem> combined) {
-    latch.countDown();
-    if (latch.getCount() == 0) {
-      showDialog(
-          getString(R.string.command_response, getString(R.string.browse_content)),
-          gson.toJson(combined));
+  private void startTempoMatching(List<ListItem> items) {
+    List<TempoMatcher.Candidate> candidates = new ArrayList<>();
+    for (ListItem item : items) {
+      float bpm = TempoMatcher.parseTempo(item.title);
+      if (bpm == 0) {
+        bpm = TempoMatcher.parseTempo(item.subtitle);
+      }
+      if (item.playable && bpm > 0) {
+        candidates.add(new TempoMatcher.Candidate(item.uri, bpm));
+      }
+    }
+    if (candidates.isEmpty()) {
+      logMessage(getString(R.string.tempo_match_no_content));
+      return;
     }
+    mTempoMatcher.setCandidates(candidates);
+    mTempoMatcher.setEnabled(true);
+    mTempoMatchButton.setText(R.string.tempo_match_stop);
+    logMessage(getString(R.string.tempo_match_started, candidates.size()));
+  }
+
+  private void showBrowseContent(List<ListItem> items) {
+    showDialog(
+        getString(R.string.command_response, getString(R.string.browse_content)),
+        gson.toJson(items));
   }
 
   public void onConnectSwitchToLocalClicked(View view) {
@@ -977,62 +1249,59 @@ public class RemotePlayerActivity extends FragmentActivity {
   }
 
   public void onSubscribedToPlayerContextButtonClicked(View view) {
-    if (mPlayerContextSubscription != null && !mPlayerContextSubscription.isCanceled()) {
-      mPlayerContextSubscription.cancel();
-      mPlayerContextSubscription = null;
+    if (mPlayerContextUi != null) {
+      mPlayerContextUi.cancel();
     }
+    mPlayerEvents.retry();
 
     mPlayerContextButton.setVisibility(View.VISIBLE);
     mSubscribeToPlayerContextButton.setVisibility(View.INVISIBLE);
 
-    mPlayerContextSubscription =
-        (Subscription<PlayerContext>)
-            mSpotifyAppRemote
-                .getPlayerApi()
-                .subscribeToPlayerContext()
-                .setEventCallback(mPlayerContextEventCallback)
-                .setErrorCallback(
-                    throwable -> {
-                      mPlayerContextButton.setVisibility(View.INVISIBLE);
-                      mSubscribeToPlayerContextButton.setVisibility(View.VISIBLE);
-                      logError(throwable);
-                    });
+    mPlayerContextUi =
+        mPlayerEvents
+            .playerContext()
+            .subscribe("context ui", mPlayerEvents.mainExecutor(), mPlayerContextUiListener);
   }
 
   public void onSubscribedToPlayerStateButtonClicked(View view) {
-
-    if (mPlayerStateSubscription != null && !mPlayerStateSubscription.isCanceled()) {
-      mPlayerStateSubscription.cancel();
-      mPlayerStateSubscription = null;
+    if (mPlayerStateUi != null) {
+      mPlayerStateUi.cancel();
     }
+    mPlayerEvents.retry();
 
     mPlayerStateButton.setVisibility(View.VISIBLE);
     mSubscribeToPlayerStateButton.setVisibility(View.INVISIBLE);
 
-    mPlayerStateSubscription =
-        (Subscription<PlayerState>)
-            mSpotifyAppRemote
-                .getPlayerApi()
-                .subscribeToPlayerState()
-                .setEventCallback(mPlayerStateEventCallback)
-                .setLifecycleCallback(
-                    new Subscription.LifecycleCallback() {
-                      @Override
-                      public void onStart() {
-                        logMessage("Event: start");
-                      }
-
-                      @Override
-                      public void onStop() {
-                        logMessage("Event: end");
-                      }
-                    })
-                .setErrorCallback(
-                    throwable -> {
-                      mPlayerStateButton.setVisibility(View.INVISIBLE);
-                      mSubscribeToPlayerStateButton.setVisibility(View.VISIBLE);
-                      logError(throwable);
-                    });
+    mPlayerStateUi =
+        mPlayerEvents
+            .playerState()
+            .subscribe("state ui", mPlayerEvents.mainExecutor(), mPlayerStateUiListener);
+  }
+
+  private void onPlayerEventError(ConflatingTopic<?> topic, Throwable error) {
+    if (topic == mPlayerEvents.playerState()) {
+      mPlayerStateButton.setVisibility(View.INVISIBLE);
+      mSubscribeToPlayerStateButton.setVisibility(View.VISIBLE);
+    } else if (topic == mPlayerEvents.playerContext()) {
+      mPlayerContextButton.setVisibility(View.INVISIBLE);
+      mSubscribeToPlayerContextButton.setVisibility(View.VISIBLE);
+    }
+    logError(error);
+  }
+
+  private void cancelPlayerEventUi() {
+    if (mPlayerStateUi != null) {
+      mPlayerStateUi.cancel();
+      mPlayerStateUi = null;
+    }
+    if (mPlayerContextUi != null) {
+      mPlayerContextUi.cancel();
+      mPlayerContextUi = null;
+    }
+    if (mCapabilitiesUi != null) {
+      mCapabilitiesUi.cancel();
+      mCapabilitiesUi = null;
+    }
   }
 
   private void logError(Throwable throwable) {
@@ -1082,11 +1351,19 @@ public class RemotePlayerActivity extends FragmentActivity {
         });
   }
 
-  private class TrackProgressBar {
+  /**
+   * Drives the seek bar from a {@link TrackProgressModel}. While visible and playing it redraws
+   * once per display frame; while hidden or paused no callback is scheduled.
+   */
+  private class TrackProgressBar implements PlayerStateRenderer.ProgressView {
 
-    private static final int LOOP_DURATION = 500;
     private final SeekBar mSeekBar;
-    private final Handler mHandler;
+    private final TrackProgressModel mModel = new TrackProgressModel();
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private boolean mVisible;
+    private boolean mFrameScheduled;
+    private boolean mUserSeeking;
 
     private final SeekBar.OnSeekBarChangeListener mSeekBarChangeListener =
         new SeekBar.OnSeekBarChangeListener() {
@@ -1094,10 +1371,14 @@ public class RemotePlayerActivity extends FragmentActivity {
           public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {}
 
           @Override
-          public void onStartTrackingTouch(SeekBar seekBar) {}
+          public void onStartTrackingTouch(SeekBar seekBar) {
+            mUserSeeking = true;
+          }
 
           @Override
           public void onStopTrackingTouch(SeekBar seekBar) {
+            mUserSeeking = false;
+            mModel.seekTo(seekBar.getProgress(), System.nanoTime());
             mSpotifyAppRemote
                 .getPlayerApi()
                 .seekTo(seekBar.getProgress())
@@ -1105,37 +1386,56 @@ public class RemotePlayerActivity extends FragmentActivity {
           }
         };
 
-    private final Runnable mSeekRunnable =
-        new Runnable() {
+    private final Choreographer.FrameCallback mFrameCallback =
+        new Choreographer.FrameCallback() {
           @Override
-          public void run() {
-            int progress = mSeekBar.getProgress();
-            mSeekBar.setProgress(progress + LOOP_DURATION);
-            mHandler.postDelayed(mSeekRunnable, LOOP_DURATION);
+          public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            if (!mUserSeeking) {
+              int progress = (int) mModel.positionAt(frameTimeNanos);
+              if (progress != mSeekBar.getProgress()) {
+                mSeekBar.setProgress(progress);
+              }
+            }
+            scheduleFrame();
           }
         };
 
     private TrackProgressBar(SeekBar seekBar) {
       mSeekBar = seekBar;
       mSeekBar.setOnSeekBarChangeListener(mSeekBarChangeListener);
-      mHandler = new Handler();
     }
 
-    private void setDuration(long duration) {
+    @Override
+    public void setDuration(long duration) {
+      mModel.setDuration(duration);
       mSeekBar.setMax((int) duration);
     }
 
-    private void update(long progress) {
-      mSeekBar.setProgress((int) progress);
+    @Override
+    public void sync(long position, float playbackSpeed) {
+      mModel.sync(position, playbackSpeed, System.nanoTime());
+      if (!mUserSeeking) {
+        mSeekBar.setProgress((int) position);
+      }
+      scheduleFrame();
     }
 
-    private void pause() {
-      mHandler.removeCallbacks(mSeekRunnable);
+    private void setVisible(boolean visible) {
+      mVisible = visible;
+      if (visible) {
+        scheduleFrame();
+      } else if (mFrameScheduled) {
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mFrameScheduled = false;
+      }
     }
 
-    private void unpause() {
-      mHandler.removeCallbacks(mSeekRunnable);
-      mHandler.postDelayed(mSeekRunnable, LOOP_DURATION);
+    private void scheduleFrame() {
+      if (mVisible && mModel.isAdvancing() && !mFrameScheduled) {
+        mFrameScheduled = true;
+        mChoreographer.postFrameCallback(mFrameCallback);
+      }
     }
   }
 }
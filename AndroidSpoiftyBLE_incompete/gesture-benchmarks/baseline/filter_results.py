@@ -0,0 +1,114 @@
+#!/usr/bin/env python3
+# Copyright (c) 2018 Spotify AB
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+"""Turns a JMH JSON result file into the baseline table, keeping only rows precise enough to
+compare against.
+
+A row whose 99.9% confidence interval is wider than --max-error percent of its score is listed
+under "Rejected" instead, so a noisy run cannot pass for a baseline. Secondary metrics, such as
+the per-thread scores of a group benchmark, are judged on their own.
+
+Usage: filter_results.py [--max-error=5] results.json > results.txt
+"""
+
+import json
+import sys
+
+
+def rows(results):
+  for result in results:
+    params = result.get('params', {})
+    metrics = [(result['benchmark'], result['primaryMetric'])]
+    for name, metric in sorted(result.get('secondaryMetrics', {}).items()):
+      metrics.append(('%s:%s' % (result['benchmark'], name), metric))
+    for name, metric in metrics:
+      yield {
+          'name': name.replace('com.spotify.sdk.demo.benchmarks.', ''),
+          'params': params,
+          'mode': result['mode'],
+          'count': len(metric.get('rawData', [[]])) * len(metric.get('rawData', [[]])[0]),
+          'score': metric['score'],
+          'error': metric['scoreError'],
+          'unit': metric['scoreUnit'],
+      }
+
+
+def relative_error(row):
+  if row['error'] != row['error']:  # NaN: too few samples for an interval.
+    return float('inf')
+  return 100.0 * row['error'] / abs(row['score']) if row['score'] else float('inf')
+
+
+def table(selected, with_relative):
+  keys = sorted({k for row in selected for k in row['params']})
+  header = ['Benchmark'] + ['(%s)' % k for k in keys] + ['Mode', 'Cnt', 'Score', 'Error', 'Units']
+  if with_relative:
+    header.append('Error %')
+  lines = []
+  for row in selected:
+    line = [row['name']] + [row['params'].get(k, 'N/A') for k in keys]
+    line += [row['mode'], str(row['count']), '%.3f' % row['score'], '± %.3f' % row['error'],
+             row['unit']]
+    if with_relative:
+      line.append('%.1f' % relative_error(row))
+    lines.append(line)
+  widths = [max(len(line[i]) for line in [header] + lines) for i in range(len(header))]
+  out = []
+  for line in [header] + lines:
+    cells = [line[0].ljust(widths[0])] + [c.rjust(w) for c, w in zip(line[1:], widths[1:])]
+    out.append('  '.join(cells).rstrip())
+  return '\n'.join(out)
+
+
+def main(argv):
+  max_error = 5.0
+  args = []
+  for arg in argv[1:]:
+    if arg.startswith('--max-error='):
+      max_error = float(arg.split('=', 1)[1])
+    else:
+      args.append(arg)
+  if len(args) != 1:
+    sys.exit(__doc__)
+  with open(args[0]) as f:
+    results = json.load(f)
+  first = results[0]
+  print('# %s %s, %d forks, %d x %s warmup, %d x %s measurement.' % (
+      first['vmName'], first['jdkVersion'], first['forks'], first['warmupIterations'],
+      first['warmupTime'], first['measurementIterations'], first['measurementTime']))
+  print('# Rows with an error above %g%% of the score are listed under Rejected.' % max_error)
+  accepted = []
+  rejected = []
+  for row in rows(results):
+    (accepted if relative_error(row) <= max_error else rejected).append(row)
+  by_class = {}
+  for row in accepted:
+    by_class.setdefault(row['name'].split('.')[0], []).append(row)
+  for name in sorted(by_class):
+    print()
+    print(table(by_class[name], False))
+  if rejected:
+    print()
+    print('Rejected')
+    print()
+    print(table(rejected, True))
+
+
+if __name__ == '__main__':
+  main(sys.argv)
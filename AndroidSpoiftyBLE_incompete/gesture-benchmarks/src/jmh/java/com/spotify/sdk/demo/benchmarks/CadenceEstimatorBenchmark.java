@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.sensor.CadenceEstimator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * CPU cost of {@link CadenceEstimator} per second of sensor data: one operation feeds one second
+ * of 8-feature samples at 500 Hz, so the score is microseconds of CPU per second of running.
+ * The analysis rate sets how much the autocorrelation is decimated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CadenceEstimatorBenchmark {
+
+  private static final int SAMPLE_RATE_HZ = 500;
+  private static final int FEATURES = 8;
+  private static final int SECONDS = 30;
+
+  @Param({"50", "100", "500"})
+  public int analysisRateHz;
+
+  private CadenceEstimator mEstimator;
+  private float[] mSamples;
+  private int mSecond;
+
+  @Setup
+  public void setUp() {
+    mEstimator =
+        new CadenceEstimator.Builder(SAMPLE_RATE_HZ, 2, 3, 4)
+            .setFeatureScale(8f, -4f)
+            .setAnalysisRate(analysisRateHz)
+            .build();
+    // Wrist at 170 steps per minute: an impact per step, arm swing per stride, sensor noise.
+    Random random = new Random(21);
+    mSamples = new float[SECONDS * SAMPLE_RATE_HZ * FEATURES];
+    for (int i = 0; i < SECONDS * SAMPLE_RATE_HZ; i++) {
+      double steps = 170.0 / 60 * i / SAMPLE_RATE_HZ;
+      double stepPhase = steps - Math.floor(steps);
+      double impact = stepPhase < 0.12 ? 1.5 * Math.sin(Math.PI * stepPhase / 0.12) : 0;
+      double swing = 0.8 * Math.sin(Math.PI * steps);
+      int p = i * FEATURES;
+      mSamples[p + 2] = (float) ((swing + 0.05 * random.nextGaussian() + 4) / 8);
+      mSamples[p + 3] = (float) ((0.3 * swing + 0.05 * random.nextGaussian() + 4) / 8);
+      mSamples[p + 4] = (float) ((1 + impact + 0.05 * random.nextGaussian() + 4) / 8);
+    }
+  }
+
+  @Benchmark
+  public float oneSecond() {
+    int p = mSecond * SAMPLE_RATE_HZ * FEATURES;
+    for (int i = 0; i < SAMPLE_RATE_HZ; i++, p += FEATURES) {
+      mEstimator.update(mSamples, p);
+    }
+    mSecond = (mSecond + 1) % SECONDS;
+    return mEstimator.cadence();
+  }
+}
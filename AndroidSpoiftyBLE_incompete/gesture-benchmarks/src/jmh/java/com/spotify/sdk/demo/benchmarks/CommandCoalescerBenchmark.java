@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.gesture.GestureCommandEngine;
+import com.spotify.sdk.demo.player.CommandCoalescer;
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bursts of repeated seeks or skips, as from a runner repeating a swipe, through a {@link
+ * CommandCoalescer} whose player acknowledges each call after a simulated IPC round trip. The
+ * {@code requests} and {@code ipcs} counters show how many App Remote calls a burst costs; with
+ * {@code coalesce=false} every request is a call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandCoalescerBenchmark {
+
+  private static final long GESTURE_SPACING_NANOS = TimeUnit.MILLISECONDS.toNanos(80);
+  private static final long ACK_NANOS = TimeUnit.MILLISECONDS.toNanos(150);
+  private static final long BURST_GAP_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @Param({"seek", "skip"})
+  public String command;
+
+  @Param({"1", "4", "16"})
+  public int burst;
+
+  @Param({"false", "true"})
+  public boolean coalesce;
+
+  /** Calls per second of benchmark time; divide {@code ipcs} by {@code requests}. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Calls {
+    public long requests;
+    public long ipcs;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      requests = 0;
+      ipcs = 0;
+    }
+  }
+
+  private final SimulatedPlayer mPlayer = new SimulatedPlayer();
+  private CommandCoalescer mCoalescer;
+  private PlayerController mTarget;
+  private long mNowNanos;
+
+  /** Counts calls and acknowledges the coalesced one {@link #ACK_NANOS} later. */
+  private final class SimulatedPlayer implements PlayerController {
+    long mIpcs;
+    PlayerCommand mInFlight = PlayerCommand.NONE;
+    long mIssuedNanos;
+    long mAckAtNanos;
+
+    private void call(PlayerCommand command) {
+      mIpcs++;
+      mInFlight = command;
+      mIssuedNanos = mNowNanos;
+      mAckAtNanos = mNowNanos + ACK_NANOS;
+    }
+
+    @Override
+    public void skipNext() {
+      call(PlayerCommand.SKIP_NEXT);
+    }
+
+    @Override
+    public void skipPrevious() {
+      call(PlayerCommand.SKIP_PREVIOUS);
+    }
+
+    @Override
+    public void togglePlayPause() {}
+
+    @Override
+    public void seekToRelativePosition(long milliseconds) {
+      call(PlayerCommand.SEEK_RELATIVE);
+    }
+
+    @Override
+    public void toggleShuffle() {}
+
+    @Override
+    public void toggleRepeat() {}
+
+    @Override
+    public void playUri(String uri) {}
+  }
+
+  @Setup
+  public void setUp() {
+    mCoalescer = new CommandCoalescer.Builder().setClock(() -> mNowNanos).build(mPlayer);
+    mTarget = coalesce ? mCoalescer : mPlayer;
+  }
+
+  // Delivers the acknowledgement due by the given time, which may issue the next call.
+  private void advanceTo(long nanos) {
+    while (mPlayer.mInFlight != PlayerCommand.NONE && mPlayer.mAckAtNanos <= nanos) {
+      mNowNanos = mPlayer.mAckAtNanos;
+      PlayerCommand settled = mPlayer.mInFlight;
+      mPlayer.mInFlight = PlayerCommand.NONE;
+      mCoalescer.onCommandSettled(settled, mPlayer.mIssuedNanos);
+    }
+    mNowNanos = nanos;
+  }
+
+  @Benchmark
+  public long burst(Calls calls) {
+    long start = mNowNanos;
+    long ipcsBefore = mPlayer.mIpcs;
+    boolean seek = "seek".equals(command);
+    for (int i = 0; i < burst; i++) {
+      advanceTo(start + i * GESTURE_SPACING_NANOS);
+      if (seek) {
+        mTarget.seekToRelativePosition(GestureCommandEngine.DEFAULT_SEEK_MS);
+      } else {
+        mTarget.skipNext();
+      }
+    }
+    advanceTo(mNowNanos + BURST_GAP_NANOS);
+    calls.requests += burst;
+    calls.ipcs += mPlayer.mIpcs - ipcsBefore;
+    return mPlayer.mIpcs;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.player.ConflatingTopic;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Player event fan-out: the cost of publishing one App Remote event to several subscribers, and
+ * how that cost holds up when one of them falls behind.
+ */
+public class ConflatingTopicBenchmark {
+
+  /** Subscribers that run on the publishing thread, like the player state mirror. */
+  @State(Scope.Thread)
+  public static class Direct {
+
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    ConflatingTopic<Long> mTopic;
+    long mSum;
+
+    @Setup
+    public void setUp() {
+      mTopic = new ConflatingTopic<>("direct");
+      for (int i = 0; i < subscribers; i++) {
+        mTopic.subscribe("s" + i, ConflatingTopic.DIRECT, value -> mSum += value);
+      }
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long publishDirect(Direct state) {
+    state.mTopic.publish(state.mSum);
+    return state.mSum;
+  }
+
+  /**
+   * A direct subscriber next to one on its own thread that spends {@code workMicros} per value,
+   * like a UI redraw. Published values it cannot keep up with are conflated, so publishing should
+   * cost about the same whatever the work.
+   */
+  @State(Scope.Thread)
+  public static class Slow {
+
+    @Param({"0", "100"})
+    public int workMicros;
+
+    ExecutorService mExecutor;
+    ConflatingTopic<Long> mTopic;
+    ConflatingTopic.Subscriber<Long> mSlow;
+    long mSum;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      mExecutor = Executors.newSingleThreadExecutor();
+      mTopic = new ConflatingTopic<>("slow");
+      mTopic.subscribe("direct", ConflatingTopic.DIRECT, value -> mSum += value);
+      long workNanos = TimeUnit.MICROSECONDS.toNanos(workMicros);
+      mSlow =
+          mTopic.subscribe(
+              "slow",
+              mExecutor,
+              value -> {
+                long end = System.nanoTime() + workNanos;
+                while (System.nanoTime() < end) {
+                  // Busy, like a frame being drawn.
+                }
+              });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      mSlow.cancel();
+      mExecutor.shutdown();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long publishWithSlowSubscriber(Slow state) {
+    state.mTopic.publish(state.mSum);
+    return state.mSum;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.player.PlayerController;
+
+/** Player that only counts calls, so dispatch benchmarks measure the pipeline and not IPC. */
+final class CountingPlayerController implements PlayerController {
+
+  long calls;
+
+  @Override
+  public void skipNext() {
+    calls++;
+  }
+
+  @Override
+  public void skipPrevious() {
+    calls++;
+  }
+
+  @Override
+  public void togglePlayPause() {
+    calls++;
+  }
+
+  @Override
+  public void seekToRelativePosition(long milliseconds) {
+    calls++;
+  }
+
+  @Override
+  public void toggleShuffle() {
+    calls++;
+  }
+
+  @Override
+  public void toggleRepeat() {
+    calls++;
+  }
+
+  @Override
+  public void playUri(String uri) {
+    calls++;
+  }
+}
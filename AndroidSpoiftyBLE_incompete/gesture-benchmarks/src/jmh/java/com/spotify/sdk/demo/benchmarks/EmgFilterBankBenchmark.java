@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.sensor.EmgFilterBank;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link EmgFilterBank} throughput per interleaved frame, across channel counts and with and
+ * without firmware rounding. One call filters one block of frames, about what a raw-sample
+ * notification carries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmgFilterBankBenchmark {
+
+  private static final int FRAMES = 50;
+  private static final int BLOCKS = 64;
+
+  @Param({"1", "2", "8"})
+  public int channels;
+
+  @Param({"false", "true"})
+  public boolean firmwareRounding;
+
+  private EmgFilterBank mFilterBank;
+  private float[] mInput;
+  private float[] mOutput;
+  private int mBlock;
+
+  @Setup
+  public void setUp() {
+    mFilterBank =
+        new EmgFilterBank.Builder(channels)
+            .setSampleFrequency(EmgFilterBank.SAMPLE_FREQ_500HZ)
+            .setNotchFrequency(EmgFilterBank.NOTCH_FREQ_50HZ)
+            .setFirmwareRounding(firmwareRounding)
+            .build();
+    // 10-bit ADC readings: mains hum plus a noisy burst, centred like the sensor output.
+    Random random = new Random(17);
+    mInput = new float[BLOCKS * FRAMES * channels];
+    for (int frame = 0; frame < BLOCKS * FRAMES; frame++) {
+      double hum = 40 * Math.sin(2 * Math.PI * 50 * frame / 500.0);
+      double burst = (frame / 250) % 2 == 0 ? 0 : 120 * random.nextGaussian();
+      for (int c = 0; c < channels; c++) {
+        mInput[frame * channels + c] = (float) (512 + hum + burst + 5 * random.nextGaussian());
+      }
+    }
+    mOutput = new float[FRAMES * channels];
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public float[] process() {
+    mFilterBank.process(mInput, mBlock * FRAMES * channels, mOutput, 0, FRAMES);
+    mBlock = (mBlock + 1) % BLOCKS;
+    return mOutput;
+  }
+}
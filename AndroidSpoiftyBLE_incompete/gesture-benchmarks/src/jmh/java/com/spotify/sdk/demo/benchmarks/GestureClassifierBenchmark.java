@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.ml.GestureClassifier;
+import com.spotify.sdk.demo.ml.QuantizedModel;
+import com.spotify.sdk.demo.ml.StreamingGestureClassifier;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Inference with the quantized CNN shipped in the app's assets: a full pass of {@link
+ * GestureClassifier} against {@link StreamingGestureClassifier} sliding the window by {@code hop}
+ * samples. A hop of one sample is the per-notification worst case, a hop of a whole window makes
+ * the streaming classifier fall back to full runs. The full pass does not depend on the hop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GestureClassifierBenchmark {
+
+  private static final int STREAM_SAMPLES = 8192;
+
+  /** Samples the window slides between streaming calls. */
+  @State(Scope.Thread)
+  public static class Hop {
+
+    @Param({"1", "14", "50", "150"})
+    public int hop;
+  }
+
+  private GestureClassifier mClassifier;
+  private StreamingGestureClassifier mStreaming;
+  private float[] mStream;
+  private float[] mProbabilities;
+  private int mSteps;
+  private int mChannels;
+  private long mFirstSample;
+
+  @Setup
+  public void setUp() throws IOException {
+    QuantizedModel model;
+    try (InputStream in = GestureClassifierBenchmark.class.getResourceAsStream("/gesture_cnn.bin")) {
+      if (in == null) {
+        throw new IOException("gesture_cnn.bin is not on the classpath");
+      }
+      model = QuantizedModel.load(in);
+    }
+    mClassifier = new GestureClassifier(model);
+    mStreaming = new StreamingGestureClassifier(model);
+    mSteps = model.inputSteps();
+    mChannels = model.inputChannels();
+    mProbabilities = new float[model.classCount()];
+    Random random = new Random(23);
+    mStream = new float[(mSteps + STREAM_SAMPLES) * mChannels];
+    for (int i = 0; i < mStream.length; i++) {
+      mStream[i] = (float) (0.3 * random.nextGaussian());
+    }
+  }
+
+  private int nextOffset(int hop) {
+    mFirstSample += hop;
+    if (mFirstSample > STREAM_SAMPLES) {
+      mFirstSample = 0;
+      mStreaming.reset();
+    }
+    return (int) mFirstSample * mChannels;
+  }
+
+  @Benchmark
+  public int full() {
+    return mClassifier.classify(mStream, nextOffset(1), mProbabilities);
+  }
+
+  @Benchmark
+  public int streaming(Hop hop) {
+    int offset = nextOffset(hop.hop);
+    return mStreaming.classify(mStream, offset, mFirstSample, mProbabilities);
+  }
+}
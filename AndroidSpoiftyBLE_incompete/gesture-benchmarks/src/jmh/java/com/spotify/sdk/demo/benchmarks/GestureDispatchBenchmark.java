@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureCommandEngine;
+import com.spotify.sdk.demo.gesture.GestureEventQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Gesture events from the BLE thread to the player: publishing into the {@link
+ * GestureEventQueue}, draining in bursts and running each event through the {@link
+ * GestureCommandEngine}.
+ */
+public class GestureDispatchBenchmark {
+
+  private static final int SCRIPT_LENGTH = 1024;
+  private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+  /** A scripted gesture stream feeding one engine. */
+  @State(Scope.Thread)
+  public static class Script {
+
+    final int[] mScript = new int[SCRIPT_LENGTH];
+    final CountingPlayerController mController = new CountingPlayerController();
+    GestureEventQueue mQueue;
+    GestureCommandEngine mEngine;
+    int mNext;
+    long mNowNanos;
+
+    @Setup
+    public void setUp() {
+      mQueue = new GestureEventQueue(64);
+      mEngine = GestureCommandEngine.defaults().build(mController);
+      // Holds of one to four frames separated by idle, roughly what the firmware streams.
+      int idle = Gesture.IDLE.ordinal();
+      for (int i = 0, gesture = 0; i < SCRIPT_LENGTH; ) {
+        int hold = 1 + gesture % 4;
+        for (int j = 0; j < hold && i < SCRIPT_LENGTH; j++) {
+          mScript[i++] = gesture % idle;
+        }
+        if (i < SCRIPT_LENGTH) {
+          mScript[i++] = idle;
+        }
+        gesture += 3;
+      }
+    }
+  }
+
+  /** Single-threaded offer/drain/dispatch. Scores are per burst, not per event. */
+  public static class Burst extends Script {
+
+    /** Events published before each drain, i.e. how far the consumer lags the producer. */
+    @Param({"1", "16", "64"})
+    public int burst;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long offerDrainDispatch(Burst state) {
+    for (int i = 0; i < state.burst; i++) {
+      int gestureId = state.mScript[state.mNext];
+      state.mNext = (state.mNext + 1) & (SCRIPT_LENGTH - 1);
+      state.mNowNanos += FRAME_NANOS;
+      state.mQueue.offer(gestureId, state.mNext, state.mNowNanos / 1000000, 200, state.mNowNanos);
+    }
+    state.mQueue.drain(state.mEngine, state.burst);
+    return state.mController.calls;
+  }
+
+  /** Engine decision alone, without the queue. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object engineOnly(Script state) {
+    int gestureId = state.mScript[state.mNext];
+    state.mNext = (state.mNext + 1) & (SCRIPT_LENGTH - 1);
+    state.mNowNanos += FRAME_NANOS;
+    return state.mEngine.onGesture(gestureId, state.mNowNanos);
+  }
+
+  /** One producer and one consumer thread sharing a queue, as on the phone. */
+  @State(Scope.Group)
+  public static class Shared {
+
+    final GestureEventQueue mQueue = new GestureEventQueue(256);
+    final GestureEventQueue.Handler mSink =
+        new GestureEventQueue.Handler() {
+          @Override
+          public void onGestureEvent(
+              int gestureId,
+              int sequence,
+              long deviceTimeMillis,
+              int confidence,
+              long receivedNanos) {}
+        };
+  }
+
+  /** Producer side. A full queue drops the event, so this also counts rejected offers. */
+  @Benchmark
+  @Group("spsc")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean offer(Shared state) {
+    return state.mQueue.offer(Gesture.PALM_LEFT.ordinal(), 0, 0, 200, 0);
+  }
+
+  @Benchmark
+  @Group("spsc")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public int drain(Shared state) {
+    return state.mQueue.drain(state.mSink, 64);
+  }
+}
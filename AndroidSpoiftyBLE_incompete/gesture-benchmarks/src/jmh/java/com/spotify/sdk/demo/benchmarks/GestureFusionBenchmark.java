@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureEventQueue;
+import com.spotify.sdk.demo.gesture.GestureFrameDecoder;
+import com.spotify.sdk.demo.session.GestureFusion;
+import com.spotify.sdk.demo.session.WearableSession;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Multi-wearable sessions: the cost of fusing one gesture across several devices, and the
+ * notification path of a {@link WearableSession} with one transport thread per device.
+ */
+public class GestureFusionBenchmark {
+
+  private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+  private static final int LINKS = 4;
+
+  /** Devices with their own clocks and delivery jitter, all seeing the same gestures. */
+  @State(Scope.Thread)
+  public static class Fusion {
+
+    @Param({"1", "2", "4"})
+    public int devices;
+
+    final CountingHandler mOutput = new CountingHandler();
+    GestureFusion mFusion;
+    long[] mClockOffsetsMillis;
+    long[] mJitterNanos;
+    long mNowNanos;
+    int mGesture;
+
+    @Setup
+    public void setUp() {
+      mFusion = new GestureFusion.Builder(devices).build(mOutput);
+      Random random = new Random(22);
+      mClockOffsetsMillis = new long[devices];
+      mJitterNanos = new long[64];
+      for (int d = 0; d < devices; d++) {
+        mFusion.setConnected(d, true);
+        mClockOffsetsMillis[d] = random.nextInt(100_000);
+      }
+      for (int i = 0; i < mJitterNanos.length; i++) {
+        mJitterNanos[i] = random.nextInt((int) TimeUnit.MILLISECONDS.toNanos(15));
+      }
+    }
+  }
+
+  /** One gesture and the idle after it, from every device. Scores are per gesture. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long fuseGesture(Fusion state) {
+    int gestureId = state.mGesture;
+    state.mGesture = (state.mGesture + 1) % Gesture.IDLE.ordinal();
+    for (int frame = 0; frame < 2; frame++) {
+      state.mNowNanos += FRAME_NANOS;
+      int id = frame == 0 ? gestureId : Gesture.IDLE.ordinal();
+      for (int d = 0; d < state.devices; d++) {
+        long receivedNanos =
+            state.mNowNanos + state.mJitterNanos[(int) (state.mOutput.events + d) & 63];
+        state.mFusion.onEvent(
+            d,
+            id,
+            state.mClockOffsetsMillis[d] + TimeUnit.NANOSECONDS.toMillis(state.mNowNanos),
+            200,
+            receivedNanos);
+      }
+    }
+    return state.mOutput.events;
+  }
+
+  /**
+   * {@value #LINKS} transports delivering gesture notifications on their own threads into one
+   * session, whose fusion thread runs alongside. Scores are notifications across all threads;
+   * links share no state, so they should grow with the number of threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Session {
+
+    final ManualTransport[] mTransports = new ManualTransport[LINKS];
+    final AtomicInteger mNextLink = new AtomicInteger();
+    WearableSession mSession;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      WearableSession.Builder builder = new WearableSession.Builder().setQueueCapacity(256);
+      for (int i = 0; i < LINKS; i++) {
+        mTransports[i] = new ManualTransport();
+        builder.addDevice("link" + i, mTransports[i]);
+      }
+      mSession = builder.build(new CountingHandler());
+      mSession.start();
+      for (ManualTransport transport : mTransports) {
+        transport.mListener.onConnected();
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      mSession.stop();
+    }
+  }
+
+  /** A notification stream owned by one benchmark thread. */
+  @State(Scope.Thread)
+  public static class Link {
+
+    final byte[] mFrame = new byte[GestureFrameDecoder.FRAME_V1_LENGTH];
+    GestureTransport.Listener mListener;
+    int mSequence;
+
+    @Setup
+    public void setUp(Session session) {
+      int index = session.mNextLink.getAndIncrement() % LINKS;
+      mListener = session.mTransports[index].mListener;
+    }
+  }
+
+  @Benchmark
+  @Threads(LINKS)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public int sessionNotify(Session session, Link link) {
+    int sequence = link.mSequence++;
+    int idle = Gesture.IDLE.ordinal();
+    int gestureId = (sequence & 1) == 0 ? sequence % idle : idle;
+    GestureFrameDecoder.encodeV1(link.mFrame, 0, gestureId, sequence, sequence * 20L, 200);
+    link.mListener.onNotification(
+        GestureTransport.Channel.GESTURES, link.mFrame, System.nanoTime());
+    return sequence;
+  }
+
+  /** A transport driven directly by the benchmark thread. */
+  static final class ManualTransport implements GestureTransport {
+    volatile Listener mListener;
+
+    @Override
+    public void setListener(Listener listener) {
+      mListener = listener;
+    }
+
+    @Override
+    public void subscribe(Channel channel) {}
+
+    @Override
+    public void connect() {}
+
+    @Override
+    public void disconnect() {}
+  }
+
+  static final class CountingHandler implements GestureEventQueue.Handler {
+    long events;
+
+    @Override
+    public void onGestureEvent(
+        int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos) {
+      events++;
+    }
+  }
+}
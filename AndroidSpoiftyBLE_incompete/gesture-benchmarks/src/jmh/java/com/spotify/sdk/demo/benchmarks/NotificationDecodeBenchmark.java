@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureFrame;
+import com.spotify.sdk.demo.gesture.GestureFrameDecoder;
+import com.spotify.sdk.demo.gesture.GestureSmoother;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of turning one gesture notification into a {@link GestureFrame}, for binary v1 frames,
+ * v3 frames with a probability vector, and the legacy label strings sent by older firmware. The
+ * {@code smooth} benchmark adds the {@link GestureSmoother} stage that v3 frames feed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NotificationDecodeBenchmark {
+
+  private static final int NOTIFICATIONS = 1024;
+  // Receive times step by the firmware's window spacing, so votes never expire.
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1300);
+
+  @Param({"binary", "probabilities", "legacy"})
+  public String format;
+
+  private final byte[][] mNotifications = new byte[NOTIFICATIONS][];
+  private final GestureFrame mFrame = new GestureFrame();
+  private final GestureSmoother mSmoother = new GestureSmoother.Builder().build();
+  private GestureFrameDecoder mDecoder;
+  private int mNext;
+  private long mNowNanos;
+
+  @Setup
+  public void setUp() {
+    Charset ascii = Charset.forName("US-ASCII");
+    boolean legacy = "legacy".equals(format);
+    int[] probabilities = new int[GestureFrame.CLASSES];
+    mDecoder =
+        new GestureFrameDecoder(
+            legacy ? GestureFrameDecoder.MODE_LEGACY_STRING : GestureFrameDecoder.MODE_BINARY);
+    for (int i = 0; i < NOTIFICATIONS; i++) {
+      int gestureId = (i * 7) % Gesture.COUNT;
+      if (legacy) {
+        mNotifications[i] = Gesture.fromId(gestureId).label().getBytes(ascii);
+      } else if ("probabilities".equals(format)) {
+        // Mostly confident windows with an occasional close call.
+        Arrays.fill(probabilities, 5);
+        int confidence = 255;
+        if (gestureId < GestureFrame.CLASSES) {
+          probabilities[gestureId] = i % 5 == 0 ? 110 : 210;
+          probabilities[(gestureId + 1) % GestureFrame.CLASSES] = i % 5 == 0 ? 100 : 10;
+          confidence = probabilities[gestureId];
+        }
+        byte[] frame = new byte[GestureFrameDecoder.FRAME_V3_LENGTH];
+        GestureFrameDecoder.encodeV3(
+            frame, 0, gestureId, i, 1000L + 20 * i, confidence, probabilities);
+        mNotifications[i] = frame;
+      } else {
+        byte[] frame = new byte[GestureFrameDecoder.FRAME_V1_LENGTH];
+        GestureFrameDecoder.encodeV1(frame, 0, gestureId, i, 1000L + 20 * i, 200);
+        mNotifications[i] = frame;
+      }
+    }
+  }
+
+  @Benchmark
+  public int decode() {
+    byte[] value = mNotifications[mNext];
+    mNext = (mNext + 1) & (NOTIFICATIONS - 1);
+    return mDecoder.decode(value, mFrame) ? mFrame.gestureId : -1;
+  }
+
+  @Benchmark
+  public int smooth() {
+    byte[] value = mNotifications[mNext];
+    mNext = (mNext + 1) & (NOTIFICATIONS - 1);
+    mNowNanos += WINDOW_NANOS;
+    return mDecoder.decode(value, mFrame) && mSmoother.update(mFrame, mNowNanos)
+        ? mFrame.gestureId
+        : -1;
+  }
+}
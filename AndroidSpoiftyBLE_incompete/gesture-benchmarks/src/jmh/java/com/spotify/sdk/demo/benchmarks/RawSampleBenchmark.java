@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.sensor.EmgOnsetDetector;
+import com.spotify.sdk.demo.sensor.RawSampleReassembler;
+import com.spotify.sdk.demo.sensor.SampleRing;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-notification cost of the raw sample path: reassembling a frame into the {@link SampleRing}
+ * and running the {@link EmgOnsetDetector} over the new samples, with the app's ring size and
+ * channel layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RawSampleBenchmark {
+
+  private static final int CHANNELS = 8;
+  private static final int RING_CAPACITY = 1024;
+  private static final int FRAMES = 64;
+
+  /** Samples per notification; 14 fills a 247 byte MTU, 1 is the latency-first setting. */
+  @Param({"1", "14"})
+  public int samplesPerFrame;
+
+  private final byte[][] mFrames = new byte[FRAMES][];
+  private RawSampleReassembler mReassembler;
+  private EmgOnsetDetector mOnsetDetector;
+  private long mNextSample;
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    mReassembler = new RawSampleReassembler(new SampleRing(CHANNELS, RING_CAPACITY), 32);
+    mOnsetDetector = new EmgOnsetDetector.Builder(0, 1).setEnergyInput(true).build();
+    // Quiet stretches with a burst of muscle energy every second at 500 Hz.
+    Random random = new Random(5);
+    float[] samples = new float[FRAMES * samplesPerFrame * CHANNELS];
+    for (int s = 0; s < FRAMES * samplesPerFrame; s++) {
+      boolean burst = s % 500 < 100;
+      for (int c = 0; c < CHANNELS; c++) {
+        float noise = (float) Math.abs(random.nextGaussian());
+        samples[s * CHANNELS + c] = c < 2 ? (burst ? 0.5f : 0.01f) * noise : 0.2f * noise;
+      }
+    }
+    for (int i = 0; i < FRAMES; i++) {
+      mFrames[i] =
+          new byte[RawSampleReassembler.HEADER_LENGTH + 2 * samplesPerFrame * CHANNELS];
+      RawSampleReassembler.encode(
+          mFrames[i],
+          0,
+          samples,
+          i * samplesPerFrame * CHANNELS,
+          samplesPerFrame,
+          CHANNELS,
+          i * samplesPerFrame);
+    }
+  }
+
+  @Benchmark
+  public int reassembleAndDetect() {
+    byte[] frame = mFrames[mNext];
+    mNext = (mNext + 1) % FRAMES;
+    // Keep the device index moving so every frame is new to the reassembler.
+    frame[2] = (byte) mNextSample;
+    frame[3] = (byte) (mNextSample >>> 8);
+    frame[4] = (byte) (mNextSample >>> 16);
+    frame[5] = (byte) (mNextSample >>> 24);
+    mNextSample += samplesPerFrame;
+    mReassembler.onFrame(frame);
+    return mOnsetDetector.consume(mReassembler.ring());
+  }
+}
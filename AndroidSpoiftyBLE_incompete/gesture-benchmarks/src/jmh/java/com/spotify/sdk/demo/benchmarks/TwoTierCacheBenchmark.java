@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.benchmarks;
+
+import com.spotify.sdk.demo.cache.TwoTierCache;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Lookups in the {@link TwoTierCache} behind the cover art, with opaque byte arrays standing in
+ * for compressed bitmaps. Executors run inline so each call measures one complete lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TwoTierCacheBenchmark {
+
+  private static final int KEYS = 64;
+
+  /** Compressed size of one image; 16 KiB is a typical thumbnail, 64 KiB a large cover. */
+  @Param({"16384", "65536"})
+  public int valueBytes;
+
+  private final String[] mKeys = new String[KEYS];
+  private final Sink mSink = new Sink();
+  private File mDirectory;
+  private TwoTierCache<byte[]> mMemoryCache;
+  private TwoTierCache<byte[]> mDiskCache;
+  private int mNext;
+
+  private static final class Sink implements TwoTierCache.Callback<byte[]> {
+    int mBytes;
+
+    @Override
+    public void onResult(byte[] value) {
+      mBytes += value.length;
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(11);
+    for (int i = 0; i < KEYS; i++) {
+      mKeys[i] = "spotify:image:" + Long.toHexString(random.nextLong()) + "@LARGE";
+    }
+    byte[] value = new byte[valueBytes];
+    random.nextBytes(value);
+    TwoTierCache.Loader<byte[]> loader = (key, callback) -> callback.onResult(value.clone());
+    TwoTierCache.Codec<byte[]> codec =
+        new TwoTierCache.Codec<byte[]>() {
+          @Override
+          public void encode(byte[] value, OutputStream out) throws IOException {
+            out.write(value);
+          }
+
+          @Override
+          public byte[] decode(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(valueBytes);
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+              out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+          }
+        };
+
+    mMemoryCache =
+        new TwoTierCache.Builder<byte[]>()
+            .setLoader(loader)
+            .setMemoryTier(2L * KEYS * valueBytes, v -> v.length)
+            .setIoExecutor(Runnable::run)
+            .build();
+    // A memory tier smaller than one value sends every lookup to disk.
+    mDirectory = Files.createTempDirectory("cover-art-bench").toFile();
+    mDiskCache =
+        new TwoTierCache.Builder<byte[]>()
+            .setLoader(loader)
+            .setMemoryTier(1, v -> v.length)
+            .setDiskTier(mDirectory, 2L * KEYS * valueBytes, codec)
+            .setIoExecutor(Runnable::run)
+            .build();
+    for (String key : mKeys) {
+      mMemoryCache.get(key, mSink);
+      mDiskCache.get(key, mSink);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  private String nextKey() {
+    String key = mKeys[mNext];
+    mNext = (mNext + 1) % KEYS;
+    return key;
+  }
+
+  @Benchmark
+  public int memoryHit() {
+    mMemoryCache.get(nextKey(), mSink);
+    return mSink.mBytes;
+  }
+
+  @Benchmark
+  public int diskHit() {
+    mDiskCache.get(nextKey(), mSink);
+    return mSink.mBytes;
+  }
+}
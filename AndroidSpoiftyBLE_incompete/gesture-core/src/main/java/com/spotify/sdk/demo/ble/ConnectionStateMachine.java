@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ble;
+
+import com.spotify.sdk.demo.player.LatencyStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection policy for the wearable, independent of the Bluetooth stack.
+ *
+ * <p>Each connection attempt first connects straight to the last address that worked, which
+ * skips discovery entirely. If that does not complete within the direct connect timeout, or no
+ * address is known yet, it scans for the gesture service instead. An attempt that finds nothing
+ * waits out an exponential backoff before the next one; a successful connection resets the
+ * backoff. Once connected, a link that drops is reconnected the same way until {@link #stop} is
+ * called.
+ *
+ * <p>Timestamps are passed in by the caller, so a recorded session replays to the same
+ * decisions. Not thread safe; every method, including the {@link Driver} callbacks, must run on
+ * one thread.
+ */
+public final class ConnectionStateMachine {
+
+  /** Where the machine is in the connect/reconnect cycle. */
+  public enum State {
+    /** Not connected and not trying to be. */
+    IDLE,
+    /** Connecting to the remembered address without scanning. */
+    CONNECTING_DIRECT,
+    /** Scanning for a peripheral that advertises the gesture service. */
+    SCANNING,
+    /** Connecting to a peripheral found by the scan. */
+    CONNECTING_SCANNED,
+    /** Linked; notifications may flow. */
+    CONNECTED,
+    /** Waiting before the next attempt. */
+    BACKOFF,
+  }
+
+  /** The platform side: radio operations, a single timer and address persistence. */
+  public interface Driver {
+
+    /**
+     * Opens a connection to {@code address}, closing any previous one. {@code autoConnect}
+     * requests a background connection that completes whenever the peripheral is in range.
+     */
+    void connect(String address, boolean autoConnect);
+
+    /** Closes the current connection, if any. No further state callbacks are expected for it. */
+    void disconnect();
+
+    void startScan();
+
+    void stopScan();
+
+    /** Arms the single timer, replacing any pending one; it ends in {@link #onTimer}. */
+    void schedule(long delayNanos);
+
+    void cancelTimer();
+
+    /** Remembers the address for future runs. */
+    void saveAddress(String address);
+
+    /** Reports a state change; called after the machine has moved to {@code state}. */
+    void onStateChanged(State state);
+  }
+
+  private final Driver mDriver;
+  private final long mDirectTimeoutNanos;
+  private final long mScanTimeoutNanos;
+  private final long mInitialBackoffNanos;
+  private final long mMaxBackoffNanos;
+
+  private final LatencyStats mConnectStats = new LatencyStats("ble connect");
+  private final LatencyStats mReconnectStats = new LatencyStats("ble reconnect");
+
+  private State mState = State.IDLE;
+  private String mAddress;
+  private long mBackoffNanos;
+  // Start of the current outage: the connect request or the moment the link dropped.
+  private long mOutageStartNanos;
+  private boolean mDropped;
+
+  private long mAttempts;
+  private long mDirectConnects;
+  private long mScanConnects;
+  private long mDrops;
+  private long mFailedAttempts;
+
+  private ConnectionStateMachine(Builder builder, Driver driver) {
+    mDriver = driver;
+    mAddress = builder.mAddress;
+    mDirectTimeoutNanos = builder.mDirectTimeoutNanos;
+    mScanTimeoutNanos = builder.mScanTimeoutNanos;
+    mInitialBackoffNanos = builder.mInitialBackoffNanos;
+    mMaxBackoffNanos = builder.mMaxBackoffNanos;
+    mBackoffNanos = mInitialBackoffNanos;
+  }
+
+  public State state() {
+    return mState;
+  }
+
+  /** The remembered peripheral address, or null before the first connection. */
+  public String address() {
+    return mAddress;
+  }
+
+  /** Starts connecting; ignored unless {@link State#IDLE}. */
+  public void start(long nowNanos) {
+    if (mState != State.IDLE) {
+      return;
+    }
+    mOutageStartNanos = nowNanos;
+    mDropped = false;
+    mBackoffNanos = mInitialBackoffNanos;
+    attempt();
+  }
+
+  /** Tears down whatever is in progress and stays {@link State#IDLE}. */
+  public void stop() {
+    if (mState == State.IDLE) {
+      return;
+    }
+    mDriver.cancelTimer();
+    if (mState == State.SCANNING) {
+      mDriver.stopScan();
+    } else if (mState != State.BACKOFF) {
+      mDriver.disconnect();
+    }
+    moveTo(State.IDLE);
+  }
+
+  /** The link to {@code address} is up. */
+  public void onConnected(String address, long nowNanos) {
+    if (mState != State.CONNECTING_DIRECT && mState != State.CONNECTING_SCANNED) {
+      return;
+    }
+    mDriver.cancelTimer();
+    if (mState == State.CONNECTING_DIRECT) {
+      mDirectConnects++;
+    } else {
+      mScanConnects++;
+    }
+    (mDropped ? mReconnectStats : mConnectStats).record(nowNanos - mOutageStartNanos);
+    mBackoffNanos = mInitialBackoffNanos;
+    if (!address.equals(mAddress)) {
+      mAddress = address;
+      mDriver.saveAddress(address);
+    }
+    moveTo(State.CONNECTED);
+  }
+
+  /** The link went down, or a connection request failed. */
+  public void onDisconnected(long nowNanos) {
+    switch (mState) {
+      case CONNECTED:
+        mDrops++;
+        mDropped = true;
+        mOutageStartNanos = nowNanos;
+        mBackoffNanos = mInitialBackoffNanos;
+        attempt();
+        break;
+      case CONNECTING_DIRECT:
+        mDriver.cancelTimer();
+        mDriver.disconnect();
+        scan();
+        break;
+      case CONNECTING_SCANNED:
+        mDriver.cancelTimer();
+        mDriver.disconnect();
+        backOff();
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** The scan found a peripheral advertising the gesture service. */
+  public void onScanResult(String address) {
+    if (mState != State.SCANNING) {
+      return;
+    }
+    mDriver.stopScan();
+    mDriver.cancelTimer();
+    moveTo(State.CONNECTING_SCANNED);
+    // The peripheral was just seen advertising, so a foreground connection is the fastest.
+    mDriver.connect(address, false);
+    mDriver.schedule(mDirectTimeoutNanos);
+  }
+
+  /** The scan could not be started or was aborted by the stack. */
+  public void onScanFailed() {
+    if (mState == State.SCANNING) {
+      mDriver.cancelTimer();
+      backOff();
+    }
+  }
+
+  /** The timer armed through {@link Driver#schedule} fired. */
+  public void onTimer() {
+    switch (mState) {
+      case CONNECTING_DIRECT:
+        mDriver.disconnect();
+        scan();
+        break;
+      case SCANNING:
+        mDriver.stopScan();
+        backOff();
+        break;
+      case CONNECTING_SCANNED:
+        mDriver.disconnect();
+        backOff();
+        break;
+      case BACKOFF:
+        attempt();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void attempt() {
+    mAttempts++;
+    if (mAddress == null) {
+      scan();
+      return;
+    }
+    moveTo(State.CONNECTING_DIRECT);
+    mDriver.connect(mAddress, true);
+    mDriver.schedule(mDirectTimeoutNanos);
+  }
+
+  private void scan() {
+    moveTo(State.SCANNING);
+    mDriver.startScan();
+    mDriver.schedule(mScanTimeoutNanos);
+  }
+
+  private void backOff() {
+    mFailedAttempts++;
+    moveTo(State.BACKOFF);
+    mDriver.schedule(mBackoffNanos);
+    mBackoffNanos = Math.min(mBackoffNanos * 2, mMaxBackoffNanos);
+  }
+
+  private void moveTo(State state) {
+    mState = state;
+    mDriver.onStateChanged(state);
+  }
+
+  /** Time from {@link #start} to the first connection. */
+  public LatencyStats connectStats() {
+    return mConnectStats;
+  }
+
+  /** Time from a dropped link to the next connection. */
+  public LatencyStats reconnectStats() {
+    return mReconnectStats;
+  }
+
+  /** Connection attempts, each a direct connect and/or a scan. */
+  public long attempts() {
+    return mAttempts;
+  }
+
+  /** Connections made to the remembered address without scanning. */
+  public long directConnects() {
+    return mDirectConnects;
+  }
+
+  /** Connections that needed a scan first. */
+  public long scanConnects() {
+    return mScanConnects;
+  }
+
+  /** Established links that went down without {@link #stop}. */
+  public long drops() {
+    return mDrops;
+  }
+
+  /** Attempts that ended in a backoff. */
+  public long failedAttempts() {
+    return mFailedAttempts;
+  }
+
+  /** Configures timeouts and the backoff schedule. */
+  public static final class Builder {
+
+    private String mAddress;
+    private long mDirectTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private long mScanTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private long mInitialBackoffNanos = TimeUnit.SECONDS.toNanos(1);
+    private long mMaxBackoffNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /** Address remembered from a previous run; null to scan first. */
+    public Builder setAddress(String address) {
+      mAddress = address;
+      return this;
+    }
+
+    /** How long a direct connect, or a connect after a scan, may take before giving up. */
+    public Builder setConnectTimeout(long time, TimeUnit unit) {
+      mDirectTimeoutNanos = unit.toNanos(time);
+      return this;
+    }
+
+    public Builder setScanTimeout(long time, TimeUnit unit) {
+      mScanTimeoutNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** First wait after a failed attempt; it doubles on every failure up to {@code max}. */
+    public Builder setBackoff(long initial, long max, TimeUnit unit) {
+      if (initial <= 0 || max < initial) {
+        throw new IllegalArgumentException("Need 0 < initial <= max backoff");
+      }
+      mInitialBackoffNanos = unit.toNanos(initial);
+      mMaxBackoffNanos = unit.toNanos(max);
+      return this;
+    }
+
+    public ConnectionStateMachine build(Driver driver) {
+      if (driver == null) {
+        throw new IllegalArgumentException("driver must not be null");
+      }
+      return new ConnectionStateMachine(this, driver);
+    }
+  }
+}
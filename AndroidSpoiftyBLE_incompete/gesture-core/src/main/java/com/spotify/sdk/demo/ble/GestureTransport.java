@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ble;
+
+/**
+ * A link to the wearable: connection management, notification subscriptions and delivery.
+ *
+ * <p>The app talks to this interface only, so the receive path can run against real hardware or
+ * against {@link SimulatedPeripheral} on a plain JVM. {@link #connect} and {@link #disconnect}
+ * are called from the owner's thread. Listener calls come from the transport's own thread and
+ * never overlap.
+ */
+public interface GestureTransport {
+
+  /** Notification streams offered by the wearable. */
+  enum Channel {
+    /** Gesture frames, see {@code GestureFrameDecoder}. */
+    GESTURES,
+    /** Raw sample frames, see {@code RawSampleReassembler}; absent on older firmware. */
+    RAW_SAMPLES,
+  }
+
+  /** Receives link events and notifications. */
+  interface Listener {
+
+    /** A link is up. Called before any notification received over it. */
+    void onConnected();
+
+    /**
+     * One notification on a subscribed channel. {@code value} may be reused by the transport and
+     * must not be kept after this call returns.
+     */
+    void onNotification(Channel channel, byte[] value, long receivedNanos);
+
+    /** The link went down. The transport keeps reconnecting until {@link #disconnect}. */
+    void onDisconnected();
+  }
+
+  void setListener(Listener listener);
+
+  /**
+   * Asks for notifications on {@code channel}. Subscriptions are restored on every connection;
+   * a channel added while connected is enabled from the next one.
+   */
+  void subscribe(Channel channel);
+
+  /** Connects, and reconnects after every drop, until {@link #disconnect}. */
+  void connect();
+
+  void disconnect();
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ble;
+
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureFrame;
+import com.spotify.sdk.demo.gesture.GestureFrameDecoder;
+import com.spotify.sdk.demo.sensor.RawSampleReassembler;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process wearable that emits well-formed gesture and raw sample notifications.
+ *
+ * <p>Samples are generated on a fixed clock and packed into raw frames exactly as the firmware
+ * does; gesture frames follow a repeating script. On the way to the listener, notifications can
+ * be delayed by random jitter (order is preserved, as on a real link), dropped in bursts, and
+ * lost while the link is down. The link drops after exponentially distributed up times and
+ * comes back after a fixed down time. Samples keep being generated while it is down, so the
+ * receiver sees the same index gaps as after a real outage.
+ *
+ * <p>When paced, notifications are delivered in real time; otherwise as fast as the listener
+ * consumes them, which is what throughput tests want. All randomness comes from one seed, so a
+ * configuration always produces the same stream. The listener runs on a thread owned by the
+ * peripheral.
+ */
+public final class SimulatedPeripheral implements GestureTransport {
+
+  /** Produces the features of one sample. */
+  public interface SampleSource {
+    /** Writes the features of the sample with device index {@code index} at {@code out[offset]}. */
+    void sample(long index, float[] out, int offset);
+  }
+
+  private static final int CONFIDENCE = 230;
+
+  private final int mChannels;
+  private final int mSamplesPerFrame;
+  private final double mSampleRateHz;
+  private final SampleSource mSampleSource;
+  private final int[] mGestureScript;
+  private final long mGesturePeriodNanos;
+  private final boolean mProbabilityFrames;
+  private final double mMisclassification;
+  private final long mJitterNanos;
+  private final double mLossProbability;
+  private final int mLossBurst;
+  private final long mMeanUptimeNanos;
+  private final long mDowntimeNanos;
+  private final long mConnectDelayNanos;
+  private final long mDurationNanos;
+  private final boolean mPaced;
+  private final long mSeed;
+  private final ThreadFactory mThreadFactory;
+
+  private volatile Listener mListener;
+  private volatile int mSubscriptions;
+  private volatile boolean mRunning;
+  private Thread mThread;
+
+  private volatile long mSentNotifications;
+  private volatile long mDroppedNotifications;
+  private volatile long mUnsubscribedNotifications;
+  private volatile long mLinkDrops;
+  private volatile long mGeneratedSamples;
+
+  private SimulatedPeripheral(Builder builder) {
+    mChannels = builder.mChannels;
+    mSamplesPerFrame = builder.mSamplesPerFrame;
+    mSampleRateHz = builder.mSampleRateHz;
+    mSampleSource = builder.mSampleSource;
+    mGestureScript = builder.mGestureScript.clone();
+    mGesturePeriodNanos = builder.mGesturePeriodNanos;
+    mProbabilityFrames = builder.mProbabilityFrames;
+    mMisclassification = builder.mMisclassification;
+    mJitterNanos = builder.mJitterNanos;
+    mLossProbability = builder.mLossProbability;
+    mLossBurst = builder.mLossBurst;
+    mMeanUptimeNanos = builder.mMeanUptimeNanos;
+    mDowntimeNanos = builder.mDowntimeNanos;
+    mConnectDelayNanos = builder.mConnectDelayNanos;
+    mDurationNanos = builder.mDurationNanos;
+    mPaced = builder.mPaced;
+    mSeed = builder.mSeed;
+    mThreadFactory = builder.mThreadFactory;
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public void subscribe(Channel channel) {
+    synchronized (this) {
+      mSubscriptions |= 1 << channel.ordinal();
+    }
+  }
+
+  /** Starts emitting on a new thread; ignored if already running. */
+  @Override
+  public synchronized void connect() {
+    if (mThread != null && mThread.isAlive()) {
+      return;
+    }
+    mRunning = true;
+    mThread = mThreadFactory.newThread(this::run);
+    mThread.start();
+  }
+
+  /** Stops emitting and waits for the peripheral thread, unless called from it. */
+  @Override
+  public void disconnect() {
+    Thread thread;
+    synchronized (this) {
+      mRunning = false;
+      thread = mThread;
+    }
+    if (thread == null || thread == Thread.currentThread()) {
+      return;
+    }
+    LockSupport.unpark(thread);
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for a peripheral with a {@linkplain Builder#setDuration duration} to finish.
+   *
+   * @return {@code true} if it is no longer running
+   */
+  public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      thread = mThread;
+    }
+    if (thread != null) {
+      thread.join(Math.max(1, unit.toMillis(timeout)));
+      return !thread.isAlive();
+    }
+    return true;
+  }
+
+  private void run() {
+    Random random = new Random(mSeed);
+    int frameFloats = mSamplesPerFrame * mChannels;
+    float[] samples = new float[frameFloats];
+    byte[] rawFrame = new byte[RawSampleReassembler.HEADER_LENGTH + 2 * frameFloats];
+    int gestureFrameLength = GestureFrameDecoder.FRAME_V1_LENGTH;
+    if (mProbabilityFrames) {
+      gestureFrameLength = GestureFrameDecoder.FRAME_V3_LENGTH;
+    }
+    byte[] gestureFrame = new byte[gestureFrameLength];
+    int[] probabilities = new int[GestureFrame.CLASSES];
+    long origin = System.nanoTime();
+
+    boolean up = false;
+    long linkChangeNanos = mConnectDelayNanos;
+    long sampleIndex = 0;
+    long gestureCount = 0;
+    // The firmware only classifies while a central is connected.
+    long nextGestureNanos =
+        mGesturePeriodNanos > 0 && mGestureScript.length > 0
+            ? mConnectDelayNanos + mGesturePeriodNanos
+            : Long.MAX_VALUE;
+    long lastDeliveryNanos = 0;
+    int burstLeft = 0;
+
+    while (mRunning) {
+      // A frame goes out once its last sample has been taken.
+      long frameNanos = sampleTimeNanos(sampleIndex + mSamplesPerFrame);
+      long dueNanos = Math.min(frameNanos, Math.min(nextGestureNanos, linkChangeNanos));
+      if (mDurationNanos > 0 && dueNanos >= mDurationNanos) {
+        break;
+      }
+
+      if (dueNanos == linkChangeNanos) {
+        lastDeliveryNanos = Math.max(lastDeliveryNanos, dueNanos);
+        waitUntil(origin + lastDeliveryNanos);
+        up = !up;
+        Listener listener = mListener;
+        if (up) {
+          linkChangeNanos =
+              mMeanUptimeNanos > 0
+                  ? dueNanos + 1 + (long) (-mMeanUptimeNanos * Math.log(1 - random.nextDouble()))
+                  : Long.MAX_VALUE;
+          if (listener != null) {
+            listener.onConnected();
+          }
+        } else {
+          mLinkDrops++;
+          linkChangeNanos = dueNanos + Math.max(1, mDowntimeNanos);
+          if (listener != null) {
+            listener.onDisconnected();
+          }
+        }
+        continue;
+      }
+
+      Channel channel;
+      byte[] value;
+      if (dueNanos == frameNanos) {
+        for (int s = 0; s < mSamplesPerFrame; s++) {
+          mSampleSource.sample(sampleIndex + s, samples, s * mChannels);
+        }
+        RawSampleReassembler.encode(
+            rawFrame, 0, samples, 0, mSamplesPerFrame, mChannels, sampleIndex);
+        sampleIndex += mSamplesPerFrame;
+        mGeneratedSamples = sampleIndex;
+        channel = Channel.RAW_SAMPLES;
+        value = rawFrame;
+      } else {
+        int gestureId = mGestureScript[(int) (gestureCount % mGestureScript.length)];
+        if (mProbabilityFrames) {
+          gestureId = classify(gestureId, random, probabilities);
+          GestureFrameDecoder.encodeV3(
+              gestureFrame,
+              0,
+              gestureId,
+              (int) (gestureCount & 0xffff),
+              TimeUnit.NANOSECONDS.toMillis(dueNanos),
+              gestureId == Gesture.IDLE.ordinal() ? 255 : probabilities[gestureId],
+              probabilities);
+        } else {
+          GestureFrameDecoder.encodeV1(
+              gestureFrame,
+              0,
+              gestureId,
+              (int) (gestureCount & 0xffff),
+              TimeUnit.NANOSECONDS.toMillis(dueNanos),
+              CONFIDENCE);
+        }
+        gestureCount++;
+        nextGestureNanos += mGesturePeriodNanos;
+        channel = Channel.GESTURES;
+        value = gestureFrame;
+      }
+
+      if (!up) {
+        continue;
+      }
+      if ((mSubscriptions & 1 << channel.ordinal()) == 0) {
+        mUnsubscribedNotifications++;
+        continue;
+      }
+      if (burstLeft > 0 || random.nextDouble() < mLossProbability) {
+        burstLeft = burstLeft > 0 ? burstLeft - 1 : mLossBurst - 1;
+        mDroppedNotifications++;
+        continue;
+      }
+      long jitter = mJitterNanos > 0 ? (long) (random.nextDouble() * mJitterNanos) : 0;
+      lastDeliveryNanos = Math.max(lastDeliveryNanos, dueNanos + jitter);
+      waitUntil(origin + lastDeliveryNanos);
+      Listener listener = mListener;
+      if (listener != null && mRunning) {
+        listener.onNotification(channel, value, System.nanoTime());
+        mSentNotifications++;
+      }
+    }
+
+    if (up) {
+      Listener listener = mListener;
+      if (listener != null) {
+        listener.onDisconnected();
+      }
+    }
+    mRunning = false;
+  }
+
+  /**
+   * Fills {@code probabilities} as the firmware's classifier would for a window of {@code
+   * gestureId} and returns the class it reports, which is wrong with the misclassification
+   * probability. Idle windows carry an empty vector.
+   */
+  private int classify(int gestureId, Random random, int[] probabilities) {
+    Arrays.fill(probabilities, 0);
+    if (gestureId == Gesture.IDLE.ordinal()) {
+      return gestureId;
+    }
+    int top = gestureId;
+    if (random.nextDouble() < mMisclassification) {
+      top = (gestureId + 1 + random.nextInt(GestureFrame.CLASSES - 1)) % GestureFrame.CLASSES;
+    }
+    double topProbability = 0.35 + 0.6 * random.nextDouble();
+    double rest = 1 - topProbability;
+    // The true class keeps a share of the rest when it loses, as a confused classifier does.
+    if (top != gestureId) {
+      double share = Math.min(topProbability, rest * (0.4 + 0.6 * random.nextDouble()));
+      probabilities[gestureId] = (int) Math.round(share * 255);
+      rest -= share;
+    }
+    probabilities[top] = (int) Math.round(topProbability * 255);
+    for (int c = 0; c < GestureFrame.CLASSES; c++) {
+      if (c != top && c != gestureId) {
+        probabilities[c] = (int) Math.round(rest / (GestureFrame.CLASSES - 2) * 255);
+      }
+    }
+    return top;
+  }
+
+  private long sampleTimeNanos(long index) {
+    return (long) (index * 1e9 / mSampleRateHz);
+  }
+
+  private void waitUntil(long deadlineNanos) {
+    if (!mPaced) {
+      return;
+    }
+    long remaining;
+    while (mRunning && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  /** Notifications handed to the listener. */
+  public long sentNotifications() {
+    return mSentNotifications;
+  }
+
+  /** Notifications lost to simulated packet loss. */
+  public long droppedNotifications() {
+    return mDroppedNotifications;
+  }
+
+  /** Notifications not delivered because their channel was not subscribed. */
+  public long unsubscribedNotifications() {
+    return mUnsubscribedNotifications;
+  }
+
+  /** Times the link went down on its own. */
+  public long linkDrops() {
+    return mLinkDrops;
+  }
+
+  /** Samples generated, including those sent while the link was down. */
+  public long generatedSamples() {
+    return mGeneratedSamples;
+  }
+
+  /** Configures the streams and the link impairments. */
+  public static final class Builder {
+
+    private int mChannels = 8;
+    private int mSamplesPerFrame = 14;
+    private double mSampleRateHz = 500;
+    private SampleSource mSampleSource = (index, out, offset) -> {};
+    private int[] mGestureScript = new int[0];
+    private long mGesturePeriodNanos;
+    private boolean mProbabilityFrames;
+    private double mMisclassification;
+    private long mJitterNanos;
+    private double mLossProbability;
+    private int mLossBurst = 1;
+    private long mMeanUptimeNanos;
+    private long mDowntimeNanos;
+    private long mConnectDelayNanos;
+    private long mDurationNanos;
+    private boolean mPaced = true;
+    private long mSeed = 1;
+    private ThreadFactory mThreadFactory =
+        runnable -> {
+          Thread thread = new Thread(runnable, "simulated-peripheral");
+          thread.setDaemon(true);
+          return thread;
+        };
+
+    /** Raw stream shape; defaults to the firmware's 8 features, 14 per frame, at 500 Hz. */
+    public Builder setRawSamples(int channels, int samplesPerFrame, double sampleRateHz) {
+      if (channels <= 0 || samplesPerFrame <= 0 || samplesPerFrame > 0xff || sampleRateHz <= 0) {
+        throw new IllegalArgumentException("Invalid raw sample stream");
+      }
+      mChannels = channels;
+      mSamplesPerFrame = samplesPerFrame;
+      mSampleRateHz = sampleRateHz;
+      return this;
+    }
+
+    /** Sample features; silence by default. */
+    public Builder setSampleSource(SampleSource source) {
+      mSampleSource = source;
+      return this;
+    }
+
+    /** Emits the gesture ids of {@code script} in turn, one every {@code period}. */
+    public Builder setGestures(long period, TimeUnit unit, int... script) {
+      if (period <= 0) {
+        throw new IllegalArgumentException("period must be positive");
+      }
+      mGesturePeriodNanos = unit.toNanos(period);
+      mGestureScript = script.clone();
+      return this;
+    }
+
+    /**
+     * Sends version 3 frames carrying a class probability vector instead of version 1 frames.
+     * With probability {@code misclassification} a window's top class is a wrong gesture.
+     */
+    public Builder setProbabilityFrames(double misclassification) {
+      if (misclassification < 0 || misclassification > 1) {
+        throw new IllegalArgumentException("Need 0 <= misclassification <= 1");
+      }
+      mProbabilityFrames = true;
+      mMisclassification = misclassification;
+      return this;
+    }
+
+    /** Delays each notification by a uniform random amount below {@code max}. */
+    public Builder setJitter(long max, TimeUnit unit) {
+      mJitterNanos = unit.toNanos(max);
+      return this;
+    }
+
+    /** Drops a notification with {@code probability}, together with the next burst - 1. */
+    public Builder setLoss(double probability, int burst) {
+      if (probability < 0 || probability > 1 || burst < 1) {
+        throw new IllegalArgumentException("Need 0 <= probability <= 1 and burst >= 1");
+      }
+      mLossProbability = probability;
+      mLossBurst = burst;
+      return this;
+    }
+
+    /**
+     * Drops the link after exponentially distributed up times with mean {@code meanUptime}, for
+     * {@code downtime} each. A zero mean keeps the link up.
+     */
+    public Builder setDisconnects(long meanUptime, long downtime, TimeUnit unit) {
+      mMeanUptimeNanos = unit.toNanos(meanUptime);
+      mDowntimeNanos = unit.toNanos(downtime);
+      return this;
+    }
+
+    /**
+     * Time from {@link #connect} to the first {@link Listener#onConnected}. The gesture script
+     * starts with that connection, so peripherals with different delays are out of phase.
+     */
+    public Builder setConnectDelay(long time, TimeUnit unit) {
+      mConnectDelayNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** Simulated time after which the peripheral stops by itself; zero runs until stopped. */
+    public Builder setDuration(long time, TimeUnit unit) {
+      mDurationNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** Whether to deliver in real time, or as fast as the listener allows. */
+    public Builder setPaced(boolean paced) {
+      mPaced = paced;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      mSeed = seed;
+      return this;
+    }
+
+    /** Creates the peripheral thread on every {@link #connect}; a daemon thread by default. */
+    public Builder setThreadFactory(ThreadFactory threadFactory) {
+      if (threadFactory == null) {
+        throw new IllegalArgumentException("threadFactory must not be null");
+      }
+      mThreadFactory = threadFactory;
+      return this;
+    }
+
+    public SimulatedPeripheral build() {
+      if (mSampleSource == null) {
+        throw new IllegalArgumentException("sampleSource must not be null");
+      }
+      return new SimulatedPeripheral(this);
+    }
+  }
+}
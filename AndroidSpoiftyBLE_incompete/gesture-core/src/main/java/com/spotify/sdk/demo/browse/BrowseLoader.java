@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.browse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a two-level browse tree: the roots from a {@link Source}, then the children of every root
+ * that is not a leaf, which replace it in the result.
+ *
+ * <p>At most {@code maxParallelism} child calls are outstanding across all loads; the rest wait in
+ * FIFO order. Every call has a timeout, after which it counts as failed and its permit is handed
+ * on; a late answer is ignored. Results keep the order of the roots regardless of the order in
+ * which calls complete. A load always finishes, reporting how many parents could not be
+ * expanded.
+ *
+ * <p>Thread safe. Sources may answer on any thread; listeners run on the callback executor.
+ */
+public final class BrowseLoader<T> {
+
+  /** Answers one browse call. Exactly one method should be called, at most once. */
+  public interface Callback<T> {
+    void onResult(List<T> items);
+
+    void onError(Throwable error);
+  }
+
+  /** The browse tree. Calls may complete on any thread. */
+  public interface Source<T> {
+    void fetchRoots(Callback<T> callback);
+
+    /** Whether {@code item} is kept as it is rather than replaced by its children. */
+    boolean isLeaf(T item);
+
+    void fetchChildren(T parent, Callback<T> callback);
+  }
+
+  public interface Listener<T> {
+    /**
+     * @param missing parents whose children could not be fetched and are absent from {@code
+     *     items}
+     */
+    void onLoaded(List<T> items, int missing);
+
+    /** The roots could not be fetched. */
+    void onError(Throwable error);
+  }
+
+  private final Source<T> mSource;
+  private final int mMaxParallelism;
+  private final long mCallTimeoutNanos;
+  private final ScheduledExecutorService mScheduler;
+  private final Executor mCallbackExecutor;
+
+  // Guarded by this.
+  private final ArrayDeque<Call> mWaiting = new ArrayDeque<>();
+  private int mActive;
+  private int mHighWatermark;
+
+  private final AtomicLong mCalls = new AtomicLong();
+  private final AtomicLong mFailures = new AtomicLong();
+  private final AtomicLong mTimeouts = new AtomicLong();
+
+  private BrowseLoader(Builder<T> builder) {
+    mSource = builder.mSource;
+    mMaxParallelism = builder.mMaxParallelism;
+    mCallTimeoutNanos = builder.mCallTimeoutNanos;
+    mScheduler = builder.mScheduler;
+    mCallbackExecutor = builder.mCallbackExecutor;
+  }
+
+  /** Starts a load. {@code listener} is called exactly once. */
+  public void load(Listener<T> listener) {
+    Load load = new Load(listener);
+    enqueue(new Call(null, load, -1));
+  }
+
+  private void enqueue(Call call) {
+    synchronized (this) {
+      if (mActive >= mMaxParallelism) {
+        mWaiting.add(call);
+        return;
+      }
+      mActive++;
+      mHighWatermark = Math.max(mHighWatermark, mActive);
+    }
+    call.start();
+  }
+
+  private void release() {
+    Call next;
+    synchronized (this) {
+      next = mWaiting.poll();
+      if (next == null) {
+        mActive--;
+        return;
+      }
+    }
+    next.start();
+  }
+
+  /** One outstanding source call; the first of answer, error and timeout wins. */
+  private final class Call implements Callback<T>, Runnable {
+
+    private final T mParent;
+    private final Load mLoad;
+    private final int mSlot;
+    private ScheduledFuture<?> mTimeout;
+    private boolean mDone;
+
+    Call(T parent, Load load, int slot) {
+      mParent = parent;
+      mLoad = load;
+      mSlot = slot;
+    }
+
+    // A scheduler that rejects the timeout, for example after shutdownNow(), fails the call
+    // before it reaches the source, releasing its permit like any other failure.
+    void start() {
+      try {
+        synchronized (this) {
+          mTimeout = mScheduler.schedule(this, mCallTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        mCalls.incrementAndGet();
+        if (mSlot < 0) {
+          mSource.fetchRoots(this);
+        } else {
+          mSource.fetchChildren(mParent, this);
+        }
+      } catch (RuntimeException e) {
+        onError(e);
+      }
+    }
+
+    private boolean finish() {
+      synchronized (this) {
+        if (mDone) {
+          return false;
+        }
+        mDone = true;
+        if (mTimeout != null) {
+          mTimeout.cancel(false);
+        }
+      }
+      release();
+      return true;
+    }
+
+    @Override
+    public void onResult(List<T> items) {
+      if (finish()) {
+        mLoad.onAnswer(mSlot, items, null);
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      if (finish()) {
+        mFailures.incrementAndGet();
+        mLoad.onAnswer(mSlot, null, error);
+      }
+    }
+
+    // Timeout.
+    @Override
+    public void run() {
+      if (finish()) {
+        mTimeouts.incrementAndGet();
+        mLoad.onAnswer(mSlot, null, new TimeoutException("Browse call timed out"));
+      }
+    }
+  }
+
+  /** Aggregates the answers of one load into root order. */
+  private final class Load {
+
+    private final Listener<T> mListener;
+    // Per root: the root itself for leaves, its children, or null while pending or after failure.
+    private List<List<T>> mSlots;
+    private int mPending;
+    private int mMissing;
+
+    Load(Listener<T> listener) {
+      mListener = listener;
+    }
+
+    void onAnswer(int slot, List<T> items, Throwable error) {
+      if (slot < 0) {
+        onRoots(items, error);
+        return;
+      }
+      boolean complete;
+      synchronized (this) {
+        if (items != null) {
+          mSlots.set(slot, items);
+        } else {
+          mMissing++;
+        }
+        complete = --mPending == 0;
+      }
+      if (complete) {
+        deliver();
+      }
+    }
+
+    private void onRoots(List<T> roots, Throwable error) {
+      if (roots == null) {
+        mCallbackExecutor.execute(() -> mListener.onError(error));
+        return;
+      }
+      List<Call> calls = new ArrayList<>();
+      synchronized (this) {
+        mSlots = new ArrayList<>(Collections.<List<T>>nCopies(roots.size(), null));
+        for (int i = 0; i < roots.size(); i++) {
+          T root = roots.get(i);
+          if (mSource.isLeaf(root)) {
+            mSlots.set(i, Collections.singletonList(root));
+          } else {
+            calls.add(new Call(root, this, i));
+          }
+        }
+        mPending = calls.size();
+      }
+      if (calls.isEmpty()) {
+        deliver();
+        return;
+      }
+      for (Call call : calls) {
+        enqueue(call);
+      }
+    }
+
+    private void deliver() {
+      List<T> items = new ArrayList<>();
+      int missing;
+      synchronized (this) {
+        for (List<T> slot : mSlots) {
+          if (slot != null) {
+            items.addAll(slot);
+          }
+        }
+        missing = mMissing;
+      }
+      mCallbackExecutor.execute(() -> mListener.onLoaded(items, missing));
+    }
+  }
+
+  /** Source calls started, including root calls. */
+  public long calls() {
+    return mCalls.get();
+  }
+
+  /** Calls that answered with an error, or could not be started. */
+  public long failures() {
+    return mFailures.get();
+  }
+
+  /** Calls given up on after the timeout. */
+  public long timeouts() {
+    return mTimeouts.get();
+  }
+
+  /** Most calls that were ever outstanding at once. */
+  public synchronized int highWatermark() {
+    return mHighWatermark;
+  }
+
+  @Override
+  public String toString() {
+    return "BrowseLoader{calls="
+        + calls()
+        + ", failures="
+        + failures()
+        + ", timeouts="
+        + timeouts()
+        + ", highWatermark="
+        + highWatermark()
+        + "}";
+  }
+
+  public static final class Builder<T> {
+
+    private Source<T> mSource;
+    private int mMaxParallelism = 4;
+    private long mCallTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private ScheduledExecutorService mScheduler;
+    private Executor mCallbackExecutor = Runnable::run;
+
+    public Builder<T> setSource(Source<T> source) {
+      mSource = source;
+      return this;
+    }
+
+    public Builder<T> setMaxParallelism(int maxParallelism) {
+      if (maxParallelism <= 0) {
+        throw new IllegalArgumentException("maxParallelism must be positive: " + maxParallelism);
+      }
+      mMaxParallelism = maxParallelism;
+      return this;
+    }
+
+    public Builder<T> setCallTimeout(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("call timeout must be positive: " + time);
+      }
+      mCallTimeoutNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** Runs the call timeouts. Required. */
+    public Builder<T> setScheduler(ScheduledExecutorService scheduler) {
+      mScheduler = scheduler;
+      return this;
+    }
+
+    public Builder<T> setCallbackExecutor(Executor executor) {
+      mCallbackExecutor = executor;
+      return this;
+    }
+
+    public BrowseLoader<T> build() {
+      if (mSource == null || mScheduler == null) {
+        throw new IllegalStateException("source and scheduler are required");
+      }
+      return new BrowseLoader<>(this);
+    }
+  }
+}
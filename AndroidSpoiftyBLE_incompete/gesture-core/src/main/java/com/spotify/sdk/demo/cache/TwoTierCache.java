@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache with a byte-bounded in-memory LRU in front of a byte-bounded directory on
+ * disk.
+ *
+ * <p>A lookup is served from memory, then from disk, then from the {@link Loader}. Concurrent
+ * lookups of a key that is already being loaded attach to the pending load instead of starting
+ * another one. Disk access and loads start on the I/O executor; results are delivered on the
+ * callback executor.
+ *
+ * <p>With {@link Builder#setExpireAfterWrite} entries are dropped from both tiers once they are
+ * older than the given age, measured in wall-clock time from the load so it survives restarts.
+ * Disk files then start with the load time, ahead of the codec's bytes.
+ *
+ * <p>With {@link Builder#setLoadTimeout} a load that has not answered in time fails with a {@link
+ * TimeoutException} and its key can be loaded again; a late answer is ignored. A loader that throws
+ * fails the load the same way as one that reports an error.
+ */
+public final class TwoTierCache<V> {
+
+  /** Fetches a value that is in neither tier. The callback should be called exactly once. */
+  public interface Loader<V> {
+    void load(String key, Callback<V> callback);
+  }
+
+  public interface Callback<V> {
+    void onResult(V value);
+
+    void onError(Throwable error);
+  }
+
+  /** Size of a value in bytes as charged against the memory budget. */
+  public interface Weigher<V> {
+    int weigh(V value);
+  }
+
+  /** Serialises values for the disk tier. */
+  public interface Codec<V> {
+    void encode(V value, OutputStream out) throws IOException;
+
+    V decode(InputStream in) throws IOException;
+  }
+
+  private static final Comparator<File> OLDEST_FIRST =
+      new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          return Long.compare(a.lastModified(), b.lastModified());
+        }
+      };
+
+  private final LinkedHashMap<String, V> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+  // Load time of each memory entry, only kept when entries expire.
+  private final Map<String, Long> mLoadedMillis = new HashMap<>();
+  private final Map<String, List<Callback<V>>> mInFlight = new HashMap<>();
+  private final Loader<V> mLoader;
+  private final Weigher<V> mWeigher;
+  private final Codec<V> mCodec;
+  private final File mDirectory;
+  private final long mMaxMemoryBytes;
+  private final long mMaxDiskBytes;
+  private final long mExpireAfterWriteMillis;
+  private final long mLoadTimeoutNanos;
+  private final ScheduledExecutorService mScheduler;
+  private final Executor mIoExecutor;
+  private final Executor mCallbackExecutor;
+
+  private long mMemoryBytes;
+  private long mDiskBytes = -1;
+
+  private final AtomicLong mMemoryHits = new AtomicLong();
+  private final AtomicLong mDiskHits = new AtomicLong();
+  private final AtomicLong mMisses = new AtomicLong();
+  private final AtomicLong mDeduplicated = new AtomicLong();
+  private final AtomicLong mMemoryEvictions = new AtomicLong();
+  private final AtomicLong mDiskEvictions = new AtomicLong();
+  private final AtomicLong mLoadErrors = new AtomicLong();
+  private final AtomicLong mLoadTimeouts = new AtomicLong();
+  private final AtomicLong mExpirations = new AtomicLong();
+
+  private TwoTierCache(Builder<V> builder) {
+    mLoader = builder.mLoader;
+    mWeigher = builder.mWeigher;
+    mCodec = builder.mCodec;
+    mDirectory = builder.mDirectory;
+    mMaxMemoryBytes = builder.mMaxMemoryBytes;
+    mMaxDiskBytes = builder.mMaxDiskBytes;
+    mExpireAfterWriteMillis = builder.mExpireAfterWriteMillis;
+    mLoadTimeoutNanos = builder.mLoadTimeoutNanos;
+    mScheduler = builder.mScheduler;
+    mIoExecutor = builder.mIoExecutor;
+    mCallbackExecutor = builder.mCallbackExecutor;
+  }
+
+  /** Returns the value if it is in memory, without touching disk or the loader. */
+  public V getIfPresent(String key) {
+    synchronized (this) {
+      V value = getFromMemory(key);
+      if (value != null) {
+        mMemoryHits.incrementAndGet();
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Looks up {@code key}. A memory hit is delivered synchronously on the calling thread; anything
+   * else is delivered on the callback executor.
+   */
+  public void get(String key, Callback<V> callback) {
+    V value;
+    synchronized (this) {
+      value = getFromMemory(key);
+      if (value == null) {
+        List<Callback<V>> waiting = mInFlight.get(key);
+        if (waiting != null) {
+          mDeduplicated.incrementAndGet();
+          waiting.add(callback);
+          return;
+        }
+        waiting = new ArrayList<>(2);
+        waiting.add(callback);
+        mInFlight.put(key, waiting);
+      }
+    }
+    if (value != null) {
+      mMemoryHits.incrementAndGet();
+      callback.onResult(value);
+      return;
+    }
+    mIoExecutor.execute(() -> loadFromDiskOrSource(key));
+  }
+
+  // Must hold the lock.
+  private V getFromMemory(String key) {
+    V value = mMemory.get(key);
+    if (value != null && mExpireAfterWriteMillis > 0) {
+      Long loadedMillis = mLoadedMillis.get(key);
+      if (loadedMillis == null || isExpired(loadedMillis)) {
+        mMemoryBytes -= mWeigher.weigh(mMemory.remove(key));
+        mLoadedMillis.remove(key);
+        mExpirations.incrementAndGet();
+        return null;
+      }
+    }
+    return value;
+  }
+
+  private boolean isExpired(long loadedMillis) {
+    long age = System.currentTimeMillis() - loadedMillis;
+    // A clock set back by more than the lifetime also counts as expired.
+    return age >= mExpireAfterWriteMillis || age < -mExpireAfterWriteMillis;
+  }
+
+  private void loadFromDiskOrSource(String key) {
+    long[] loadedMillis = new long[1];
+    V value = readFromDisk(key, loadedMillis);
+    if (value != null) {
+      mDiskHits.incrementAndGet();
+      complete(key, value, loadedMillis[0], null);
+      return;
+    }
+    mMisses.incrementAndGet();
+    new Load(key).start();
+  }
+
+  /** One call to the loader; the first of answer, error and timeout wins. */
+  private final class Load implements Callback<V>, Runnable {
+
+    private final String mKey;
+    private ScheduledFuture<?> mTimeout;
+    private boolean mDone;
+
+    Load(String key) {
+      mKey = key;
+    }
+
+    void start() {
+      try {
+        if (mScheduler != null) {
+          synchronized (this) {
+            mTimeout = mScheduler.schedule(this, mLoadTimeoutNanos, TimeUnit.NANOSECONDS);
+          }
+        }
+        mLoader.load(mKey, this);
+      } catch (RuntimeException e) {
+        onError(e);
+      }
+    }
+
+    private boolean finish() {
+      synchronized (this) {
+        if (mDone) {
+          return false;
+        }
+        mDone = true;
+        if (mTimeout != null) {
+          mTimeout.cancel(false);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void onResult(V loaded) {
+      if (!finish()) {
+        return;
+      }
+      long nowMillis = System.currentTimeMillis();
+      complete(mKey, loaded, nowMillis, null);
+      if (mDirectory != null) {
+        mIoExecutor.execute(() -> writeToDisk(mKey, loaded, nowMillis));
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      if (finish()) {
+        mLoadErrors.incrementAndGet();
+        complete(mKey, null, 0, error);
+      }
+    }
+
+    // Timeout.
+    @Override
+    public void run() {
+      if (finish()) {
+        mLoadTimeouts.incrementAndGet();
+        complete(mKey, null, 0, new TimeoutException("Cache load timed out"));
+      }
+    }
+  }
+
+  private void complete(String key, V value, long loadedMillis, Throwable error) {
+    final List<Callback<V>> waiting;
+    synchronized (this) {
+      if (value != null) {
+        putInMemory(key, value, loadedMillis);
+      }
+      waiting = mInFlight.remove(key);
+    }
+    if (waiting == null) {
+      return;
+    }
+    mCallbackExecutor.execute(
+        () -> {
+          for (Callback<V> callback : waiting) {
+            if (value != null) {
+              callback.onResult(value);
+            } else {
+              callback.onError(error);
+            }
+          }
+        });
+  }
+
+  // Must hold the lock.
+  private void putInMemory(String key, V value, long loadedMillis) {
+    int weight = mWeigher.weigh(value);
+    if (weight > mMaxMemoryBytes) {
+      return;
+    }
+    V previous = mMemory.put(key, value);
+    if (previous != null) {
+      mMemoryBytes -= mWeigher.weigh(previous);
+    }
+    mMemoryBytes += weight;
+    if (mExpireAfterWriteMillis > 0) {
+      mLoadedMillis.put(key, loadedMillis);
+    }
+    Iterator<Map.Entry<String, V>> eldest = mMemory.entrySet().iterator();
+    while (mMemoryBytes > mMaxMemoryBytes && eldest.hasNext()) {
+      Map.Entry<String, V> entry = eldest.next();
+      mMemoryBytes -= mWeigher.weigh(entry.getValue());
+      mLoadedMillis.remove(entry.getKey());
+      eldest.remove();
+      mMemoryEvictions.incrementAndGet();
+    }
+  }
+
+  /** Drops the memory tier. The disk tier is kept. */
+  public synchronized void trimMemory() {
+    mMemoryEvictions.addAndGet(mMemory.size());
+    mMemory.clear();
+    mLoadedMillis.clear();
+    mMemoryBytes = 0;
+  }
+
+  private File fileFor(String key) {
+    StringBuilder name = new StringBuilder(key.length());
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      boolean safe =
+          (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+      name.append(safe ? c : '_');
+    }
+    return new File(mDirectory, name.toString());
+  }
+
+  // Returns null on a miss. With expiry, stores the load time in loadedMillis[0].
+  private V readFromDisk(String key, long[] loadedMillis) {
+    if (mDirectory == null) {
+      return null;
+    }
+    File file = fileFor(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      if (mExpireAfterWriteMillis > 0) {
+        loadedMillis[0] = new DataInputStream(in).readLong();
+        if (isExpired(loadedMillis[0])) {
+          mExpirations.incrementAndGet();
+          deleteFromDisk(file);
+          return null;
+        }
+      }
+      V value = mCodec.decode(in);
+      // Keeps recently used files away from the eviction end.
+      file.setLastModified(System.currentTimeMillis());
+      return value;
+    } catch (IOException e) {
+      deleteFromDisk(file);
+      return null;
+    }
+  }
+
+  // Deletes a file outside of trimming and keeps the size accounting in step.
+  private void deleteFromDisk(File file) {
+    synchronized (mDirectory) {
+      long length = file.length();
+      if (file.delete() && mDiskBytes >= 0) {
+        mDiskBytes -= length;
+      }
+    }
+  }
+
+  // Runs on the I/O executor. Writes are serialised so size accounting and trimming never see
+  // another writer's temporary file.
+  private void writeToDisk(String key, V value, long loadedMillis) {
+    synchronized (mDirectory) {
+      if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+        return;
+      }
+      if (mDiskBytes < 0) {
+        mDiskBytes = directorySize();
+      }
+      File file = fileFor(key);
+      File tmp = new File(mDirectory, file.getName() + ".tmp");
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        if (mExpireAfterWriteMillis > 0) {
+          new DataOutputStream(out).writeLong(loadedMillis);
+        }
+        mCodec.encode(value, out);
+      } catch (IOException e) {
+        tmp.delete();
+        return;
+      }
+      long length = tmp.length();
+      long replaced = file.length();
+      if (tmp.renameTo(file)) {
+        mDiskBytes += length - replaced;
+      } else {
+        tmp.delete();
+      }
+      trimDisk();
+    }
+  }
+
+  private long directorySize() {
+    long total = 0;
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        total += file.length();
+      }
+    }
+    return total;
+  }
+
+  private void trimDisk() {
+    if (mDiskBytes <= mMaxDiskBytes) {
+      return;
+    }
+    File[] files = mDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, OLDEST_FIRST);
+    for (int i = 0; i < files.length && mDiskBytes > mMaxDiskBytes; i++) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        mDiskBytes -= length;
+        mDiskEvictions.incrementAndGet();
+      }
+    }
+  }
+
+  public long memoryHits() {
+    return mMemoryHits.get();
+  }
+
+  public long diskHits() {
+    return mDiskHits.get();
+  }
+
+  /** Lookups that went to the loader. */
+  public long misses() {
+    return mMisses.get();
+  }
+
+  /** Lookups that attached to a load already in flight. */
+  public long deduplicated() {
+    return mDeduplicated.get();
+  }
+
+  public long memoryEvictions() {
+    return mMemoryEvictions.get();
+  }
+
+  public long diskEvictions() {
+    return mDiskEvictions.get();
+  }
+
+  public long loadErrors() {
+    return mLoadErrors.get();
+  }
+
+  /** Loads given up on after the load timeout. */
+  public long loadTimeouts() {
+    return mLoadTimeouts.get();
+  }
+
+  /** Entries dropped from either tier because they were too old. */
+  public long expirations() {
+    return mExpirations.get();
+  }
+
+  public synchronized long memoryBytes() {
+    return mMemoryBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "TwoTierCache{memoryHits="
+        + memoryHits()
+        + ", diskHits="
+        + diskHits()
+        + ", misses="
+        + misses()
+        + ", deduplicated="
+        + deduplicated()
+        + ", memoryEvictions="
+        + memoryEvictions()
+        + ", diskEvictions="
+        + diskEvictions()
+        + ", loadErrors="
+        + loadErrors()
+        + ", loadTimeouts="
+        + loadTimeouts()
+        + ", expirations="
+        + expirations()
+        + "}";
+  }
+
+  public static final class Builder<V> {
+
+    private Loader<V> mLoader;
+    private Weigher<V> mWeigher;
+    private Codec<V> mCodec;
+    private File mDirectory;
+    private long mMaxMemoryBytes = 4 * 1024 * 1024;
+    private long mMaxDiskBytes = 20 * 1024 * 1024;
+    private long mExpireAfterWriteMillis;
+    private long mLoadTimeoutNanos;
+    private ScheduledExecutorService mScheduler;
+    private Executor mIoExecutor;
+    private Executor mCallbackExecutor = Runnable::run;
+
+    public Builder<V> setLoader(Loader<V> loader) {
+      mLoader = loader;
+      return this;
+    }
+
+    public Builder<V> setMemoryTier(long maxBytes, Weigher<V> weigher) {
+      mMaxMemoryBytes = maxBytes;
+      mWeigher = weigher;
+      return this;
+    }
+
+    /** Enables the disk tier. Without it only memory and the loader are used. */
+    public Builder<V> setDiskTier(File directory, long maxBytes, Codec<V> codec) {
+      mDirectory = directory;
+      mMaxDiskBytes = maxBytes;
+      mCodec = codec;
+      return this;
+    }
+
+    /** Drops entries this long after they were loaded. By default entries never expire. */
+    public Builder<V> setExpireAfterWrite(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("expiry must be positive: " + time);
+      }
+      mExpireAfterWriteMillis = unit.toMillis(time);
+      return this;
+    }
+
+    /**
+     * Fails loads that have not answered this long after they started. {@code scheduler} runs the
+     * timeouts. By default loads never time out.
+     */
+    public Builder<V> setLoadTimeout(long time, TimeUnit unit, ScheduledExecutorService scheduler) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("load timeout must be positive: " + time);
+      }
+      mLoadTimeoutNanos = unit.toNanos(time);
+      mScheduler = scheduler;
+      return this;
+    }
+
+    public Builder<V> setIoExecutor(Executor executor) {
+      mIoExecutor = executor;
+      return this;
+    }
+
+    public Builder<V> setCallbackExecutor(Executor executor) {
+      mCallbackExecutor = executor;
+      return this;
+    }
+
+    public TwoTierCache<V> build() {
+      if (mLoader == null || mWeigher == null || mIoExecutor == null) {
+        throw new IllegalStateException("loader, memory tier and I/O executor are required");
+      }
+      return new TwoTierCache<>(this);
+    }
+  }
+}
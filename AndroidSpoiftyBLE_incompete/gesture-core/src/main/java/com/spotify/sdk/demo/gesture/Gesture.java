@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+/**
+ * Gestures recognised by the wearable. The ordinal of each constant is the gesture id carried in
+ * binary frames and matches the index of the {@code GESTURES[]} table in the Arduino sketch.
+ */
+public enum Gesture {
+  FIST_LEFT("fist_left"),
+  FIST_RIGHT("fist_right"),
+  FIST_UP("fist_up"),
+  FIST_DOWN("fist_down"),
+  FIST_CENTER("fist_center"),
+  PALM_LEFT("palm_left"),
+  PALM_RIGHT("palm_right"),
+  PALM_UP("palm_up"),
+  PALM_DOWN("palm_down"),
+  PALM_CENTER("palm_center"),
+  IDLE("Idle");
+
+  /** Number of gestures, including {@link #IDLE}. */
+  public static final int COUNT = 11;
+
+  private static final Gesture[] VALUES = values();
+
+  private final String mLabel;
+
+  Gesture(String label) {
+    mLabel = label;
+  }
+
+  /** Label the firmware sends in the legacy string format. */
+  public String label() {
+    return mLabel;
+  }
+
+  /** Returns the gesture for a wire id, or {@code null} if the id is out of range. */
+  public static Gesture fromId(int id) {
+    return id >= 0 && id < COUNT ? VALUES[id] : null;
+  }
+}
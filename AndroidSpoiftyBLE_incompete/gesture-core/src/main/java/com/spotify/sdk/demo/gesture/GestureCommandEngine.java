@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns gesture events into {@link PlayerController} calls through a table indexed by gesture id.
+ *
+ * <p>Two filters keep repeated firmware output from flooding the App Remote:
+ *
+ * <ul>
+ *   <li><b>Coalescing</b>: while a gesture is held, i.e. the same gesture keeps arriving without an
+ *       {@link Gesture#IDLE} in between and each repeat is within the coalesce window of the
+ *       previous one, the repeats are absorbed.
+ *   <li><b>Debounce</b>: a gesture that fired less than its debounce window ago is ignored even
+ *       if it was released in between.
+ * </ul>
+ *
+ * <p>Timing uses the receive timestamp carried by each event, so a replayed session produces the
+ * same decisions. Not thread safe; call {@link #onGestureEvent} from a single consumer thread.
+ */
+public final class GestureCommandEngine implements GestureEventQueue.Handler {
+
+  public static final long DEFAULT_SEEK_MS = 15000;
+
+  private static final int NO_GESTURE = -1;
+
+  private final PlayerController mController;
+  private final PlayerCommand[] mCommands;
+  private final long[] mArguments;
+  private final long[] mDebounceNanos;
+  private final long mCoalesceNanos;
+
+  private final long[] mLastFiredNanos = new long[Gesture.COUNT];
+  private final boolean[] mHasFired = new boolean[Gesture.COUNT];
+  private int mHeldGestureId = NO_GESTURE;
+  private long mHeldSinceNanos;
+
+  private long mDispatched;
+  private long mDebounced;
+  private long mCoalesced;
+
+  private GestureCommandEngine(Builder builder, PlayerController controller) {
+    mController = controller;
+    mCommands = builder.mCommands.clone();
+    mArguments = builder.mArguments.clone();
+    mDebounceNanos = builder.mDebounceNanos.clone();
+    mCoalesceNanos = builder.mCoalesceNanos;
+  }
+
+  /** Default bindings used by the app. */
+  public static Builder defaults() {
+    return new Builder()
+        .bind(Gesture.PALM_LEFT, PlayerCommand.SKIP_PREVIOUS)
+        .bind(Gesture.PALM_RIGHT, PlayerCommand.SKIP_NEXT)
+        .bind(Gesture.PALM_CENTER, PlayerCommand.PLAY_PAUSE)
+        .bind(Gesture.PALM_UP, PlayerCommand.TOGGLE_SHUFFLE)
+        .bind(Gesture.PALM_DOWN, PlayerCommand.TOGGLE_REPEAT)
+        .bind(Gesture.FIST_LEFT, PlayerCommand.SEEK_RELATIVE, -DEFAULT_SEEK_MS)
+        .bind(Gesture.FIST_RIGHT, PlayerCommand.SEEK_RELATIVE, DEFAULT_SEEK_MS);
+  }
+
+  @Override
+  public void onGestureEvent(
+      int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos) {
+    onGesture(gestureId, receivedNanos);
+  }
+
+  /**
+   * Applies one gesture observed at {@code nowNanos}.
+   *
+   * @return the command that was issued, or {@link PlayerCommand#NONE}
+   */
+  public PlayerCommand onGesture(int gestureId, long nowNanos) {
+    if (gestureId < 0 || gestureId >= Gesture.COUNT || gestureId == Gesture.IDLE.ordinal()) {
+      mHeldGestureId = NO_GESTURE;
+      return PlayerCommand.NONE;
+    }
+
+    boolean held = gestureId == mHeldGestureId && nowNanos - mHeldSinceNanos < mCoalesceNanos;
+    mHeldGestureId = gestureId;
+    mHeldSinceNanos = nowNanos;
+    if (held) {
+      mCoalesced++;
+      return PlayerCommand.NONE;
+    }
+
+    PlayerCommand command = mCommands[gestureId];
+    if (command == PlayerCommand.NONE) {
+      return PlayerCommand.NONE;
+    }
+    if (mHasFired[gestureId] && nowNanos - mLastFiredNanos[gestureId] < mDebounceNanos[gestureId]) {
+      mDebounced++;
+      return PlayerCommand.NONE;
+    }
+
+    mHasFired[gestureId] = true;
+    mLastFiredNanos[gestureId] = nowNanos;
+    mDispatched++;
+    command.execute(mController, mArguments[gestureId]);
+    return command;
+  }
+
+  public PlayerCommand commandFor(Gesture gesture) {
+    return mCommands[gesture.ordinal()];
+  }
+
+  /** Commands issued to the controller. */
+  public long dispatched() {
+    return mDispatched;
+  }
+
+  /** Triggers ignored because the gesture fired within its debounce window. */
+  public long debounced() {
+    return mDebounced;
+  }
+
+  /** Repeats of a held gesture that were absorbed. */
+  public long coalesced() {
+    return mCoalesced;
+  }
+
+  /** Configures gesture bindings and timing windows. */
+  public static final class Builder {
+
+    private final PlayerCommand[] mCommands = new PlayerCommand[Gesture.COUNT];
+    private final long[] mArguments = new long[Gesture.COUNT];
+    private final long[] mDebounceNanos = new long[Gesture.COUNT];
+    private long mCoalesceNanos = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    public Builder() {
+      Arrays.fill(mCommands, PlayerCommand.NONE);
+      Arrays.fill(mDebounceNanos, TimeUnit.MILLISECONDS.toNanos(600));
+    }
+
+    public Builder bind(Gesture gesture, PlayerCommand command) {
+      return bind(gesture, command, 0);
+    }
+
+    public Builder bind(Gesture gesture, PlayerCommand command, long argument) {
+      if (gesture == Gesture.IDLE) {
+        throw new IllegalArgumentException("IDLE cannot be bound to a command");
+      }
+      mCommands[gesture.ordinal()] = command;
+      mArguments[gesture.ordinal()] = argument;
+      return this;
+    }
+
+    public Builder unbind(Gesture gesture) {
+      return bind(gesture, PlayerCommand.NONE);
+    }
+
+    /** Minimum time between two commands from the same gesture. */
+    public Builder setDebounce(Gesture gesture, long time, TimeUnit unit) {
+      mDebounceNanos[gesture.ordinal()] = unit.toNanos(time);
+      return this;
+    }
+
+    /** Applies {@link #setDebounce} to every gesture. */
+    public Builder setDebounce(long time, TimeUnit unit) {
+      Arrays.fill(mDebounceNanos, unit.toNanos(time));
+      return this;
+    }
+
+    /** Maximum gap between repeats of a held gesture for them to be absorbed. */
+    public Builder setCoalesceWindow(long time, TimeUnit unit) {
+      mCoalesceNanos = unit.toNanos(time);
+      return this;
+    }
+
+    public GestureCommandEngine build(PlayerController controller) {
+      if (controller == null) {
+        throw new IllegalArgumentException("controller must not be null");
+      }
+      return new GestureCommandEngine(this, controller);
+    }
+  }
+}
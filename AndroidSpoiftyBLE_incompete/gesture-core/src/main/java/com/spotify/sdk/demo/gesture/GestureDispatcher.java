@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated consumer thread for a {@link GestureEventQueue}. The producer calls {@link #publish}
+ * after decoding a notification; the dispatcher drains the queue into a {@link
+ * GestureEventQueue.Handler} and parks while it is empty.
+ */
+public final class GestureDispatcher implements GestureSource {
+
+  private static final int DRAIN_BATCH = 32;
+  // Upper bound on a park so that a missed wakeup can only delay, never stall, an event.
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final GestureEventQueue mQueue;
+  private final GestureEventQueue.Handler mHandler;
+  private final Thread mThread;
+
+  private volatile boolean mRunning;
+  private volatile boolean mParked;
+
+  public GestureDispatcher(GestureEventQueue queue, GestureEventQueue.Handler handler) {
+    mQueue = queue;
+    mHandler = handler;
+    mThread = new Thread(this::run, "GestureDispatcher");
+    mThread.setDaemon(true);
+  }
+
+  @Override
+  public void start() {
+    mRunning = true;
+    mThread.start();
+  }
+
+  /** Stops the consumer thread. Events still queued are discarded. */
+  @Override
+  public void stop() {
+    mRunning = false;
+    LockSupport.unpark(mThread);
+  }
+
+  /** Producer side: enqueues a decoded frame and wakes the consumer if needed. */
+  public boolean publish(GestureFrame frame, long receivedNanos) {
+    boolean accepted = mQueue.offer(frame, receivedNanos);
+    if (mParked) {
+      LockSupport.unpark(mThread);
+    }
+    return accepted;
+  }
+
+  public GestureEventQueue queue() {
+    return mQueue;
+  }
+
+  private void run() {
+    while (mRunning) {
+      if (mQueue.drain(mHandler, DRAIN_BATCH) > 0) {
+        continue;
+      }
+      mParked = true;
+      // Re-check after advertising that we are parked to avoid missing a concurrent publish.
+      if (mQueue.isEmpty() && mRunning) {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      }
+      mParked = false;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer single-consumer ring buffer of gesture events.
+ *
+ * <p>Events are stored column-wise in preallocated primitive arrays, so publishing and draining
+ * never allocate. Exactly one thread may call {@link #offer} (the BLE callback thread) and exactly
+ * one thread may call {@link #drain} (the {@link GestureDispatcher}). When the buffer is full the
+ * new event is dropped and counted, the producer never blocks.
+ */
+public final class GestureEventQueue {
+
+  /** Receives drained events on the consumer thread. */
+  public interface Handler {
+    void onGestureEvent(
+        int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos);
+  }
+
+  private final int mMask;
+  private final int[] mGestureIds;
+  private final int[] mSequences;
+  private final long[] mDeviceTimes;
+  private final int[] mConfidences;
+  private final long[] mReceivedNanos;
+
+  // Next slot to read; written by the consumer only.
+  private final AtomicLong mHead = new AtomicLong();
+  // Next slot to write; written by the producer only.
+  private final AtomicLong mTail = new AtomicLong();
+  // Producer-local copy of mHead, refreshed only when the buffer looks full.
+  private long mCachedHead;
+
+  private final AtomicLong mDropped = new AtomicLong();
+  private final AtomicLong mHighWatermark = new AtomicLong();
+
+  /** @param capacity rounded up to the next power of two */
+  public GestureEventQueue(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mMask = size - 1;
+    mGestureIds = new int[size];
+    mSequences = new int[size];
+    mDeviceTimes = new long[size];
+    mConfidences = new int[size];
+    mReceivedNanos = new long[size];
+  }
+
+  public int capacity() {
+    return mMask + 1;
+  }
+
+  /** Producer side. Returns {@code false} and counts a drop if the buffer is full. */
+  public boolean offer(
+      int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos) {
+    long tail = mTail.get();
+    if (tail - mCachedHead > mMask) {
+      mCachedHead = mHead.get();
+      if (tail - mCachedHead > mMask) {
+        mDropped.lazySet(mDropped.get() + 1);
+        return false;
+      }
+    }
+    int index = (int) tail & mMask;
+    mGestureIds[index] = gestureId;
+    mSequences[index] = sequence;
+    mDeviceTimes[index] = deviceTimeMillis;
+    mConfidences[index] = confidence;
+    mReceivedNanos[index] = receivedNanos;
+    // Ordered store publishes the slot contents before the new tail becomes visible.
+    mTail.lazySet(tail + 1);
+
+    long depth = tail + 1 - mCachedHead;
+    if (depth > mHighWatermark.get()) {
+      mHighWatermark.lazySet(depth);
+    }
+    return true;
+  }
+
+  public boolean offer(GestureFrame frame, long receivedNanos) {
+    return offer(
+        frame.gestureId, frame.sequence, frame.deviceTimeMillis, frame.confidence, receivedNanos);
+  }
+
+  /** Consumer side. Hands up to {@code limit} events to {@code handler} and returns the count. */
+  public int drain(Handler handler, int limit) {
+    long head = mHead.get();
+    long available = mTail.get() - head;
+    int count = (int) Math.min(available, limit);
+    for (int i = 0; i < count; i++) {
+      int index = (int) (head + i) & mMask;
+      handler.onGestureEvent(
+          mGestureIds[index],
+          mSequences[index],
+          mDeviceTimes[index],
+          mConfidences[index],
+          mReceivedNanos[index]);
+    }
+    if (count > 0) {
+      mHead.lazySet(head + count);
+    }
+    return count;
+  }
+
+  public boolean isEmpty() {
+    return mTail.get() == mHead.get();
+  }
+
+  public int size() {
+    return (int) (mTail.get() - mHead.get());
+  }
+
+  /** Events accepted since creation. */
+  public long published() {
+    return mTail.get();
+  }
+
+  /** Events handed to the consumer since creation. */
+  public long consumed() {
+    return mHead.get();
+  }
+
+  /** Events rejected because the buffer was full. */
+  public long dropped() {
+    return mDropped.get();
+  }
+
+  /** Deepest backlog observed by the producer. */
+  public long highWatermark() {
+    return mHighWatermark.get();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+/**
+ * Mutable holder for one decoded gesture notification. A single instance is reused by the
+ * decoder so that the BLE callback thread does not allocate per event.
+ */
+public final class GestureFrame {
+
+  /** Value of {@link #gestureId} when the payload could not be decoded. */
+  public static final int GESTURE_UNKNOWN = -1;
+
+  /** Value of {@link #deviceTimeMillis} for frames that do not carry a device timestamp. */
+  public static final long NO_TIMESTAMP = -1L;
+
+  /** Value of {@link #confidence} for frames that do not carry a confidence. */
+  public static final int NO_CONFIDENCE = -1;
+
+  /** Frame was decoded from the versioned binary format. */
+  public static final int FORMAT_BINARY = 1;
+
+  /** Frame was decoded from the legacy label string. */
+  public static final int FORMAT_LEGACY_STRING = 2;
+
+  /** Length of {@link #probabilities}: every gesture except {@link Gesture#IDLE}. */
+  public static final int CLASSES = Gesture.COUNT - 1;
+
+  /** Gesture ordinal, see {@link Gesture#fromId(int)}. */
+  public int gestureId = GESTURE_UNKNOWN;
+
+  /** 16-bit sequence number assigned by the wearable, or a local counter for legacy frames. */
+  public int sequence;
+
+  /** {@code millis()} on the wearable when the gesture was classified. */
+  public long deviceTimeMillis = NO_TIMESTAMP;
+
+  /** Top class probability scaled to 0..255. */
+  public int confidence = NO_CONFIDENCE;
+
+  /** One of {@link #FORMAT_BINARY} or {@link #FORMAT_LEGACY_STRING}. */
+  public int format;
+
+  /** Whether {@link #probabilities} holds the classifier output for this frame. */
+  public boolean hasProbabilities;
+
+  /** Probability of each gesture class scaled to 0..255, indexed by gesture id. */
+  public final int[] probabilities = new int[CLASSES];
+
+  public Gesture gesture() {
+    return Gesture.fromId(gestureId);
+  }
+
+  void clear() {
+    gestureId = GESTURE_UNKNOWN;
+    sequence = 0;
+    deviceTimeMillis = NO_TIMESTAMP;
+    confidence = NO_CONFIDENCE;
+    format = 0;
+    hasProbabilities = false;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes gesture notifications from the wearable into a reusable {@link GestureFrame}.
+ *
+ * <p>Version 1 binary frames are {@value #FRAME_V1_LENGTH} bytes, little endian:
+ *
+ * <pre>
+ *   0     version    0x01
+ *   1     gesture    {@link Gesture} ordinal
+ *   2..3  sequence   uint16, wraps
+ *   4..7  timestamp  uint32 device millis()
+ *   8     confidence uint8, top probability * 255
+ * </pre>
+ *
+ * <p>Version 3 frames, {@value #FRAME_V3_LENGTH} bytes, have the same first nine bytes with
+ * version 0x03, followed by the whole classifier output so that the phone can smooth it:
+ *
+ * <pre>
+ *   9..18 probabilities  uint8 * 255 per gesture class, in gesture id order; zero for idle
+ * </pre>
+ *
+ * <p>Version 2 is skipped because 0x02 marks raw sample frames on the other characteristic.
+ *
+ * <p>Firmware built without binary frames sends the gesture label as a plain ASCII string. The
+ * version byte is never printable, so in {@link #MODE_AUTO} both formats can be told apart from
+ * the first byte. Neither path allocates.
+ */
+public final class GestureFrameDecoder {
+
+  public static final int FRAME_VERSION_1 = 0x01;
+  public static final int FRAME_V1_LENGTH = 9;
+  public static final int FRAME_VERSION_3 = 0x03;
+  public static final int FRAME_V3_LENGTH = FRAME_V1_LENGTH + GestureFrame.CLASSES;
+
+  /** Accept binary frames and fall back to legacy strings. */
+  public static final int MODE_AUTO = 0;
+
+  /** Accept binary frames only. */
+  public static final int MODE_BINARY = 1;
+
+  /** Accept legacy label strings only. */
+  public static final int MODE_LEGACY_STRING = 2;
+
+  private static final byte[][] LEGACY_LABELS = new byte[Gesture.COUNT][];
+
+  static {
+    Charset ascii = Charset.forName("US-ASCII");
+    for (int i = 0; i < Gesture.COUNT; i++) {
+      LEGACY_LABELS[i] = Gesture.fromId(i).label().getBytes(ascii);
+    }
+  }
+
+  private final int mMode;
+  private int mLegacySequence;
+
+  public GestureFrameDecoder() {
+    this(MODE_AUTO);
+  }
+
+  public GestureFrameDecoder(int mode) {
+    if (mode < MODE_AUTO || mode > MODE_LEGACY_STRING) {
+      throw new IllegalArgumentException("Unknown decoder mode: " + mode);
+    }
+    mMode = mode;
+  }
+
+  /**
+   * Decodes {@code value} into {@code out}.
+   *
+   * @return {@code true} if a known gesture was decoded, {@code false} otherwise; in that case
+   *     {@code out.gestureId} is {@link GestureFrame#GESTURE_UNKNOWN}
+   */
+  public boolean decode(byte[] value, GestureFrame out) {
+    return value != null && decode(value, 0, value.length, out);
+  }
+
+  public boolean decode(byte[] value, int offset, int length, GestureFrame out) {
+    out.clear();
+    if (length <= 0) {
+      return false;
+    }
+    if (value[offset] == FRAME_VERSION_1) {
+      return mMode != MODE_LEGACY_STRING && decodeV1(value, offset, length, out);
+    }
+    if (value[offset] == FRAME_VERSION_3) {
+      return mMode != MODE_LEGACY_STRING && decodeV3(value, offset, length, out);
+    }
+    return mMode != MODE_BINARY && decodeLegacy(value, offset, length, out);
+  }
+
+  private static boolean decodeV1(byte[] value, int offset, int length, GestureFrame out) {
+    if (length < FRAME_V1_LENGTH) {
+      return false;
+    }
+    int id = value[offset + 1] & 0xff;
+    if (id >= Gesture.COUNT) {
+      return false;
+    }
+    out.gestureId = id;
+    out.sequence = (value[offset + 2] & 0xff) | (value[offset + 3] & 0xff) << 8;
+    out.deviceTimeMillis =
+        ((value[offset + 4] & 0xffL)
+            | (value[offset + 5] & 0xffL) << 8
+            | (value[offset + 6] & 0xffL) << 16
+            | (value[offset + 7] & 0xffL) << 24);
+    out.confidence = value[offset + 8] & 0xff;
+    out.format = GestureFrame.FORMAT_BINARY;
+    return true;
+  }
+
+  private static boolean decodeV3(byte[] value, int offset, int length, GestureFrame out) {
+    if (length < FRAME_V3_LENGTH || !decodeV1(value, offset, length, out)) {
+      out.clear();
+      return false;
+    }
+    for (int i = 0; i < GestureFrame.CLASSES; i++) {
+      out.probabilities[i] = value[offset + FRAME_V1_LENGTH + i] & 0xff;
+    }
+    out.hasProbabilities = true;
+    return true;
+  }
+
+  private boolean decodeLegacy(byte[] value, int offset, int length, GestureFrame out) {
+    // ArduinoBLE may pad string characteristics with NULs.
+    while (length > 0 && value[offset + length - 1] == 0) {
+      length--;
+    }
+    for (int id = 0; id < Gesture.COUNT; id++) {
+      if (regionEquals(LEGACY_LABELS[id], value, offset, length)) {
+        out.gestureId = id;
+        out.sequence = mLegacySequence = (mLegacySequence + 1) & 0xffff;
+        out.format = GestureFrame.FORMAT_LEGACY_STRING;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean regionEquals(byte[] label, byte[] value, int offset, int length) {
+    if (label.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (label[i] != value[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes a version 1 frame into {@code out} starting at {@code offset}. Used by simulated
+   * peripherals and benchmarks; the firmware has its own encoder.
+   */
+  public static void encodeV1(
+      byte[] out, int offset, int gestureId, int sequence, long deviceTimeMillis, int confidence) {
+    out[offset] = FRAME_VERSION_1;
+    out[offset + 1] = (byte) gestureId;
+    out[offset + 2] = (byte) sequence;
+    out[offset + 3] = (byte) (sequence >>> 8);
+    out[offset + 4] = (byte) deviceTimeMillis;
+    out[offset + 5] = (byte) (deviceTimeMillis >>> 8);
+    out[offset + 6] = (byte) (deviceTimeMillis >>> 16);
+    out[offset + 7] = (byte) (deviceTimeMillis >>> 24);
+    out[offset + 8] = (byte) confidence;
+  }
+
+  /**
+   * Encodes a version 3 frame. {@code probabilities} holds {@link GestureFrame#CLASSES} values
+   * scaled to 0..255.
+   */
+  public static void encodeV3(
+      byte[] out,
+      int offset,
+      int gestureId,
+      int sequence,
+      long deviceTimeMillis,
+      int confidence,
+      int[] probabilities) {
+    encodeV1(out, offset, gestureId, sequence, deviceTimeMillis, confidence);
+    out[offset] = FRAME_VERSION_3;
+    for (int i = 0; i < GestureFrame.CLASSES; i++) {
+      out[offset + FRAME_V1_LENGTH + i] = (byte) probabilities[i];
+    }
+  }
+}
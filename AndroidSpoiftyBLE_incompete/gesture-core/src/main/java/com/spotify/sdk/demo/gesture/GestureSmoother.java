@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.gesture;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the gesture windows classified on the wearable into stable decisions, so that one
+ * uncertain window does not become a player command.
+ *
+ * <p>Every window goes through three stages:
+ *
+ * <ol>
+ *   <li><b>Threshold</b>: a window whose top probability is below the minimum confidence is
+ *       rejected and casts no vote.
+ *   <li><b>Averaging</b>: accepted probability vectors are averaged exponentially, so a single
+ *       outlier cannot outweigh several windows of steady evidence.
+ *   <li><b>Vote</b>: the top class of the average votes into a ring of the last windows. A
+ *       gesture is emitted once it holds the required number of votes, or at once if a single
+ *       window is confident enough on its own.
+ * </ol>
+ *
+ * <p>Frames with a probability vector ({@code GestureFrameDecoder.FRAME_VERSION_3}) are used as
+ * they are. Older frames count as a vector with their confidence on the reported gesture and
+ * the rest spread over the other classes. While a gesture stays stable every further window
+ * repeats it, as the firmware does for a held gesture, so {@link GestureCommandEngine}
+ * coalescing keeps working.
+ *
+ * <p>The firmware sends {@link Gesture#IDLE} as soon as the EMG drops after a window, so a
+ * gesture usually arrives as window, idle, window, idle, about 1.3 s apart. Idle therefore only
+ * restarts the average and passes through once after a decision; the votes are kept, and expire
+ * when no window arrived for the vote timeout. A new gesture cannot be outvoted by the last one,
+ * because only the class of the fresh average is counted.
+ *
+ * <p>Not thread safe; one instance per wearable, called from its transport thread. Nothing is
+ * allocated after construction.
+ */
+public final class GestureSmoother {
+
+  private static final int IDLE = Gesture.IDLE.ordinal();
+  private static final int CLASSES = GestureFrame.CLASSES;
+  private static final int NO_VOTE = -1;
+
+  private final float mMinConfidence;
+  private final float mInstantConfidence;
+  private final float mSmoothing;
+  private final int mMinVotes;
+  private final long mVoteTimeoutNanos;
+
+  private final float[] mObservation = new float[CLASSES];
+  private final float[] mAverage = new float[CLASSES];
+  private final int[] mVotes;
+  private boolean mHasAverage;
+  private int mNextVote;
+  private boolean mIdle = true;
+  private boolean mHasWindow;
+  private long mLastWindowNanos;
+
+  private long mWindows;
+  private long mRejected;
+  private long mSuppressed;
+  private long mEmitted;
+  private long mInstant;
+
+  private GestureSmoother(Builder builder) {
+    mMinConfidence = builder.mMinConfidence;
+    mInstantConfidence = builder.mInstantConfidence;
+    mSmoothing = builder.mSmoothing;
+    mMinVotes = builder.mMinVotes;
+    mVoteTimeoutNanos = builder.mVoteTimeoutNanos;
+    mVotes = new int[builder.mVoteWindow];
+    Arrays.fill(mVotes, NO_VOTE);
+  }
+
+  /**
+   * Feeds one decoded frame. If a decision is due, {@code frame} is rewritten with the decided
+   * gesture and the averaged confidence, and {@code true} is returned; otherwise the frame
+   * should be dropped.
+   *
+   * @param receivedNanos {@link System#nanoTime} when the frame arrived, to expire old votes
+   */
+  public boolean update(GestureFrame frame, long receivedNanos) {
+    if (frame.gestureId == IDLE) {
+      mHasAverage = false;
+      if (mIdle) {
+        return false;
+      }
+      mIdle = true;
+      return true;
+    }
+    if (frame.gestureId < 0 || frame.gestureId >= CLASSES) {
+      return false;
+    }
+    mWindows++;
+    if (mHasWindow && receivedNanos - mLastWindowNanos > mVoteTimeoutNanos) {
+      reset();
+    }
+    mHasWindow = true;
+    mLastWindowNanos = receivedNanos;
+
+    int top = observe(frame);
+    float topProbability = mObservation[top];
+    if (topProbability < mMinConfidence) {
+      mRejected++;
+      vote(NO_VOTE);
+      return false;
+    }
+
+    if (mHasAverage) {
+      for (int c = 0; c < CLASSES; c++) {
+        mAverage[c] += mSmoothing * (mObservation[c] - mAverage[c]);
+      }
+    } else {
+      System.arraycopy(mObservation, 0, mAverage, 0, CLASSES);
+      mHasAverage = true;
+    }
+    int best = argmax(mAverage);
+    vote(best);
+
+    int votes = 0;
+    for (int v : mVotes) {
+      if (v == best) {
+        votes++;
+      }
+    }
+    boolean instant = best == top && topProbability >= mInstantConfidence;
+    if (votes < mMinVotes && !instant) {
+      mSuppressed++;
+      return false;
+    }
+    if (votes < mMinVotes) {
+      mInstant++;
+    }
+    mEmitted++;
+    mIdle = false;
+    frame.gestureId = best;
+    frame.confidence = Math.min(255, Math.round(mAverage[best] * 255f));
+    return true;
+  }
+
+  /** Forgets the current gesture, e.g. after the link dropped. */
+  public void reset() {
+    mHasAverage = false;
+    mHasWindow = false;
+    mNextVote = 0;
+    Arrays.fill(mVotes, NO_VOTE);
+  }
+
+  // Fills mObservation from the frame and returns its top class.
+  private int observe(GestureFrame frame) {
+    if (frame.hasProbabilities) {
+      for (int c = 0; c < CLASSES; c++) {
+        mObservation[c] = frame.probabilities[c] / 255f;
+      }
+      return argmax(mObservation);
+    }
+    float p = frame.confidence == GestureFrame.NO_CONFIDENCE ? 1f : frame.confidence / 255f;
+    Arrays.fill(mObservation, (1f - p) / (CLASSES - 1));
+    mObservation[frame.gestureId] = p;
+    return frame.gestureId;
+  }
+
+  private void vote(int gestureId) {
+    mVotes[mNextVote] = gestureId;
+    mNextVote = mNextVote + 1 == mVotes.length ? 0 : mNextVote + 1;
+  }
+
+  private static int argmax(float[] values) {
+    int best = 0;
+    for (int c = 1; c < values.length; c++) {
+      if (values[c] > values[best]) {
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  /** Gesture windows seen, not counting idle. */
+  public long windows() {
+    return mWindows;
+  }
+
+  /** Windows below the confidence threshold. */
+  public long rejected() {
+    return mRejected;
+  }
+
+  /** Accepted windows that did not produce a decision yet. */
+  public long suppressed() {
+    return mSuppressed;
+  }
+
+  /** Gesture decisions passed on, including repeats of a held gesture. */
+  public long emitted() {
+    return mEmitted;
+  }
+
+  /** Decisions made by a single confident window rather than by votes. */
+  public long instant() {
+    return mInstant;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "GestureSmoother{windows=%d, rejected=%d, suppressed=%d, emitted=%d, instant=%d}",
+        mWindows,
+        mRejected,
+        mSuppressed,
+        mEmitted,
+        mInstant);
+  }
+
+  /** Also serves as a factory: every {@link #build} returns an independent smoother. */
+  public static final class Builder {
+    private float mMinConfidence = 0.5f;
+    private float mInstantConfidence = 0.9f;
+    private float mSmoothing = 0.5f;
+    private int mMinVotes = 2;
+    private int mVoteWindow = 3;
+    private long mVoteTimeoutNanos = TimeUnit.SECONDS.toNanos(2);
+
+    /** Windows whose top probability is below this are rejected. Default 0.5. */
+    public Builder setMinConfidence(float minConfidence) {
+      if (!(minConfidence >= 0f && minConfidence < 1f)) {
+        throw new IllegalArgumentException("minConfidence must be in [0, 1): " + minConfidence);
+      }
+      mMinConfidence = minConfidence;
+      return this;
+    }
+
+    /**
+     * A window at least this confident is emitted without waiting for votes. Default 0.9; a value
+     * above 1 always waits.
+     */
+    public Builder setInstantConfidence(float instantConfidence) {
+      if (!(instantConfidence > 0f)) {
+        throw new IllegalArgumentException(
+            "instantConfidence must be positive: " + instantConfidence);
+      }
+      mInstantConfidence = instantConfidence;
+      return this;
+    }
+
+    /** Weight of the newest window in the average, in (0, 1]; 1 disables averaging. */
+    public Builder setSmoothing(float smoothing) {
+      if (!(smoothing > 0f && smoothing <= 1f)) {
+        throw new IllegalArgumentException("smoothing must be in (0, 1]: " + smoothing);
+      }
+      mSmoothing = smoothing;
+      return this;
+    }
+
+    /** A gesture needs {@code minVotes} of the last {@code window} windows. Default 2 of 3. */
+    public Builder setVotes(int minVotes, int window) {
+      if (minVotes < 1 || window < minVotes || window > 32) {
+        throw new IllegalArgumentException(
+            "Need 1 <= minVotes <= window <= 32: " + minVotes + ", " + window);
+      }
+      mMinVotes = minVotes;
+      mVoteWindow = window;
+      return this;
+    }
+
+    /**
+     * Votes are dropped when no gesture window arrived for this long, idle frames aside. Default
+     * 2 s, enough to span the firmware's pause between two windows of one gesture.
+     */
+    public Builder setVoteTimeout(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("vote timeout must be positive: " + time);
+      }
+      mVoteTimeoutNanos = unit.toNanos(time);
+      return this;
+    }
+
+    public GestureSmoother build() {
+      return new GestureSmoother(this);
+    }
+  }
+}
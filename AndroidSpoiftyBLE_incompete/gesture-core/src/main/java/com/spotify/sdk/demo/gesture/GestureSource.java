@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+/**
+ * Something that delivers gesture events to a {@link GestureEventQueue.Handler} bound when it was
+ * built, on a thread of its own: a {@link GestureDispatcher} draining one wearable, a {@link
+ * com.spotify.sdk.demo.session.WearableSession} fusing several, or a simulation.
+ *
+ * <p>Code that only needs gestures to flow, such as the command path or a load test, depends on
+ * this interface and never on how the events are produced.
+ */
+public interface GestureSource {
+
+  /** Starts delivering events. */
+  void start();
+
+  /** Stops delivering events; events already handed to the handler are not recalled. */
+  void stop();
+}
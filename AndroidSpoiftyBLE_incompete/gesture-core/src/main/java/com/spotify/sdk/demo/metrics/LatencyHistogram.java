@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative values, typically nanoseconds.
+ *
+ * <p>Values below {@value #SUB_BUCKETS} have a bucket each. Above that, every power of two is
+ * split into {@value #SUB_BUCKETS} equal buckets, so a bucket is never wider than 1/{@value
+ * #SUB_BUCKETS} of its lower bound, and any long fits into {@value #BUCKET_COUNT} preallocated
+ * counters. Percentiles are reported as the midpoint of their bucket.
+ *
+ * <p>{@link #record} is lock free, allocation free and may be called from any thread. Readers
+ * see each counter atomically but not a consistent snapshot across counters, which is
+ * acceptable for monitoring.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  /** Bucket of {@code value}; negative values count as zero. */
+  public static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Smallest value in {@code bucket}. */
+  public static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+  }
+
+  /** Number of values in {@code bucket}, always at least one. */
+  public static long width(int bucket) {
+    return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+  }
+
+  public void record(long value) {
+    mCounts.incrementAndGet(bucketOf(value));
+    mCount.incrementAndGet();
+    long max = mMax.get();
+    while (value > max && !mMax.compareAndSet(max, value)) {
+      max = mMax.get();
+    }
+  }
+
+  /** Adds every value recorded in {@code other}, for example to combine per-thread histograms. */
+  public void add(LatencyHistogram other) {
+    long added = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = other.mCounts.get(i);
+      if (count != 0) {
+        mCounts.addAndGet(i, count);
+        added += count;
+      }
+    }
+    mCount.addAndGet(added);
+    long value = other.mMax.get();
+    long max = mMax.get();
+    while (value > max && !mMax.compareAndSet(max, value)) {
+      max = mMax.get();
+    }
+  }
+
+  public long count() {
+    return mCount.get();
+  }
+
+  public long max() {
+    return mMax.get();
+  }
+
+  public long countAt(int bucket) {
+    return mCounts.get(bucket);
+  }
+
+  /**
+   * Value below which {@code percentile} percent of the recorded values fall, or 0 if nothing
+   * was recorded.
+   */
+  public long valueAtPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += mCounts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += mCounts.get(i);
+      if (seen >= rank) {
+        return Math.min(lowerBound(i) + (width(i) - 1) / 2, mMax.get());
+      }
+    }
+    return mMax.get();
+  }
+
+  /** Clears all counters. Values recorded concurrently may survive or be lost. */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      mCounts.set(i, 0);
+    }
+    mCount.set(0);
+    mMax.set(0);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * One {@link LatencyHistogram} per stage of the path from a gesture notification to the
+ * acknowledged player command. Thread safe; recording never allocates.
+ */
+public final class PipelineLatency {
+
+  /** Stages, in pipeline order. All are measured in nanoseconds. */
+  public enum Stage {
+    /** Notification callback to decoded frame, on the BLE thread. */
+    DECODE("decode"),
+    /** Notification callback to pickup by the dispatcher thread. */
+    QUEUE_WAIT("queue"),
+    /** Command engine run, including issuing the App Remote call. */
+    DISPATCH("dispatch"),
+    /** App Remote call to its result callback. */
+    IPC("ipc"),
+    /** Posting a gesture label update to it being drawn on the main thread. */
+    UI("ui"),
+    /** Notification callback to the result callback of the command it caused. */
+    END_TO_END("total");
+
+    private final String mLabel;
+
+    Stage(String label) {
+      mLabel = label;
+    }
+
+    public String label() {
+      return mLabel;
+    }
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGES.length];
+
+  public PipelineLatency() {
+    for (int i = 0; i < mHistograms.length; i++) {
+      mHistograms[i] = new LatencyHistogram();
+    }
+  }
+
+  public void record(Stage stage, long nanos) {
+    mHistograms[stage.ordinal()].record(nanos);
+  }
+
+  public LatencyHistogram histogram(Stage stage) {
+    return mHistograms[stage.ordinal()];
+  }
+
+  public void reset() {
+    for (LatencyHistogram histogram : mHistograms) {
+      histogram.reset();
+    }
+  }
+
+  /** One line per stage with the count and p50/p99/p99.9/max in milliseconds. */
+  public String summary() {
+    StringBuilder out = new StringBuilder();
+    out.append(
+        String.format(
+            Locale.US, "%-8s %6s %7s %7s %7s %7s", "ms", "n", "p50", "p99", "p99.9", "max"));
+    for (Stage stage : STAGES) {
+      LatencyHistogram histogram = histogram(stage);
+      out.append('\n')
+          .append(
+              String.format(
+                  Locale.US,
+                  "%-8s %6d %7.2f %7.2f %7.2f %7.2f",
+                  stage.label(),
+                  histogram.count(),
+                  histogram.valueAtPercentile(50) / NANOS_PER_MILLI,
+                  histogram.valueAtPercentile(99) / NANOS_PER_MILLI,
+                  histogram.valueAtPercentile(99.9) / NANOS_PER_MILLI,
+                  histogram.max() / NANOS_PER_MILLI));
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes every non-empty bucket as CSV: {@code stage,lower_ns,upper_ns,count}, after a
+   * header line. Percentiles can be recomputed from the buckets.
+   */
+  public void writeCsv(Writer out) throws IOException {
+    out.write("stage,lower_ns,upper_ns,count\n");
+    for (Stage stage : STAGES) {
+      LatencyHistogram histogram = histogram(stage);
+      for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+        long count = histogram.countAt(i);
+        if (count == 0) {
+          continue;
+        }
+        long lower = LatencyHistogram.lowerBound(i);
+        out.write(
+            stage.label()
+                + ','
+                + lower
+                + ','
+                + (lower + LatencyHistogram.width(i) - 1)
+                + ','
+                + count
+                + '\n');
+      }
+    }
+  }
+}
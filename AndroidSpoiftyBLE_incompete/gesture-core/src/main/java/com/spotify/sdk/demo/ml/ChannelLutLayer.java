@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Element-wise per-channel stage, used for the folded batch normalisation {@code MUL} and
+ * {@code ADD} against a constant vector.
+ *
+ * <p>With one int8 operand per channel the result only depends on the input byte, so each channel
+ * is precomputed into a 256-entry table using the reference integer arithmetic. Consecutive stages
+ * are fused with {@link #then(ChannelLutLayer)}, which keeps them bit-exact while touching the
+ * activations once.
+ */
+final class ChannelLutLayer extends Layer {
+
+  /** Input left shift used by the TFLite int8 {@code ADD} kernel. */
+  private static final int ADD_LEFT_SHIFT = 20;
+
+  private final byte[] mTable;
+
+  private ChannelLutLayer(int steps, int channels, byte[] table) {
+    super(steps, channels, steps, channels);
+    mTable = table;
+  }
+
+  static ChannelLutLayer mul(
+      int steps,
+      byte[] operand,
+      float inputScale,
+      int inputZeroPoint,
+      float operandScale,
+      int operandZeroPoint,
+      float outputScale,
+      int outputZeroPoint) {
+    double real = (double) inputScale * (double) operandScale / (double) outputScale;
+    int multiplier = FixedPoint.quantizedMultiplier(real);
+    int shift = FixedPoint.quantizedShift(real);
+    int channels = operand.length;
+    byte[] table = new byte[channels * 256];
+    for (int c = 0; c < channels; c++) {
+      int y = operand[c] - operandZeroPoint;
+      for (int x = -128; x < 128; x++) {
+        int product = (x - inputZeroPoint) * y;
+        int value =
+            outputZeroPoint + FixedPoint.multiplyByQuantizedMultiplier(product, multiplier, shift);
+        table[c * 256 + x + 128] = (byte) FixedPoint.clamp(value, -128, 127);
+      }
+    }
+    return new ChannelLutLayer(steps, channels, table);
+  }
+
+  static ChannelLutLayer add(
+      int steps,
+      byte[] operand,
+      float inputScale,
+      int inputZeroPoint,
+      float operandScale,
+      int operandZeroPoint,
+      float outputScale,
+      int outputZeroPoint) {
+    double twiceMaxInputScale = 2 * (double) Math.max(inputScale, operandScale);
+    double realInput = inputScale / twiceMaxInputScale;
+    double realOperand = operandScale / twiceMaxInputScale;
+    double realOutput = twiceMaxInputScale / ((1 << ADD_LEFT_SHIFT) * (double) outputScale);
+    int inputMultiplier = FixedPoint.quantizedMultiplier(realInput);
+    int inputShift = FixedPoint.quantizedShift(realInput);
+    int operandMultiplier = FixedPoint.quantizedMultiplier(realOperand);
+    int operandShift = FixedPoint.quantizedShift(realOperand);
+    int outputMultiplier = FixedPoint.quantizedMultiplier(realOutput);
+    int outputShift = FixedPoint.quantizedShift(realOutput);
+    int channels = operand.length;
+    byte[] table = new byte[channels * 256];
+    for (int c = 0; c < channels; c++) {
+      int scaledOperand =
+          FixedPoint.multiplyByQuantizedMultiplier(
+              (operand[c] - operandZeroPoint) * (1 << ADD_LEFT_SHIFT),
+              operandMultiplier,
+              operandShift);
+      for (int x = -128; x < 128; x++) {
+        int scaledInput =
+            FixedPoint.multiplyByQuantizedMultiplier(
+                (x - inputZeroPoint) * (1 << ADD_LEFT_SHIFT), inputMultiplier, inputShift);
+        int value =
+            outputZeroPoint
+                + FixedPoint.multiplyByQuantizedMultiplier(
+                    scaledInput + scaledOperand, outputMultiplier, outputShift);
+        table[c * 256 + x + 128] = (byte) FixedPoint.clamp(value, -128, 127);
+      }
+    }
+    return new ChannelLutLayer(steps, channels, table);
+  }
+
+  /** Returns a single stage equivalent to this one followed by {@code next}. */
+  ChannelLutLayer then(ChannelLutLayer next) {
+    if (next.inSteps != outSteps || next.inChannels != outChannels) {
+      throw new IllegalArgumentException("Shape mismatch");
+    }
+    byte[] table = new byte[mTable.length];
+    for (int i = 0; i < table.length; i++) {
+      int c = i >> 8;
+      table[i] = next.mTable[c * 256 + mTable[i] + 128];
+    }
+    return new ChannelLutLayer(inSteps, inChannels, table);
+  }
+
+  @Override
+  void forward(byte[] in, byte[] out, int fromStep, int toStep) {
+    byte[] table = mTable;
+    int channels = outChannels;
+    for (int t = fromStep; t < toStep; t++) {
+      int base = t * channels;
+      for (int c = 0; c < channels; c++) {
+        out[base + c] = table[(c << 8) + in[base + c] + 128];
+      }
+    }
+  }
+}
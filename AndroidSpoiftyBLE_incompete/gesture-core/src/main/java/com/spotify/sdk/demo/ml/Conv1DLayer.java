@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Stride 1, {@code SAME} padded 1-D convolution with per-channel int8 weights, int32 bias and a
+ * fused activation clamp, matching TFLite's {@code ConvPerChannel} reference kernel.
+ *
+ * <p>Weights are {@code [filter][tap][inChannel]}. Padding taps are skipped, which is what the
+ * reference does and equivalent to padding with the input zero point. For interior steps the
+ * input offset term {@code inputOffset * sum(weights)} is folded into the bias ahead of time.
+ */
+final class Conv1DLayer extends Layer {
+
+  private final int mKernel;
+  private final int mPadBefore;
+  private final byte[] mWeights;
+  private final int[] mBias;
+  private final int[] mFoldedBias;
+  private final int[] mMultipliers;
+  private final int[] mShifts;
+  private final int mInputOffset;
+  private final int mOutputOffset;
+  private final int mActivationMin;
+  private final int mActivationMax;
+
+  Conv1DLayer(
+      int steps,
+      int inChannels,
+      int filters,
+      int kernel,
+      byte[] weights,
+      int[] bias,
+      float inputScale,
+      int inputZeroPoint,
+      float[] weightScales,
+      float outputScale,
+      int outputZeroPoint,
+      int activationMin,
+      int activationMax) {
+    super(steps, inChannels, steps, filters);
+    if (weights.length != filters * kernel * inChannels
+        || bias.length != filters
+        || weightScales.length != filters) {
+      throw new IllegalArgumentException("Bad convolution parameters");
+    }
+    mKernel = kernel;
+    mPadBefore = (kernel - 1) / 2;
+    mWeights = weights;
+    mBias = bias;
+    mInputOffset = -inputZeroPoint;
+    mOutputOffset = outputZeroPoint;
+    mActivationMin = activationMin;
+    mActivationMax = activationMax;
+    mFoldedBias = new int[filters];
+    mMultipliers = new int[filters];
+    mShifts = new int[filters];
+    int taps = kernel * inChannels;
+    for (int f = 0; f < filters; f++) {
+      int weightSum = 0;
+      for (int i = 0; i < taps; i++) {
+        weightSum += weights[f * taps + i];
+      }
+      mFoldedBias[f] = bias[f] + mInputOffset * weightSum;
+      double real = (double) inputScale * (double) weightScales[f] / (double) outputScale;
+      mMultipliers[f] = FixedPoint.quantizedMultiplier(real);
+      mShifts[f] = FixedPoint.quantizedShift(real);
+    }
+  }
+
+  @Override
+  int firstAffected(int inputStep) {
+    return Math.max(0, inputStep - (mKernel - 1 - mPadBefore));
+  }
+
+  @Override
+  int endAffected(int inputEnd) {
+    return Math.min(outSteps, inputEnd + mPadBefore);
+  }
+
+  @Override
+  int leadingEdge() {
+    return mPadBefore;
+  }
+
+  @Override
+  void forward(byte[] in, byte[] out, int fromStep, int toStep) {
+    byte[] weights = mWeights;
+    int inChannels = this.inChannels;
+    int filters = outChannels;
+    int taps = mKernel * inChannels;
+    for (int t = fromStep; t < toStep; t++) {
+      int firstTap = Math.max(0, mPadBefore - t);
+      int lastTap = Math.min(mKernel, inSteps + mPadBefore - t);
+      boolean interior = firstTap == 0 && lastTap == mKernel;
+      int offset = interior ? 0 : mInputOffset;
+      int inBase = (t - mPadBefore + firstTap) * inChannels;
+      int length = (lastTap - firstTap) * inChannels;
+      for (int f = 0; f < filters; f++) {
+        int acc = interior ? mFoldedBias[f] : mBias[f];
+        int w = f * taps + firstTap * inChannels;
+        for (int i = 0; i < length; i++) {
+          acc += weights[w + i] * (in[inBase + i] + offset);
+        }
+        acc = FixedPoint.multiplyByQuantizedMultiplier(acc, mMultipliers[f], mShifts[f]);
+        out[t * filters + f] =
+            (byte) FixedPoint.clamp(acc + mOutputOffset, mActivationMin, mActivationMax);
+      }
+    }
+  }
+}
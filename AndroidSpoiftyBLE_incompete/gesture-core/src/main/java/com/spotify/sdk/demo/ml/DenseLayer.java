@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Fully connected int8 layer over the flattened input, matching TFLite's {@code FullyConnected}
+ * reference kernel. Weights are {@code [unit][input]}; the input offset is folded into the bias.
+ */
+final class DenseLayer extends Layer {
+
+  private final int mInputs;
+  private final byte[] mWeights;
+  private final int[] mFoldedBias;
+  private final int[] mMultipliers;
+  private final int[] mShifts;
+  private final int mOutputOffset;
+  private final int mActivationMin;
+  private final int mActivationMax;
+
+  DenseLayer(
+      int inSteps,
+      int inChannels,
+      int units,
+      byte[] weights,
+      int[] bias,
+      float inputScale,
+      int inputZeroPoint,
+      float[] weightScales,
+      float outputScale,
+      int outputZeroPoint,
+      int activationMin,
+      int activationMax) {
+    super(inSteps, inChannels, 1, units);
+    mInputs = inSteps * inChannels;
+    if (weights.length != units * mInputs
+        || bias.length != units
+        || weightScales.length != units) {
+      throw new IllegalArgumentException("Bad dense parameters");
+    }
+    mWeights = weights;
+    mOutputOffset = outputZeroPoint;
+    mActivationMin = activationMin;
+    mActivationMax = activationMax;
+    mFoldedBias = new int[units];
+    mMultipliers = new int[units];
+    mShifts = new int[units];
+    for (int u = 0; u < units; u++) {
+      int weightSum = 0;
+      for (int i = 0; i < mInputs; i++) {
+        weightSum += weights[u * mInputs + i];
+      }
+      mFoldedBias[u] = bias[u] - inputZeroPoint * weightSum;
+      double real = (double) inputScale * (double) weightScales[u] / (double) outputScale;
+      mMultipliers[u] = FixedPoint.quantizedMultiplier(real);
+      mShifts[u] = FixedPoint.quantizedShift(real);
+    }
+  }
+
+  /** Every unit reads every input position, so nothing survives a shift. */
+  @Override
+  int outputShift(int inputShift) {
+    return -1;
+  }
+
+  /** The output has a single step, so any non-empty range computes every unit. */
+  @Override
+  void forward(byte[] in, byte[] out, int fromStep, int toStep) {
+    if (fromStep >= toStep) {
+      return;
+    }
+    byte[] weights = mWeights;
+    int inputs = mInputs;
+    for (int u = 0; u < outChannels; u++) {
+      int acc = mFoldedBias[u];
+      int w = u * inputs;
+      for (int i = 0; i < inputs; i++) {
+        acc += weights[w + i] * in[i];
+      }
+      acc = FixedPoint.multiplyByQuantizedMultiplier(acc, mMultipliers[u], mShifts[u]);
+      out[u] = (byte) FixedPoint.clamp(acc + mOutputOffset, mActivationMin, mActivationMax);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Integer requantization helpers, ported from the TFLite reference kernels so that results can
+ * match the firmware bit for bit. They are only tested against the Python port of the same
+ * kernels, see {@code GestureClassifierConsistencyTest}, not against TFLite itself.
+ *
+ * <p>A real multiplier {@code m} is stored as a Q31 mantissa and a power-of-two exponent, as
+ * produced by {@code QuantizeMultiplier} in {@code quantization_util.cc}.
+ */
+final class FixedPoint {
+
+  private FixedPoint() {}
+
+  /** Returns the Q31 mantissa of {@code realMultiplier}. */
+  static int quantizedMultiplier(double realMultiplier) {
+    return (int) quantize(realMultiplier);
+  }
+
+  /** Returns the power-of-two exponent paired with {@link #quantizedMultiplier(double)}. */
+  static int quantizedShift(double realMultiplier) {
+    return (int) (quantize(realMultiplier) >> 32);
+  }
+
+  private static long quantize(double realMultiplier) {
+    if (realMultiplier == 0.0) {
+      return 0L;
+    }
+    if (realMultiplier < 0.0 || Double.isNaN(realMultiplier) || Double.isInfinite(realMultiplier)) {
+      throw new IllegalArgumentException("Bad multiplier: " + realMultiplier);
+    }
+    // frexp(): realMultiplier = q * 2^shift with q in [0.5, 1).
+    int shift = Math.getExponent(realMultiplier) + 1;
+    double q = Math.scalb(realMultiplier, -shift);
+    long qFixed = roundHalfAwayFromZero(q * (1L << 31));
+    if (qFixed == (1L << 31)) {
+      qFixed /= 2;
+      shift++;
+    }
+    if (shift < -31) {
+      shift = 0;
+      qFixed = 0;
+    }
+    return ((long) shift << 32) | (qFixed & 0xffffffffL);
+  }
+
+  /** {@code std::round} semantics; {@link Math#round(double)} rounds ties towards +infinity. */
+  static long roundHalfAwayFromZero(double value) {
+    return value < 0 ? -(long) Math.floor(-value + 0.5) : (long) Math.floor(value + 0.5);
+  }
+
+  static int saturatingRoundingDoublingHighMul(int a, int b) {
+    if (a == Integer.MIN_VALUE && b == Integer.MIN_VALUE) {
+      return Integer.MAX_VALUE;
+    }
+    long ab = (long) a * b;
+    long nudge = ab >= 0 ? 1L << 30 : 1L - (1L << 30);
+    return (int) ((ab + nudge) / (1L << 31));
+  }
+
+  static int roundingDivideByPot(int x, int exponent) {
+    int mask = (1 << exponent) - 1;
+    int remainder = x & mask;
+    int threshold = (mask >> 1) + (x < 0 ? 1 : 0);
+    return (x >> exponent) + (remainder > threshold ? 1 : 0);
+  }
+
+  static int multiplyByQuantizedMultiplier(int x, int multiplier, int shift) {
+    int leftShift = shift > 0 ? shift : 0;
+    int rightShift = shift > 0 ? 0 : -shift;
+    return roundingDivideByPot(
+        saturatingRoundingDoublingHighMul(x * (1 << leftShift), multiplier), rightShift);
+  }
+
+  /**
+   * Multiplies by {@code 2^exponent}, saturating left shifts and rounding right shifts, as
+   * gemmlowp's {@code SaturatingRoundingMultiplyByPOT}.
+   */
+  static int saturatingRoundingMultiplyByPot(int x, int exponent) {
+    if (exponent < 0) {
+      return roundingDivideByPot(x, -exponent);
+    }
+    int threshold = (1 << (31 - exponent)) - 1;
+    if (x > threshold) {
+      return Integer.MAX_VALUE;
+    }
+    if (x < -threshold) {
+      return Integer.MIN_VALUE;
+    }
+    return x << exponent;
+  }
+
+  /** {@code (a + b) / 2} rounded half away from zero, without overflow. */
+  static int roundingHalfSum(int a, int b) {
+    long sum = (long) a + b;
+    return (int) ((sum + (sum >= 0 ? 1 : -1)) / 2);
+  }
+
+  static int clamp(int value, int min, int max) {
+    return value < min ? min : value > max ? max : value;
+  }
+}
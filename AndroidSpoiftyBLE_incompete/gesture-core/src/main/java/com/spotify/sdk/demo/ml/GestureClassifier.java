@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Runs a {@link QuantizedModel} over float sensor windows on the phone.
+ *
+ * <p>All activations live in two preallocated ping-pong arenas sized for the largest layer, so
+ * {@link #classify} does not allocate. Every stage, softmax included, is an integer port of the
+ * TFLite reference kernel the firmware runs; {@code GestureClassifierConsistencyTest} checks each
+ * one against the Python port of those kernels in {@code
+ * ArduinoClassifierBLE/export_reference_vectors.py}.
+ * Probabilities are the int8 softmax output dequantized from its grid (scale 1/256, zero point
+ * -128), the same values the firmware reports.
+ *
+ * <p>Not thread safe; use one instance per inference thread.
+ */
+public final class GestureClassifier {
+
+  private static final float OUTPUT_GRID = 256f;
+
+  private final QuantizedModel mModel;
+  private final Layer[] mLayers;
+  private final byte[] mInput;
+  private final byte[] mPing;
+  private final byte[] mPong;
+  private final byte[] mOutput;
+
+  public GestureClassifier(QuantizedModel model) {
+    mModel = model;
+    mLayers = model.layers();
+    mInput = new byte[model.inputSteps() * model.inputChannels()];
+    mPing = new byte[model.maxActivationSize()];
+    mPong = new byte[model.maxActivationSize()];
+    mOutput = new byte[model.classCount()];
+  }
+
+  public QuantizedModel model() {
+    return mModel;
+  }
+
+  /**
+   * Classifies one {@code [step][channel]} window of {@code inputSteps() * inputChannels()} floats
+   * starting at {@code offset}, normalised as the firmware does.
+   *
+   * @param probabilities receives one probability per class
+   * @return the most likely class, which is also a {@code Gesture} id
+   */
+  public int classify(float[] window, int offset, float[] probabilities) {
+    if (offset < 0 || window.length - offset < mInput.length) {
+      throw new IllegalArgumentException("Window too short");
+    }
+    if (probabilities.length < mOutput.length) {
+      throw new IllegalArgumentException("Need " + mOutput.length + " probabilities");
+    }
+    mModel.quantizeInput(window, offset, mInput, 0, mModel.inputSteps());
+    return run(mInput, probabilities);
+  }
+
+  /** Runs every layer over an already quantized input. */
+  int run(byte[] input, float[] probabilities) {
+    byte[] in = input;
+    byte[] out = mPing;
+    for (Layer layer : mLayers) {
+      layer.forward(in, out, 0, layer.outSteps);
+      in = out;
+      out = out == mPing ? mPong : mPing;
+    }
+    return softmax(mModel, in, mOutput, probabilities);
+  }
+
+  /**
+   * Turns int8 logits into probabilities on the output grid and returns the top class. {@code
+   * output} receives the int8 softmax output, one byte per class.
+   */
+  static int softmax(QuantizedModel model, byte[] logits, byte[] output, float[] probabilities) {
+    int best = model.softmax().forward(logits, output, output.length);
+    for (int i = 0; i < output.length; i++) {
+      probabilities[i] = (output[i] - Byte.MIN_VALUE) / OUTPUT_GRID;
+    }
+    return best;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Int8 softmax onto the fixed output grid TFLite uses for it (scale 1/256, zero point -128),
+ * ported from the reference {@code Softmax} kernel, which works in gemmlowp fixed point
+ * throughout. Like the other stages it is only tested against the Python port of that kernel.
+ *
+ * <p>Logit differences are rescaled to Q5.26, exponentiated with gemmlowp's {@code
+ * exp_on_negative_values}, summed in Q12.19 and normalised with its Newton-Raphson reciprocal.
+ * Differences below {@code diffMin} contribute nothing and map to the lowest output.
+ */
+final class Int8Softmax {
+
+  private static final int SCALED_DIFF_INTEGER_BITS = 5;
+  private static final int ACCUMULATION_INTEGER_BITS = 12;
+  private static final int OUTPUT_BITS = 8;
+
+  // Q0.31 multipliers for exp(-1/4), exp(-1/2), exp(-1), ..., exp(-16).
+  private static final int[] EXP_BARREL_SHIFTER = {
+    1672461947, 1302514674, 790015084, 290630308, 39332535, 720401, 242
+  };
+
+  private final int mInputMultiplier;
+  private final int mInputLeftShift;
+  private final int mDiffMin;
+
+  Int8Softmax(float inputScale, float beta) {
+    // PreprocessSoftmaxScaling() and CalculateInputRadius() in quantization_util.cc.
+    double real =
+        Math.min(
+            (double) beta * (double) inputScale * (1L << (31 - SCALED_DIFF_INTEGER_BITS)),
+            (1L << 31) - 1.0);
+    if (real <= 1.0) {
+      throw new IllegalArgumentException("Softmax input scale too small: " + inputScale);
+    }
+    mInputMultiplier = FixedPoint.quantizedMultiplier(real);
+    mInputLeftShift = FixedPoint.quantizedShift(real);
+    double radius =
+        ((1L << SCALED_DIFF_INTEGER_BITS) - 1)
+            * (double) (1L << (31 - SCALED_DIFF_INTEGER_BITS))
+            / (double) (1L << mInputLeftShift);
+    mDiffMin = -(int) Math.floor(radius);
+  }
+
+  /**
+   * Writes one int8 probability per class to {@code out} and returns the top class. Ties go to
+   * the last class, as on the firmware.
+   */
+  int forward(byte[] logits, byte[] out, int classes) {
+    int max = Byte.MIN_VALUE;
+    for (int i = 0; i < classes; i++) {
+      max = Math.max(max, logits[i]);
+    }
+    int sumOfExps = 0;
+    for (int i = 0; i < classes; i++) {
+      int diff = logits[i] - max;
+      if (diff >= mDiffMin) {
+        sumOfExps += FixedPoint.roundingDivideByPot(expOfDiff(diff), ACCUMULATION_INTEGER_BITS);
+      }
+    }
+    // GetReciprocal() in common.h.
+    int headroomPlusOne = Integer.numberOfLeadingZeros(sumOfExps);
+    int bitsOverUnit = ACCUMULATION_INTEGER_BITS - headroomPlusOne;
+    int shiftedScale = oneOverOnePlusX((sumOfExps << headroomPlusOne) - Integer.MIN_VALUE);
+
+    int best = 0;
+    for (int i = 0; i < classes; i++) {
+      int diff = logits[i] - max;
+      int value = Byte.MIN_VALUE;
+      if (diff >= mDiffMin) {
+        int unsaturated =
+            FixedPoint.roundingDivideByPot(
+                FixedPoint.saturatingRoundingDoublingHighMul(shiftedScale, expOfDiff(diff)),
+                bitsOverUnit + 31 - OUTPUT_BITS);
+        value = FixedPoint.clamp(unsaturated + Byte.MIN_VALUE, Byte.MIN_VALUE, Byte.MAX_VALUE);
+      }
+      out[i] = (byte) value;
+      if (value >= out[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private int expOfDiff(int diff) {
+    // MultiplyByQuantizedMultiplierGreaterThanOne().
+    int shifted = diff * (1 << mInputLeftShift);
+    return expOnNegativeValues(
+        FixedPoint.saturatingRoundingDoublingHighMul(shifted, mInputMultiplier));
+  }
+
+  /** exp(a) for Q5.26 {@code a <= 0}, as Q0.31. */
+  private static int expOnNegativeValues(int a) {
+    int fractionalBits = 31 - SCALED_DIFF_INTEGER_BITS;
+    int oneQuarter = 1 << (fractionalBits - 2);
+    int aModQuarterMinusOneQuarter = (a & (oneQuarter - 1)) - oneQuarter;
+    int result =
+        expOnIntervalBetweenNegativeOneQuarterAnd0Excl(
+            FixedPoint.saturatingRoundingMultiplyByPot(
+                aModQuarterMinusOneQuarter, SCALED_DIFF_INTEGER_BITS));
+    int remainder = aModQuarterMinusOneQuarter - a;
+    for (int i = 0; i < EXP_BARREL_SHIFTER.length; i++) {
+      if ((remainder & (1 << (fractionalBits - 2 + i))) != 0) {
+        result = FixedPoint.saturatingRoundingDoublingHighMul(result, EXP_BARREL_SHIFTER[i]);
+      }
+    }
+    return a == 0 ? Integer.MAX_VALUE : result;
+  }
+
+  /** Taylor expansion of exp around -1/8, for Q0.31 {@code a} in [-1/4, 0). */
+  private static int expOnIntervalBetweenNegativeOneQuarterAnd0Excl(int a) {
+    int constantTerm = 1895147668;
+    int oneThird = 715827883;
+    int x = a + (1 << 28);
+    int x2 = FixedPoint.saturatingRoundingDoublingHighMul(x, x);
+    int x3 = FixedPoint.saturatingRoundingDoublingHighMul(x2, x);
+    int x4 = FixedPoint.saturatingRoundingDoublingHighMul(x2, x2);
+    int x4Over4 = FixedPoint.saturatingRoundingMultiplyByPot(x4, -2);
+    int polynomial =
+        FixedPoint.saturatingRoundingMultiplyByPot(
+            FixedPoint.saturatingRoundingDoublingHighMul(x4Over4 + x3, oneThird) + x2, -1);
+    return constantTerm
+        + FixedPoint.saturatingRoundingDoublingHighMul(constantTerm, x + polynomial);
+  }
+
+  /** 1 / (1 + a) for Q0.31 {@code a} in [0, 1), as Q0.31. */
+  private static int oneOverOnePlusX(int a) {
+    int halfDenominator = FixedPoint.roundingHalfSum(a, Integer.MAX_VALUE);
+    // Newton-Raphson in Q2.29, starting from 48/17 - 32/17 * halfDenominator.
+    int x =
+        1515870810 + FixedPoint.saturatingRoundingDoublingHighMul(halfDenominator, -1010580540);
+    for (int i = 0; i < 3; i++) {
+      int halfDenominatorTimesX = FixedPoint.saturatingRoundingDoublingHighMul(halfDenominator, x);
+      int oneMinusHalfDenominatorTimesX = (1 << 29) - halfDenominatorTimesX;
+      x +=
+          FixedPoint.saturatingRoundingMultiplyByPot(
+              FixedPoint.saturatingRoundingDoublingHighMul(x, oneMinusHalfDenominatorTimesX), 2);
+    }
+    return FixedPoint.saturatingRoundingMultiplyByPot(x, 1);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * One int8 stage of a {@link QuantizedModel}. Activations are laid out {@code [step][channel]},
+ * the same order TFLite uses for NHWC tensors, so flattening is free.
+ *
+ * <p>Layers are immutable and may be shared between classifiers; all scratch lives in the caller's
+ * arenas.
+ */
+abstract class Layer {
+
+  final int inSteps;
+  final int inChannels;
+  final int outSteps;
+  final int outChannels;
+
+  Layer(int inSteps, int inChannels, int outSteps, int outChannels) {
+    this.inSteps = inSteps;
+    this.inChannels = inChannels;
+    this.outSteps = outSteps;
+    this.outChannels = outChannels;
+  }
+
+  final int outputSize() {
+    return outSteps * outChannels;
+  }
+
+  /** Computes output steps {@code [fromStep, toStep)} of {@code out} from all of {@code in}. */
+  abstract void forward(byte[] in, byte[] out, int fromStep, int toStep);
+
+  // The hooks below let StreamingGestureClassifier reuse outputs when the window slides. The
+  // defaults describe a step-wise layer, where output step t depends on input step t only.
+
+  /**
+   * Returns how far the outputs move when the input moves {@code inputShift} steps towards the
+   * start, or -1 if outputs cannot be reused and the layer must be recomputed in full.
+   */
+  int outputShift(int inputShift) {
+    return inputShift;
+  }
+
+  /** First output step that reads input step {@code inputStep}. */
+  int firstAffected(int inputStep) {
+    return inputStep;
+  }
+
+  /** End (exclusive) of the output steps that read any input step before {@code inputEnd}. */
+  int endAffected(int inputEnd) {
+    return inputEnd;
+  }
+
+  /**
+   * Number of leading output steps that read padding. Their values depend on their position, so
+   * they must be recomputed after any shift.
+   */
+  int leadingEdge() {
+    return 0;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/** Non-overlapping 1-D max pooling; a trailing partial window is dropped, as with VALID padding. */
+final class MaxPool1DLayer extends Layer {
+
+  private final int mSize;
+
+  MaxPool1DLayer(int inSteps, int channels, int size) {
+    super(inSteps, channels, inSteps / size, channels);
+    if (size <= 0) {
+      throw new IllegalArgumentException("Bad pool size: " + size);
+    }
+    mSize = size;
+  }
+
+  @Override
+  int outputShift(int inputShift) {
+    return inputShift % mSize == 0 ? inputShift / mSize : -1;
+  }
+
+  @Override
+  int firstAffected(int inputStep) {
+    return inputStep / mSize;
+  }
+
+  @Override
+  int endAffected(int inputEnd) {
+    return Math.min(outSteps, (inputEnd + mSize - 1) / mSize);
+  }
+
+  @Override
+  void forward(byte[] in, byte[] out, int fromStep, int toStep) {
+    int channels = outChannels;
+    for (int t = fromStep; t < toStep; t++) {
+      int inBase = t * mSize * channels;
+      for (int c = 0; c < channels; c++) {
+        int max = in[inBase + c];
+        for (int k = 1; k < mSize; k++) {
+          max = Math.max(max, in[inBase + k * channels + c]);
+        }
+        out[t * channels + c] = (byte) max;
+      }
+    }
+  }
+}
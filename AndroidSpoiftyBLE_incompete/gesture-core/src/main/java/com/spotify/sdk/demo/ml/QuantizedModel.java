@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The gesture CNN from {@code ModelTraining.ipynb}, with the same int8 weights and quantization
+ * parameters the firmware runs from {@code model_quant.h}.
+ *
+ * <p>Models are read from the little-endian blob written by {@code
+ * ArduinoClassifierBLE/export_java_model.py}:
+ *
+ * <pre>
+ *   int32 magic "GCM1", int32 layerCount
+ *   int32 steps, int32 channels, float inputScale, int32 inputZeroPoint, float softmaxBeta
+ *   layerCount x (int32 type, type specific parameters)
+ * </pre>
+ *
+ * <p>A model is immutable and can back any number of {@link GestureClassifier}s.
+ */
+public final class QuantizedModel {
+
+  private static final int MAGIC = 0x314D4347;
+
+  private static final int LAYER_CHANNEL_MUL = 1;
+  private static final int LAYER_CHANNEL_ADD = 2;
+  private static final int LAYER_CONV1D = 3;
+  private static final int LAYER_MAXPOOL1D = 4;
+  private static final int LAYER_DENSE = 5;
+
+  private final int mInputSteps;
+  private final int mInputChannels;
+  private final float mInputScale;
+  private final int mInputZeroPoint;
+  private final Layer[] mLayers;
+  private final Int8Softmax mSoftmax;
+  private final int mMaxActivationSize;
+
+  private QuantizedModel(
+      int inputSteps,
+      int inputChannels,
+      float inputScale,
+      int inputZeroPoint,
+      float outputScale,
+      int outputZeroPoint,
+      float softmaxBeta,
+      Layer[] layers) {
+    mInputSteps = inputSteps;
+    mInputChannels = inputChannels;
+    mInputScale = inputScale;
+    mInputZeroPoint = inputZeroPoint;
+    mLayers = layers;
+    // The logits' zero point cancels out of the softmax.
+    mSoftmax = new Int8Softmax(outputScale, softmaxBeta);
+    int max = inputSteps * inputChannels;
+    for (Layer layer : layers) {
+      max = Math.max(max, layer.outputSize());
+    }
+    mMaxActivationSize = max;
+  }
+
+  /** Reads a model blob; {@code in} is not closed. */
+  public static QuantizedModel load(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      bytes.write(buffer, 0, read);
+    }
+    return load(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  public static QuantizedModel load(ByteBuffer blob) throws IOException {
+    ByteBuffer in = blob.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      return parse(in);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated model", e);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Bad model: " + e.getMessage(), e);
+    }
+  }
+
+  private static QuantizedModel parse(ByteBuffer in) throws IOException {
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not a gesture model");
+    }
+    int layerCount = in.getInt();
+    int inputSteps = in.getInt();
+    int inputChannels = in.getInt();
+    float inputScale = in.getFloat();
+    int inputZeroPoint = in.getInt();
+    float softmaxBeta = in.getFloat();
+
+    List<Layer> layers = new ArrayList<>(layerCount);
+    int steps = inputSteps;
+    int channels = inputChannels;
+    float scale = inputScale;
+    int zeroPoint = inputZeroPoint;
+    for (int i = 0; i < layerCount; i++) {
+      int type = in.getInt();
+      Layer layer;
+      switch (type) {
+        case LAYER_CHANNEL_MUL:
+        case LAYER_CHANNEL_ADD:
+          {
+            int size = in.getInt();
+            float layerInputScale = in.getFloat();
+            int layerInputZeroPoint = in.getInt();
+            float operandScale = in.getFloat();
+            int operandZeroPoint = in.getInt();
+            scale = in.getFloat();
+            zeroPoint = in.getInt();
+            byte[] operand = bytes(in, size);
+            requireShape(size == channels, "channel operand");
+            layer =
+                type == LAYER_CHANNEL_MUL
+                    ? ChannelLutLayer.mul(
+                        steps,
+                        operand,
+                        layerInputScale,
+                        layerInputZeroPoint,
+                        operandScale,
+                        operandZeroPoint,
+                        scale,
+                        zeroPoint)
+                    : ChannelLutLayer.add(
+                        steps,
+                        operand,
+                        layerInputScale,
+                        layerInputZeroPoint,
+                        operandScale,
+                        operandZeroPoint,
+                        scale,
+                        zeroPoint);
+            Layer previous = layers.isEmpty() ? null : layers.get(layers.size() - 1);
+            if (previous instanceof ChannelLutLayer) {
+              ChannelLutLayer fused = ((ChannelLutLayer) previous).then((ChannelLutLayer) layer);
+              layers.set(layers.size() - 1, fused);
+              continue;
+            }
+            break;
+          }
+        case LAYER_CONV1D:
+          {
+            int filters = in.getInt();
+            int kernel = in.getInt();
+            int layerChannels = in.getInt();
+            float layerInputScale = in.getFloat();
+            int layerInputZeroPoint = in.getInt();
+            scale = in.getFloat();
+            zeroPoint = in.getInt();
+            int activationMin = in.getInt();
+            int activationMax = in.getInt();
+            float[] weightScales = floats(in, filters);
+            byte[] weights = bytes(in, filters * kernel * layerChannels);
+            int[] bias = ints(in, filters);
+            requireShape(layerChannels == channels, "convolution input");
+            layer =
+                new Conv1DLayer(
+                    steps,
+                    channels,
+                    filters,
+                    kernel,
+                    weights,
+                    bias,
+                    layerInputScale,
+                    layerInputZeroPoint,
+                    weightScales,
+                    scale,
+                    zeroPoint,
+                    activationMin,
+                    activationMax);
+            break;
+          }
+        case LAYER_MAXPOOL1D:
+          layer = new MaxPool1DLayer(steps, channels, in.getInt());
+          break;
+        case LAYER_DENSE:
+          {
+            int units = in.getInt();
+            int inputs = in.getInt();
+            float layerInputScale = in.getFloat();
+            int layerInputZeroPoint = in.getInt();
+            scale = in.getFloat();
+            zeroPoint = in.getInt();
+            int activationMin = in.getInt();
+            int activationMax = in.getInt();
+            float[] weightScales = floats(in, units);
+            byte[] weights = bytes(in, units * inputs);
+            int[] bias = ints(in, units);
+            requireShape(inputs == steps * channels, "dense input");
+            layer =
+                new DenseLayer(
+                    steps,
+                    channels,
+                    units,
+                    weights,
+                    bias,
+                    layerInputScale,
+                    layerInputZeroPoint,
+                    weightScales,
+                    scale,
+                    zeroPoint,
+                    activationMin,
+                    activationMax);
+            break;
+          }
+        default:
+          throw new IOException("Unknown layer type " + type);
+      }
+      layers.add(layer);
+      steps = layer.outSteps;
+      channels = layer.outChannels;
+    }
+    requireShape(steps == 1 && !layers.isEmpty(), "model output");
+    return new QuantizedModel(
+        inputSteps,
+        inputChannels,
+        inputScale,
+        inputZeroPoint,
+        scale,
+        zeroPoint,
+        softmaxBeta,
+        layers.toArray(new Layer[0]));
+  }
+
+  private static void requireShape(boolean condition, String what) throws IOException {
+    if (!condition) {
+      throw new IOException("Shape mismatch at " + what);
+    }
+  }
+
+  private static byte[] bytes(ByteBuffer in, int count) {
+    byte[] out = new byte[count];
+    in.get(out);
+    return out;
+  }
+
+  private static int[] ints(ByteBuffer in, int count) {
+    int[] out = new int[count];
+    in.asIntBuffer().get(out);
+    in.position(in.position() + count * 4);
+    return out;
+  }
+
+  private static float[] floats(ByteBuffer in, int count) {
+    float[] out = new float[count];
+    in.asFloatBuffer().get(out);
+    in.position(in.position() + count * 4);
+    return out;
+  }
+
+  /** Number of time steps in an input window. */
+  public int inputSteps() {
+    return mInputSteps;
+  }
+
+  /** Number of features per time step. */
+  public int inputChannels() {
+    return mInputChannels;
+  }
+
+  /** Number of output classes; class {@code i} is {@code Gesture.fromId(i)}. */
+  public int classCount() {
+    return mLayers[mLayers.length - 1].outChannels;
+  }
+
+  Layer[] layers() {
+    return mLayers;
+  }
+
+  int maxActivationSize() {
+    return mMaxActivationSize;
+  }
+
+  Int8Softmax softmax() {
+    return mSoftmax;
+  }
+
+  /**
+   * Quantizes steps {@code [fromStep, toStep)} of a {@code [step][channel]} float window starting
+   * at {@code srcOffset} into {@code dst}, as the TFLite {@code QUANTIZE} op does.
+   */
+  void quantizeInput(float[] src, int srcOffset, byte[] dst, int fromStep, int toStep) {
+    float scale = mInputScale;
+    int zeroPoint = mInputZeroPoint;
+    for (int i = fromStep * mInputChannels, end = toStep * mInputChannels; i < end; i++) {
+      long value = FixedPoint.roundHalfAwayFromZero(src[srcOffset + i] / scale) + zeroPoint;
+      dst[i] = (byte) (value < -128 ? -128 : value > 127 ? 127 : value);
+    }
+  }
+}
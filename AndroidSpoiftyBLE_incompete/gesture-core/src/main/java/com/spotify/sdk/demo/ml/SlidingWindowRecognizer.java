@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+import com.spotify.sdk.demo.player.LatencyStats;
+import com.spotify.sdk.demo.sensor.SampleRing;
+import com.spotify.sdk.demo.sensor.SampleWindow;
+
+/**
+ * Runs a {@link StreamingGestureClassifier} over a {@link SampleRing} every {@code hop} samples.
+ *
+ * <p>Windows end on multiples of the hop. If the caller falls behind, only the newest window is
+ * classified and the ones in between are counted as skipped. A decision is therefore at most one
+ * hop plus one inference behind the latest sample, rather than a whole window. Keep the hop even
+ * so the pooling layer can reuse its output. Windows that span a stream discontinuity are
+ * skipped. Windows the writer overtook while they were being read are also skipped. An optional
+ * {@link Gate}, such as an EMG onset detector, can veto windows before any inference runs.
+ *
+ * <p>Call {@link #poll()} from one thread, typically right after new samples were appended.
+ */
+public final class SlidingWindowRecognizer {
+
+  /** Receives every classified window on the polling thread. */
+  public interface Listener {
+    void onWindowClassified(int classId, float confidence, long endSample);
+  }
+
+  /** Decides whether a due window is worth classifying at all. */
+  public interface Gate {
+    boolean isOpen(long firstSample, long endSample);
+  }
+
+  private final StreamingGestureClassifier mClassifier;
+  private final SampleRing mRing;
+  private final int mHop;
+  private final int mSteps;
+  private final Listener mListener;
+  private final SampleWindow mWindow = new SampleWindow();
+  private final float[] mProbabilities;
+  private final LatencyStats mInferenceStats = new LatencyStats("window inference");
+  private Gate mGate;
+
+  private long mNextEnd;
+  private long mClassified;
+  private long mSkipped;
+  private long mGated;
+  private long mDiscontinuous;
+  private long mOverrun;
+
+  public SlidingWindowRecognizer(
+      StreamingGestureClassifier classifier, SampleRing ring, int hop, Listener listener) {
+    QuantizedModel model = classifier.model();
+    if (hop <= 0) {
+      throw new IllegalArgumentException("hop must be positive: " + hop);
+    }
+    if (ring.channels() != model.inputChannels() || ring.capacity() <= model.inputSteps()) {
+      throw new IllegalArgumentException("Ring does not fit the model input");
+    }
+    mClassifier = classifier;
+    mRing = ring;
+    mHop = hop;
+    mSteps = model.inputSteps();
+    mListener = listener;
+    mProbabilities = new float[model.classCount()];
+    mNextEnd = mSteps;
+  }
+
+  public int hop() {
+    return mHop;
+  }
+
+  /** Only classifies windows {@code gate} lets through; {@code null} classifies every window. */
+  public void setGate(Gate gate) {
+    mGate = gate;
+  }
+
+  /** Classifies the newest due window, if any. Returns {@code true} if the listener was called. */
+  public boolean poll() {
+    long written = mRing.written();
+    if (written < mNextEnd) {
+      return false;
+    }
+    long end = written - (written - mNextEnd) % mHop;
+    mSkipped += (end - mNextEnd) / mHop;
+    mNextEnd = end + mHop;
+
+    if (mGate != null && !mGate.isOpen(end - mSteps, end)) {
+      mGated++;
+      return false;
+    }
+    if (!mRing.window(end - mSteps, mSteps, mWindow) || !mWindow.isContiguous()) {
+      mDiscontinuous++;
+      mClassifier.reset();
+      return false;
+    }
+    long start = System.nanoTime();
+    int best =
+        mClassifier.classify(
+            mWindow.array(), mWindow.offset(), mWindow.firstSample(), mProbabilities);
+    mInferenceStats.record(System.nanoTime() - start);
+    if (!mRing.isIntact(mWindow)) {
+      mOverrun++;
+      mClassifier.reset();
+      return false;
+    }
+    mClassified++;
+    mListener.onWindowClassified(best, mProbabilities[best], end);
+    return true;
+  }
+
+  public long classified() {
+    return mClassified;
+  }
+
+  /** Due windows passed over because a newer one was already complete. */
+  public long skipped() {
+    return mSkipped;
+  }
+
+  /** Due windows not classified because the gate was closed; inference work saved. */
+  public long gated() {
+    return mGated;
+  }
+
+  /** Windows dropped because they spanned a discontinuity in the stream. */
+  public long discontinuous() {
+    return mDiscontinuous;
+  }
+
+  /** Windows dropped because the writer overwrote them while they were being classified. */
+  public long overrun() {
+    return mOverrun;
+  }
+
+  public LatencyStats inferenceStats() {
+    return mInferenceStats;
+  }
+}
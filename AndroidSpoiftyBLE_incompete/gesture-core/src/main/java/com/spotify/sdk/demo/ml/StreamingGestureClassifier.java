@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+/**
+ * Classifies overlapping windows of a sample stream, reusing the activations the previous window
+ * already computed.
+ *
+ * <p>Every stage keeps its whole output. When the next window starts {@code s} samples later, each
+ * stage shifts its output by its own stride, and only two kinds of steps are recomputed: those
+ * that read new input, and those whose taps read padding. For the gesture CNN with a hop of
+ * {@code h} that is the last {@code h + 3} and the first 3 convolution steps, instead of all 150.
+ * The dense layer always runs in full. Its weights depend on position, so a shifted input shares
+ * no partial sums.
+ *
+ * <p>Shifts that a stage cannot follow fall back to a full recompute. Examples are an odd shift
+ * through the pooling layer, a jump of a window or more, and a window that is not after the last
+ * one. Results are identical to {@link GestureClassifier} either way.
+ *
+ * <p>Not thread safe. Nothing is allocated after construction.
+ */
+public final class StreamingGestureClassifier {
+
+  private final QuantizedModel mModel;
+  private final Layer[] mLayers;
+  // mActivations[0] is the quantized input, mActivations[i + 1] the output of layer i.
+  private final byte[][] mActivations;
+  private final byte[] mOutput;
+  private final int mSteps;
+  private final int mChannels;
+
+  private boolean mPrimed;
+  private long mFirstSample;
+
+  private long mFullRuns;
+  private long mIncrementalRuns;
+  private long mComputedSteps;
+
+  public StreamingGestureClassifier(QuantizedModel model) {
+    mModel = model;
+    mLayers = model.layers();
+    mSteps = model.inputSteps();
+    mChannels = model.inputChannels();
+    mActivations = new byte[mLayers.length + 1][];
+    mActivations[0] = new byte[mSteps * mChannels];
+    for (int i = 0; i < mLayers.length; i++) {
+      mActivations[i + 1] = new byte[mLayers[i].outputSize()];
+    }
+    mOutput = new byte[model.classCount()];
+  }
+
+  public QuantizedModel model() {
+    return mModel;
+  }
+
+  /** Forgets the previous window; the next call recomputes everything. */
+  public void reset() {
+    mPrimed = false;
+  }
+
+  /**
+   * Classifies the window of {@code inputSteps() * inputChannels()} floats at {@code offset}.
+   *
+   * @param firstSample stream index of the window's first sample, used to find how far the window
+   *     moved since the previous call
+   * @param probabilities receives one probability per class
+   * @return the most likely class
+   */
+  public int classify(float[] window, int offset, long firstSample, float[] probabilities) {
+    if (offset < 0 || window.length - offset < mSteps * mChannels) {
+      throw new IllegalArgumentException("Window too short");
+    }
+    if (probabilities.length < mOutput.length) {
+      throw new IllegalArgumentException("Need " + mOutput.length + " probabilities");
+    }
+    long shift = firstSample - mFirstSample;
+    if (mPrimed && shift > 0 && shift < mSteps) {
+      runIncremental(window, offset, (int) shift);
+      mIncrementalRuns++;
+    } else {
+      runFull(window, offset);
+      mFullRuns++;
+    }
+    mPrimed = true;
+    mFirstSample = firstSample;
+    byte[] logits = mActivations[mLayers.length];
+    return GestureClassifier.softmax(mModel, logits, mOutput, probabilities);
+  }
+
+  private void runFull(float[] window, int offset) {
+    mModel.quantizeInput(window, offset, mActivations[0], 0, mSteps);
+    for (int i = 0; i < mLayers.length; i++) {
+      Layer layer = mLayers[i];
+      layer.forward(mActivations[i], mActivations[i + 1], 0, layer.outSteps);
+      mComputedSteps += layer.outSteps;
+    }
+  }
+
+  private void runIncremental(float[] window, int offset, int shift) {
+    // Dirty input steps are [0, head) and [tail, steps), after shifting.
+    shift(mActivations[0], shift * mChannels);
+    int head = 0;
+    int tail = mSteps - shift;
+    mModel.quantizeInput(window, offset, mActivations[0], tail, mSteps);
+
+    boolean full = false;
+    for (int i = 0; i < mLayers.length; i++) {
+      Layer layer = mLayers[i];
+      byte[] in = mActivations[i];
+      byte[] out = mActivations[i + 1];
+      int outShift = full ? -1 : layer.outputShift(shift);
+      if (outShift < 0 || outShift >= layer.outSteps) {
+        full = true;
+        layer.forward(in, out, 0, layer.outSteps);
+        mComputedSteps += layer.outSteps;
+        continue;
+      }
+      shift(out, outShift * layer.outChannels);
+      int outHead = Math.max(head > 0 ? layer.endAffected(head) : 0, layer.leadingEdge());
+      int outTail = layer.firstAffected(tail);
+      if (outHead >= outTail) {
+        layer.forward(in, out, 0, layer.outSteps);
+        mComputedSteps += layer.outSteps;
+      } else {
+        layer.forward(in, out, 0, outHead);
+        layer.forward(in, out, outTail, layer.outSteps);
+        mComputedSteps += outHead + layer.outSteps - outTail;
+      }
+      shift = outShift;
+      head = outHead;
+      tail = outTail;
+    }
+  }
+
+  /** The quantized input for stage 0, otherwise the output of layer {@code stage - 1}. */
+  byte[] activations(int stage) {
+    return mActivations[stage];
+  }
+
+  private static void shift(byte[] buffer, int by) {
+    System.arraycopy(buffer, by, buffer, 0, buffer.length - by);
+  }
+
+  /** Windows computed from scratch. */
+  public long fullRuns() {
+    return mFullRuns;
+  }
+
+  /** Windows computed by reusing the previous one. */
+  public long incrementalRuns() {
+    return mIncrementalRuns;
+  }
+
+  /** Output steps computed over all layers, to compare the work against full runs. */
+  public long computedSteps() {
+    return mComputedSteps;
+  }
+}
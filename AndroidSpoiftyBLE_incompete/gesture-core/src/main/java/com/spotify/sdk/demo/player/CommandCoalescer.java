@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.player;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PlayerController} that keeps at most one seek or skip in flight and coalesces what
+ * arrives while it is outstanding:
+ *
+ * <ul>
+ *   <li>Relative seeks are summed into one pending seek with the net offset. A net offset of zero
+ *       is cancelled.
+ *   <li>A skip in the same direction as a pending one, within the skip window of the previous skip
+ *       request, is collapsed into it. Skips further apart are kept, so deliberate double skips
+ *       still move two tracks. Opposite skips cancel each other.
+ *   <li>A skip supersedes any pending seek, which was relative to the track being left.
+ * </ul>
+ *
+ * <p>When the wrapped controller reports the in-flight command through {@link
+ * #onCommandSettled}, the next pending command goes out. A command that never settles is given up
+ * after the ack timeout: on a timer when the coalescer has a scheduler, otherwise on the next
+ * request. Settles are matched by the time the command was issued, so a late answer to a command
+ * given up on, or dropped by {@link #reset}, cannot release the one in flight.
+ *
+ * <p>Toggles pass straight through. Playing a URI also does, dropping pending seeks and skips,
+ * which were relative to the track being left.
+ *
+ * <p>Thread safe. The wrapped controller is called with this object's lock held and must not
+ * block.
+ */
+public final class CommandCoalescer implements PlayerController {
+
+  /** Time source, {@link System#nanoTime()} unless replaced for simulations. */
+  public interface Clock {
+    long nanoTime();
+  }
+
+  private final PlayerController mDelegate;
+  private final Clock mClock;
+  private final long mSkipWindowNanos;
+  private final long mAckTimeoutNanos;
+  private final ScheduledExecutorService mScheduler;
+
+  private PlayerCommand mInFlight = PlayerCommand.NONE;
+  private long mInFlightSinceNanos;
+  private ScheduledFuture<?> mExpiry;
+  // Signed: positive skips forward, negative skips back.
+  private int mPendingSkips;
+  private boolean mHasPendingSeek;
+  private long mPendingSeekMs;
+  private int mLastSkipDirection;
+  private long mLastSkipNanos;
+
+  private long mRequested;
+  private long mIssued;
+  private long mMergedSeeks;
+  private long mCollapsedSkips;
+  private long mCancelled;
+  private long mTimeouts;
+
+  private CommandCoalescer(Builder builder, PlayerController delegate) {
+    mDelegate = delegate;
+    mClock = builder.mClock;
+    mSkipWindowNanos = builder.mSkipWindowNanos;
+    mAckTimeoutNanos = builder.mAckTimeoutNanos;
+    mScheduler = builder.mScheduler;
+  }
+
+  @Override
+  public void skipNext() {
+    skip(1);
+  }
+
+  @Override
+  public void skipPrevious() {
+    skip(-1);
+  }
+
+  @Override
+  public void togglePlayPause() {
+    mDelegate.togglePlayPause();
+  }
+
+  @Override
+  public synchronized void seekToRelativePosition(long milliseconds) {
+    long nowNanos = mClock.nanoTime();
+    mRequested++;
+    expireInFlight(nowNanos);
+    if (mHasPendingSeek) {
+      mPendingSeekMs += milliseconds;
+      mMergedSeeks++;
+    } else {
+      mHasPendingSeek = true;
+      mPendingSeekMs = milliseconds;
+    }
+    issueNext(nowNanos);
+  }
+
+  @Override
+  public void toggleShuffle() {
+    mDelegate.toggleShuffle();
+  }
+
+  @Override
+  public void toggleRepeat() {
+    mDelegate.toggleRepeat();
+  }
+
+  @Override
+  public synchronized void playUri(String uri) {
+    if (mHasPendingSeek) {
+      mHasPendingSeek = false;
+      mCancelled++;
+    }
+    mCancelled += Math.abs(mPendingSkips);
+    mPendingSkips = 0;
+    mDelegate.playUri(uri);
+  }
+
+  private synchronized void skip(int direction) {
+    long nowNanos = mClock.nanoTime();
+    mRequested++;
+    expireInFlight(nowNanos);
+    if (mHasPendingSeek) {
+      mHasPendingSeek = false;
+      mCancelled++;
+    }
+    boolean repeat =
+        direction == mLastSkipDirection && nowNanos - mLastSkipNanos < mSkipWindowNanos;
+    mLastSkipDirection = direction;
+    mLastSkipNanos = nowNanos;
+    if (mPendingSkips * direction > 0 && repeat) {
+      mCollapsedSkips++;
+      return;
+    }
+    if (mPendingSkips * direction < 0) {
+      // Neither the pending skip nor this one goes out.
+      mPendingSkips += direction;
+      mCancelled += 2;
+      return;
+    }
+    mPendingSkips += direction;
+    issueNext(nowNanos);
+  }
+
+  /**
+   * Reports that {@code command}, issued on the wrapped controller, was acknowledged or failed.
+   * Other commands are ignored, as are commands issued before the one in flight.
+   *
+   * @param issuedNanos when the wrapped controller was called with {@code command}, on this
+   *     coalescer's {@link Clock}
+   */
+  public synchronized void onCommandSettled(PlayerCommand command, long issuedNanos) {
+    if (command != PlayerCommand.NONE
+        && command == mInFlight
+        && issuedNanos - mInFlightSinceNanos >= 0) {
+      clearInFlight();
+      issueNext(mClock.nanoTime());
+    }
+  }
+
+  /** Drops the in-flight and pending commands, for example when the player connection changes. */
+  public synchronized void reset() {
+    if (mHasPendingSeek) {
+      mHasPendingSeek = false;
+      mCancelled++;
+    }
+    mCancelled += Math.abs(mPendingSkips);
+    mPendingSkips = 0;
+    clearInFlight();
+    mLastSkipDirection = 0;
+  }
+
+  // Must hold the lock.
+  private void expireInFlight(long nowNanos) {
+    if (mInFlight != PlayerCommand.NONE && nowNanos - mInFlightSinceNanos >= mAckTimeoutNanos) {
+      clearInFlight();
+      mTimeouts++;
+    }
+  }
+
+  // Runs on the scheduler. issued tells the command the timer was set for from later ones.
+  private synchronized void expireOnTimer(long issued) {
+    if (issued == mIssued && mInFlight != PlayerCommand.NONE) {
+      mExpiry = null;
+      clearInFlight();
+      mTimeouts++;
+      issueNext(mClock.nanoTime());
+    }
+  }
+
+  // Must hold the lock.
+  private void clearInFlight() {
+    mInFlight = PlayerCommand.NONE;
+    if (mExpiry != null) {
+      mExpiry.cancel(false);
+      mExpiry = null;
+    }
+  }
+
+  // Must hold the lock. Once the scheduler is shut down, expiry is left to the next request.
+  private void scheduleExpiry() {
+    if (mScheduler == null) {
+      return;
+    }
+    long issued = mIssued;
+    try {
+      mExpiry =
+          mScheduler.schedule(
+              () -> expireOnTimer(issued), mAckTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      mExpiry = null;
+    }
+  }
+
+  // Must hold the lock. Skips go before a seek queued behind them, which targets the new track.
+  private void issueNext(long nowNanos) {
+    if (mInFlight != PlayerCommand.NONE) {
+      return;
+    }
+    if (mPendingSkips != 0) {
+      boolean next = mPendingSkips > 0;
+      mPendingSkips += next ? -1 : 1;
+      send(next ? PlayerCommand.SKIP_NEXT : PlayerCommand.SKIP_PREVIOUS, 0, nowNanos);
+    } else if (mHasPendingSeek) {
+      mHasPendingSeek = false;
+      if (mPendingSeekMs == 0) {
+        mCancelled++;
+      } else {
+        send(PlayerCommand.SEEK_RELATIVE, mPendingSeekMs, nowNanos);
+      }
+    }
+  }
+
+  // Must hold the lock. The delegate may settle synchronously, which re-enters issueNext.
+  private void send(PlayerCommand command, long argument, long nowNanos) {
+    mInFlight = command;
+    mInFlightSinceNanos = nowNanos;
+    mIssued++;
+    scheduleExpiry();
+    command.execute(mDelegate, argument);
+  }
+
+  /** Seek and skip requests received. */
+  public synchronized long requested() {
+    return mRequested;
+  }
+
+  /** Seek and skip calls made on the wrapped controller. */
+  public synchronized long issued() {
+    return mIssued;
+  }
+
+  /** Requests that did not become a call of their own, so far. */
+  public synchronized long saved() {
+    return mMergedSeeks + mCollapsedSkips + mCancelled;
+  }
+
+  public synchronized long mergedSeeks() {
+    return mMergedSeeks;
+  }
+
+  public synchronized long collapsedSkips() {
+    return mCollapsedSkips;
+  }
+
+  /** Pending commands superseded, netted out or dropped by {@link #reset}. */
+  public synchronized long cancelled() {
+    return mCancelled;
+  }
+
+  /** In-flight commands given up on after the ack timeout. */
+  public synchronized long timeouts() {
+    return mTimeouts;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "CommandCoalescer{requested="
+        + mRequested
+        + ", issued="
+        + mIssued
+        + ", mergedSeeks="
+        + mMergedSeeks
+        + ", collapsedSkips="
+        + mCollapsedSkips
+        + ", cancelled="
+        + mCancelled
+        + ", timeouts="
+        + mTimeouts
+        + "}";
+  }
+
+  public static final class Builder {
+
+    private Clock mClock = System::nanoTime;
+    private long mSkipWindowNanos = TimeUnit.MILLISECONDS.toNanos(400);
+    private long mAckTimeoutNanos = TimeUnit.SECONDS.toNanos(2);
+    private ScheduledExecutorService mScheduler;
+
+    /** Same-direction skips closer together than this collapse while one is pending. */
+    public Builder setSkipWindow(long time, TimeUnit unit) {
+      if (time < 0) {
+        throw new IllegalArgumentException("skip window must not be negative: " + time);
+      }
+      mSkipWindowNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** How long an unsettled command blocks the next one. */
+    public Builder setAckTimeout(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("ack timeout must be positive: " + time);
+      }
+      mAckTimeoutNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Gives up on unsettled commands on this scheduler, issuing what is pending without waiting
+     * for another request. Optional; the caller owns its lifecycle.
+     */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      mScheduler = scheduler;
+      return this;
+    }
+
+    /** Must be the clock the wrapped controller stamps its settles with. */
+    public Builder setClock(Clock clock) {
+      mClock = clock;
+      return this;
+    }
+
+    public CommandCoalescer build(PlayerController controller) {
+      return new CommandCoalescer(this, controller);
+    }
+  }
+}
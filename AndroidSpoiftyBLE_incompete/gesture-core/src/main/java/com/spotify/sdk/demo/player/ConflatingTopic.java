@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.player;
+
+import com.spotify.sdk.demo.metrics.LatencyHistogram;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans one upstream subscription out to any number of subscribers, each on its own executor,
+ * delivering only the latest value.
+ *
+ * <p>The upstream, typically an App Remote subscription, is opened when the first subscriber
+ * arrives while an upstream is set, and closed when the last one leaves or the upstream is
+ * replaced. Publishing never blocks: every subscriber keeps a single pending slot, and a value
+ * that arrives before the previous one was delivered replaces it. A slow subscriber therefore
+ * skips stale values instead of queueing them, and cannot hold back the others. Deliveries to one
+ * subscriber never overlap, whatever its executor. A new subscriber is handed the latest value
+ * from the current upstream right away.
+ *
+ * <p>Per subscriber, the topic counts deliveries and skipped values and records the lag from
+ * publish to delivery. {@link #publish} may be called from any thread.
+ */
+public final class ConflatingTopic<T> {
+
+  /** Receives values on the subscriber's executor. */
+  public interface Listener<T> {
+    void onValue(T value);
+  }
+
+  /** The single source of values; calls {@link #publish} while open. */
+  public interface Upstream {
+    void open();
+
+    void close();
+  }
+
+  /** Runs listeners on the calling thread, for subscribers that are thread safe and cheap. */
+  public static final Executor DIRECT = Runnable::run;
+
+  private static final class Update<T> {
+    final T mValue;
+    final long mPublishedNanos;
+    // Publish order; a subscriber never takes an update older than one it already has.
+    final long mSequence;
+
+    Update(T value, long publishedNanos, long sequence) {
+      mValue = value;
+      mPublishedNanos = publishedNanos;
+      mSequence = sequence;
+    }
+  }
+
+  /** One subscriber. Counters may be read from any thread. */
+  public static final class Subscriber<T> implements Runnable {
+    private final ConflatingTopic<T> mTopic;
+    private final String mName;
+    private final Executor mExecutor;
+    private final Listener<? super T> mListener;
+
+    private final AtomicReference<Update<T>> mPending = new AtomicReference<>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private volatile boolean mCancelled;
+
+    private final AtomicLong mConflated = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    // Written by the delivering thread only; deliveries never overlap.
+    private volatile long mDelivered;
+    private long mDeliveredSequence;
+    private final LatencyHistogram mLag = new LatencyHistogram();
+
+    private Subscriber(
+        ConflatingTopic<T> topic, String name, Executor executor, Listener<? super T> listener) {
+      mTopic = topic;
+      mName = name;
+      mExecutor = executor;
+      mListener = listener;
+    }
+
+    /** Stops deliveries; a value already being delivered still completes. */
+    public void cancel() {
+      if (!mCancelled) {
+        mCancelled = true;
+        mPending.set(null);
+        mTopic.remove(this);
+      }
+    }
+
+    // The latest value handed to a new subscriber can race with a publish, so offers arrive out
+    // of order. An older update never replaces a newer pending one, and run() drops an update
+    // older than the one it delivered last, which covers an offer landing after that one was
+    // taken.
+    private void offer(Update<T> update) {
+      if (mCancelled) {
+        return;
+      }
+      Update<T> pending;
+      do {
+        pending = mPending.get();
+        if (pending != null && pending.mSequence >= update.mSequence) {
+          mConflated.incrementAndGet();
+          return;
+        }
+      } while (!mPending.compareAndSet(pending, update));
+      if (pending != null) {
+        mConflated.incrementAndGet();
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      if (!mScheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        mExecutor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // The subscriber's executor is gone, so is the subscriber.
+        mScheduled.set(false);
+        mFailures.incrementAndGet();
+        cancel();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Update<T> update = mPending.getAndSet(null);
+        if (update == null) {
+          mScheduled.set(false);
+          // An offer between the poll and the reset saw the flag set and did not schedule.
+          if (mPending.get() == null || !mScheduled.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        if (mCancelled) {
+          continue;
+        }
+        if (update.mSequence <= mDeliveredSequence) {
+          mConflated.incrementAndGet();
+          continue;
+        }
+        mDeliveredSequence = update.mSequence;
+        mLag.record(System.nanoTime() - update.mPublishedNanos);
+        try {
+          mListener.onValue(update.mValue);
+        } catch (RuntimeException e) {
+          // One failing subscriber must not stall its later deliveries or the other subscribers.
+          mFailures.incrementAndGet();
+        }
+        mDelivered++;
+      }
+    }
+
+    public String name() {
+      return mName;
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+
+    /** Values handed to the listener. */
+    public long delivered() {
+      return mDelivered;
+    }
+
+    /** Values replaced by a newer one before they could be delivered. */
+    public long conflated() {
+      return mConflated.get();
+    }
+
+    /** Listener exceptions, and executors that rejected a delivery. */
+    public long failures() {
+      return mFailures.get();
+    }
+
+    /** Time from {@link ConflatingTopic#publish} to the start of delivery, in nanoseconds. */
+    public LatencyHistogram lag() {
+      return mLag;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s{delivered=%d, conflated=%d, failures=%d, lagP50=%.2fms, lagP99=%.2fms,"
+              + " lagMax=%.2fms}",
+          mName,
+          mDelivered,
+          mConflated.get(),
+          mFailures.get(),
+          millis(mLag.valueAtPercentile(50)),
+          millis(mLag.valueAtPercentile(99)),
+          millis(mLag.max()));
+    }
+
+    private static double millis(long nanos) {
+      return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+  }
+
+  private final String mName;
+  private final List<Subscriber<T>> mSubscribers = new CopyOnWriteArrayList<>();
+  private final AtomicLong mPublished = new AtomicLong();
+  private final AtomicReference<Update<T>> mLatest = new AtomicReference<>();
+
+  // Guarded by this.
+  private Upstream mUpstream;
+  private boolean mOpen;
+
+  public ConflatingTopic(String name) {
+    mName = name;
+  }
+
+  public String name() {
+    return mName;
+  }
+
+  /**
+   * Replaces the upstream, closing the old one if it was open. The new one is opened at once if
+   * there are subscribers. {@code null} detaches; subscribers stay. Either way the latest value
+   * is forgotten, so later subscribers are not handed a value from the previous upstream, such as
+   * the player state of a connection that has since gone away.
+   */
+  public synchronized void setUpstream(Upstream upstream) {
+    if (mOpen) {
+      mOpen = false;
+      mUpstream.close();
+    }
+    if (upstream != mUpstream) {
+      mLatest.set(null);
+    }
+    mUpstream = upstream;
+    openIfNeeded();
+  }
+
+  /**
+   * Closes and opens the upstream again, e.g. after it reported an error. The latest value is
+   * kept.
+   */
+  public synchronized void reopen() {
+    setUpstream(mUpstream);
+  }
+
+  /**
+   * Adds a subscriber. Its listener runs on {@code executor}, never concurrently with itself,
+   * starting with the latest value if there is one.
+   *
+   * @param name identifies the subscriber in metrics
+   */
+  public Subscriber<T> subscribe(String name, Executor executor, Listener<? super T> listener) {
+    if (executor == null || listener == null) {
+      throw new IllegalArgumentException("executor and listener must not be null");
+    }
+    Subscriber<T> subscriber = new Subscriber<>(this, name, executor, listener);
+    synchronized (this) {
+      mSubscribers.add(subscriber);
+      openIfNeeded();
+    }
+    Update<T> latest = mLatest.get();
+    if (latest != null) {
+      subscriber.offer(latest);
+    }
+    return subscriber;
+  }
+
+  /** Hands {@code value} to every subscriber, replacing any value they have not received yet. */
+  public void publish(T value) {
+    Update<T> update = new Update<>(value, System.nanoTime(), mPublished.incrementAndGet());
+    Update<T> latest;
+    do {
+      latest = mLatest.get();
+    } while ((latest == null || latest.mSequence < update.mSequence)
+        && !mLatest.compareAndSet(latest, update));
+    for (Subscriber<T> subscriber : mSubscribers) {
+      subscriber.offer(update);
+    }
+  }
+
+  /** The last value published since the upstream was set, or {@code null}. */
+  public T latest() {
+    Update<T> latest = mLatest.get();
+    return latest != null ? latest.mValue : null;
+  }
+
+  /** Values published since creation. */
+  public long published() {
+    return mPublished.get();
+  }
+
+  /** Live subscribers, for their metrics. */
+  public List<Subscriber<T>> subscribers() {
+    return mSubscribers;
+  }
+
+  private synchronized void remove(Subscriber<T> subscriber) {
+    mSubscribers.remove(subscriber);
+    if (mSubscribers.isEmpty() && mOpen) {
+      mOpen = false;
+      mUpstream.close();
+    }
+  }
+
+  // Guarded by this.
+  private void openIfNeeded() {
+    if (!mOpen && mUpstream != null && !mSubscribers.isEmpty()) {
+      mOpen = true;
+      mUpstream.open();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return mName + "{published=" + mPublished.get() + ", subscribers=" + mSubscribers + "}";
+  }
+}
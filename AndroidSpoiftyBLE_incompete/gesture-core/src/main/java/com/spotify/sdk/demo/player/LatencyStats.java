@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/** Running count, mean and extremes of a latency, in nanoseconds. Thread safe. */
+public final class LatencyStats {
+
+  private final String mName;
+  private long mCount;
+  private long mTotalNanos;
+  private long mMinNanos = Long.MAX_VALUE;
+  private long mMaxNanos;
+
+  public LatencyStats(String name) {
+    mName = name;
+  }
+
+  public synchronized void record(long nanos) {
+    mCount++;
+    mTotalNanos += nanos;
+    mMinNanos = Math.min(mMinNanos, nanos);
+    mMaxNanos = Math.max(mMaxNanos, nanos);
+  }
+
+  public synchronized long count() {
+    return mCount;
+  }
+
+  public synchronized long meanNanos() {
+    return mCount == 0 ? 0 : mTotalNanos / mCount;
+  }
+
+  public synchronized long maxNanos() {
+    return mMaxNanos;
+  }
+
+  @Override
+  public synchronized String toString() {
+    if (mCount == 0) {
+      return mName + ": n=0";
+    }
+    return String.format(
+        Locale.US,
+        "%s: n=%d mean=%.1fms min=%.1fms max=%.1fms",
+        mName,
+        mCount,
+        mTotalNanos / (double) mCount / TimeUnit.MILLISECONDS.toNanos(1),
+        mMinNanos / (double) TimeUnit.MILLISECONDS.toNanos(1),
+        mMaxNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
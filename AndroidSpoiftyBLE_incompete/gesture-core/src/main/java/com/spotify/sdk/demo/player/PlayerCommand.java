@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+/** Commands a gesture can be bound to. */
+public enum PlayerCommand {
+  NONE,
+  SKIP_NEXT,
+  SKIP_PREVIOUS,
+  PLAY_PAUSE,
+  /** Relative seek; the offset in milliseconds is the binding argument. */
+  SEEK_RELATIVE,
+  TOGGLE_SHUFFLE,
+  TOGGLE_REPEAT;
+
+  /** Issues this command on {@code controller}. {@code argument} is only used by seeks. */
+  public void execute(PlayerController controller, long argument) {
+    switch (this) {
+      case SKIP_NEXT:
+        controller.skipNext();
+        break;
+      case SKIP_PREVIOUS:
+        controller.skipPrevious();
+        break;
+      case PLAY_PAUSE:
+        controller.togglePlayPause();
+        break;
+      case SEEK_RELATIVE:
+        controller.seekToRelativePosition(argument);
+        break;
+      case TOGGLE_SHUFFLE:
+        controller.toggleShuffle();
+        break;
+      case TOGGLE_REPEAT:
+        controller.toggleRepeat();
+        break;
+      default:
+        break;
+    }
+  }
+}
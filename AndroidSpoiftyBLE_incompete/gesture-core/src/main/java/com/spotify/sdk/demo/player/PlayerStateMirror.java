@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local copy of the toggleable parts of the Spotify {@code PlayerState}, fed by the PlayerState
+ * subscription, so toggle commands can pick their target without a {@code getPlayerState()} round
+ * trip.
+ *
+ * <p>Toggles are applied optimistically. Until the subscription confirms the new value, or the
+ * confirm timeout passes, events carrying the old value are treated as stale and do not undo the
+ * optimistic value. After the timeout the subscription wins again. All methods are thread safe.
+ */
+public final class PlayerStateMirror {
+
+  /** Repeat modes, numerically equal to {@code com.spotify.protocol.types.Repeat}. */
+  public static final int REPEAT_OFF = 0;
+
+  public static final int REPEAT_ONE = 1;
+  public static final int REPEAT_ALL = 2;
+
+  private static final long DEFAULT_CONFIRM_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final long mConfirmTimeoutNanos;
+
+  private boolean mHasState;
+
+  private boolean mPaused;
+  private boolean mConfirmedPaused;
+  private long mPausedDeadline;
+  private boolean mPausedPending;
+
+  private boolean mShuffling;
+  private boolean mConfirmedShuffling;
+  private long mShufflingDeadline;
+  private boolean mShufflingPending;
+
+  private int mRepeatMode;
+  private int mConfirmedRepeatMode;
+  private long mRepeatDeadline;
+  private boolean mRepeatPending;
+
+  private long mConfirmed;
+  private long mStaleEventsMasked;
+  private long mRolledBack;
+
+  public PlayerStateMirror() {
+    this(DEFAULT_CONFIRM_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+  }
+
+  public PlayerStateMirror(long confirmTimeout, TimeUnit unit) {
+    mConfirmTimeoutNanos = unit.toNanos(confirmTimeout);
+  }
+
+  /** Reconciles with a state pushed by the subscription. */
+  public synchronized void onPlayerState(
+      boolean isPaused, boolean isShuffling, int repeatMode, long nowNanos) {
+    mHasState = true;
+
+    mConfirmedPaused = isPaused;
+    if (!mPausedPending || reconcile(mPaused == isPaused, mPausedDeadline, nowNanos)) {
+      mPausedPending = false;
+      mPaused = isPaused;
+    }
+
+    mConfirmedShuffling = isShuffling;
+    if (!mShufflingPending || reconcile(mShuffling == isShuffling, mShufflingDeadline, nowNanos)) {
+      mShufflingPending = false;
+      mShuffling = isShuffling;
+    }
+
+    mConfirmedRepeatMode = repeatMode;
+    if (!mRepeatPending || reconcile(mRepeatMode == repeatMode, mRepeatDeadline, nowNanos)) {
+      mRepeatPending = false;
+      mRepeatMode = repeatMode;
+    }
+  }
+
+  // Returns true if the pushed value should replace the optimistic one.
+  private boolean reconcile(boolean matches, long deadline, long nowNanos) {
+    if (matches) {
+      mConfirmed++;
+      return true;
+    }
+    if (nowNanos - deadline < 0) {
+      mStaleEventsMasked++;
+      return false;
+    }
+    mRolledBack++;
+    return true;
+  }
+
+  public synchronized boolean hasState() {
+    return mHasState;
+  }
+
+  public synchronized boolean isPaused() {
+    return mPaused;
+  }
+
+  public synchronized boolean isShuffling() {
+    return mShuffling;
+  }
+
+  public synchronized int repeatMode() {
+    return mRepeatMode;
+  }
+
+  /** Flips the paused flag optimistically and returns the new value to send. */
+  public synchronized boolean togglePaused(long nowNanos) {
+    mPaused = !mPaused;
+    mPausedPending = true;
+    mPausedDeadline = nowNanos + mConfirmTimeoutNanos;
+    return mPaused;
+  }
+
+  /** Flips the shuffle flag optimistically and returns the new value to send. */
+  public synchronized boolean toggleShuffling(long nowNanos) {
+    mShuffling = !mShuffling;
+    mShufflingPending = true;
+    mShufflingDeadline = nowNanos + mConfirmTimeoutNanos;
+    return mShuffling;
+  }
+
+  /**
+   * Advances the repeat mode optimistically in the order the Spotify app uses (off, all, one) and
+   * returns the new mode to send.
+   */
+  public synchronized int cycleRepeatMode(long nowNanos) {
+    mRepeatMode = nextRepeatMode(mRepeatMode);
+    mRepeatPending = true;
+    mRepeatDeadline = nowNanos + mConfirmTimeoutNanos;
+    return mRepeatMode;
+  }
+
+  static int nextRepeatMode(int repeatMode) {
+    switch (repeatMode) {
+      case REPEAT_OFF:
+        return REPEAT_ALL;
+      case REPEAT_ALL:
+        return REPEAT_ONE;
+      default:
+        return REPEAT_OFF;
+    }
+  }
+
+  /** Drops an optimistic pause/resume whose command failed. */
+  public synchronized void revertPaused() {
+    mPausedPending = false;
+    mPaused = mConfirmedPaused;
+    mRolledBack++;
+  }
+
+  /** Drops an optimistic shuffle change whose command failed. */
+  public synchronized void revertShuffling() {
+    mShufflingPending = false;
+    mShuffling = mConfirmedShuffling;
+    mRolledBack++;
+  }
+
+  /** Drops an optimistic repeat change whose command failed. */
+  public synchronized void revertRepeatMode() {
+    mRepeatPending = false;
+    mRepeatMode = mConfirmedRepeatMode;
+    mRolledBack++;
+  }
+
+  /** Forgets the mirrored state, e.g. after the App Remote disconnected. */
+  public synchronized void reset() {
+    mHasState = false;
+    mPausedPending = false;
+    mShufflingPending = false;
+    mRepeatPending = false;
+  }
+
+  /** Optimistic values later confirmed by the subscription. */
+  public synchronized long confirmed() {
+    return mConfirmed;
+  }
+
+  /** Subscription events ignored because they predate a pending optimistic change. */
+  public synchronized long staleEventsMasked() {
+    return mStaleEventsMasked;
+  }
+
+  /** Optimistic values undone by a failed command or a timed out confirmation. */
+  public synchronized long rolledBack() {
+    return mRolledBack;
+  }
+}
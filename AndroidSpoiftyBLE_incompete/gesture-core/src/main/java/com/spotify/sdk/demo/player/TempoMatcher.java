@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays music whose tempo matches the listener's cadence, as estimated by {@link
+ * com.spotify.sdk.demo.sensor.CadenceEstimator}.
+ *
+ * <p>A candidate matches a cadence at its own tempo, one beat per step, or at half of it, one
+ * beat every two steps. Nothing changes until the cadence has held within the tolerance for the
+ * settle time, while the current pick still matches, or within the minimum switch interval of
+ * the previous switch, so a runner slowing down at a crossing does not restart the music.
+ *
+ * <p>Thread safe. The controller is called with this object's lock held and must not block.
+ */
+public final class TempoMatcher {
+
+  private static final Pattern TEMPO =
+      Pattern.compile(
+          "(\\d{2,3})(?:\\s*(?:-|\\u2013|to)\\s*(\\d{2,3}))?\\s*bpm", Pattern.CASE_INSENSITIVE);
+  private static final float MIN_TEMPO = 40f;
+  private static final float MAX_TEMPO = 250f;
+  // Weight of each update in the stable cadence.
+  private static final float STABLE_SMOOTHING = 0.2f;
+
+  /** Something playable with a known tempo. */
+  public static final class Candidate {
+    public final String uri;
+    public final float bpm;
+
+    public Candidate(String uri, float bpm) {
+      if (uri == null || bpm <= 0) {
+        throw new IllegalArgumentException("Need a URI and a positive tempo");
+      }
+      this.uri = uri;
+      this.bpm = bpm;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s@%.0fbpm", uri, bpm);
+    }
+  }
+
+  private final PlayerController mController;
+  private final float mTolerance;
+  private final long mSettleNanos;
+  private final long mMinSwitchNanos;
+
+  private List<Candidate> mCandidates = Collections.emptyList();
+  private boolean mEnabled;
+  private Candidate mCurrent;
+  private float mStableCadence;
+  private long mStableSinceNanos;
+  private boolean mSwitched;
+  private long mLastSwitchNanos;
+
+  private long mUpdates;
+  private long mSwitches;
+  private long mUnmatched;
+
+  private TempoMatcher(Builder builder, PlayerController controller) {
+    mController = controller;
+    mTolerance = builder.mTolerance;
+    mSettleNanos = builder.mSettleNanos;
+    mMinSwitchNanos = builder.mMinSwitchNanos;
+  }
+
+  /**
+   * Tempo in a title such as "Running 160 BPM" or "150-165 bpm", taking the middle of a range,
+   * or 0 if there is none.
+   */
+  public static float parseTempo(String text) {
+    if (text == null) {
+      return 0;
+    }
+    Matcher matcher = TEMPO.matcher(text);
+    if (!matcher.find()) {
+      return 0;
+    }
+    float low = Float.parseFloat(matcher.group(1));
+    float high = matcher.group(2) != null ? Float.parseFloat(matcher.group(2)) : low;
+    float tempo = (low + high) / 2;
+    return tempo >= MIN_TEMPO && tempo <= MAX_TEMPO ? tempo : 0;
+  }
+
+  /** Relative distance between {@code bpm} and {@code cadence}, at one or two steps a beat. */
+  public static float mismatch(float bpm, float cadence) {
+    return Math.min(Math.abs(bpm - cadence), Math.abs(2 * bpm - cadence)) / cadence;
+  }
+
+  /** Replaces the candidates; the current pick stays until the next switch. */
+  public synchronized void setCandidates(List<Candidate> candidates) {
+    mCandidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+  }
+
+  public synchronized List<Candidate> candidates() {
+    return mCandidates;
+  }
+
+  /** Starts or stops matching. Matching starts afresh, with no current pick. */
+  public synchronized void setEnabled(boolean enabled) {
+    mEnabled = enabled;
+    mCurrent = null;
+    mSwitched = false;
+    mStableCadence = 0;
+  }
+
+  public synchronized boolean isEnabled() {
+    return mEnabled;
+  }
+
+  /**
+   * Reports the cadence in steps per minute at {@code nanos}, 0 if unknown. Returns {@code true}
+   * if a candidate was started.
+   */
+  public synchronized boolean onCadence(float stepsPerMinute, long nanos) {
+    if (!mEnabled) {
+      return false;
+    }
+    mUpdates++;
+    if (stepsPerMinute <= 0) {
+      mStableCadence = 0;
+      return false;
+    }
+    if (mStableCadence == 0
+        || Math.abs(stepsPerMinute - mStableCadence) > mTolerance * mStableCadence) {
+      mStableCadence = stepsPerMinute;
+      mStableSinceNanos = nanos;
+      return false;
+    }
+    mStableCadence += STABLE_SMOOTHING * (stepsPerMinute - mStableCadence);
+    if (nanos - mStableSinceNanos < mSettleNanos
+        || (mCurrent != null && mismatch(mCurrent.bpm, mStableCadence) <= mTolerance)
+        || (mSwitched && nanos - mLastSwitchNanos < mMinSwitchNanos)) {
+      return false;
+    }
+    Candidate best = null;
+    float bestMismatch = mTolerance;
+    for (Candidate candidate : mCandidates) {
+      float mismatch = mismatch(candidate.bpm, mStableCadence);
+      if (mismatch <= bestMismatch) {
+        best = candidate;
+        bestMismatch = mismatch;
+      }
+    }
+    if (best == null) {
+      mUnmatched++;
+      return false;
+    }
+    if (mCurrent != null && best.uri.equals(mCurrent.uri)) {
+      return false;
+    }
+    mCurrent = best;
+    mSwitched = true;
+    mLastSwitchNanos = nanos;
+    mSwitches++;
+    mController.playUri(best.uri);
+    return true;
+  }
+
+  /** The candidate started last, or null. */
+  public synchronized Candidate current() {
+    return mCurrent;
+  }
+
+  /** Cadence updates received while enabled. */
+  public synchronized long updates() {
+    return mUpdates;
+  }
+
+  public synchronized long switches() {
+    return mSwitches;
+  }
+
+  /** Settled cadences no candidate was close enough to. */
+  public synchronized long unmatched() {
+    return mUnmatched;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "TempoMatcher{enabled=%b, candidates=%d, current=%s, cadence=%.1f, updates=%d,"
+            + " switches=%d, unmatched=%d}",
+        mEnabled,
+        mCandidates.size(),
+        mCurrent,
+        mStableCadence,
+        mUpdates,
+        mSwitches,
+        mUnmatched);
+  }
+
+  public static final class Builder {
+
+    private float mTolerance = 0.04f;
+    private long mSettleNanos = TimeUnit.SECONDS.toNanos(10);
+    private long mMinSwitchNanos = TimeUnit.SECONDS.toNanos(60);
+
+    /** Relative cadence change that counts as a new pace, and the largest accepted mismatch. */
+    public Builder setTolerance(float tolerance) {
+      if (tolerance <= 0 || tolerance >= 1) {
+        throw new IllegalArgumentException("Need 0 < tolerance < 1");
+      }
+      mTolerance = tolerance;
+      return this;
+    }
+
+    /** How long a cadence has to hold before music is changed; 10 s by default. */
+    public Builder setSettleTime(long time, TimeUnit unit) {
+      mSettleNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** Shortest time between two switches; 60 s by default. */
+    public Builder setMinSwitchInterval(long time, TimeUnit unit) {
+      mMinSwitchNanos = unit.toNanos(time);
+      return this;
+    }
+
+    public TempoMatcher build(PlayerController controller) {
+      return new TempoMatcher(this, controller);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+/**
+ * Extrapolates the playback position from the last authoritative position reported by Spotify,
+ * the monotonic time it was received at and the playback speed. Because every read is computed
+ * from the anchor, the result does not drift with how often or how late it is polled.
+ */
+public final class TrackProgressModel {
+
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+
+  private long mDurationMs;
+  private long mAnchorPositionMs;
+  private long mAnchorNanos;
+  private float mSpeed;
+
+  public void setDuration(long durationMs) {
+    mDurationMs = durationMs;
+  }
+
+  public long duration() {
+    return mDurationMs;
+  }
+
+  /**
+   * Re-anchors on a reported position.
+   *
+   * @param speed playback speed as reported in {@code PlayerState.playbackSpeed}; 0 while paused
+   * @param nowNanos {@link System#nanoTime()} when the position was received
+   */
+  public void sync(long positionMs, float speed, long nowNanos) {
+    mAnchorPositionMs = positionMs;
+    mSpeed = speed;
+    mAnchorNanos = nowNanos;
+  }
+
+  /** Re-anchors on a local seek while keeping the current speed. */
+  public void seekTo(long positionMs, long nowNanos) {
+    sync(positionMs, mSpeed, nowNanos);
+  }
+
+  public boolean isAdvancing() {
+    return mSpeed > 0;
+  }
+
+  /** Position in milliseconds at {@code nowNanos}, clamped to the track duration. */
+  public long positionAt(long nowNanos) {
+    long position = mAnchorPositionMs;
+    if (mSpeed > 0) {
+      position += (long) ((nowNanos - mAnchorNanos) / NANOS_PER_MILLI * mSpeed);
+    }
+    if (mDurationMs > 0 && position > mDurationMs) {
+      return mDurationMs;
+    }
+    return Math.max(0, position);
+  }
+}
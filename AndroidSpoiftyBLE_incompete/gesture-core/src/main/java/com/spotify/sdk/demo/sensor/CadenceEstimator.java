@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.sensor;
+
+import java.util.Arrays;
+
+/**
+ * Estimates running or walking cadence, in steps per minute, from streamed accelerometer
+ * features.
+ *
+ * <p>Per sample:
+ *
+ * <ol>
+ *   <li>the acceleration magnitude is taken over the configured channels, so the estimate does
+ *       not depend on how the band sits on the wrist. Arm swing shows up in the magnitude at twice
+ *       its own rate, which is the step rate;
+ *   <li>blocks of samples are averaged down to the analysis rate, 100 Hz by default;
+ *   <li>a slow running mean is subtracted;
+ *   <li>the autocorrelation at every lag in the cadence range is updated incrementally, weighting
+ *       older samples down exponentially. That costs one multiply-add per lag per analysed
+ *       sample, with no windows to copy or transform.
+ * </ol>
+ *
+ * <p>Every update interval the highest autocorrelation peak in range becomes the step period,
+ * refined by parabolic interpolation. If the peak at half that period is nearly as strong, the
+ * signal repeats every step and the longer peak was a stride, so the half period wins. Estimates
+ * below the minimum confidence, the peak normalised by the signal energy, or taken while the
+ * signal is too flat, count as misses; a few misses in a row drop the lock and {@link #cadence}
+ * falls to 0.
+ *
+ * <p>Everything runs over preallocated primitive arrays; nothing is allocated per sample or per
+ * estimate. Not thread safe.
+ */
+public final class CadenceEstimator {
+
+  private final int[] mChannels;
+  private final float mScale;
+  private final float mOffset;
+  private final int mDecimation;
+  private final float mAnalysisRateHz;
+  private final int mFirstLag;
+  private final int mMinLag;
+  private final int mMaxLag;
+  private final double mDecay;
+  private final double mRecentDecay;
+  private final float mMeanAlpha;
+  private final int mHop;
+  private final int mWarmup;
+  private final float mMinConfidence;
+  private final float mMinVariance;
+  private final float mOctaveRatio;
+  private final float mSmoothing;
+  private final int mMaxMisses;
+
+  // Analysed samples; sized so the longest lag is still in the ring.
+  private final float[] mHistory;
+  // Autocorrelation at lags mFirstLag, mFirstLag + 1, ..., mMaxLag + 1.
+  private final double[] mCorrelations;
+  private double mEnergy;
+  // Energy over about one update interval, so stopping drops the lock without waiting out the
+  // autocorrelation window.
+  private double mRecentEnergy;
+  private int mHistoryIndex;
+
+  private float mBlockSum;
+  private int mBlockCount;
+  private float mMean;
+  private int mAnalysed;
+  private int mSinceEstimate;
+  private int mMisses;
+  private float mCadence;
+  private float mConfidence;
+
+  private final SampleWindow mWindow = new SampleWindow();
+  private long mNextSample = -1;
+
+  private long mSamples;
+  private long mEstimates;
+  private long mMissedEstimates;
+  private long mSkippedSamples;
+
+  private CadenceEstimator(Builder builder) {
+    mChannels = builder.mChannels.clone();
+    mScale = builder.mScale;
+    mOffset = builder.mOffset;
+    mDecimation = Math.max(1, Math.round(builder.mSampleRateHz / builder.mAnalysisRateHz));
+    mAnalysisRateHz = builder.mSampleRateHz / mDecimation;
+    float samplesPerMinute = 60f * mAnalysisRateHz;
+    mMinLag = Math.max(2, (int) Math.floor(samplesPerMinute / builder.mMaxCadence));
+    mMaxLag = Math.max(mMinLag + 1, (int) Math.ceil(samplesPerMinute / builder.mMinCadence));
+    // One lag either side so peaks at the ends of the range can be recognised and interpolated.
+    mFirstLag = mMinLag - 1;
+    int windowSamples = Math.max(1, Math.round(builder.mWindowSeconds * mAnalysisRateHz));
+    mDecay = Math.exp(-1.0 / windowSamples);
+    mMeanAlpha = 1f / mAnalysisRateHz;
+    mHop = Math.max(1, Math.round(builder.mUpdateSeconds * mAnalysisRateHz));
+    mRecentDecay = Math.exp(-1.0 / mHop);
+    mWarmup = Math.max(windowSamples, mMaxLag + 2);
+    mMinConfidence = builder.mMinConfidence;
+    mMinVariance = builder.mMinVariance;
+    mOctaveRatio = builder.mOctaveRatio;
+    mSmoothing = builder.mSmoothing;
+    mMaxMisses = builder.mMaxMisses;
+    mHistory = new float[mMaxLag + 2];
+    mCorrelations = new double[mMaxLag + 2 - mFirstLag];
+  }
+
+  /** Clears all state, for example after a reconnect. Counters are kept. */
+  public void reset() {
+    Arrays.fill(mHistory, 0f);
+    Arrays.fill(mCorrelations, 0.0);
+    mEnergy = 0;
+    mRecentEnergy = 0;
+    mHistoryIndex = 0;
+    mBlockSum = 0;
+    mBlockCount = 0;
+    mMean = 0;
+    mAnalysed = 0;
+    mSinceEstimate = 0;
+    mMisses = 0;
+    mCadence = 0;
+    mConfidence = 0;
+  }
+
+  /**
+   * Feeds one multi-channel sample; the accelerometer values are read at {@code offset +
+   * channel}. Returns {@code true} when a new estimate, or a miss, was made.
+   */
+  public boolean update(float[] sample, int offset) {
+    mSamples++;
+    float squares = 0;
+    for (int channel : mChannels) {
+      float a = sample[offset + channel] * mScale + mOffset;
+      squares += a * a;
+    }
+    mBlockSum += (float) Math.sqrt(squares);
+    if (++mBlockCount < mDecimation) {
+      return false;
+    }
+    float x = mBlockSum / mDecimation;
+    mBlockSum = 0;
+    mBlockCount = 0;
+    if (mAnalysed == 0) {
+      mMean = x;
+    }
+    mMean += mMeanAlpha * (x - mMean);
+    analyse(x - mMean);
+    if (mAnalysed < mWarmup) {
+      mAnalysed++;
+      return false;
+    }
+    if (++mSinceEstimate < mHop) {
+      return false;
+    }
+    mSinceEstimate = 0;
+    estimate();
+    return true;
+  }
+
+  private void analyse(float y) {
+    float[] history = mHistory;
+    double[] correlations = mCorrelations;
+    double decay = mDecay;
+    int size = history.length;
+    int i = mHistoryIndex;
+    history[i] = y;
+    for (int k = 0, lag = mFirstLag; k < correlations.length; k++, lag++) {
+      int j = i - lag;
+      if (j < 0) {
+        j += size;
+      }
+      correlations[k] = correlations[k] * decay + y * history[j];
+    }
+    mEnergy = mEnergy * decay + y * y;
+    mRecentEnergy = mRecentEnergy * mRecentDecay + y * y;
+    mHistoryIndex = i + 1 == size ? 0 : i + 1;
+  }
+
+  private void estimate() {
+    mEstimates++;
+    int best = -1;
+    double bestValue = 0;
+    // Recent variance of the signal.
+    if (mRecentEnergy * (1 - mRecentDecay) >= mMinVariance) {
+      for (int lag = mMinLag; lag <= mMaxLag; lag++) {
+        double value = correlation(lag);
+        if (value > bestValue && isPeak(lag)) {
+          best = lag;
+          bestValue = value;
+        }
+      }
+    }
+    if (best > 0) {
+      int half = halfPeriodPeak(best);
+      if (half > 0 && correlation(half) >= mOctaveRatio * bestValue) {
+        best = half;
+        bestValue = correlation(half);
+      }
+    }
+    float confidence = best > 0 ? (float) (bestValue / mEnergy) : 0f;
+    mConfidence = confidence;
+    if (best < 0 || confidence < mMinConfidence) {
+      mMissedEstimates++;
+      if (++mMisses >= mMaxMisses) {
+        mCadence = 0;
+      }
+      return;
+    }
+    mMisses = 0;
+    double before = correlation(best - 1);
+    double after = correlation(best + 1);
+    double curvature = before - 2 * bestValue + after;
+    double shift = curvature < 0 ? 0.5 * (before - after) / curvature : 0;
+    float cadence = (float) (60.0 * mAnalysisRateHz / (best + shift));
+    mCadence = mCadence == 0 ? cadence : mCadence + mSmoothing * (cadence - mCadence);
+  }
+
+  // The peak within a lag of half the period, or -1 if there is none in range.
+  private int halfPeriodPeak(int lag) {
+    int center = (lag + 1) / 2;
+    for (int candidate = center - 1; candidate <= center + 1; candidate++) {
+      if (candidate >= mMinLag && isPeak(candidate)) {
+        return candidate;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isPeak(int lag) {
+    double value = correlation(lag);
+    return value > correlation(lag - 1) && value >= correlation(lag + 1);
+  }
+
+  private double correlation(int lag) {
+    return mCorrelations[lag - mFirstLag];
+  }
+
+  /**
+   * Feeds every sample appended to {@code ring} since the previous call. If the estimator fell a
+   * whole ring behind, the missed samples are skipped and counted. Returns the number of
+   * estimates made.
+   */
+  public int consume(SampleRing ring) {
+    long written = ring.written();
+    if (mNextSample < 0 || written - mNextSample >= ring.capacity()) {
+      long resume = Math.max(0, written - ring.capacity() / 2);
+      if (mNextSample >= 0) {
+        mSkippedSamples += resume - mNextSample;
+      }
+      mNextSample = resume;
+    }
+    int estimates = 0;
+    int count = (int) (written - mNextSample);
+    if (count > 0 && ring.window(mNextSample, count, mWindow)) {
+      float[] data = mWindow.array();
+      int channels = mWindow.channels();
+      for (int i = 0, p = mWindow.offset(); i < count; i++, p += channels) {
+        if (update(data, p)) {
+          estimates++;
+        }
+      }
+      mNextSample = written;
+    }
+    return estimates;
+  }
+
+  /** Smoothed cadence in steps per minute, or 0 without a lock. */
+  public float cadence() {
+    return mCadence;
+  }
+
+  public boolean hasLock() {
+    return mCadence > 0;
+  }
+
+  /** Normalised autocorrelation of the latest estimate's period, 0 to 1. */
+  public float confidence() {
+    return mConfidence;
+  }
+
+  /** Rate the autocorrelation runs at after decimation. */
+  public float analysisRateHz() {
+    return mAnalysisRateHz;
+  }
+
+  public long samples() {
+    return mSamples;
+  }
+
+  /** Estimates made, including misses. */
+  public long estimates() {
+    return mEstimates;
+  }
+
+  /** Estimates without a clear enough period. */
+  public long missedEstimates() {
+    return mMissedEstimates;
+  }
+
+  /** Samples never seen because {@link #consume} was called too late. */
+  public long skippedSamples() {
+    return mSkippedSamples;
+  }
+
+  public static final class Builder {
+
+    private final float mSampleRateHz;
+    private final int[] mChannels;
+    private float mScale = 1f;
+    private float mOffset;
+    private float mAnalysisRateHz = 100f;
+    private float mMinCadence = 100f;
+    private float mMaxCadence = 220f;
+    private float mWindowSeconds = 4f;
+    private float mUpdateSeconds = 0.5f;
+    private float mMinConfidence = 0.3f;
+    private float mMinVariance = 0.005f;
+    private float mOctaveRatio = 0.7f;
+    private float mSmoothing = 0.3f;
+    private int mMaxMisses = 4;
+
+    /**
+     * @param sampleRateHz rate of the samples fed in
+     * @param channels indices of the accelerometer axes within each sample
+     */
+    public Builder(float sampleRateHz, int... channels) {
+      if (sampleRateHz <= 0) {
+        throw new IllegalArgumentException("Sample rate must be positive: " + sampleRateHz);
+      }
+      if (channels.length == 0) {
+        throw new IllegalArgumentException("At least one channel is required");
+      }
+      mSampleRateHz = sampleRateHz;
+      mChannels = channels.clone();
+    }
+
+    /**
+     * Maps features to acceleration in g as {@code feature * scale + offset}. The streamed IMU
+     * features are {@code (a + 4) / 8}, so 8 and -4 undo them.
+     */
+    public Builder setFeatureScale(float scale, float offset) {
+      mScale = scale;
+      mOffset = offset;
+      return this;
+    }
+
+    /** Rate the autocorrelation runs at; 100 Hz by default. Capped at the sample rate. */
+    public Builder setAnalysisRate(float hz) {
+      if (hz <= 0) {
+        throw new IllegalArgumentException("Analysis rate must be positive: " + hz);
+      }
+      mAnalysisRateHz = Math.min(hz, mSampleRateHz);
+      return this;
+    }
+
+    /** Cadences considered, in steps per minute; 100 to 220 by default. */
+    public Builder setCadenceRange(float minStepsPerMinute, float maxStepsPerMinute) {
+      if (minStepsPerMinute <= 0 || maxStepsPerMinute <= minStepsPerMinute) {
+        throw new IllegalArgumentException("Need 0 < min < max cadence");
+      }
+      mMinCadence = minStepsPerMinute;
+      mMaxCadence = maxStepsPerMinute;
+      return this;
+    }
+
+    /** Time constant of the autocorrelation's exponential window; 4 s by default. */
+    public Builder setWindowSeconds(float seconds) {
+      if (seconds <= 0) {
+        throw new IllegalArgumentException("Window must be positive: " + seconds);
+      }
+      mWindowSeconds = seconds;
+      return this;
+    }
+
+    /** Time between estimates; 0.5 s by default. */
+    public Builder setUpdateSeconds(float seconds) {
+      if (seconds <= 0) {
+        throw new IllegalArgumentException("Update interval must be positive: " + seconds);
+      }
+      mUpdateSeconds = seconds;
+      return this;
+    }
+
+    /** Lowest normalised autocorrelation accepted as a period; 0.3 by default. */
+    public Builder setMinConfidence(float confidence) {
+      mMinConfidence = confidence;
+      return this;
+    }
+
+    /** Signal variance in g squared below which nobody is moving; 0.005 by default. */
+    public Builder setMinVariance(float variance) {
+      mMinVariance = variance;
+      return this;
+    }
+
+    /** Share of the peak the half period needs to be taken instead; 0.7 by default. */
+    public Builder setOctaveRatio(float ratio) {
+      mOctaveRatio = ratio;
+      return this;
+    }
+
+    /** Weight of each new estimate in the smoothed cadence; 0.3 by default. */
+    public Builder setSmoothing(float smoothing) {
+      if (smoothing <= 0 || smoothing > 1) {
+        throw new IllegalArgumentException("Need 0 < smoothing <= 1");
+      }
+      mSmoothing = smoothing;
+      return this;
+    }
+
+    /** Consecutive misses that drop the lock; 4 (2 s) by default. */
+    public Builder setMaxMisses(int misses) {
+      if (misses <= 0) {
+        throw new IllegalArgumentException("Misses must be positive: " + misses);
+      }
+      mMaxMisses = misses;
+      return this;
+    }
+
+    public CadenceEstimator build() {
+      return new CadenceEstimator(this);
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import java.util.Arrays;
+
+/**
+ * Multi-channel port of the firmware's {@code EMGFilters}: an anti-hum notch (two cascaded
+ * biquads), a 150 Hz Butterworth low-pass and a 20 Hz Butterworth high-pass, in that order.
+ *
+ * <p>Each channel keeps its own filter state. The firmware runs both EMG channels through one
+ * {@code EMGFilters} instance whose filters are globals, so its channels leak into each other;
+ * this class does not reproduce that.
+ *
+ * <p>Coefficients are copied verbatim, including the 50 Hz / 500 Hz notch denominator written as
+ * {@code 1.0000 - 1.1187}, which shifts its last two terms. Keeping it means the output matches
+ * what the board produced while the training data was recorded. With {@link
+ * Builder#setFirmwareRounding(boolean)} every stage is also truncated to {@code int} as the
+ * firmware does. The output is then bit-exact with the C++ built without fused multiply-add, run
+ * once per channel; {@code EmgFilterBankTest} checks this against vectors from {@code
+ * ArduinoClassifierBLE/extras/emg_filter_vectors.cpp}.
+ *
+ * <p>Buffers are interleaved, {@code [frame][channel]}. Not thread safe; nothing is allocated
+ * after construction.
+ */
+public final class EmgFilterBank {
+
+  public static final int SAMPLE_FREQ_500HZ = 500;
+  public static final int SAMPLE_FREQ_1000HZ = 1000;
+  public static final int NOTCH_FREQ_50HZ = 50;
+  public static final int NOTCH_FREQ_60HZ = 60;
+
+  // [sampleFreqIndex][coefficient], from EMGFilters.cpp.
+  private static final float[][] LPF_NUM = {
+    {0.3913f, 0.7827f, 0.3913f}, {0.1311f, 0.2622f, 0.1311f}
+  };
+  private static final float[][] LPF_DEN = {
+    {1.0000f, 0.3695f, 0.1958f}, {1.0000f, -0.7478f, 0.2722f}
+  };
+  private static final float[][] HPF_NUM = {
+    {0.8371f, -1.6742f, 0.8371f}, {0.9150f, -1.8299f, 0.9150f}
+  };
+  private static final float[][] HPF_DEN = {
+    {1.0000f, -1.6475f, 0.7009f}, {1.0000f, -1.8227f, 0.8372f}
+  };
+  private static final float[][] AHF_NUM_50HZ = {
+    {0.9522f, -1.5407f, 0.9522f, 0.8158f, -0.8045f, 0.0855f},
+    {0.5869f, -1.1146f, 0.5869f, 1.0499f, -2.0000f, 1.0499f}
+  };
+  private static final float[][] AHF_DEN_50HZ = {
+    {1.0000f, -1.5395f, 0.9056f, (float) (1.0000 - 1.1187), 0.3129f, 0f},
+    {1.0000f, -1.8844f, 0.9893f, 1.0000f, -1.8991f, 0.9892f}
+  };
+  private static final float[] AHF_GAIN_50HZ = {1.3422f, 1.4399f};
+  private static final float[][] AHF_NUM_60HZ = {
+    {0.9528f, -1.3891f, 0.9528f, 0.8272f, -0.7225f, 0.0264f},
+    {0.5824f, -1.0810f, 0.5824f, 1.0736f, -2.0000f, 1.0736f}
+  };
+  private static final float[][] AHF_DEN_60HZ = {
+    {1.0000f, -1.3880f, 0.9066f, 1.0000f, -0.9739f, 0.2371f},
+    {1.0000f, -1.8407f, 0.9894f, 1.0000f, -1.8584f, 0.9891f}
+  };
+  private static final float[] AHF_GAIN_60HZ = {1.3430f, 1.4206f};
+
+  private final int mChannels;
+  private final boolean mNotch;
+  private final boolean mLowpass;
+  private final boolean mHighpass;
+  private final boolean mFirmwareRounding;
+
+  private final float[] mLpfNum;
+  private final float[] mLpfDen;
+  private final float[] mHpfNum;
+  private final float[] mHpfDen;
+  private final float[] mAhfNum;
+  private final float[] mAhfDen;
+  private final float mAhfGain;
+
+  // Per-channel state: two words per biquad, the notch has two biquads.
+  private final float[] mLpfState;
+  private final float[] mHpfState;
+  private final float[] mAhfState;
+
+  private EmgFilterBank(Builder builder) {
+    int rate = builder.mSampleFreq == SAMPLE_FREQ_500HZ ? 0 : 1;
+    boolean hum50 = builder.mNotchFreq == NOTCH_FREQ_50HZ;
+    mChannels = builder.mChannels;
+    mNotch = builder.mNotch;
+    mLowpass = builder.mLowpass;
+    mHighpass = builder.mHighpass;
+    mFirmwareRounding = builder.mFirmwareRounding;
+    mLpfNum = LPF_NUM[rate];
+    mLpfDen = LPF_DEN[rate];
+    mHpfNum = HPF_NUM[rate];
+    mHpfDen = HPF_DEN[rate];
+    mAhfNum = (hum50 ? AHF_NUM_50HZ : AHF_NUM_60HZ)[rate];
+    mAhfDen = (hum50 ? AHF_DEN_50HZ : AHF_DEN_60HZ)[rate];
+    mAhfGain = (hum50 ? AHF_GAIN_50HZ : AHF_GAIN_60HZ)[rate];
+    mLpfState = new float[2 * mChannels];
+    mHpfState = new float[2 * mChannels];
+    mAhfState = new float[4 * mChannels];
+  }
+
+  public int channels() {
+    return mChannels;
+  }
+
+  /** Clears the state of every channel. */
+  public void reset() {
+    Arrays.fill(mLpfState, 0f);
+    Arrays.fill(mHpfState, 0f);
+    Arrays.fill(mAhfState, 0f);
+  }
+
+  /** Filters {@code frames} interleaved frames. {@code in} and {@code out} may be one array. */
+  public void process(float[] in, float[] out, int frames) {
+    process(in, 0, out, 0, frames);
+  }
+
+  public void process(float[] in, int inOffset, float[] out, int outOffset, int frames) {
+    for (int c = 0; c < mChannels; c++) {
+      processChannel(c, in, inOffset + c, out, outOffset + c, frames);
+    }
+  }
+
+  // One channel at a time keeps its state in locals across the whole batch.
+  private void processChannel(
+      int c, float[] in, int inIndex, float[] out, int outIndex, int frames) {
+    final boolean round = mFirmwareRounding;
+    final int stride = mChannels;
+
+    final float an0 = mAhfNum[0], an1 = mAhfNum[1], an2 = mAhfNum[2];
+    final float an3 = mAhfNum[3], an4 = mAhfNum[4], an5 = mAhfNum[5];
+    final float ad1 = mAhfDen[1], ad2 = mAhfDen[2], ad4 = mAhfDen[4], ad5 = mAhfDen[5];
+    final float gain = mAhfGain;
+    final float ln0 = mLpfNum[0], ln1 = mLpfNum[1], ln2 = mLpfNum[2];
+    final float ld0 = mLpfDen[0], ld1 = mLpfDen[1], ld2 = mLpfDen[2];
+    final float hn0 = mHpfNum[0], hn1 = mHpfNum[1], hn2 = mHpfNum[2];
+    final float hd0 = mHpfDen[0], hd1 = mHpfDen[1], hd2 = mHpfDen[2];
+
+    float a0 = mAhfState[4 * c], a1 = mAhfState[4 * c + 1];
+    float a2 = mAhfState[4 * c + 2], a3 = mAhfState[4 * c + 3];
+    float l0 = mLpfState[2 * c], l1 = mLpfState[2 * c + 1];
+    float h0 = mHpfState[2 * c], h1 = mHpfState[2 * c + 1];
+
+    for (int f = 0; f < frames; f++, inIndex += stride, outIndex += stride) {
+      float x = in[inIndex];
+      if (round) {
+        x = (int) x;
+      }
+
+      if (mNotch) {
+        float stageOut = an0 * x + a0;
+        a0 = (an1 * x + a1) - ad1 * stageOut;
+        a1 = an2 * x - ad2 * stageOut;
+        float stageIn = stageOut;
+        stageOut = an3 * stageOut + a2;
+        a2 = (an4 * stageIn + a3) - ad4 * stageOut;
+        a3 = an5 * stageIn - ad5 * stageOut;
+        x = gain * stageOut;
+        if (round) {
+          x = (int) x;
+        }
+      }
+
+      if (mLowpass) {
+        float tmp = (x - ld1 * l0 - ld2 * l1) / ld0;
+        x = ln0 * tmp + ln1 * l0 + ln2 * l1;
+        l1 = l0;
+        l0 = tmp;
+        if (round) {
+          x = (int) x;
+        }
+      }
+
+      if (mHighpass) {
+        float tmp = (x - hd1 * h0 - hd2 * h1) / hd0;
+        x = hn0 * tmp + hn1 * h0 + hn2 * h1;
+        h1 = h0;
+        h0 = tmp;
+        if (round) {
+          x = (int) x;
+        }
+      }
+
+      out[outIndex] = x;
+    }
+
+    mAhfState[4 * c] = a0;
+    mAhfState[4 * c + 1] = a1;
+    mAhfState[4 * c + 2] = a2;
+    mAhfState[4 * c + 3] = a3;
+    mLpfState[2 * c] = l0;
+    mLpfState[2 * c + 1] = l1;
+    mHpfState[2 * c] = h0;
+    mHpfState[2 * c + 1] = h1;
+  }
+
+  public static final class Builder {
+
+    private final int mChannels;
+    private int mSampleFreq = SAMPLE_FREQ_500HZ;
+    private int mNotchFreq = NOTCH_FREQ_50HZ;
+    private boolean mNotch = true;
+    private boolean mLowpass = true;
+    private boolean mHighpass = true;
+    private boolean mFirmwareRounding;
+
+    public Builder(int channels) {
+      if (channels <= 0) {
+        throw new IllegalArgumentException("channels must be positive: " + channels);
+      }
+      mChannels = channels;
+    }
+
+    /** {@link #SAMPLE_FREQ_500HZ} (default) or {@link #SAMPLE_FREQ_1000HZ}. */
+    public Builder setSampleFrequency(int hz) {
+      if (hz != SAMPLE_FREQ_500HZ && hz != SAMPLE_FREQ_1000HZ) {
+        throw new IllegalArgumentException("Unsupported sample frequency: " + hz);
+      }
+      mSampleFreq = hz;
+      return this;
+    }
+
+    /** {@link #NOTCH_FREQ_50HZ} (default) or {@link #NOTCH_FREQ_60HZ}. */
+    public Builder setNotchFrequency(int hz) {
+      if (hz != NOTCH_FREQ_50HZ && hz != NOTCH_FREQ_60HZ) {
+        throw new IllegalArgumentException("Unsupported notch frequency: " + hz);
+      }
+      mNotchFreq = hz;
+      return this;
+    }
+
+    public Builder setFilters(boolean notch, boolean lowpass, boolean highpass) {
+      mNotch = notch;
+      mLowpass = lowpass;
+      mHighpass = highpass;
+      return this;
+    }
+
+    /** Truncates the input and every stage to {@code int}, as the firmware does. Off by default. */
+    public Builder setFirmwareRounding(boolean firmwareRounding) {
+      mFirmwareRounding = firmwareRounding;
+      return this;
+    }
+
+    public EmgFilterBank build() {
+      return new EmgFilterBank(this);
+    }
+  }
+}
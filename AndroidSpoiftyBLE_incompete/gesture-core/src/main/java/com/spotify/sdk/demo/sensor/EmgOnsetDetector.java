@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import java.util.Arrays;
+
+/**
+ * Detects the onset of muscle activity in streamed EMG, to decide when inference is worth
+ * running.
+ *
+ * <p>Per EMG channel, every sample goes through:
+ *
+ * <ol>
+ *   <li>the Teager-Kaiser energy operator {@code x[n-1]^2 - x[n-2] * x[n]}, which rises sharply
+ *       with bursts and stays small for slow drift such as motion artefacts while running;
+ *   <li>a rolling RMS over {@code rmsWindow} samples, kept as a running sum over a ring;
+ *   <li>a noise floor that follows the envelope down quickly and up slowly, and only while the
+ *       channel is idle;
+ *   <li>hysteresis: the channel turns active above {@code onRatio} times the floor. It turns idle
+ *       again only after {@code holdSamples} consecutive samples below {@code offRatio} times the
+ *       floor.
+ * </ol>
+ *
+ * <p>The detector is active while any channel is. Everything is O(1) per sample over preallocated
+ * primitive arrays. This replaces the firmware's fixed {@code sq(filtered) >= 2500} test, which
+ * fires on single noisy samples.
+ *
+ * <p>Not thread safe.
+ */
+public final class EmgOnsetDetector {
+
+  private final int[] mChannels;
+  private final boolean mEnergyInput;
+  private final int mRmsWindow;
+  private final float mOnRatio;
+  private final float mOffRatio;
+  private final float mMinFloor;
+  private final float mFloorRise;
+  private final float mFloorFall;
+  private final int mHoldSamples;
+  private final int mWarmupSamples;
+  private final int mPrimeSamples;
+
+  private final float[] mPrevious;
+  private final float[] mBeforePrevious;
+  private final float[] mEnergies;
+  private final double[] mEnergySums;
+  private final float[] mFloors;
+  private final boolean[] mChannelActive;
+  private final int[] mQuietRun;
+  private int mRingIndex;
+  // Samples since construction or reset, saturating at mWarmupSamples.
+  private int mSeen;
+
+  private final SampleWindow mWindow = new SampleWindow();
+  private long mNextSample = -1;
+
+  private boolean mActive;
+  private long mOnsetSample = -1;
+  private long mLastActiveSample = -1;
+
+  private long mSamples;
+  private long mActiveSamples;
+  private long mOnsets;
+  private long mSkippedSamples;
+
+  private EmgOnsetDetector(Builder builder) {
+    mChannels = builder.mChannels.clone();
+    mEnergyInput = builder.mEnergyInput;
+    mRmsWindow = builder.mRmsWindow;
+    mOnRatio = builder.mOnRatio;
+    mOffRatio = builder.mOffRatio;
+    mMinFloor = builder.mMinFloor;
+    mFloorRise = builder.mFloorRise;
+    mFloorFall = builder.mFloorFall;
+    mHoldSamples = builder.mHoldSamples;
+    // The envelope is meaningless until the operator and the RMS ring are full.
+    mPrimeSamples = mRmsWindow + 2;
+    mWarmupSamples = Math.max(builder.mWarmupSamples, mPrimeSamples + 1);
+    int n = mChannels.length;
+    mPrevious = new float[n];
+    mBeforePrevious = new float[n];
+    mEnergies = new float[n * mRmsWindow];
+    mEnergySums = new double[n];
+    mFloors = new float[n];
+    mChannelActive = new boolean[n];
+    mQuietRun = new int[n];
+  }
+
+  /** Clears all state, for example after a reconnect. Counters are kept. */
+  public void reset() {
+    Arrays.fill(mPrevious, 0f);
+    Arrays.fill(mBeforePrevious, 0f);
+    Arrays.fill(mEnergies, 0f);
+    Arrays.fill(mEnergySums, 0.0);
+    Arrays.fill(mFloors, 0f);
+    Arrays.fill(mChannelActive, false);
+    Arrays.fill(mQuietRun, 0);
+    mRingIndex = 0;
+    mSeen = 0;
+    mActive = false;
+  }
+
+  /**
+   * Feeds one multi-channel sample with stream index {@code sampleIndex}; the EMG values are read
+   * at {@code offset + channel}. Returns {@code true} on an onset.
+   */
+  public boolean update(float[] sample, int offset, long sampleIndex) {
+    mSamples++;
+    boolean warm = mSeen == mWarmupSamples;
+    boolean anyActive = false;
+    int slot = mRingIndex;
+    for (int c = 0; c < mChannels.length; c++) {
+      float x = sample[offset + mChannels[c]];
+      if (mEnergyInput) {
+        x = (float) Math.sqrt(Math.max(0f, x));
+      }
+      float prev = mPrevious[c];
+      float teager = Math.max(0f, prev * prev - mBeforePrevious[c] * x);
+      mBeforePrevious[c] = prev;
+      mPrevious[c] = x;
+
+      int at = c * mRmsWindow + slot;
+      mEnergySums[c] += teager - mEnergies[at];
+      mEnergies[at] = teager;
+      float envelope = (float) Math.sqrt(Math.max(0.0, mEnergySums[c]) / mRmsWindow);
+
+      if (!warm) {
+        // Start from the mean envelope once primed.
+        if (mSeen >= mPrimeSamples) {
+          mFloors[c] += (envelope - mFloors[c]) / (mSeen - mPrimeSamples + 1);
+        }
+        continue;
+      }
+      float floor = Math.max(mFloors[c], mMinFloor);
+      if (mChannelActive[c]) {
+        if (envelope < floor * mOffRatio) {
+          if (++mQuietRun[c] >= mHoldSamples) {
+            mChannelActive[c] = false;
+          }
+        } else {
+          mQuietRun[c] = 0;
+        }
+      } else if (envelope > floor * mOnRatio) {
+        mChannelActive[c] = true;
+        mQuietRun[c] = 0;
+      } else {
+        float alpha = envelope < mFloors[c] ? mFloorFall : mFloorRise;
+        mFloors[c] += alpha * (envelope - mFloors[c]);
+      }
+      anyActive |= mChannelActive[c];
+    }
+    mRingIndex = slot + 1 == mRmsWindow ? 0 : slot + 1;
+    if (!warm) {
+      mSeen++;
+    }
+
+    boolean onset = anyActive && !mActive;
+    mActive = anyActive;
+    if (anyActive) {
+      mActiveSamples++;
+      mLastActiveSample = sampleIndex;
+    }
+    if (onset) {
+      mOnsets++;
+      mOnsetSample = sampleIndex;
+    }
+    return onset;
+  }
+
+  /**
+   * Feeds every sample appended to {@code ring} since the previous call. If the detector fell a
+   * whole ring behind, the missed samples are skipped and counted. Returns the number of onsets.
+   */
+  public int consume(SampleRing ring) {
+    long written = ring.written();
+    if (mNextSample < 0 || written - mNextSample >= ring.capacity()) {
+      long resume = Math.max(0, written - ring.capacity() / 2);
+      if (mNextSample >= 0) {
+        mSkippedSamples += resume - mNextSample;
+      }
+      mNextSample = resume;
+    }
+    int onsets = 0;
+    int count = (int) (written - mNextSample);
+    if (count > 0 && ring.window(mNextSample, count, mWindow)) {
+      float[] data = mWindow.array();
+      int channels = mWindow.channels();
+      for (int i = 0, p = mWindow.offset(); i < count; i++, p += channels) {
+        if (update(data, p, mNextSample + i)) {
+          onsets++;
+        }
+      }
+      mNextSample = written;
+    }
+    return onsets;
+  }
+
+  public boolean isActive() {
+    return mActive;
+  }
+
+  /** Returns {@code true} if any sample at or after {@code sampleIndex} was active. */
+  public boolean wasActiveSince(long sampleIndex) {
+    return mLastActiveSample >= sampleIndex;
+  }
+
+  /** Stream index of the latest onset, or -1. */
+  public long onsetSample() {
+    return mOnsetSample;
+  }
+
+  public long samples() {
+    return mSamples;
+  }
+
+  public long activeSamples() {
+    return mActiveSamples;
+  }
+
+  public long onsets() {
+    return mOnsets;
+  }
+
+  /** Samples never seen because {@link #consume} was called too late. */
+  public long skippedSamples() {
+    return mSkippedSamples;
+  }
+
+  public static final class Builder {
+
+    private final int[] mChannels;
+    private boolean mEnergyInput;
+    private int mRmsWindow = 25;
+    private float mOnRatio = 4f;
+    private float mOffRatio = 2f;
+    private float mMinFloor = 1e-3f;
+    private float mFloorRise = 0.001f;
+    private float mFloorFall = 0.05f;
+    private int mHoldSamples = 50;
+    private int mWarmupSamples = 250;
+
+    /** @param channels indices of the EMG values within each sample */
+    public Builder(int... channels) {
+      if (channels.length == 0) {
+        throw new IllegalArgumentException("At least one channel is required");
+      }
+      mChannels = channels.clone();
+    }
+
+    /**
+     * Treats inputs as energies, i.e. squared amplitudes, and takes their square root first. The
+     * streamed EMG features are {@code filtered^2 / 500000}.
+     */
+    public Builder setEnergyInput(boolean energyInput) {
+      mEnergyInput = energyInput;
+      return this;
+    }
+
+    /** Samples in the rolling RMS; 25 (50 ms at 500 Hz) by default. */
+    public Builder setRmsWindow(int samples) {
+      if (samples <= 0) {
+        throw new IllegalArgumentException("RMS window must be positive: " + samples);
+      }
+      mRmsWindow = samples;
+      return this;
+    }
+
+    /** Envelope to noise floor ratios to turn on and off; 4 and 2 by default. */
+    public Builder setHysteresis(float onRatio, float offRatio) {
+      if (offRatio <= 0 || offRatio > onRatio) {
+        throw new IllegalArgumentException("Need 0 < offRatio <= onRatio");
+      }
+      mOnRatio = onRatio;
+      mOffRatio = offRatio;
+      return this;
+    }
+
+    /** Lowest floor used for thresholds, so a perfectly flat signal does not trigger on noise. */
+    public Builder setMinFloor(float minFloor) {
+      mMinFloor = minFloor;
+      return this;
+    }
+
+    /** Per-sample smoothing factors when the envelope is above and below the floor. */
+    public Builder setFloorTracking(float rise, float fall) {
+      mFloorRise = rise;
+      mFloorFall = fall;
+      return this;
+    }
+
+    /** Quiet samples needed before a channel turns idle; 50 (100 ms at 500 Hz) by default. */
+    public Builder setHoldSamples(int samples) {
+      mHoldSamples = samples;
+      return this;
+    }
+
+    /** Samples used to settle the floor before any onset is reported; 250 by default. */
+    public Builder setWarmupSamples(int samples) {
+      mWarmupSamples = samples;
+      return this;
+    }
+
+    public EmgOnsetDetector build() {
+      return new EmgOnsetDetector(this);
+    }
+  }
+}
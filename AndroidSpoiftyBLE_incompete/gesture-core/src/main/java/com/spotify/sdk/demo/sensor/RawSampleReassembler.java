@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+/**
+ * Turns raw sample notifications from the wearable into a continuous {@link SampleRing}.
+ *
+ * <p>Raw frames are little endian:
+ *
+ * <pre>
+ *   0     type       0x02
+ *   1     count      samples in this frame
+ *   2..5  first      uint32 device index of the first sample, wraps
+ *   6..   samples    count x channels int16, feature * {@value #FEATURE_ONE}
+ * </pre>
+ *
+ * <p>The features are the same normalised EMG and IMU values the firmware feeds the model. The
+ * device index lets lost notifications be told apart from late or repeated ones:
+ *
+ * <ul>
+ *   <li>A gap of up to {@code maxConcealedSamples} is filled by repeating the last sample, so
+ *       windows keep their timing.
+ *   <li>A longer gap, or an index far behind the expected one (the device restarted), marks a
+ *       discontinuity in the ring and the stream restarts from the new index.
+ *   <li>Samples already received are skipped.
+ * </ul>
+ *
+ * <p>Not thread safe: call {@link #onFrame} from the notification thread only. Counters may be
+ * read from any thread.
+ */
+public final class RawSampleReassembler {
+
+  public static final int FRAME_RAW_SAMPLES = 0x02;
+  public static final int HEADER_LENGTH = 6;
+
+  /** Fixed point value of a feature equal to 1.0. */
+  public static final int FEATURE_ONE = 16384;
+
+  private static final float FEATURE_SCALE = 1f / FEATURE_ONE;
+
+  private final SampleRing mRing;
+  private final int mChannels;
+  private final int mMaxConcealedSamples;
+  private final float[] mSample;
+
+  private boolean mStarted;
+  private long mExpected;
+
+  private volatile long mFrames;
+  private volatile long mSamples;
+  private volatile long mConcealedSamples;
+  private volatile long mLostSamples;
+  private volatile long mStaleSamples;
+  private volatile long mResyncs;
+  private volatile long mMalformedFrames;
+
+  public RawSampleReassembler(SampleRing ring, int maxConcealedSamples) {
+    if (maxConcealedSamples < 0) {
+      throw new IllegalArgumentException("maxConcealedSamples must not be negative");
+    }
+    mRing = ring;
+    mChannels = ring.channels();
+    mMaxConcealedSamples = maxConcealedSamples;
+    mSample = new float[mChannels];
+  }
+
+  public SampleRing ring() {
+    return mRing;
+  }
+
+  /**
+   * Forgets the expected device index, for example after a reconnect. The next frame starts a new
+   * segment.
+   */
+  public void reset() {
+    if (mStarted) {
+      mStarted = false;
+      mRing.markDiscontinuity();
+    }
+  }
+
+  /** Returns {@code true} if the frame was well formed and added at least one new sample. */
+  public boolean onFrame(byte[] value) {
+    return value != null && onFrame(value, 0, value.length);
+  }
+
+  public boolean onFrame(byte[] value, int offset, int length) {
+    int sampleBytes = 2 * mChannels;
+    if (length < HEADER_LENGTH || value[offset] != FRAME_RAW_SAMPLES) {
+      mMalformedFrames++;
+      return false;
+    }
+    int count = value[offset + 1] & 0xff;
+    if (count == 0 || length < HEADER_LENGTH + count * sampleBytes) {
+      mMalformedFrames++;
+      return false;
+    }
+    long first =
+        (value[offset + 2] & 0xffL)
+            | (value[offset + 3] & 0xffL) << 8
+            | (value[offset + 4] & 0xffL) << 16
+            | (value[offset + 5] & 0xffL) << 24;
+    mFrames++;
+
+    int skip = 0;
+    if (mStarted) {
+      // Signed distance in the device's 32-bit index space.
+      int delta = (int) (first - mExpected);
+      if (delta > 0 && delta <= mMaxConcealedSamples) {
+        for (int i = 0; i < delta; i++) {
+          mRing.append(mSample, 0);
+        }
+        mConcealedSamples += delta;
+      } else if (delta > 0 || delta <= -mRing.capacity()) {
+        if (delta > 0) {
+          mLostSamples += delta;
+        }
+        mResyncs++;
+        mRing.markDiscontinuity();
+      } else if (delta < 0) {
+        skip = Math.min(-delta, count);
+        mStaleSamples += skip;
+      }
+    }
+    if (skip == count) {
+      return false;
+    }
+
+    int p = offset + HEADER_LENGTH + skip * sampleBytes;
+    for (int s = skip; s < count; s++) {
+      for (int c = 0; c < mChannels; c++, p += 2) {
+        short fixed = (short) ((value[p] & 0xff) | value[p + 1] << 8);
+        mSample[c] = fixed * FEATURE_SCALE;
+      }
+      mRing.append(mSample, 0);
+    }
+    mSamples += count - skip;
+    mStarted = true;
+    mExpected = (first + count) & 0xffffffffL;
+    return true;
+  }
+
+  public long frames() {
+    return mFrames;
+  }
+
+  /** Samples received from the device, excluding stale repeats and concealment. */
+  public long samples() {
+    return mSamples;
+  }
+
+  /** Missing samples filled in by repeating the previous sample. */
+  public long concealedSamples() {
+    return mConcealedSamples;
+  }
+
+  /** Missing samples in gaps too long to conceal. */
+  public long lostSamples() {
+    return mLostSamples;
+  }
+
+  /** Samples that arrived again or too late and were skipped. */
+  public long staleSamples() {
+    return mStaleSamples;
+  }
+
+  /** Times the stream restarted after a long gap or a device restart. */
+  public long resyncs() {
+    return mResyncs;
+  }
+
+  public long malformedFrames() {
+    return mMalformedFrames;
+  }
+
+  /**
+   * Encodes {@code count} samples of {@code channels} features from {@code samples} into a raw
+   * frame at {@code out[offset]}. Features are clamped to the int16 range. Used by simulated
+   * peripherals and benchmarks; the firmware has its own encoder.
+   *
+   * @return the frame length in bytes
+   */
+  public static int encode(
+      byte[] out,
+      int offset,
+      float[] samples,
+      int samplesOffset,
+      int count,
+      int channels,
+      long firstSample) {
+    if (count <= 0 || count > 0xff) {
+      throw new IllegalArgumentException("count must be in [1, 255]: " + count);
+    }
+    out[offset] = FRAME_RAW_SAMPLES;
+    out[offset + 1] = (byte) count;
+    out[offset + 2] = (byte) firstSample;
+    out[offset + 3] = (byte) (firstSample >>> 8);
+    out[offset + 4] = (byte) (firstSample >>> 16);
+    out[offset + 5] = (byte) (firstSample >>> 24);
+    int p = offset + HEADER_LENGTH;
+    for (int i = 0; i < count * channels; i++, p += 2) {
+      int fixed = Math.round(samples[samplesOffset + i] * FEATURE_ONE);
+      fixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, fixed));
+      out[p] = (byte) fixed;
+      out[p + 1] = (byte) (fixed >>> 8);
+    }
+    return p - offset;
+  }
+}
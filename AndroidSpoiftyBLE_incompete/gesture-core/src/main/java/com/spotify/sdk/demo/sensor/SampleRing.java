@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-writer ring of multi-channel float samples, stored {@code [sample][channel]}.
+ *
+ * <p>Every sample is written twice, at its slot and again one capacity further on. Any run of
+ * consecutive samples that fits in the ring is therefore contiguous in {@link
+ * SampleWindow#array()}.
+ * Readers can hand the view straight to code that takes {@code (float[], offset)}, with no copy
+ * and no wrap-around handling.
+ *
+ * <p>One thread appends; any number of threads may take windows. The writer never waits for
+ * readers, so a window is only valid until the writer laps it. Size the ring with headroom over
+ * the longest window plus the reader's worst-case delay, and use {@link #isIntact(SampleWindow)}
+ * after reading if that headroom is not guaranteed.
+ */
+public final class SampleRing {
+
+  private final int mChannels;
+  private final int mMask;
+  private final float[] mData;
+
+  // Samples fully written; written by the producer only.
+  private final AtomicLong mWritten = new AtomicLong();
+  // First sample after the most recent discontinuity.
+  private final AtomicLong mSegmentStart = new AtomicLong();
+
+  /** @param capacity in samples, rounded up to the next power of two */
+  public SampleRing(int channels, int capacity) {
+    if (channels <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException("channels and capacity must be positive");
+    }
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mChannels = channels;
+    mMask = size - 1;
+    mData = new float[2 * size * channels];
+  }
+
+  public int channels() {
+    return mChannels;
+  }
+
+  public int capacity() {
+    return mMask + 1;
+  }
+
+  /** Samples appended since creation; the index of the next sample. */
+  public long written() {
+    return mWritten.get();
+  }
+
+  /** Writer side. Appends one sample of {@link #channels()} values read from {@code src}. */
+  public void append(float[] src, int offset) {
+    long index = mWritten.get();
+    int slot = ((int) index & mMask) * mChannels;
+    int mirror = slot + (mMask + 1) * mChannels;
+    System.arraycopy(src, offset, mData, slot, mChannels);
+    System.arraycopy(src, offset, mData, mirror, mChannels);
+    // Ordered store publishes the sample before the new count becomes visible.
+    mWritten.lazySet(index + 1);
+  }
+
+  /**
+   * Writer side. Records that the next sample does not follow on from the previous one, for
+   * example after a reconnect or an unrecoverable gap. Only the most recent discontinuity is
+   * remembered.
+   */
+  public void markDiscontinuity() {
+    mSegmentStart.lazySet(mWritten.get());
+  }
+
+  /** Views the most recent {@code steps} samples. Returns {@code false} if there are fewer. */
+  public boolean latest(int steps, SampleWindow out) {
+    return window(mWritten.get() - steps, steps, out);
+  }
+
+  /**
+   * Views {@code steps} samples starting at sample {@code first}. Returns {@code false} if any of
+   * them has not been written yet or may already be overwritten, so at most {@code capacity() - 1}
+   * samples can be viewed.
+   */
+  public boolean window(long first, int steps, SampleWindow out) {
+    long written = mWritten.get();
+    if (steps <= 0 || first < 0 || first + steps > written || written - first > mMask) {
+      return false;
+    }
+    long segmentStart = mSegmentStart.get();
+    out.set(
+        mData,
+        ((int) first & mMask) * mChannels,
+        steps,
+        mChannels,
+        first,
+        segmentStart <= first || segmentStart >= first + steps);
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if the writer has not started overwriting any sample of {@code window}.
+   * Call it after consuming the window to detect that the reader fell a full ring behind.
+   */
+  public boolean isIntact(SampleWindow window) {
+    // Sample n overwrites sample n - capacity while it is being written.
+    return mWritten.get() < window.firstSample() + mMask + 1;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+/**
+ * Reusable, zero-copy view of consecutive samples in a {@link SampleRing}.
+ *
+ * <p>Values for step {@code s} and channel {@code c} are at {@code array()[offset() + s *
+ * channels() + c]}. The view is filled by {@link SampleRing#latest} or {@link SampleRing#window}
+ * and is only as stable as the ring beneath it.
+ */
+public final class SampleWindow {
+
+  private float[] mArray;
+  private int mOffset;
+  private int mSteps;
+  private int mChannels;
+  private long mFirstSample;
+  private boolean mContiguous;
+
+  void set(
+      float[] array, int offset, int steps, int channels, long firstSample, boolean contiguous) {
+    mArray = array;
+    mOffset = offset;
+    mSteps = steps;
+    mChannels = channels;
+    mFirstSample = firstSample;
+    mContiguous = contiguous;
+  }
+
+  /** Backing storage; do not write to it. */
+  public float[] array() {
+    return mArray;
+  }
+
+  public int offset() {
+    return mOffset;
+  }
+
+  public int steps() {
+    return mSteps;
+  }
+
+  public int channels() {
+    return mChannels;
+  }
+
+  /** Ring index of the first sample in the window. */
+  public long firstSample() {
+    return mFirstSample;
+  }
+
+  /** {@code false} if the window spans a discontinuity marked by the writer. */
+  public boolean isContiguous() {
+    return mContiguous;
+  }
+
+  public float get(int step, int channel) {
+    return mArray[mOffset + step * mChannels + channel];
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.session;
+
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureEventQueue;
+import com.spotify.sdk.demo.gesture.GestureFrame;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the gesture streams of several wearables into one stream of decisions.
+ *
+ * <p>Device timestamps are first mapped onto the phone's receive clock. Each device keeps an
+ * offset estimated as the smallest {@code received - device time} seen so far, which follows the
+ * fastest delivery and ignores queuing jitter; it may creep up by {@link #MAX_SKEW_PPM} of the
+ * elapsed device time to follow a slow clock. A device clock that jumps backwards, as after a
+ * reboot, restarts the estimate. Frames without a timestamp use their receive time.
+ *
+ * <p>A gesture opens a voting window. Every device votes at most once per window, with its weight
+ * scaled by the frame's confidence. The window closes as soon as every connected device has
+ * voted, when a vote falls outside it on the aligned clock, or when its deadline passes on the
+ * receive clock. The best scoring gesture wins if it holds more than {@code minAgreement} of the
+ * weight that was cast; otherwise the window counts as a conflict and nothing is emitted. Devices
+ * that did not vote are left out, so one wearable losing a frame does not veto the others. With
+ * one device every window closes on its first vote and fusion adds no latency. {@link
+ * Gesture#IDLE} is emitted once every connected device is idle again.
+ *
+ * <p>Decisions go to a {@link GestureEventQueue.Handler} with the receive time of the earliest
+ * winning vote, so downstream latency includes the time spent waiting for the other devices, and
+ * with the aligned window start, in receive clock millis, as their device time. Not thread safe:
+ * {@link WearableSession} drives it from its fusion thread. Nothing is allocated after
+ * construction.
+ */
+public final class GestureFusion {
+
+  /** Largest device clock drift, in parts per million, that the alignment follows. */
+  public static final long MAX_SKEW_PPM = 500;
+
+  private static final int IDLE = Gesture.IDLE.ordinal();
+  private static final float NO_CONFIDENCE_SCALE = 1f;
+
+  private final GestureEventQueue.Handler mOutput;
+  private final float[] mWeights;
+  private final long mWindowNanos;
+  private final float mMinAgreement;
+
+  // Per device.
+  private final boolean[] mConnected;
+  private final boolean[] mHasOffset;
+  private final long[] mOffsetNanos;
+  private final long[] mLastDeviceNanos;
+  private final int[] mLastGesture;
+  private final boolean[] mVoted;
+
+  // Open window.
+  private boolean mPending;
+  private long mWindowStartNanos;
+  private long mDeadlineNanos;
+  private int mVotes;
+  private final float[] mScores = new float[Gesture.COUNT];
+  private final int[] mBestConfidence = new int[Gesture.COUNT];
+  private final long[] mFirstReceivedNanos = new long[Gesture.COUNT];
+
+  private int mSequence;
+  private int mLastEmitted = IDLE;
+  private long mLastAlignedNanos;
+  private long mLastReceivedNanos;
+
+  private long mEvents;
+  private long mIgnoredEvents;
+  private long mDecisions;
+  private long mUnanimous;
+  private long mConflicts;
+  private long mTimeouts;
+  private long mClockResets;
+
+  private GestureFusion(Builder builder, GestureEventQueue.Handler output) {
+    mOutput = output;
+    mWeights = Arrays.copyOf(builder.mWeights, builder.mDevices);
+    mWindowNanos = builder.mWindowNanos;
+    mMinAgreement = builder.mMinAgreement;
+    int devices = builder.mDevices;
+    mConnected = new boolean[devices];
+    mHasOffset = new boolean[devices];
+    mOffsetNanos = new long[devices];
+    mLastDeviceNanos = new long[devices];
+    mLastGesture = new int[devices];
+    mVoted = new boolean[devices];
+    Arrays.fill(mLastGesture, IDLE);
+    Arrays.fill(mBestConfidence, GestureFrame.NO_CONFIDENCE);
+  }
+
+  public int devices() {
+    return mWeights.length;
+  }
+
+  /**
+   * Marks a device as connected or not. Windows only wait for connected devices; a disconnected
+   * device counts as idle and its clock offset is estimated afresh on the next connection.
+   */
+  public void setConnected(int device, boolean connected) {
+    if (mConnected[device] == connected) {
+      return;
+    }
+    mConnected[device] = connected;
+    if (!connected) {
+      mHasOffset[device] = false;
+      mLastGesture[device] = IDLE;
+      if (mPending && mVotes >= connectedDevices()) {
+        closeWindow();
+      }
+      emitIdleIfSettled();
+    }
+  }
+
+  /** One decoded event from {@code device}; arguments as in {@link GestureEventQueue.Handler}. */
+  public void onEvent(
+      int device, int gestureId, long deviceTimeMillis, int confidence, long receivedNanos) {
+    mEvents++;
+    if (Gesture.fromId(gestureId) == null) {
+      mIgnoredEvents++;
+      return;
+    }
+    long alignedNanos = align(device, deviceTimeMillis, receivedNanos);
+    mLastAlignedNanos = alignedNanos;
+    mLastReceivedNanos = receivedNanos;
+    mLastGesture[device] = gestureId;
+    if (gestureId == IDLE) {
+      emitIdleIfSettled();
+      return;
+    }
+
+    if (mPending && (mVoted[device] || alignedNanos - mWindowStartNanos > mWindowNanos)) {
+      closeWindow();
+    }
+    if (!mPending) {
+      mPending = true;
+      mWindowStartNanos = alignedNanos;
+      mDeadlineNanos = receivedNanos + mWindowNanos;
+    }
+    float scale =
+        confidence == GestureFrame.NO_CONFIDENCE ? NO_CONFIDENCE_SCALE : confidence / 255f;
+    if (mScores[gestureId] == 0f) {
+      mFirstReceivedNanos[gestureId] = receivedNanos;
+    } else {
+      mFirstReceivedNanos[gestureId] = Math.min(mFirstReceivedNanos[gestureId], receivedNanos);
+    }
+    // A zero confidence still counts as a vote, just one that cannot win on its own.
+    mScores[gestureId] += Math.max(Float.MIN_NORMAL, mWeights[device] * scale);
+    mBestConfidence[gestureId] = Math.max(mBestConfidence[gestureId], confidence);
+    mVoted[device] = true;
+    mVotes++;
+    if (mVotes >= connectedDevices()) {
+      closeWindow();
+    }
+  }
+
+  /** Closes the open window if its deadline has passed. */
+  public void poll(long nowNanos) {
+    if (mPending && nowNanos - mDeadlineNanos >= 0) {
+      mTimeouts++;
+      closeWindow();
+    }
+  }
+
+  /** Time until {@link #poll} has work to do, or {@link Long#MAX_VALUE} if no window is open. */
+  public long nanosUntilDeadline(long nowNanos) {
+    return mPending ? Math.max(0, mDeadlineNanos - nowNanos) : Long.MAX_VALUE;
+  }
+
+  private long align(int device, long deviceTimeMillis, long receivedNanos) {
+    if (deviceTimeMillis == GestureFrame.NO_TIMESTAMP) {
+      return receivedNanos;
+    }
+    long deviceNanos = TimeUnit.MILLISECONDS.toNanos(deviceTimeMillis);
+    long candidate = receivedNanos - deviceNanos;
+    if (mHasOffset[device] && deviceNanos < mLastDeviceNanos[device]) {
+      mClockResets++;
+      mHasOffset[device] = false;
+    }
+    if (!mHasOffset[device]) {
+      mHasOffset[device] = true;
+      mOffsetNanos[device] = candidate;
+    } else {
+      long allowance = (deviceNanos - mLastDeviceNanos[device]) / 1_000_000 * MAX_SKEW_PPM;
+      mOffsetNanos[device] = Math.min(candidate, mOffsetNanos[device] + allowance);
+    }
+    mLastDeviceNanos[device] = deviceNanos;
+    return deviceNanos + mOffsetNanos[device];
+  }
+
+  private void closeWindow() {
+    int best = -1;
+    float total = 0f;
+    int distinct = 0;
+    for (int g = 0; g < Gesture.COUNT; g++) {
+      float score = mScores[g];
+      if (score > 0f) {
+        distinct++;
+        total += score;
+        if (best < 0 || score > mScores[best]) {
+          best = g;
+        }
+      }
+    }
+    if (best >= 0 && mScores[best] > total * mMinAgreement) {
+      mDecisions++;
+      if (distinct == 1) {
+        mUnanimous++;
+      }
+      emit(best, mBestConfidence[best], mWindowStartNanos, mFirstReceivedNanos[best]);
+    } else if (best >= 0) {
+      mConflicts++;
+    }
+
+    mPending = false;
+    mVotes = 0;
+    Arrays.fill(mVoted, false);
+    Arrays.fill(mScores, 0f);
+    Arrays.fill(mBestConfidence, GestureFrame.NO_CONFIDENCE);
+    emitIdleIfSettled();
+  }
+
+  private void emitIdleIfSettled() {
+    if (mPending || mLastEmitted == IDLE) {
+      return;
+    }
+    for (int d = 0; d < mLastGesture.length; d++) {
+      if (mLastGesture[d] != IDLE) {
+        return;
+      }
+    }
+    emit(IDLE, GestureFrame.NO_CONFIDENCE, mLastAlignedNanos, mLastReceivedNanos);
+  }
+
+  private void emit(int gestureId, int confidence, long alignedNanos, long receivedNanos) {
+    mLastEmitted = gestureId;
+    mOutput.onGestureEvent(
+        gestureId,
+        mSequence++ & 0xffff,
+        TimeUnit.NANOSECONDS.toMillis(alignedNanos),
+        confidence,
+        receivedNanos);
+  }
+
+  private int connectedDevices() {
+    int count = 0;
+    for (boolean connected : mConnected) {
+      if (connected) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Events passed to {@link #onEvent}. */
+  public long events() {
+    return mEvents;
+  }
+
+  /** Events with an unknown gesture id. */
+  public long ignoredEvents() {
+    return mIgnoredEvents;
+  }
+
+  /** Gestures emitted, not counting {@link Gesture#IDLE}. */
+  public long decisions() {
+    return mDecisions;
+  }
+
+  /** Decisions where every vote in the window was for the same gesture. */
+  public long unanimous() {
+    return mUnanimous;
+  }
+
+  /** Windows where no gesture reached the required agreement. */
+  public long conflicts() {
+    return mConflicts;
+  }
+
+  /** Windows closed by their deadline rather than by the last vote. */
+  public long timeouts() {
+    return mTimeouts;
+  }
+
+  /** Times a device clock went backwards and its offset was estimated again. */
+  public long clockResets() {
+    return mClockResets;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "GestureFusion{devices=%d, events=%d, ignored=%d, decisions=%d, unanimous=%d,"
+            + " conflicts=%d, timeouts=%d, clockResets=%d}",
+        devices(),
+        mEvents,
+        mIgnoredEvents,
+        mDecisions,
+        mUnanimous,
+        mConflicts,
+        mTimeouts,
+        mClockResets);
+  }
+
+  public static final class Builder {
+    private final int mDevices;
+    private final float[] mWeights;
+    private long mWindowNanos = TimeUnit.MILLISECONDS.toNanos(150);
+    private float mMinAgreement = 0.5f;
+
+    /** @param devices number of wearables, numbered from 0 */
+    public Builder(int devices) {
+      if (devices <= 0) {
+        throw new IllegalArgumentException("devices must be positive: " + devices);
+      }
+      mDevices = devices;
+      mWeights = new float[devices];
+      Arrays.fill(mWeights, 1f);
+    }
+
+    /** How much a vote from {@code device} counts relative to the others. Default 1. */
+    public Builder setWeight(int device, float weight) {
+      if (device < 0 || device >= mDevices) {
+        throw new IllegalArgumentException("no such device: " + device);
+      }
+      if (!(weight > 0f)) {
+        throw new IllegalArgumentException("weight must be positive: " + weight);
+      }
+      mWeights[device] = weight;
+      return this;
+    }
+
+    /** How long a window waits for the other devices. Default 150 ms. */
+    public Builder setWindow(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("window must be positive: " + time);
+      }
+      mWindowNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** Share of the cast weight the winner must exceed, in [0.5, 1). Default 0.5. */
+    public Builder setMinAgreement(float minAgreement) {
+      if (!(minAgreement >= 0.5f && minAgreement < 1f)) {
+        throw new IllegalArgumentException("minAgreement must be in [0.5, 1): " + minAgreement);
+      }
+      mMinAgreement = minAgreement;
+      return this;
+    }
+
+    public GestureFusion build(GestureEventQueue.Handler output) {
+      return new GestureFusion(this, output);
+    }
+  }
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.session;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.gesture.GestureEventQueue;
+import com.spotify.sdk.demo.gesture.GestureFrame;
+import com.spotify.sdk.demo.gesture.GestureFrameDecoder;
+import com.spotify.sdk.demo.gesture.GestureSmoother;
+import com.spotify.sdk.demo.gesture.GestureSource;
+import com.spotify.sdk.demo.metrics.PipelineLatency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Several wearables linked at once, whose gestures are fused into one command stream.
+ *
+ * <p>Each device has its own {@link Link}: a decoder, an optional {@link GestureSmoother}, a
+ * frame and a single producer queue that belong to its transport's thread, so devices never
+ * share mutable state or contend with each other. A single fusion thread drains every queue
+ * into a {@link GestureFusion} and hands its decisions to the session's handler. Like {@code
+ * GestureDispatcher}, it parks while the queues are empty, but only until the open fusion window
+ * is due.
+ *
+ * <p>Transports can be anything that implements {@link GestureTransport}: GATT links,
+ * {@link com.spotify.sdk.demo.ble.SimulatedPeripheral}s or trace replays. {@link #connect} and
+ * {@link #disconnect} are called from the thread that owns the transports.
+ */
+public final class WearableSession implements GestureSource {
+
+  private static final int DRAIN_BATCH = 32;
+  // Upper bound on a park so that a missed wakeup can only delay, never stall, an event.
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  /** One wearable in the session. Counters may be read from any thread. */
+  public static final class Link implements GestureTransport.Listener {
+    private final WearableSession mSession;
+    private final int mIndex;
+    private final String mName;
+    private final GestureTransport mTransport;
+    private final GestureTransport.Listener mTap;
+    private final GestureEventQueue mQueue;
+    private final GestureEventQueue.Handler mFusionInput;
+
+    // Transport thread only.
+    private final GestureFrameDecoder mDecoder = new GestureFrameDecoder();
+    private final GestureFrame mFrame = new GestureFrame();
+    private final GestureSmoother mSmoother;
+
+    private volatile boolean mConnected;
+    private volatile long mConnections;
+    private volatile long mGestureFrames;
+    private volatile long mMalformedFrames;
+
+    private Link(
+        WearableSession session,
+        int index,
+        Builder.Device device,
+        int queueCapacity,
+        GestureSmoother.Builder smoothing) {
+      mSession = session;
+      mIndex = index;
+      mName = device.mName;
+      mTransport = device.mTransport;
+      mTap = device.mTap;
+      mQueue = new GestureEventQueue(queueCapacity);
+      mSmoother = smoothing != null ? smoothing.build() : null;
+      mFusionInput =
+          (gestureId, sequence, deviceTimeMillis, confidence, receivedNanos) ->
+              mSession.mFusion.onEvent(
+                  mIndex, gestureId, deviceTimeMillis, confidence, receivedNanos);
+    }
+
+    @Override
+    public void onConnected() {
+      if (mTap != null) {
+        mTap.onConnected();
+      }
+      if (mSmoother != null) {
+        mSmoother.reset();
+      }
+      mConnections++;
+      mConnected = true;
+      mSession.wake();
+    }
+
+    @Override
+    public void onNotification(
+        GestureTransport.Channel channel, byte[] value, long receivedNanos) {
+      if (mTap != null) {
+        mTap.onNotification(channel, value, receivedNanos);
+      }
+      if (channel != GestureTransport.Channel.GESTURES) {
+        return;
+      }
+      if (!mDecoder.decode(value, mFrame)) {
+        mMalformedFrames++;
+        return;
+      }
+      mGestureFrames++;
+      PipelineLatency latency = mSession.mLatency;
+      if (latency != null) {
+        latency.record(PipelineLatency.Stage.DECODE, System.nanoTime() - receivedNanos);
+      }
+      if (mSmoother != null && !mSmoother.update(mFrame, receivedNanos)) {
+        return;
+      }
+      mQueue.offer(mFrame, receivedNanos);
+      mSession.wake();
+    }
+
+    @Override
+    public void onDisconnected() {
+      mConnected = false;
+      if (mTap != null) {
+        mTap.onDisconnected();
+      }
+      mSession.wake();
+    }
+
+    public int index() {
+      return mIndex;
+    }
+
+    public String name() {
+      return mName;
+    }
+
+    public GestureTransport transport() {
+      return mTransport;
+    }
+
+    public boolean isConnected() {
+      return mConnected;
+    }
+
+    /** Connections made since the session was built. */
+    public long connections() {
+      return mConnections;
+    }
+
+    /** Gesture frames decoded. */
+    public long gestureFrames() {
+      return mGestureFrames;
+    }
+
+    /** Gesture notifications that could not be decoded. */
+    public long malformedFrames() {
+      return mMalformedFrames;
+    }
+
+    /**
+     * The link's smoothing stage, or {@code null} if the session passes frames through. Its
+     * counters are written by the transport thread.
+     */
+    public GestureSmoother smoother() {
+      return mSmoother;
+    }
+
+    /** Decoded frames lost because the fusion thread fell behind. */
+    public long droppedFrames() {
+      return mQueue.dropped();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "Link{name=%s, connected=%b, connections=%d, frames=%d, malformed=%d, dropped=%d,"
+              + " smoother=%s}",
+          mName,
+          mConnected,
+          mConnections,
+          mGestureFrames,
+          mMalformedFrames,
+          mQueue.dropped(),
+          mSmoother);
+    }
+  }
+
+  private final List<Link> mLinks;
+  private final Link[] mLinkArray;
+  private final GestureFusion mFusion;
+  private final PipelineLatency mLatency;
+  private final Thread mThread;
+
+  private volatile boolean mRunning;
+  private volatile boolean mParked;
+
+  private WearableSession(Builder builder, GestureEventQueue.Handler handler) {
+    GestureFusion.Builder fusion =
+        new GestureFusion.Builder(builder.mDevices.size())
+            .setWindow(builder.mWindowNanos, TimeUnit.NANOSECONDS)
+            .setMinAgreement(builder.mMinAgreement);
+    mLinkArray = new Link[builder.mDevices.size()];
+    for (int i = 0; i < mLinkArray.length; i++) {
+      Builder.Device device = builder.mDevices.get(i);
+      fusion.setWeight(i, device.mWeight);
+      mLinkArray[i] = new Link(this, i, device, builder.mQueueCapacity, builder.mSmoothing);
+    }
+    mLinks = Collections.unmodifiableList(Arrays.asList(mLinkArray.clone()));
+    mFusion = fusion.build(handler);
+    mLatency = builder.mLatency;
+    mThread = builder.mThreadFactory.newThread(this::run);
+  }
+
+  /** Attaches to every transport and starts the fusion thread. */
+  @Override
+  public void start() {
+    for (Link link : mLinkArray) {
+      link.mTransport.setListener(link);
+      link.mTransport.subscribe(GestureTransport.Channel.GESTURES);
+    }
+    mRunning = true;
+    mThread.start();
+  }
+
+  /** Stops the fusion thread. Events still queued are discarded; transports are left alone. */
+  @Override
+  public void stop() {
+    mRunning = false;
+    LockSupport.unpark(mThread);
+  }
+
+  /** Connects every device; each keeps reconnecting on its own until {@link #disconnect}. */
+  public void connect() {
+    for (Link link : mLinkArray) {
+      link.mTransport.connect();
+    }
+  }
+
+  public void disconnect() {
+    for (Link link : mLinkArray) {
+      link.mTransport.disconnect();
+    }
+  }
+
+  public List<Link> links() {
+    return mLinks;
+  }
+
+  public Link link(int index) {
+    return mLinkArray[index];
+  }
+
+  /** Devices currently connected. */
+  public int connectedDevices() {
+    int count = 0;
+    for (Link link : mLinkArray) {
+      if (link.mConnected) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The fusion stage, for its counters. Only safe to read once the fusion thread has stopped, or
+   * as a rough snapshot.
+   */
+  public GestureFusion fusion() {
+    return mFusion;
+  }
+
+  private void wake() {
+    if (mParked) {
+      LockSupport.unpark(mThread);
+    }
+  }
+
+  private void run() {
+    while (mRunning) {
+      // Connection flags are read before draining, so a window never closes early for want of
+      // a device whose events are already queued.
+      for (Link link : mLinkArray) {
+        mFusion.setConnected(link.mIndex, link.mConnected);
+      }
+      int drained = 0;
+      for (Link link : mLinkArray) {
+        drained += link.mQueue.drain(link.mFusionInput, DRAIN_BATCH);
+      }
+      mFusion.poll(System.nanoTime());
+      if (drained > 0) {
+        continue;
+      }
+      mParked = true;
+      // Re-check after advertising that we are parked to avoid missing a concurrent publish.
+      if (queuesEmpty() && mRunning) {
+        long untilDeadline = mFusion.nanosUntilDeadline(System.nanoTime());
+        if (untilDeadline > 0) {
+          LockSupport.parkNanos(this, Math.min(untilDeadline, MAX_PARK_NANOS));
+        }
+      }
+      mParked = false;
+    }
+  }
+
+  private boolean queuesEmpty() {
+    for (Link link : mLinkArray) {
+      if (!link.mQueue.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "WearableSession{fusion=" + mFusion + ", links=" + mLinks + "}";
+  }
+
+  public static final class Builder {
+    private static final class Device {
+      final String mName;
+      final GestureTransport mTransport;
+      final float mWeight;
+      final GestureTransport.Listener mTap;
+
+      Device(String name, GestureTransport transport, float weight, GestureTransport.Listener tap) {
+        mName = name;
+        mTransport = transport;
+        mWeight = weight;
+        mTap = tap;
+      }
+    }
+
+    private final List<Device> mDevices = new ArrayList<>();
+    private long mWindowNanos = TimeUnit.MILLISECONDS.toNanos(150);
+    private float mMinAgreement = 0.5f;
+    private int mQueueCapacity = 64;
+    private GestureSmoother.Builder mSmoothing;
+    private PipelineLatency mLatency;
+    private ThreadFactory mThreadFactory =
+        runnable -> {
+          Thread thread = new Thread(runnable, "WearableSession");
+          thread.setDaemon(true);
+          return thread;
+        };
+
+    public Builder addDevice(String name, GestureTransport transport) {
+      return addDevice(name, transport, 1f, null);
+    }
+
+    /**
+     * Adds a wearable.
+     *
+     * @param weight how much its votes count relative to the other devices
+     * @param tap if not null, sees every event of this link before the session does, on the
+     *     transport's thread; for tracing or the raw sample path
+     */
+    public Builder addDevice(
+        String name, GestureTransport transport, float weight, GestureTransport.Listener tap) {
+      if (transport == null) {
+        throw new IllegalArgumentException("transport must not be null");
+      }
+      if (!(weight > 0f)) {
+        throw new IllegalArgumentException("weight must be positive: " + weight);
+      }
+      for (Device device : mDevices) {
+        if (device.mTransport == transport) {
+          throw new IllegalArgumentException("transport added twice: " + name);
+        }
+      }
+      mDevices.add(new Device(name, transport, weight, tap));
+      return this;
+    }
+
+    /** See {@link GestureFusion.Builder#setWindow}. Default 150 ms. */
+    public Builder setFusionWindow(long time, TimeUnit unit) {
+      if (time <= 0) {
+        throw new IllegalArgumentException("window must be positive: " + time);
+      }
+      mWindowNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /** See {@link GestureFusion.Builder#setMinAgreement}. Default 0.5. */
+    public Builder setMinAgreement(float minAgreement) {
+      if (!(minAgreement >= 0.5f && minAgreement < 1f)) {
+        throw new IllegalArgumentException("minAgreement must be in [0.5, 1): " + minAgreement);
+      }
+      mMinAgreement = minAgreement;
+      return this;
+    }
+
+    /** Per-device queue between the transport and fusion threads. Default 64. */
+    public Builder setQueueCapacity(int capacity) {
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("capacity must be positive: " + capacity);
+      }
+      mQueueCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Smooths each device's windows before fusion, with a smoother of its own built from
+     * {@code smoothing}. Off by default.
+     */
+    public Builder setSmoothing(GestureSmoother.Builder smoothing) {
+      mSmoothing = smoothing;
+      return this;
+    }
+
+    /** Records {@link PipelineLatency.Stage#DECODE} for every device. */
+    public Builder setLatency(PipelineLatency latency) {
+      mLatency = latency;
+      return this;
+    }
+
+    /**
+     * Creates the fusion thread; a daemon platform thread by default. Simulations running many
+     * sessions at once pass a virtual thread factory here.
+     */
+    public Builder setThreadFactory(ThreadFactory threadFactory) {
+      if (threadFactory == null) {
+        throw new IllegalArgumentException("threadFactory must not be null");
+      }
+      mThreadFactory = threadFactory;
+      return this;
+    }
+
+    /** @param handler receives fused gestures on the fusion thread */
+    public WearableSession build(GestureEventQueue.Handler handler) {
+      if (mDevices.isEmpty()) {
+        throw new IllegalStateException("no devices added");
+      }
+      return new WearableSession(this, handler);
+    }
+  }
+}
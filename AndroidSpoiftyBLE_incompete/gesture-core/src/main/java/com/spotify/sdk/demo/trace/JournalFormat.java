@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.trace;
+
+/**
+ * Layout of a session journal. All values are little endian; varints are those of {@link
+ * TraceFormat}.
+ *
+ * <pre>
+ *   header   magic "SJN1", int32 version, int64 wall clock millis, int64 nanoTime at start
+ *   record   uint8 type, body
+ * </pre>
+ *
+ * Bodies by type:
+ *
+ * <pre>
+ *   STRING          varint length, UTF-8 bytes; defines the next string id, starting at 1
+ *   STRINGS_RESET   (none); forgets all string ids
+ *   PLAYER_STATE    varint zigzag(nanos delta), varint track uri, varint track name,
+ *                   varint artist, uint8 flags, varint position ms, varint duration ms,
+ *                   float32 playback speed
+ *   PLAYER_CONTEXT  varint zigzag(nanos delta), varint uri, varint title, varint subtitle,
+ *                   varint type
+ * </pre>
+ *
+ * String fields hold a string id, or 0 for null, and each new string is defined by a STRING
+ * record just before the record that first uses it. Flags are bit 0 paused, bit 1 shuffling and
+ * bits 2..3 the repeat mode. Deltas are relative to the previous timed record, the first to the
+ * header's start time.
+ */
+final class JournalFormat {
+
+  static final int MAGIC = 0x314e4a53; // "SJN1"
+  static final int VERSION = 1;
+  static final int HEADER_LENGTH = 24;
+
+  static final int TYPE_STRING = 1;
+  static final int TYPE_STRINGS_RESET = 2;
+  static final int TYPE_PLAYER_STATE = 3;
+  static final int TYPE_PLAYER_CONTEXT = 4;
+
+  static final int FLAG_PAUSED = 1;
+  static final int FLAG_SHUFFLING = 1 << 1;
+  static final int REPEAT_SHIFT = 2;
+  static final int REPEAT_MASK = 0x3;
+
+  /** Longer strings are cut to this many chars, which keeps every record below a known size. */
+  static final int MAX_STRING_CHARS = 128;
+  static final int MAX_STRING_BYTES = 3 * MAX_STRING_CHARS;
+  static final int MAX_STRING_RECORD = 1 + TraceFormat.MAX_VARINT_LENGTH + MAX_STRING_BYTES;
+  /** Upper bound of any record other than STRING. */
+  static final int MAX_TIMED_RECORD = 1 + 7 * TraceFormat.MAX_VARINT_LENGTH + 1 + 4;
+
+  private JournalFormat() {}
+}
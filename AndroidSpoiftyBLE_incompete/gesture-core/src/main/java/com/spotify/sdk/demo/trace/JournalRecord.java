@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.trace;
+
+/**
+ * One journal record, reused by {@link SessionJournalReader#next}. Fields the record's type does
+ * not carry keep their previous values.
+ */
+public final class JournalRecord {
+
+  public enum Type {
+    PLAYER_STATE,
+    PLAYER_CONTEXT,
+  }
+
+  public Type type;
+  /** {@link System#nanoTime} on the recording device. */
+  public long nanos;
+
+  public String trackUri;
+  public String trackName;
+  public String artist;
+  public boolean paused;
+  public boolean shuffling;
+  public int repeatMode;
+  public long positionMs;
+  public long durationMs;
+  public float playbackSpeed;
+
+  public String contextUri;
+  public String contextTitle;
+  public String contextSubtitle;
+  public String contextType;
+}
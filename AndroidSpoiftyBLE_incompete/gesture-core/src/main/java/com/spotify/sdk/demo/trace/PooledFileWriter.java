@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes records encoded into a fixed pool of direct buffers to a file, from a background thread.
+ * Shared by {@link TraceRecorder} and {@link SessionJournal}.
+ *
+ * <p>The thread opens the file, writes the header and then each buffer when it fills up, or when
+ * it has held records for the flush interval, so a quiet file still reaches the disk. Callers
+ * never wait for the disk: when every buffer is queued for writing, {@link #reserve} returns null
+ * and the record is dropped, so memory stays bounded at the pool size however slow the storage
+ * is.
+ *
+ * <p>Thread safe. Callers hold this object's lock from {@link #reserve} until they have encoded
+ * their record. An I/O error stops the writer; the buffered records are lost and the error is
+ * available from {@link #failure}.
+ */
+final class PooledFileWriter {
+
+  private final File mFile;
+  private final ByteBuffer mHeader;
+  private final int mBufferBytes;
+  private final long mFlushIntervalNanos;
+  private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+  private final ArrayDeque<ByteBuffer> mFull = new ArrayDeque<>();
+  private final LatencyHistogram mWriteLatency = new LatencyHistogram();
+  private final CountDownLatch mTerminated = new CountDownLatch(1);
+  private final Thread mThread;
+
+  private ByteBuffer mCurrent;
+  private long mCurrentSinceNanos;
+  private boolean mStalled;
+  private boolean mClosed;
+  private IOException mFailure;
+
+  private long mBackpressureEvents;
+  private long mBatches;
+  private long mBytesWritten;
+  private int mMaxQueuedBuffers;
+
+  /**
+   * Creates a writer whose thread, once {@link #start started}, creates or truncates {@code file}
+   * and writes {@code header} to it.
+   */
+  PooledFileWriter(
+      String name,
+      File file,
+      ByteBuffer header,
+      int bufferBytes,
+      int bufferCount,
+      long flushIntervalNanos) {
+    if (bufferCount < 2) {
+      throw new IllegalArgumentException("bufferCount must be at least 2");
+    }
+    if (flushIntervalNanos <= 0) {
+      throw new IllegalArgumentException("flushIntervalNanos must be positive");
+    }
+    mFile = file;
+    mHeader = header;
+    mBufferBytes = bufferBytes;
+    mFlushIntervalNanos = flushIntervalNanos;
+    for (int i = 0; i < bufferCount; i++) {
+      mFree.add(ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+    mCurrent = mFree.poll();
+    mThread = new Thread(this::run, name);
+    mThread.setDaemon(true);
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  // Must hold the lock, and keep holding it while encoding into the returned buffer. Returns a
+  // buffer with at least the given bytes left, or null if the record must be dropped.
+  ByteBuffer reserve(int bytes) {
+    if (mClosed || mFailure != null || bytes > mBufferBytes || !ensureRoomLocked(bytes)) {
+      return null;
+    }
+    if (mCurrent.position() == 0) {
+      mCurrentSinceNanos = System.nanoTime();
+      notifyAll();
+    }
+    return mCurrent;
+  }
+
+  private boolean ensureRoomLocked(int bytes) {
+    if (mCurrent != null && mCurrent.remaining() >= bytes) {
+      return true;
+    }
+    if (mCurrent != null) {
+      // Only a buffer holding records can be too small; hand it to the writer.
+      queueCurrentLocked();
+    }
+    mCurrent = mFree.poll();
+    if (mCurrent == null) {
+      if (!mStalled) {
+        mStalled = true;
+        mBackpressureEvents++;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private void queueCurrentLocked() {
+    mFull.add(mCurrent);
+    mCurrent = null;
+    mMaxQueuedBuffers = Math.max(mMaxQueuedBuffers, mFull.size());
+    notifyAll();
+  }
+
+  /** Hands the buffered records to the writer without waiting for them to be written. */
+  synchronized void flush() {
+    if (mCurrent != null && mCurrent.position() > 0) {
+      queueCurrentLocked();
+      mCurrent = mFree.poll();
+    }
+  }
+
+  private void run() {
+    FileChannel channel = null;
+    try {
+      channel = open(mFile);
+      int headerBytes = write(channel, mHeader);
+      synchronized (this) {
+        mBytesWritten += headerBytes;
+      }
+      ByteBuffer batch;
+      while ((batch = takeBatch()) != null) {
+        long startNanos = System.nanoTime();
+        int written = write(channel, batch);
+        mWriteLatency.record(System.nanoTime() - startNanos);
+        recycle(batch, written);
+      }
+      channel.force(false);
+    } catch (IOException e) {
+      synchronized (this) {
+        mFailure = e;
+      }
+    } catch (InterruptedException e) {
+      synchronized (this) {
+        mFailure = new IOException(mThread.getName() + " interrupted", e);
+      }
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          synchronized (this) {
+            if (mFailure == null) {
+              mFailure = e;
+            }
+          }
+        }
+      }
+      mTerminated.countDown();
+    }
+  }
+
+  private static FileChannel open(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create " + parent);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      return raf.getChannel();
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private static int write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer);
+    }
+    return written;
+  }
+
+  // Waits for a full buffer, or a partial one older than the flush interval. Returns null once
+  // the writer is closed and everything has been handed out. Package-private so that tests can
+  // stand in for the writer thread.
+  synchronized ByteBuffer takeBatch() throws InterruptedException {
+    while (true) {
+      ByteBuffer batch = mFull.poll();
+      if (batch == null && mCurrent != null && mCurrent.position() > 0) {
+        long waitNanos = mCurrentSinceNanos + mFlushIntervalNanos - System.nanoTime();
+        if (mClosed || waitNanos <= 0) {
+          batch = mCurrent;
+          mCurrent = mFree.poll();
+        } else {
+          TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+          continue;
+        }
+      }
+      if (batch != null) {
+        batch.flip();
+        return batch;
+      }
+      if (mClosed) {
+        return null;
+      }
+      wait();
+    }
+  }
+
+  // Returns a written batch to the pool, ending any stall: the next record has room again.
+  synchronized void recycle(ByteBuffer batch, int written) {
+    batch.clear();
+    if (mCurrent == null) {
+      mCurrent = batch;
+    } else {
+      mFree.add(batch);
+    }
+    mStalled = false;
+    mBatches++;
+    mBytesWritten += written;
+  }
+
+  /**
+   * Stops the writer without waiting: it writes what is buffered and closes the file in the
+   * background. Later records are dropped.
+   */
+  synchronized void close() {
+    mClosed = true;
+    notifyAll();
+  }
+
+  /**
+   * Waits for the writer to finish after {@link #close}.
+   *
+   * @return whether it finished within the timeout
+   */
+  boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+    return mTerminated.await(timeout, unit);
+  }
+
+  File file() {
+    return mFile;
+  }
+
+  /** The I/O error that stopped the writer, or null. */
+  synchronized IOException failure() {
+    return mFailure;
+  }
+
+  /** Times the buffer pool ran dry; each starts a run of dropped records. */
+  synchronized long backpressureEvents() {
+    return mBackpressureEvents;
+  }
+
+  /** Buffers written to the file. */
+  synchronized long batches() {
+    return mBatches;
+  }
+
+  /** Bytes written to the file so far, including the header. */
+  synchronized long bytesWritten() {
+    return mBytesWritten;
+  }
+
+  /** Most full buffers waiting for the writer at once. */
+  synchronized int maxQueuedBuffers() {
+    return mMaxQueuedBuffers;
+  }
+
+  /** Time taken by each batch write, in nanoseconds. */
+  LatencyHistogram writeLatency() {
+    return mWriteLatency;
+  }
+}
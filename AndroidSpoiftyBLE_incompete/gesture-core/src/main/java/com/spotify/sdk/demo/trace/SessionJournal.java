@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journals player state transitions of a session to a file, see {@link JournalFormat}.
+ *
+ * <p>Records are encoded on the calling thread into one of a fixed pool of buffers, which a
+ * {@link PooledFileWriter} writes in the background; strings such as track URIs are written once
+ * and referred to by id afterwards. Callers never wait for the disk: when every buffer is queued
+ * for writing, the record is dropped and counted, so memory stays bounded at the pool size
+ * however slow the storage is.
+ *
+ * <p>Thread safe. An I/O error stops the journal; the buffered records are lost, later records
+ * are counted as dropped and the error is available from {@link #failure}.
+ */
+public final class SessionJournal {
+
+  public static final int DEFAULT_BUFFER_BYTES = 16 * 1024;
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+  public static final long DEFAULT_FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  /** Strings kept before the dictionary is reset. */
+  static final int MAX_STRINGS = 4096;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final PooledFileWriter mWriter;
+  // Guarded by mWriter, as is the buffer being encoded into.
+  private final HashMap<String, Integer> mStrings = new HashMap<>();
+
+  private long mLastNanos;
+  private long mRecords;
+  private long mDroppedRecords;
+
+  /** Starts a journal with the default buffers and flush interval. */
+  public static SessionJournal start(File file) {
+    return start(file, DEFAULT_BUFFER_BYTES, DEFAULT_BUFFER_COUNT, DEFAULT_FLUSH_INTERVAL_NANOS);
+  }
+
+  /**
+   * Starts a journal that creates or truncates {@code file} on its writer thread. Errors opening
+   * the file are reported through {@link #failure}.
+   */
+  public static SessionJournal start(
+      File file, int bufferBytes, int bufferCount, long flushIntervalNanos) {
+    SessionJournal journal =
+        new SessionJournal(file, bufferBytes, bufferCount, flushIntervalNanos);
+    journal.mWriter.start();
+    return journal;
+  }
+
+  private SessionJournal(File file, int bufferBytes, int bufferCount, long flushIntervalNanos) {
+    if (bufferBytes < 4096) {
+      throw new IllegalArgumentException("bufferBytes must be at least 4096");
+    }
+    long startMillis = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    ByteBuffer header = ByteBuffer.allocate(JournalFormat.HEADER_LENGTH);
+    header
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(JournalFormat.MAGIC)
+        .putInt(JournalFormat.VERSION)
+        .putLong(startMillis)
+        .putLong(startNanos)
+        .flip();
+    mWriter =
+        new PooledFileWriter(
+            "session-journal", file, header, bufferBytes, bufferCount, flushIntervalNanos);
+    mLastNanos = startNanos;
+  }
+
+  /** Records a player state; {@code repeatMode} is that of the App Remote, 0 to 2. */
+  public void recordPlayerState(
+      long nanos,
+      String trackUri,
+      String trackName,
+      String artist,
+      boolean paused,
+      boolean shuffling,
+      int repeatMode,
+      long positionMs,
+      long durationMs,
+      float playbackSpeed) {
+    trackUri = clip(trackUri);
+    trackName = clip(trackName);
+    artist = clip(artist);
+    synchronized (mWriter) {
+      ByteBuffer out = beginLocked(trackUri, trackName, artist, null);
+      if (out == null) {
+        return;
+      }
+      int uriId = internLocked(out, trackUri);
+      int nameId = internLocked(out, trackName);
+      int artistId = internLocked(out, artist);
+      int flags =
+          (paused ? JournalFormat.FLAG_PAUSED : 0)
+              | (shuffling ? JournalFormat.FLAG_SHUFFLING : 0)
+              | (repeatMode & JournalFormat.REPEAT_MASK) << JournalFormat.REPEAT_SHIFT;
+      out.put((byte) JournalFormat.TYPE_PLAYER_STATE);
+      TraceFormat.putSignedVarint(out, nanos - mLastNanos);
+      TraceFormat.putVarint(out, uriId);
+      TraceFormat.putVarint(out, nameId);
+      TraceFormat.putVarint(out, artistId);
+      out.put((byte) flags);
+      TraceFormat.putVarint(out, Math.max(0, positionMs));
+      TraceFormat.putVarint(out, Math.max(0, durationMs));
+      out.putFloat(playbackSpeed);
+      endLocked(nanos);
+    }
+  }
+
+  /** Records a change of the playing context, such as an album or playlist. */
+  public void recordPlayerContext(
+      long nanos, String uri, String title, String subtitle, String type) {
+    uri = clip(uri);
+    title = clip(title);
+    subtitle = clip(subtitle);
+    type = clip(type);
+    synchronized (mWriter) {
+      ByteBuffer out = beginLocked(uri, title, subtitle, type);
+      if (out == null) {
+        return;
+      }
+      int uriId = internLocked(out, uri);
+      int titleId = internLocked(out, title);
+      int subtitleId = internLocked(out, subtitle);
+      int typeId = internLocked(out, type);
+      out.put((byte) JournalFormat.TYPE_PLAYER_CONTEXT);
+      TraceFormat.putSignedVarint(out, nanos - mLastNanos);
+      TraceFormat.putVarint(out, uriId);
+      TraceFormat.putVarint(out, titleId);
+      TraceFormat.putVarint(out, subtitleId);
+      TraceFormat.putVarint(out, typeId);
+      endLocked(nanos);
+    }
+  }
+
+  private static String clip(String value) {
+    if (value == null || value.length() <= JournalFormat.MAX_STRING_CHARS) {
+      return value;
+    }
+    int end = JournalFormat.MAX_STRING_CHARS;
+    if (Character.isHighSurrogate(value.charAt(end - 1))) {
+      end--;
+    }
+    return value.substring(0, end);
+  }
+
+  // Makes room for the largest encoding of a record using these strings, resetting the string
+  // dictionary first if they would overflow it. Returns the buffer to write the record to, or
+  // null, having written nothing, to drop it.
+  private ByteBuffer beginLocked(String a, String b, String c, String d) {
+    int missing = unknown(a) + unknown(b) + unknown(c) + unknown(d);
+    boolean reset = mStrings.size() + missing > MAX_STRINGS;
+    if (reset) {
+      missing = present(a) + present(b) + present(c) + present(d);
+    }
+    int bytes =
+        (reset ? 1 : 0)
+            + missing * JournalFormat.MAX_STRING_RECORD
+            + JournalFormat.MAX_TIMED_RECORD;
+    ByteBuffer out = mWriter.reserve(bytes);
+    if (out == null) {
+      mDroppedRecords++;
+      return null;
+    }
+    if (reset) {
+      out.put((byte) JournalFormat.TYPE_STRINGS_RESET);
+      mStrings.clear();
+    }
+    return out;
+  }
+
+  private int unknown(String value) {
+    return value == null || mStrings.containsKey(value) ? 0 : 1;
+  }
+
+  private static int present(String value) {
+    return value == null ? 0 : 1;
+  }
+
+  private int internLocked(ByteBuffer out, String value) {
+    if (value == null) {
+      return 0;
+    }
+    Integer id = mStrings.get(value);
+    if (id != null) {
+      return id;
+    }
+    byte[] bytes = value.getBytes(UTF_8);
+    out.put((byte) JournalFormat.TYPE_STRING);
+    TraceFormat.putVarint(out, bytes.length);
+    out.put(bytes);
+    int newId = mStrings.size() + 1;
+    mStrings.put(value, newId);
+    return newId;
+  }
+
+  private void endLocked(long nanos) {
+    mLastNanos = nanos;
+    mRecords++;
+  }
+
+  /**
+   * Stops the journal without waiting: the writer flushes what is buffered and closes the file
+   * in the background. Later records are dropped.
+   */
+  public void close() {
+    mWriter.close();
+  }
+
+  /**
+   * Waits for the writer to finish after {@link #close}.
+   *
+   * @return whether it finished within the timeout
+   */
+  public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+    return mWriter.awaitClosed(timeout, unit);
+  }
+
+  /** The journal's file. */
+  public File file() {
+    return mWriter.file();
+  }
+
+  /** The I/O error that stopped the journal, or null. */
+  public IOException failure() {
+    return mWriter.failure();
+  }
+
+  public long records() {
+    synchronized (mWriter) {
+      return mRecords;
+    }
+  }
+
+  /** Records lost because every buffer was queued, or the journal was closed or had failed. */
+  public long droppedRecords() {
+    synchronized (mWriter) {
+      return mDroppedRecords;
+    }
+  }
+
+  /** Times the buffer pool ran dry; each starts a run of dropped records. */
+  public long backpressureEvents() {
+    return mWriter.backpressureEvents();
+  }
+
+  /** Buffers written to the file. */
+  public long batches() {
+    return mWriter.batches();
+  }
+
+  /** Bytes written to the file so far, including the header. */
+  public long bytesWritten() {
+    return mWriter.bytesWritten();
+  }
+
+  /** Most full buffers waiting for the writer at once. */
+  public int maxQueuedBuffers() {
+    return mWriter.maxQueuedBuffers();
+  }
+
+  /** Time taken by each batch write, in nanoseconds. */
+  public LatencyHistogram writeLatency() {
+    return mWriter.writeLatency();
+  }
+
+  @Override
+  public String toString() {
+    synchronized (mWriter) {
+      return String.format(
+          Locale.US,
+          "SessionJournal{records=%d, dropped=%d, backpressure=%d, batches=%d, bytes=%d,"
+              + " maxQueued=%d, writeP99Ms=%.2f, failure=%s}",
+          mRecords,
+          mDroppedRecords,
+          mWriter.backpressureEvents(),
+          mWriter.batches(),
+          mWriter.bytesWritten(),
+          mWriter.maxQueuedBuffers(),
+          mWriter.writeLatency().valueAtPercentile(99) / 1e6,
+          mWriter.failure());
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.sdk.demo.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Streams the records of a journal written by {@link SessionJournal}.
+ *
+ * <p>Like {@link TraceReader}, the file is read through a fixed buffer and a record cut short
+ * at the end of the file ends the journal and sets {@link #isTruncated}. Only the string
+ * dictionary grows with the file, and it is bounded by the writer. Not thread safe.
+ */
+public final class SessionJournalReader implements Closeable {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final FileChannel mChannel;
+  private final ByteBuffer mBuffer;
+  private final ArrayList<String> mStrings = new ArrayList<>();
+  private final long mStartMillis;
+  private final long mStartNanos;
+
+  private long mLastNanos;
+  private boolean mEndOfFile;
+  private boolean mTruncated;
+
+  public SessionJournalReader(File file) throws IOException {
+    this(new RandomAccessFile(file, "r").getChannel(), SessionJournal.DEFAULT_BUFFER_BYTES);
+  }
+
+  /**
+   * Reads from {@code channel}, which is closed with the reader.
+   *
+   * @throws IOException if the header is missing or not a supported journal
+   */
+  public SessionJournalReader(FileChannel channel, int bufferBytes) throws IOException {
+    if (bufferBytes < JournalFormat.MAX_STRING_RECORD + JournalFormat.MAX_TIMED_RECORD) {
+      channel.close();
+      throw new IllegalArgumentException("bufferBytes too small for a record");
+    }
+    mChannel = channel;
+    mBuffer = ByteBuffer.allocate(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    mBuffer.flip();
+    mStrings.add(null);
+    try {
+      if (!fill(JournalFormat.HEADER_LENGTH)) {
+        throw new IOException("Not a journal: file too short");
+      }
+      if (mBuffer.getInt() != JournalFormat.MAGIC) {
+        throw new IOException("Not a journal: bad magic");
+      }
+      int version = mBuffer.getInt();
+      if (version != JournalFormat.VERSION) {
+        throw new IOException("Unsupported journal version " + version);
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    mStartMillis = mBuffer.getLong();
+    mStartNanos = mBuffer.getLong();
+    mLastNanos = mStartNanos;
+  }
+
+  /** Wall clock time at which the journal started. */
+  public long startMillis() {
+    return mStartMillis;
+  }
+
+  /** {@link System#nanoTime} on the recording device when the journal started. */
+  public long startNanos() {
+    return mStartNanos;
+  }
+
+  /** Whether the journal ended in the middle of a record. */
+  public boolean isTruncated() {
+    return mTruncated;
+  }
+
+  /**
+   * Reads the next player record into {@code out}, applying string definitions on the way.
+   *
+   * @return {@code false} at the end of the journal
+   * @throws IOException on read errors or records that cannot be decoded
+   */
+  public boolean next(JournalRecord out) throws IOException {
+    while (true) {
+      fill(JournalFormat.MAX_STRING_RECORD);
+      if (!mBuffer.hasRemaining()) {
+        return false;
+      }
+      try {
+        int type = mBuffer.get() & 0xff;
+        switch (type) {
+          case JournalFormat.TYPE_STRING:
+            long length = TraceFormat.getVarint(mBuffer);
+            if (length < 0 || length > JournalFormat.MAX_STRING_BYTES) {
+              throw new IOException("Bad string length " + length);
+            }
+            String value =
+                new String(
+                    mBuffer.array(),
+                    mBuffer.arrayOffset() + mBuffer.position(),
+                    checkAvailable((int) length),
+                    UTF_8);
+            mBuffer.position(mBuffer.position() + (int) length);
+            mStrings.add(value);
+            break;
+          case JournalFormat.TYPE_STRINGS_RESET:
+            mStrings.subList(1, mStrings.size()).clear();
+            break;
+          case JournalFormat.TYPE_PLAYER_STATE:
+            readPlayerState(out);
+            return true;
+          case JournalFormat.TYPE_PLAYER_CONTEXT:
+            readPlayerContext(out);
+            return true;
+          default:
+            throw new IOException("Unknown record type " + type);
+        }
+      } catch (BufferUnderflowException e) {
+        if (!mEndOfFile) {
+          throw new IOException("Record larger than the read buffer", e);
+        }
+        mTruncated = true;
+        mBuffer.position(mBuffer.limit());
+        return false;
+      }
+    }
+  }
+
+  private void readPlayerState(JournalRecord out) throws IOException {
+    long nanos = mLastNanos + TraceFormat.getSignedVarint(mBuffer);
+    String trackUri = string();
+    String trackName = string();
+    String artist = string();
+    int flags = mBuffer.get() & 0xff;
+    long positionMs = TraceFormat.getVarint(mBuffer);
+    long durationMs = TraceFormat.getVarint(mBuffer);
+    float playbackSpeed = mBuffer.getFloat();
+    out.type = JournalRecord.Type.PLAYER_STATE;
+    out.nanos = nanos;
+    out.trackUri = trackUri;
+    out.trackName = trackName;
+    out.artist = artist;
+    out.paused = (flags & JournalFormat.FLAG_PAUSED) != 0;
+    out.shuffling = (flags & JournalFormat.FLAG_SHUFFLING) != 0;
+    out.repeatMode = flags >>> JournalFormat.REPEAT_SHIFT & JournalFormat.REPEAT_MASK;
+    out.positionMs = positionMs;
+    out.durationMs = durationMs;
+    out.playbackSpeed = playbackSpeed;
+    mLastNanos = nanos;
+  }
+
+  private void readPlayerContext(JournalRecord out) throws IOException {
+    long nanos = mLastNanos + TraceFormat.getSignedVarint(mBuffer);
+    String uri = string();
+    String title = string();
+    String subtitle = string();
+    String type = string();
+    out.type = JournalRecord.Type.PLAYER_CONTEXT;
+    out.nanos = nanos;
+    out.contextUri = uri;
+    out.contextTitle = title;
+    out.contextSubtitle = subtitle;
+    out.contextType = type;
+    mLastNanos = nanos;
+  }
+
+  private String string() throws IOException {
+    long id = TraceFormat.getVarint(mBuffer);
+    if (id < 0 || id >= mStrings.size()) {
+      throw new IOException("Unknown string id " + id);
+    }
+    return mStrings.get((int) id);
+  }
+
+  private int checkAvailable(int length) {
+    if (mBuffer.remaining() < length) {
+      throw new BufferUnderflowException();
+    }
+    return length;
+  }
+
+  /**
+   * Writes the remaining records as CSV after a header line, with times in milliseconds since
+   * the journal started. Fields a record type does not carry are left empty.
+   */
+  public void writeCsv(Writer out) throws IOException {
+    out.write(
+        "ms,type,track_uri,track_name,artist,paused,shuffling,repeat_mode,position_ms,"
+            + "duration_ms,speed,context_uri,context_title,context_subtitle,context_type\n");
+    JournalRecord record = new JournalRecord();
+    while (next(record)) {
+      out.write(Long.toString((record.nanos - mStartNanos) / 1_000_000));
+      out.write(',');
+      out.write(record.type.name());
+      if (record.type == JournalRecord.Type.PLAYER_STATE) {
+        writeCsvField(out, record.trackUri);
+        writeCsvField(out, record.trackName);
+        writeCsvField(out, record.artist);
+        out.write("," + record.paused + ',' + record.shuffling + ',' + record.repeatMode);
+        out.write("," + record.positionMs + ',' + record.durationMs + ',' + record.playbackSpeed);
+        out.write(",,,,\n");
+      } else {
+        out.write(",,,,,,,,,");
+        writeCsvField(out, record.contextUri);
+        writeCsvField(out, record.contextTitle);
+        writeCsvField(out, record.contextSubtitle);
+        writeCsvField(out, record.contextType);
+        out.write('\n');
+      }
+    }
+  }
+
+  private static void writeCsvField(Writer out, String value) throws IOException {
+    out.write(',');
+    if (value == null) {
+      return;
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      out.write(value);
+      return;
+    }
+    out.write('"');
+    out.write(value.replace("\"", "\"\""));
+    out.write('"');
+  }
+
+  // Reads until at least `bytes` are buffered from the current position, or the file ends.
+  private boolean fill(int bytes) throws IOException {
+    if (mBuffer.remaining() >= bytes) {
+      return true;
+    }
+    mBuffer.compact();
+    while (mBuffer.position() < bytes && !mEndOfFile) {
+      if (mChannel.read(mBuffer) < 0) {
+        mEndOfFile = true;
+      }
+    }
+    mBuffer.flip();
+    return mBuffer.remaining() >= bytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mChannel.close();
+  }
+}
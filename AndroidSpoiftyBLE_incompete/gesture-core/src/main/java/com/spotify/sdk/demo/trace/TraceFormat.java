@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a session trace. All values are little endian.
+ *
+ * <pre>
+ *   header   magic "GTR1", int32 version, int64 wall clock millis, int64 nanoTime at start
+ *   record   uint8 type, varint zigzag(nanos - previous record nanos), body
+ * </pre>
+ *
+ * Bodies by type:
+ *
+ * <pre>
+ *   NOTIFICATION  uint8 source, uint8 channel, varint length, bytes
+ *   COMMAND       uint8 PlayerCommand ordinal, varint zigzag(argument)
+ *   CONNECTED     uint8 source
+ *   DISCONNECTED  uint8 source
+ * </pre>
+ *
+ * The first record's delta is relative to the header's start time. The source is the index of
+ * the wearable the record came from, as in {@code WearableSession}, so a replay can feed every
+ * device's link separately. Version 1 traces have no source bytes; all their records come from
+ * source 0.
+ */
+final class TraceFormat {
+
+  static final int MAGIC = 0x31525447; // "GTR1"
+  static final int VERSION = 2;
+  /** Oldest version {@link TraceReader} still reads. */
+  static final int MIN_VERSION = 1;
+  static final int HEADER_LENGTH = 24;
+
+  static final int TYPE_NOTIFICATION = 1;
+  static final int TYPE_COMMAND = 2;
+  static final int TYPE_CONNECTED = 3;
+  static final int TYPE_DISCONNECTED = 4;
+
+  /** Sources fit in a byte. */
+  static final int MAX_SOURCES = 256;
+
+  /** Longest encoding of a 64-bit varint. */
+  static final int MAX_VARINT_LENGTH = 10;
+
+  private TraceFormat() {}
+
+  static void putVarint(ByteBuffer buffer, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) (value | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  static void putSignedVarint(ByteBuffer buffer, long value) {
+    putVarint(buffer, (value << 1) ^ (value >> 63));
+  }
+
+  /**
+   * Reads a varint.
+   *
+   * @throws IOException if it runs past 64 bits
+   */
+  static long getVarint(ByteBuffer buffer) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  static long getSignedVarint(ByteBuffer buffer) throws IOException {
+    long value = getVarint(buffer);
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
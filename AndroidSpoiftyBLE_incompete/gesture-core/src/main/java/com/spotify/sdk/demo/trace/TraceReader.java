@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streams the records of a trace written by {@link TraceRecorder}.
+ *
+ * <p>The file is read through a fixed buffer, so traces of any length can be replayed. A record
+ * cut short at the end of the file, as left by a crash before the last flush, ends the trace
+ * and sets {@link #isTruncated}. Version 1 traces, recorded from a single wearable, read as
+ * coming from source 0. Not thread safe.
+ */
+public final class TraceReader implements Closeable {
+
+  private static final GestureTransport.Channel[] CHANNELS = GestureTransport.Channel.values();
+  private static final PlayerCommand[] COMMANDS = PlayerCommand.values();
+
+  private final FileChannel mChannel;
+  private final ByteBuffer mBuffer;
+  private final long mStartMillis;
+  private final long mStartNanos;
+  // Version 1 traces have no source bytes.
+  private final boolean mHasSources;
+
+  private long mLastNanos;
+  private boolean mEndOfFile;
+  private boolean mTruncated;
+
+  public TraceReader(File file) throws IOException {
+    this(new RandomAccessFile(file, "r").getChannel(), TraceRecorder.DEFAULT_BUFFER_BYTES);
+  }
+
+  /**
+   * Reads from {@code channel}, which is closed with the reader.
+   *
+   * @throws IOException if the header is missing or not a supported trace
+   */
+  public TraceReader(FileChannel channel, int bufferBytes) throws IOException {
+    mChannel = channel;
+    mBuffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    mBuffer.flip();
+    try {
+      if (!fill(TraceFormat.HEADER_LENGTH)) {
+        throw new IOException("Not a trace: file too short");
+      }
+      if (mBuffer.getInt() != TraceFormat.MAGIC) {
+        throw new IOException("Not a trace: bad magic");
+      }
+      int version = mBuffer.getInt();
+      if (version < TraceFormat.MIN_VERSION || version > TraceFormat.VERSION) {
+        throw new IOException("Unsupported trace version " + version);
+      }
+      mHasSources = version >= 2;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    mStartMillis = mBuffer.getLong();
+    mStartNanos = mBuffer.getLong();
+    mLastNanos = mStartNanos;
+  }
+
+  /** Wall clock time at which recording started. */
+  public long startMillis() {
+    return mStartMillis;
+  }
+
+  /** {@link System#nanoTime} on the recording device when recording started. */
+  public long startNanos() {
+    return mStartNanos;
+  }
+
+  /** Whether the trace ended in the middle of a record. */
+  public boolean isTruncated() {
+    return mTruncated;
+  }
+
+  /**
+   * Reads the next record into {@code out}.
+   *
+   * @return {@code false} at the end of the trace
+   * @throws IOException on read errors or records that cannot be decoded
+   */
+  public boolean next(TraceRecord out) throws IOException {
+    // Large enough for any record without a notification payload.
+    fill(3 + 3 * TraceFormat.MAX_VARINT_LENGTH);
+    if (!mBuffer.hasRemaining()) {
+      return false;
+    }
+    int start = mBuffer.position();
+    try {
+      int type = mBuffer.get() & 0xff;
+      long nanos = mLastNanos + TraceFormat.getSignedVarint(mBuffer);
+      switch (type) {
+        case TraceFormat.TYPE_NOTIFICATION:
+          out.type = TraceRecord.Type.NOTIFICATION;
+          out.source = source();
+          out.channel = CHANNELS[checkIndex(mBuffer.get() & 0xff, CHANNELS.length, "channel")];
+          long length = TraceFormat.getVarint(mBuffer);
+          // The payload may straddle the buffer; refill keeping it in place.
+          int payloadOffset = mBuffer.position() - start;
+          if (length < 0 || payloadOffset + length > mBuffer.capacity()) {
+            throw new IOException("Bad notification length " + length);
+          }
+          mBuffer.position(start);
+          if (!fill(payloadOffset + (int) length)) {
+            return truncated();
+          }
+          mBuffer.position(mBuffer.position() + payloadOffset);
+          if (out.value.length < length) {
+            out.value = Arrays.copyOf(out.value, Math.max((int) length, 2 * out.value.length));
+          }
+          out.length = (int) length;
+          mBuffer.get(out.value, 0, out.length);
+          break;
+        case TraceFormat.TYPE_COMMAND:
+          out.type = TraceRecord.Type.COMMAND;
+          out.command = COMMANDS[checkIndex(mBuffer.get() & 0xff, COMMANDS.length, "command")];
+          out.argument = TraceFormat.getSignedVarint(mBuffer);
+          break;
+        case TraceFormat.TYPE_CONNECTED:
+          out.type = TraceRecord.Type.CONNECTED;
+          out.source = source();
+          break;
+        case TraceFormat.TYPE_DISCONNECTED:
+          out.type = TraceRecord.Type.DISCONNECTED;
+          out.source = source();
+          break;
+        default:
+          throw new IOException("Unknown record type " + type);
+      }
+      out.nanos = nanos;
+      mLastNanos = nanos;
+      return true;
+    } catch (BufferUnderflowException e) {
+      if (!mEndOfFile) {
+        throw new IOException("Record larger than the read buffer", e);
+      }
+      return truncated();
+    }
+  }
+
+  private int source() {
+    return mHasSources ? mBuffer.get() & 0xff : 0;
+  }
+
+  private boolean truncated() {
+    mTruncated = true;
+    mBuffer.position(mBuffer.limit());
+    return false;
+  }
+
+  private static int checkIndex(int index, int count, String what) throws IOException {
+    if (index >= count) {
+      throw new IOException("Unknown " + what + " " + index);
+    }
+    return index;
+  }
+
+  // Reads until at least `bytes` are buffered from the current position, or the file ends.
+  private boolean fill(int bytes) throws IOException {
+    if (mBuffer.remaining() >= bytes) {
+      return true;
+    }
+    mBuffer.compact();
+    while (mBuffer.position() < bytes && !mEndOfFile) {
+      if (mChannel.read(mBuffer) < 0) {
+        mEndOfFile = true;
+      }
+    }
+    mBuffer.flip();
+    return mBuffer.remaining() >= bytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mChannel.close();
+  }
+}
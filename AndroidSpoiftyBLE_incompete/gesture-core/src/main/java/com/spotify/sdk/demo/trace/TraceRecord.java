@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+/** One trace record, reused by {@link TraceReader#next}. Fields not used by a type are stale. */
+public final class TraceRecord {
+
+  public enum Type {
+    NOTIFICATION,
+    COMMAND,
+    CONNECTED,
+    DISCONNECTED,
+  }
+
+  public Type type;
+  /** {@link System#nanoTime} on the recording device. */
+  public long nanos;
+
+  /** Wearable a notification or link event came from, its index in the session. */
+  public int source;
+
+  /** Notification channel and payload; {@code value} may be longer than {@code length}. */
+  public GestureTransport.Channel channel;
+  public byte[] value = new byte[0];
+  public int length;
+
+  public PlayerCommand command;
+  public long argument;
+}
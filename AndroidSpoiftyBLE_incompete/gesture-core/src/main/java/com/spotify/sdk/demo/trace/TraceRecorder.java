@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends a session trace, see {@link TraceFormat}, to a file.
+ *
+ * <p>Records are encoded on the calling thread into one of a fixed pool of direct buffers, which
+ * a {@link PooledFileWriter} writes in the background. Callers never wait for the disk, which
+ * matters because records arrive on the main thread: when every buffer is queued for writing,
+ * the record is dropped and counted. Recording never allocates.
+ *
+ * <p>Thread safe. An I/O error stops the recording; the buffered records are lost, later records
+ * are counted as dropped and the error is available from {@link #failure}.
+ */
+public final class TraceRecorder {
+
+  public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+  public static final long DEFAULT_FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final PooledFileWriter mWriter;
+
+  // Guarded by mWriter, as is the buffer being encoded into.
+  private long mLastNanos;
+  private long mRecords;
+  private long mDroppedRecords;
+
+  /** Starts a recorder with the default buffers and flush interval. */
+  public static TraceRecorder start(File file) {
+    return start(file, DEFAULT_BUFFER_BYTES, DEFAULT_BUFFER_COUNT, DEFAULT_FLUSH_INTERVAL_NANOS);
+  }
+
+  /**
+   * Starts a recorder that creates or truncates {@code file} on its writer thread. Errors opening
+   * the file are reported through {@link #failure}.
+   */
+  public static TraceRecorder start(
+      File file, int bufferBytes, int bufferCount, long flushIntervalNanos) {
+    TraceRecorder recorder = new TraceRecorder(file, bufferBytes, bufferCount, flushIntervalNanos);
+    recorder.mWriter.start();
+    return recorder;
+  }
+
+  private TraceRecorder(File file, int bufferBytes, int bufferCount, long flushIntervalNanos) {
+    if (bufferBytes < 1024) {
+      throw new IllegalArgumentException("bufferBytes must be at least 1024");
+    }
+    long startMillis = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_LENGTH);
+    header
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(TraceFormat.MAGIC)
+        .putInt(TraceFormat.VERSION)
+        .putLong(startMillis)
+        .putLong(startNanos)
+        .flip();
+    mWriter =
+        new PooledFileWriter(
+            "trace-recorder", file, header, bufferBytes, bufferCount, flushIntervalNanos);
+    mLastNanos = startNanos;
+  }
+
+  /**
+   * Records a notification from wearable {@code source}, its index in the session. Notifications
+   * longer than a buffer are dropped.
+   */
+  public void recordNotification(
+      int source, GestureTransport.Channel channel, byte[] value, long receivedNanos) {
+    checkSource(source);
+    int length = value.length;
+    synchronized (mWriter) {
+      ByteBuffer out =
+          beginLocked(
+              TraceFormat.TYPE_NOTIFICATION,
+              receivedNanos,
+              2 + TraceFormat.MAX_VARINT_LENGTH + length);
+      if (out == null) {
+        return;
+      }
+      out.put((byte) source);
+      out.put((byte) channel.ordinal());
+      TraceFormat.putVarint(out, length);
+      out.put(value, 0, length);
+      endLocked(receivedNanos);
+    }
+  }
+
+  /** Records a command sent to the player. */
+  public void recordCommand(PlayerCommand command, long argument, long nanos) {
+    synchronized (mWriter) {
+      ByteBuffer out =
+          beginLocked(TraceFormat.TYPE_COMMAND, nanos, 1 + TraceFormat.MAX_VARINT_LENGTH);
+      if (out == null) {
+        return;
+      }
+      out.put((byte) command.ordinal());
+      TraceFormat.putSignedVarint(out, argument);
+      endLocked(nanos);
+    }
+  }
+
+  /** Records that wearable {@code source} connected. */
+  public void recordConnected(int source, long nanos) {
+    recordLinkEvent(TraceFormat.TYPE_CONNECTED, source, nanos);
+  }
+
+  /** Records that wearable {@code source} disconnected. */
+  public void recordDisconnected(int source, long nanos) {
+    recordLinkEvent(TraceFormat.TYPE_DISCONNECTED, source, nanos);
+  }
+
+  private void recordLinkEvent(int type, int source, long nanos) {
+    checkSource(source);
+    synchronized (mWriter) {
+      ByteBuffer out = beginLocked(type, nanos, 1);
+      if (out != null) {
+        out.put((byte) source);
+        endLocked(nanos);
+      }
+    }
+  }
+
+  private static void checkSource(int source) {
+    if (source < 0 || source >= TraceFormat.MAX_SOURCES) {
+      throw new IllegalArgumentException("source out of range: " + source);
+    }
+  }
+
+  // Makes room for a record with a body of at most bodyBytes and writes its type and time.
+  // Returns the buffer to write the body to, or null, having written nothing, to drop it.
+  private ByteBuffer beginLocked(int type, long nanos, int bodyBytes) {
+    ByteBuffer out = mWriter.reserve(1 + TraceFormat.MAX_VARINT_LENGTH + bodyBytes);
+    if (out == null) {
+      mDroppedRecords++;
+      return null;
+    }
+    out.put((byte) type);
+    TraceFormat.putSignedVarint(out, nanos - mLastNanos);
+    return out;
+  }
+
+  private void endLocked(long nanos) {
+    mLastNanos = nanos;
+    mRecords++;
+  }
+
+  /** Hands the buffered records to the writer without waiting for them to be written. */
+  public void flush() {
+    mWriter.flush();
+  }
+
+  /**
+   * Stops recording without waiting: the writer flushes what is buffered and closes the file in
+   * the background. Later records are dropped.
+   */
+  public void close() {
+    mWriter.close();
+  }
+
+  /**
+   * Waits for the writer to finish after {@link #close}.
+   *
+   * @return whether it finished within the timeout
+   */
+  public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+    return mWriter.awaitClosed(timeout, unit);
+  }
+
+  /** The trace's file. */
+  public File file() {
+    return mWriter.file();
+  }
+
+  /** The I/O error that stopped the recording, or null. */
+  public IOException failure() {
+    return mWriter.failure();
+  }
+
+  public long records() {
+    synchronized (mWriter) {
+      return mRecords;
+    }
+  }
+
+  /**
+   * Records lost because every buffer was queued, the recorder was closed or had failed, or the
+   * notification was longer than a buffer.
+   */
+  public long droppedRecords() {
+    synchronized (mWriter) {
+      return mDroppedRecords;
+    }
+  }
+
+  /** Times the buffer pool ran dry; each starts a run of dropped records. */
+  public long backpressureEvents() {
+    return mWriter.backpressureEvents();
+  }
+
+  /** Buffers written to the file. */
+  public long flushes() {
+    return mWriter.batches();
+  }
+
+  /** Bytes written to the file so far, including the header. */
+  public long bytesWritten() {
+    return mWriter.bytesWritten();
+  }
+
+  @Override
+  public String toString() {
+    synchronized (mWriter) {
+      return String.format(
+          Locale.US,
+          "TraceRecorder{records=%d, dropped=%d, backpressure=%d, flushes=%d, bytes=%d,"
+              + " failure=%s}",
+          mRecords,
+          mDroppedRecords,
+          mWriter.backpressureEvents(),
+          mWriter.batches(),
+          mWriter.bytesWritten(),
+          mWriter.failure());
+    }
+  }
+}
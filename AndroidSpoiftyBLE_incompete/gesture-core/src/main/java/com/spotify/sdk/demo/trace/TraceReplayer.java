@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a recorded trace back into the gesture pipeline, through one {@link GestureTransport}
+ * per recorded wearable.
+ *
+ * <p>Records are delivered at the recorded pace scaled by {@code speed}, or back to back at
+ * {@link #MAX_SPEED}. Notifications carry their recorded receive times, so timestamp-driven
+ * stages such as {@code GestureCommandEngine} make the same decisions at any speed, and the
+ * recorded commands can be compared against the ones the pipeline issues again. The app records
+ * commands as they reach the player, after {@code CommandCoalescer}, so compare them with a
+ * pipeline that coalesces the same way.
+ *
+ * <p>Each record goes to the {@link #device} of its source, so a {@code WearableSession} built
+ * with the devices in their recorded order sees every link's events, interleaved as they were
+ * recorded, and fuses them again. Every listener runs on a single thread owned by the replayer.
+ */
+public final class TraceReplayer {
+
+  public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+  /** Receives the commands that were issued while the trace was recorded. */
+  public interface CommandListener {
+    void onRecordedCommand(PlayerCommand command, long argument, long nanos);
+  }
+
+  // Notification payloads are handed out in arrays of their exact length, kept per length.
+  private static final int MAX_CACHED_LENGTH = 512;
+
+  /** The link of one recorded wearable. Connecting or disconnecting any device does so for all. */
+  private final class Device implements GestureTransport {
+    private volatile Listener mListener;
+    private volatile int mSubscriptions;
+    // Replay thread only.
+    private boolean mConnected;
+
+    @Override
+    public void setListener(Listener listener) {
+      mListener = listener;
+    }
+
+    @Override
+    public void subscribe(Channel channel) {
+      synchronized (TraceReplayer.this) {
+        mSubscriptions |= 1 << channel.ordinal();
+      }
+    }
+
+    @Override
+    public void connect() {
+      start();
+    }
+
+    @Override
+    public void disconnect() {
+      stop();
+    }
+  }
+
+  private final File mFile;
+  private final double mSpeed;
+  private final byte[][] mPayloads = new byte[MAX_CACHED_LENGTH + 1][];
+
+  // Guarded by this; the replay thread works on a copy taken when it starts.
+  private final Device[] mDevices = new Device[TraceFormat.MAX_SOURCES];
+  private volatile CommandListener mCommandListener;
+  private volatile boolean mRunning;
+  private Thread mThread;
+
+  private volatile long mNotifications;
+  private volatile long mSkippedNotifications;
+  private volatile long mCommands;
+  private volatile boolean mTruncated;
+  private volatile IOException mFailure;
+
+  /** Replays {@code file} at {@code speed} times the recorded pace. */
+  public TraceReplayer(File file, double speed) {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed must be positive: " + speed);
+    }
+    mFile = file;
+    mSpeed = speed;
+  }
+
+  /**
+   * The link of the wearable recorded as {@code source}, its index in the recording session.
+   * Traces from a single wearable only have source 0. Take every device before starting.
+   */
+  public synchronized GestureTransport device(int source) {
+    if (source < 0 || source >= TraceFormat.MAX_SOURCES) {
+      throw new IllegalArgumentException("source out of range: " + source);
+    }
+    if (mDevices[source] == null) {
+      mDevices[source] = new Device();
+    }
+    return mDevices[source];
+  }
+
+  public void setCommandListener(CommandListener listener) {
+    mCommandListener = listener;
+  }
+
+  /** Starts the replay on a new thread; ignored if already running. */
+  public synchronized void start() {
+    if (mThread != null && mThread.isAlive()) {
+      return;
+    }
+    mRunning = true;
+    Device[] devices = mDevices.clone();
+    mThread = new Thread(() -> run(devices), "trace-replayer");
+    mThread.setDaemon(true);
+    mThread.start();
+  }
+
+  /** Stops the replay and waits for its thread, unless called from it. */
+  public void stop() {
+    Thread thread;
+    synchronized (this) {
+      mRunning = false;
+      thread = mThread;
+    }
+    if (thread == null || thread == Thread.currentThread()) {
+      return;
+    }
+    LockSupport.unpark(thread);
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the replay to reach the end of the trace.
+   *
+   * @return {@code true} if it is no longer running
+   */
+  public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      thread = mThread;
+    }
+    if (thread != null) {
+      thread.join(Math.max(1, unit.toMillis(timeout)));
+      return !thread.isAlive();
+    }
+    return true;
+  }
+
+  private void run(Device[] devices) {
+    try (TraceReader reader = new TraceReader(mFile)) {
+      TraceRecord record = new TraceRecord();
+      long origin = System.nanoTime();
+      long firstNanos = 0;
+      boolean first = true;
+      while (mRunning && reader.next(record)) {
+        if (first) {
+          firstNanos = record.nanos;
+          first = false;
+        }
+        if (mSpeed != MAX_SPEED) {
+          waitUntil(origin + (long) ((record.nanos - firstNanos) / mSpeed));
+        }
+        if (record.type == TraceRecord.Type.COMMAND) {
+          CommandListener commandListener = mCommandListener;
+          if (commandListener != null) {
+            commandListener.onRecordedCommand(record.command, record.argument, record.nanos);
+          }
+          mCommands++;
+          continue;
+        }
+        Device device = devices[record.source];
+        GestureTransport.Listener listener = device != null ? device.mListener : null;
+        switch (record.type) {
+          case NOTIFICATION:
+            if (listener == null
+                || (device.mSubscriptions & 1 << record.channel.ordinal()) == 0) {
+              mSkippedNotifications++;
+              break;
+            }
+            // Recording may have started on a live link.
+            if (!device.mConnected) {
+              device.mConnected = true;
+              listener.onConnected();
+            }
+            listener.onNotification(record.channel, payload(record), record.nanos);
+            mNotifications++;
+            break;
+          case CONNECTED:
+            if (device != null) {
+              device.mConnected = true;
+              if (listener != null) {
+                listener.onConnected();
+              }
+            }
+            break;
+          case DISCONNECTED:
+            if (device != null) {
+              device.mConnected = false;
+              if (listener != null) {
+                listener.onDisconnected();
+              }
+            }
+            break;
+          default:
+            break;
+        }
+      }
+      mTruncated = reader.isTruncated();
+    } catch (IOException e) {
+      mFailure = e;
+    }
+    for (Device device : devices) {
+      if (device != null && device.mConnected) {
+        device.mConnected = false;
+        GestureTransport.Listener listener = device.mListener;
+        if (listener != null) {
+          listener.onDisconnected();
+        }
+      }
+    }
+    mRunning = false;
+  }
+
+  private byte[] payload(TraceRecord record) {
+    int length = record.length;
+    if (length > MAX_CACHED_LENGTH) {
+      return Arrays.copyOf(record.value, length);
+    }
+    byte[] payload = mPayloads[length];
+    if (payload == null) {
+      payload = mPayloads[length] = new byte[length];
+    }
+    System.arraycopy(record.value, 0, payload, 0, length);
+    return payload;
+  }
+
+  private void waitUntil(long deadlineNanos) {
+    long remaining;
+    while (mRunning && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  /** Notifications delivered to a device's listener. */
+  public long notifications() {
+    return mNotifications;
+  }
+
+  /**
+   * Notifications not delivered because their source has no device or listener, or its device
+   * did not subscribe to the channel.
+   */
+  public long skippedNotifications() {
+    return mSkippedNotifications;
+  }
+
+  /** Recorded commands read from the trace. */
+  public long commands() {
+    return mCommands;
+  }
+
+  /** Whether the trace ended in the middle of a record. */
+  public boolean isTruncated() {
+    return mTruncated;
+  }
+
+  /** The error that ended the replay early, or null. */
+  public IOException failure() {
+    return mFailure;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+
+/**
+ * Records every command into the current {@link TraceRecorder}, if any, before issuing it on
+ * the wrapped controller.
+ */
+public final class TracingPlayerController implements PlayerController {
+
+  private final PlayerController mDelegate;
+  private volatile TraceRecorder mRecorder;
+
+  public TracingPlayerController(PlayerController delegate) {
+    mDelegate = delegate;
+  }
+
+  /** Starts recording into {@code recorder}, or stops with null. */
+  public void setRecorder(TraceRecorder recorder) {
+    mRecorder = recorder;
+  }
+
+  private void record(PlayerCommand command, long argument) {
+    TraceRecorder recorder = mRecorder;
+    if (recorder != null) {
+      recorder.recordCommand(command, argument, System.nanoTime());
+    }
+  }
+
+  @Override
+  public void skipNext() {
+    record(PlayerCommand.SKIP_NEXT, 0);
+    mDelegate.skipNext();
+  }
+
+  @Override
+  public void skipPrevious() {
+    record(PlayerCommand.SKIP_PREVIOUS, 0);
+    mDelegate.skipPrevious();
+  }
+
+  @Override
+  public void togglePlayPause() {
+    record(PlayerCommand.PLAY_PAUSE, 0);
+    mDelegate.togglePlayPause();
+  }
+
+  @Override
+  public void seekToRelativePosition(long milliseconds) {
+    record(PlayerCommand.SEEK_RELATIVE, milliseconds);
+    mDelegate.seekToRelativePosition(milliseconds);
+  }
+
+  @Override
+  public void toggleShuffle() {
+    record(PlayerCommand.TOGGLE_SHUFFLE, 0);
+    mDelegate.toggleShuffle();
+  }
+
+  @Override
+  public void toggleRepeat() {
+    record(PlayerCommand.TOGGLE_REPEAT, 0);
+    mDelegate.toggleRepeat();
+  }
+
+  // Not a gesture command and the trace has no room for its URI, so it is not recorded.
+  @Override
+  public void playUri(String uri) {
+    mDelegate.playUri(uri);
+  }
+}
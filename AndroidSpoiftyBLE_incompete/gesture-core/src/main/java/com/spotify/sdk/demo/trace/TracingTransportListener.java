@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+
+/**
+ * Records one wearable's link events and notifications into the current {@link TraceRecorder},
+ * if any, tagged with the wearable's source index, before passing them on.
+ */
+public final class TracingTransportListener implements GestureTransport.Listener {
+
+  private final int mSource;
+  private final GestureTransport.Listener mDelegate;
+  private volatile TraceRecorder mRecorder;
+
+  /** Records the wearable at {@code source} in the session without passing events on. */
+  public TracingTransportListener(int source) {
+    this(source, null);
+  }
+
+  /**
+   * @param source the wearable's index in the session, which a replay uses to feed the same link
+   * @param delegate receives every event after it is recorded, or null
+   */
+  public TracingTransportListener(int source, GestureTransport.Listener delegate) {
+    if (source < 0 || source >= TraceFormat.MAX_SOURCES) {
+      throw new IllegalArgumentException("source out of range: " + source);
+    }
+    mSource = source;
+    mDelegate = delegate;
+  }
+
+  /** Starts recording into {@code recorder}, or stops with null. */
+  public void setRecorder(TraceRecorder recorder) {
+    mRecorder = recorder;
+  }
+
+  @Override
+  public void onConnected() {
+    TraceRecorder recorder = mRecorder;
+    if (recorder != null) {
+      recorder.recordConnected(mSource, System.nanoTime());
+    }
+    if (mDelegate != null) {
+      mDelegate.onConnected();
+    }
+  }
+
+  @Override
+  public void onNotification(GestureTransport.Channel channel, byte[] value, long receivedNanos) {
+    TraceRecorder recorder = mRecorder;
+    if (recorder != null) {
+      recorder.recordNotification(mSource, channel, value, receivedNanos);
+    }
+    if (mDelegate != null) {
+      mDelegate.onNotification(channel, value, receivedNanos);
+    }
+  }
+
+  @Override
+  public void onDisconnected() {
+    TraceRecorder recorder = mRecorder;
+    if (recorder != null) {
+      recorder.recordDisconnected(mSource, System.nanoTime());
+    }
+    if (mDelegate != null) {
+      mDelegate.onDisconnected();
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.spotify.sdk.demo.ble.ConnectionStateMachine.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConnectionStateMachineTest {
+
+  private static final long CONNECT_TIMEOUT_MS = 5_000;
+  private static final long SCAN_TIMEOUT_MS = 10_000;
+  private static final long INITIAL_BACKOFF_MS = 1_000;
+  private static final long MAX_BACKOFF_MS = 8_000;
+  private static final String SAVED = "AA:AA:AA:AA:AA:AA";
+  private static final String FOUND = "BB:BB:BB:BB:BB:BB";
+
+  /** Records the radio calls and runs the single timer on a fake clock. */
+  private static final class FakeDriver implements ConnectionStateMachine.Driver {
+    final List<String> mCalls = new ArrayList<>();
+    final List<State> mStates = new ArrayList<>();
+    final List<Long> mDelaysMs = new ArrayList<>();
+    ConnectionStateMachine mMachine;
+    long mNowNanos;
+    long mTimerAtNanos = -1;
+    String mSavedAddress;
+
+    @Override
+    public void connect(String address, boolean autoConnect) {
+      mCalls.add((autoConnect ? "autoConnect " : "connect ") + address);
+    }
+
+    @Override
+    public void disconnect() {
+      mCalls.add("disconnect");
+    }
+
+    @Override
+    public void startScan() {
+      mCalls.add("startScan");
+    }
+
+    @Override
+    public void stopScan() {
+      mCalls.add("stopScan");
+    }
+
+    @Override
+    public void schedule(long delayNanos) {
+      mDelaysMs.add(TimeUnit.NANOSECONDS.toMillis(delayNanos));
+      mTimerAtNanos = mNowNanos + delayNanos;
+    }
+
+    @Override
+    public void cancelTimer() {
+      mTimerAtNanos = -1;
+    }
+
+    @Override
+    public void saveAddress(String address) {
+      mSavedAddress = address;
+    }
+
+    @Override
+    public void onStateChanged(State state) {
+      mStates.add(state);
+    }
+
+    void advanceMs(long ms) {
+      long target = mNowNanos + TimeUnit.MILLISECONDS.toNanos(ms);
+      while (mTimerAtNanos >= 0 && mTimerAtNanos <= target) {
+        mNowNanos = mTimerAtNanos;
+        mTimerAtNanos = -1;
+        mMachine.onTimer();
+      }
+      mNowNanos = target;
+    }
+
+    /** Jumps to the armed timer and fires it. */
+    void fireTimer() {
+      mNowNanos = mTimerAtNanos;
+      mTimerAtNanos = -1;
+      mMachine.onTimer();
+    }
+
+    /** Returns the calls made since the last time and forgets them. */
+    List<String> takeCalls() {
+      List<String> calls = new ArrayList<>(mCalls);
+      mCalls.clear();
+      return calls;
+    }
+  }
+
+  private final FakeDriver mDriver = new FakeDriver();
+
+  private ConnectionStateMachine newMachine(String address) {
+    mDriver.mNowNanos = TimeUnit.SECONDS.toNanos(100);
+    ConnectionStateMachine machine =
+        new ConnectionStateMachine.Builder()
+            .setAddress(address)
+            .setConnectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .setScanTimeout(SCAN_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .setBackoff(INITIAL_BACKOFF_MS, MAX_BACKOFF_MS, TimeUnit.MILLISECONDS)
+            .build(mDriver);
+    mDriver.mMachine = machine;
+    return machine;
+  }
+
+  private static long ms(long ms) {
+    return TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  @Test
+  public void rememberedAddressConnectsWithoutScanning() {
+    ConnectionStateMachine machine = newMachine(SAVED);
+    machine.start(mDriver.mNowNanos);
+    assertEquals(Arrays.asList("autoConnect " + SAVED), mDriver.takeCalls());
+    assertEquals(State.CONNECTING_DIRECT, machine.state());
+
+    mDriver.advanceMs(300);
+    machine.onConnected(SAVED, mDriver.mNowNanos);
+    assertEquals(State.CONNECTED, machine.state());
+    assertEquals(-1, mDriver.mTimerAtNanos);
+    // The address is already saved.
+    assertNull(mDriver.mSavedAddress);
+
+    assertEquals(1, machine.attempts());
+    assertEquals(1, machine.directConnects());
+    assertEquals(0, machine.scanConnects());
+    assertEquals(1, machine.connectStats().count());
+    assertEquals(ms(300), machine.connectStats().maxNanos());
+  }
+
+  @Test
+  public void directConnectFallsBackToAScanAfterTheTimeout() {
+    ConnectionStateMachine machine = newMachine(SAVED);
+    machine.start(mDriver.mNowNanos);
+    mDriver.takeCalls();
+
+    mDriver.advanceMs(CONNECT_TIMEOUT_MS - 1);
+    assertEquals(State.CONNECTING_DIRECT, machine.state());
+    mDriver.advanceMs(1);
+    assertEquals(Arrays.asList("disconnect", "startScan"), mDriver.takeCalls());
+    assertEquals(State.SCANNING, machine.state());
+
+    mDriver.advanceMs(2_000);
+    machine.onScanResult(FOUND);
+    // The scanned peripheral is advertising, so it gets a foreground connect.
+    assertEquals(Arrays.asList("stopScan", "connect " + FOUND), mDriver.takeCalls());
+    assertEquals(State.CONNECTING_SCANNED, machine.state());
+
+    mDriver.advanceMs(500);
+    machine.onConnected(FOUND, mDriver.mNowNanos);
+    assertEquals(State.CONNECTED, machine.state());
+    assertEquals(FOUND, machine.address());
+    assertEquals(FOUND, mDriver.mSavedAddress);
+    assertEquals(
+        Arrays.asList(
+            State.CONNECTING_DIRECT, State.SCANNING, State.CONNECTING_SCANNED, State.CONNECTED),
+        mDriver.mStates);
+
+    assertEquals(1, machine.attempts());
+    assertEquals(0, machine.directConnects());
+    assertEquals(1, machine.scanConnects());
+    assertEquals(0, machine.failedAttempts());
+    assertEquals(ms(CONNECT_TIMEOUT_MS + 2_500), machine.connectStats().maxNanos());
+  }
+
+  @Test
+  public void failedDirectConnectScansAtOnce() {
+    ConnectionStateMachine machine = newMachine(SAVED);
+    machine.start(mDriver.mNowNanos);
+    mDriver.takeCalls();
+
+    machine.onDisconnected(mDriver.mNowNanos);
+    assertEquals(Arrays.asList("disconnect", "startScan"), mDriver.takeCalls());
+    assertEquals(State.SCANNING, machine.state());
+  }
+
+  @Test
+  public void unknownAddressScansFirst() {
+    ConnectionStateMachine machine = newMachine(null);
+    machine.start(mDriver.mNowNanos);
+    assertEquals(Arrays.asList("startScan"), mDriver.takeCalls());
+    assertEquals(Arrays.asList(State.SCANNING), mDriver.mStates);
+  }
+
+  @Test
+  public void backoffDoublesUpToTheCap() {
+    ConnectionStateMachine machine = newMachine(null);
+    machine.start(mDriver.mNowNanos);
+    // Every scan times out: scan, back off, scan again after the backoff, and so on.
+    for (int i = 0; i < 6; i++) {
+      mDriver.fireTimer();
+      assertEquals(State.BACKOFF, machine.state());
+      mDriver.fireTimer();
+      assertEquals(State.SCANNING, machine.state());
+    }
+    assertEquals(
+        Arrays.asList(
+            SCAN_TIMEOUT_MS, 1_000L,
+            SCAN_TIMEOUT_MS, 2_000L,
+            SCAN_TIMEOUT_MS, 4_000L,
+            SCAN_TIMEOUT_MS, 8_000L,
+            SCAN_TIMEOUT_MS, 8_000L,
+            SCAN_TIMEOUT_MS, 8_000L,
+            SCAN_TIMEOUT_MS),
+        mDriver.mDelaysMs);
+    assertEquals(7, machine.attempts());
+    assertEquals(6, machine.failedAttempts());
+  }
+
+  @Test
+  public void connectingResetsTheBackoff() {
+    ConnectionStateMachine machine = newMachine(null);
+    machine.start(mDriver.mNowNanos);
+    mDriver.fireTimer();
+    mDriver.fireTimer();
+    mDriver.fireTimer();
+    assertEquals(State.BACKOFF, machine.state());
+    mDriver.fireTimer();
+
+    machine.onScanResult(FOUND);
+    machine.onConnected(FOUND, mDriver.mNowNanos);
+    machine.onDisconnected(mDriver.mNowNanos);
+    // The remembered address is tried first; when that also fails, the scan fails and the
+    // backoff starts over.
+    mDriver.fireTimer();
+    mDriver.fireTimer();
+    assertEquals(State.BACKOFF, machine.state());
+    assertEquals(
+        Long.valueOf(INITIAL_BACKOFF_MS), mDriver.mDelaysMs.get(mDriver.mDelaysMs.size() - 1));
+  }
+
+  @Test
+  public void droppedLinkReconnectsToTheSameAddress() {
+    ConnectionStateMachine machine = newMachine(SAVED);
+    machine.start(mDriver.mNowNanos);
+    machine.onConnected(SAVED, mDriver.mNowNanos);
+    mDriver.takeCalls();
+
+    mDriver.advanceMs(60_000);
+    machine.onDisconnected(mDriver.mNowNanos);
+    assertEquals(Arrays.asList("autoConnect " + SAVED), mDriver.takeCalls());
+    assertEquals(State.CONNECTING_DIRECT, machine.state());
+
+    mDriver.advanceMs(700);
+    machine.onConnected(SAVED, mDriver.mNowNanos);
+    assertEquals(State.CONNECTED, machine.state());
+    assertEquals(1, machine.drops());
+    assertEquals(2, machine.attempts());
+    assertEquals(2, machine.directConnects());
+    // The reconnect is timed from the drop, and kept apart from the first connection.
+    assertEquals(1, machine.connectStats().count());
+    assertEquals(1, machine.reconnectStats().count());
+    assertEquals(ms(700), machine.reconnectStats().maxNanos());
+  }
+
+  @Test
+  public void stopTearsDownAndIgnoresLateCallbacks() {
+    ConnectionStateMachine machine = newMachine(null);
+    machine.start(mDriver.mNowNanos);
+    mDriver.takeCalls();
+
+    machine.stop();
+    assertEquals(Arrays.asList("stopScan"), mDriver.takeCalls());
+    assertEquals(State.IDLE, machine.state());
+    assertEquals(-1, mDriver.mTimerAtNanos);
+
+    machine.onScanResult(FOUND);
+    machine.onConnected(FOUND, mDriver.mNowNanos);
+    machine.onTimer();
+    assertEquals(State.IDLE, machine.state());
+    assertEquals(0, mDriver.takeCalls().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void backoffCapBelowTheInitialWaitIsRejected() {
+    new ConnectionStateMachine.Builder().setBackoff(2, 1, TimeUnit.SECONDS);
+  }
+}
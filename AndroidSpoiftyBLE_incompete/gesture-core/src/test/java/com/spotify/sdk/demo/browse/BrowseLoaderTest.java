@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.browse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BrowseLoaderTest {
+
+  /** Answers only when the test says so. Items starting with "leaf" are leaves. */
+  private static final class ManualSource implements BrowseLoader.Source<String> {
+    BrowseLoader.Callback<String> mRoots;
+    final Map<String, BrowseLoader.Callback<String>> mChildren = new LinkedHashMap<>();
+
+    @Override
+    public synchronized void fetchRoots(BrowseLoader.Callback<String> callback) {
+      mRoots = callback;
+    }
+
+    @Override
+    public boolean isLeaf(String item) {
+      return item.startsWith("leaf");
+    }
+
+    @Override
+    public synchronized void fetchChildren(
+        String parent, BrowseLoader.Callback<String> callback) {
+      mChildren.put(parent, callback);
+    }
+
+    synchronized BrowseLoader.Callback<String> children(String parent) {
+      return mChildren.get(parent);
+    }
+  }
+
+  /** Remembers what the listener was told. */
+  private static final class Result implements BrowseLoader.Listener<String> {
+    List<String> mItems;
+    int mMissing = -1;
+    Throwable mError;
+    int mCalls;
+
+    @Override
+    public synchronized void onLoaded(List<String> items, int missing) {
+      mItems = items;
+      mMissing = missing;
+      mCalls++;
+      notifyAll();
+    }
+
+    @Override
+    public synchronized void onError(Throwable error) {
+      mError = error;
+      mCalls++;
+      notifyAll();
+    }
+
+    synchronized void await() throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (mCalls == 0 && System.nanoTime() < deadline) {
+        TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+      }
+    }
+  }
+
+  private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+  private final ManualSource mSource = new ManualSource();
+
+  @After
+  public void tearDown() {
+    mScheduler.shutdownNow();
+  }
+
+  private BrowseLoader<String> loader(int maxParallelism, long timeoutMs) {
+    return new BrowseLoader.Builder<String>()
+        .setSource(mSource)
+        .setMaxParallelism(maxParallelism)
+        .setCallTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+        .setScheduler(mScheduler)
+        .build();
+  }
+
+  @Test
+  public void resultsKeepRootOrderWhateverOrderCallsAnswerIn() {
+    BrowseLoader<String> loader = loader(4, 60_000);
+    Result result = new Result();
+    loader.load(result);
+    mSource.mRoots.onResult(Arrays.asList("a", "leaf1", "b", "c"));
+    mSource.children("c").onResult(Arrays.asList("c1", "c2"));
+    mSource.children("a").onResult(Arrays.asList("a1"));
+    assertNull(result.mItems);
+    mSource.children("b").onResult(Arrays.asList("b1"));
+
+    assertEquals(Arrays.asList("a1", "leaf1", "b1", "c1", "c2"), result.mItems);
+    assertEquals(0, result.mMissing);
+    assertEquals(3, loader.highWatermark());
+    assertEquals(4, loader.calls());
+  }
+
+  @Test
+  public void callsBeyondTheParallelismLimitWaitForAPermit() {
+    BrowseLoader<String> loader = loader(1, 60_000);
+    Result result = new Result();
+    loader.load(result);
+    mSource.mRoots.onResult(Arrays.asList("a", "b"));
+    assertEquals(1, mSource.mChildren.size());
+    mSource.children("a").onError(new IllegalStateException("offline"));
+    mSource.children("b").onResult(Arrays.asList("b1"));
+
+    assertEquals(Arrays.asList("b1"), result.mItems);
+    assertEquals(1, result.mMissing);
+    assertEquals(1, loader.failures());
+    assertEquals(1, loader.highWatermark());
+  }
+
+  @Test
+  public void unansweredCallTimesOutAndALateAnswerIsIgnored() throws InterruptedException {
+    BrowseLoader<String> loader = loader(2, 50);
+    Result result = new Result();
+    loader.load(result);
+    mSource.mRoots.onResult(Arrays.asList("a", "b"));
+    mSource.children("a").onResult(Arrays.asList("a1"));
+    result.await();
+
+    assertEquals(Arrays.asList("a1"), result.mItems);
+    assertEquals(1, result.mMissing);
+    assertEquals(1, loader.timeouts());
+    mSource.children("b").onResult(Arrays.asList("b1"));
+    assertEquals(1, result.mCalls);
+  }
+
+  @Test
+  public void shutDownSchedulerFailsTheLoadInsteadOfThrowing() {
+    BrowseLoader<String> loader = loader(2, 60_000);
+    mScheduler.shutdownNow();
+    Result result = new Result();
+    loader.load(result);
+
+    assertTrue(result.mError instanceof RejectedExecutionException);
+    assertNull(mSource.mRoots);
+    assertEquals(0, loader.calls());
+    assertEquals(1, loader.failures());
+
+    // The permit was handed back, so later loads fail the same way rather than queueing forever.
+    Result again = new Result();
+    loader.load(again);
+    assertTrue(again.mError instanceof RejectedExecutionException);
+  }
+
+  @Test
+  public void schedulerShutDownMidLoadFailsTheWaitingCalls() {
+    BrowseLoader<String> loader = loader(1, 60_000);
+    Result result = new Result();
+    loader.load(result);
+    mSource.mRoots.onResult(Arrays.asList("a", "b", "c"));
+    mScheduler.shutdownNow();
+    mSource.children("a").onResult(Arrays.asList("a1"));
+
+    assertEquals(Arrays.asList("a1"), result.mItems);
+    assertEquals(2, result.mMissing);
+    assertEquals(2, loader.calls());
+    assertEquals(2, loader.failures());
+    assertEquals(1, mSource.mChildren.size());
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TwoTierCacheTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int VALUE_BYTES = 100;
+
+  /** Fixed-size, zero-padded values; a file of zeroes fails to decode. */
+  private static final TwoTierCache.Codec<String> CODEC =
+      new TwoTierCache.Codec<String>() {
+        @Override
+        public void encode(String value, OutputStream out) throws IOException {
+          byte[] bytes = new byte[VALUE_BYTES];
+          byte[] text = value.getBytes(UTF_8);
+          System.arraycopy(text, 0, bytes, 0, text.length);
+          out.write(bytes);
+        }
+
+        @Override
+        public String decode(InputStream in) throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          byte[] buffer = new byte[64];
+          for (int n; (n = in.read(buffer)) > 0; ) {
+            bytes.write(buffer, 0, n);
+          }
+          String value = new String(bytes.toByteArray(), UTF_8).trim();
+          if (bytes.size() != VALUE_BYTES || value.isEmpty()) {
+            throw new IOException("Corrupt value");
+          }
+          return value;
+        }
+      };
+
+  /** Records the outcome of one lookup. */
+  private static final class Result implements TwoTierCache.Callback<String> {
+    final BlockingQueue<Object> mOutcome = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onResult(String value) {
+      mOutcome.add(value);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      mOutcome.add(error);
+    }
+
+    Object await() throws InterruptedException {
+      Object outcome = mOutcome.poll(5, TimeUnit.SECONDS);
+      assertTrue("no answer", outcome != null);
+      return outcome;
+    }
+  }
+
+  @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void tearDown() {
+    mScheduler.shutdownNow();
+  }
+
+  @Test
+  public void loaderThatNeverAnswersTimesOut() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    BlockingQueue<TwoTierCache.Callback<String>> pending = new LinkedBlockingQueue<>();
+    TwoTierCache<String> cache =
+        new TwoTierCache.Builder<String>()
+            .setLoader(
+                (key, callback) -> {
+                  loads.incrementAndGet();
+                  pending.add(callback);
+                })
+            .setMemoryTier(1024, String::length)
+            .setLoadTimeout(50, TimeUnit.MILLISECONDS, mScheduler)
+            .setIoExecutor(Runnable::run)
+            .build();
+
+    Result first = new Result();
+    cache.get("a", first);
+    assertTrue(first.await() instanceof TimeoutException);
+    assertEquals(1, cache.loadTimeouts());
+    assertEquals(0, cache.loadErrors());
+
+    // The key is free again, and the late answer of the first load is ignored.
+    Result second = new Result();
+    cache.get("a", second);
+    assertEquals(2, loads.get());
+    pending.take().onResult("late");
+    assertNull(cache.getIfPresent("a"));
+    pending.take().onResult("fresh");
+    assertEquals("fresh", second.await());
+    assertEquals("fresh", cache.getIfPresent("a"));
+    assertEquals(1, cache.loadTimeouts());
+  }
+
+  @Test
+  public void loaderThatThrowsFailsTheLoad() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    TwoTierCache<String> cache =
+        new TwoTierCache.Builder<String>()
+            .setLoader(
+                (key, callback) -> {
+                  if (loads.incrementAndGet() == 1) {
+                    throw new IllegalStateException("not connected");
+                  }
+                  callback.onResult(key);
+                })
+            .setMemoryTier(1024, String::length)
+            .setIoExecutor(Runnable::run)
+            .build();
+
+    Result first = new Result();
+    cache.get("a", first);
+    assertTrue(first.await() instanceof IllegalStateException);
+    assertEquals(1, cache.loadErrors());
+
+    Result second = new Result();
+    cache.get("a", second);
+    assertEquals("a", second.await());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void corruptFileIsTakenOffTheDiskBudget() throws Exception {
+    File directory = mFolder.newFolder("cache");
+    TwoTierCache<String> cache =
+        new TwoTierCache.Builder<String>()
+            .setLoader((key, callback) -> callback.onResult(key))
+            .setMemoryTier(1024, String::length)
+            .setDiskTier(directory, 2 * VALUE_BYTES, CODEC)
+            .setIoExecutor(Runnable::run)
+            .build();
+    cache.get("a", new Result());
+    cache.get("b", new Result());
+    assertEquals(2, directory.list().length);
+
+    try (OutputStream out = new FileOutputStream(new File(directory, "a"))) {
+      out.write(new byte[VALUE_BYTES]);
+    }
+    cache.trimMemory();
+    Result reloaded = new Result();
+    cache.get("a", reloaded);
+    assertEquals("a", reloaded.await());
+    assertEquals(0, cache.diskHits());
+
+    // The rewritten file replaces the deleted one instead of pushing the directory over budget.
+    assertEquals(0, cache.diskEvictions());
+    assertTrue(new File(directory, "b").isFile());
+    Result fromDisk = new Result();
+    cache.trimMemory();
+    cache.get("b", fromDisk);
+    assertEquals("b", fromDisk.await());
+    assertEquals(1, cache.diskHits());
+  }
+}
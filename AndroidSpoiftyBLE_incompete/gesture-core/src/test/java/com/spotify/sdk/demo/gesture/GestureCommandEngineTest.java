@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import static org.junit.Assert.assertEquals;
+
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GestureCommandEngineTest {
+
+  private static final long DEBOUNCE_MS = 600;
+  private static final long COALESCE_MS = 1_500;
+
+  /** Records the calls that reach the player. */
+  private static final class RecordingController implements PlayerController {
+    final List<String> mCalls = new ArrayList<>();
+
+    @Override
+    public void skipNext() {
+      mCalls.add("next");
+    }
+
+    @Override
+    public void skipPrevious() {
+      mCalls.add("previous");
+    }
+
+    @Override
+    public void togglePlayPause() {
+      mCalls.add("playPause");
+    }
+
+    @Override
+    public void seekToRelativePosition(long milliseconds) {
+      mCalls.add("seek " + milliseconds);
+    }
+
+    @Override
+    public void toggleShuffle() {
+      mCalls.add("shuffle");
+    }
+
+    @Override
+    public void toggleRepeat() {
+      mCalls.add("repeat");
+    }
+
+    @Override
+    public void playUri(String uri) {
+      mCalls.add("play " + uri);
+    }
+  }
+
+  private final RecordingController mPlayer = new RecordingController();
+  private final GestureCommandEngine mEngine =
+      GestureCommandEngine.defaults()
+          .setDebounce(DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+          .setCoalesceWindow(COALESCE_MS, TimeUnit.MILLISECONDS)
+          .build(mPlayer);
+  private long mNowNanos = TimeUnit.SECONDS.toNanos(100);
+
+  private PlayerCommand gesture(Gesture gesture, long afterMs) {
+    mNowNanos += TimeUnit.MILLISECONDS.toNanos(afterMs);
+    return mEngine.onGesture(gesture.ordinal(), mNowNanos);
+  }
+
+  private void assertCalls(String... calls) {
+    assertEquals(Arrays.asList(calls), mPlayer.mCalls);
+  }
+
+  @Test
+  public void defaultBindingsIssueTheirCommands() {
+    assertEquals(PlayerCommand.SKIP_NEXT, gesture(Gesture.PALM_RIGHT, 0));
+    assertEquals(PlayerCommand.SEEK_RELATIVE, gesture(Gesture.FIST_LEFT, 10));
+    assertEquals(PlayerCommand.PLAY_PAUSE, gesture(Gesture.PALM_CENTER, 10));
+    assertCalls("next", "seek -" + GestureCommandEngine.DEFAULT_SEEK_MS, "playPause");
+    assertEquals(3, mEngine.dispatched());
+  }
+
+  @Test
+  public void heldGestureFiresOnce() {
+    gesture(Gesture.PALM_RIGHT, 0);
+    // Each repeat is within the window of the previous one, so the whole hold is absorbed even
+    // though it lasts longer than the window.
+    for (int i = 0; i < 10; i++) {
+      assertEquals(PlayerCommand.NONE, gesture(Gesture.PALM_RIGHT, COALESCE_MS - 1));
+    }
+    assertCalls("next");
+    assertEquals(10, mEngine.coalesced());
+  }
+
+  @Test
+  public void repeatAfterTheCoalesceWindowFiresAgain() {
+    gesture(Gesture.PALM_RIGHT, 0);
+    gesture(Gesture.PALM_RIGHT, COALESCE_MS);
+    assertCalls("next", "next");
+    assertEquals(0, mEngine.coalesced());
+  }
+
+  @Test
+  public void idleReleasesTheHold() {
+    gesture(Gesture.PALM_RIGHT, 0);
+    gesture(Gesture.IDLE, 100);
+    assertEquals(PlayerCommand.SKIP_NEXT, gesture(Gesture.PALM_RIGHT, DEBOUNCE_MS));
+    assertCalls("next", "next");
+    assertEquals(0, mEngine.coalesced());
+  }
+
+  @Test
+  public void retriggerWithinTheDebounceWindowIsIgnored() {
+    gesture(Gesture.PALM_RIGHT, 0);
+    gesture(Gesture.IDLE, 100);
+    assertEquals(PlayerCommand.NONE, gesture(Gesture.PALM_RIGHT, 100));
+    assertCalls("next");
+    assertEquals(1, mEngine.debounced());
+
+    // Debounce counts from the last command, not the last trigger.
+    gesture(Gesture.IDLE, 100);
+    assertEquals(PlayerCommand.SKIP_NEXT, gesture(Gesture.PALM_RIGHT, DEBOUNCE_MS - 300));
+    assertCalls("next", "next");
+  }
+
+  @Test
+  public void debounceIsPerGesture() {
+    gesture(Gesture.PALM_RIGHT, 0);
+    gesture(Gesture.PALM_LEFT, 10);
+    gesture(Gesture.PALM_RIGHT, 10);
+    assertCalls("next", "previous");
+    assertEquals(1, mEngine.debounced());
+  }
+
+  @Test
+  public void perGestureDebounceOverridesTheDefault() {
+    GestureCommandEngine engine =
+        GestureCommandEngine.defaults()
+            .setDebounce(Gesture.PALM_CENTER, 2, TimeUnit.SECONDS)
+            .build(mPlayer);
+    long t = 0;
+    engine.onGesture(Gesture.PALM_CENTER.ordinal(), t);
+    engine.onGesture(Gesture.IDLE.ordinal(), t += TimeUnit.MILLISECONDS.toNanos(100));
+    engine.onGesture(Gesture.PALM_CENTER.ordinal(), t += TimeUnit.SECONDS.toNanos(1));
+    engine.onGesture(Gesture.IDLE.ordinal(), t += TimeUnit.MILLISECONDS.toNanos(100));
+    engine.onGesture(Gesture.PALM_CENTER.ordinal(), t + TimeUnit.SECONDS.toNanos(1));
+    assertCalls("playPause", "playPause");
+  }
+
+  @Test
+  public void unboundAndUnknownGesturesAreIgnored() {
+    assertEquals(PlayerCommand.NONE, gesture(Gesture.FIST_UP, 0));
+    assertEquals(PlayerCommand.NONE, mEngine.onGesture(Gesture.COUNT, mNowNanos));
+    assertEquals(PlayerCommand.NONE, mEngine.onGesture(-1, mNowNanos));
+    assertCalls();
+    assertEquals(0, mEngine.dispatched());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void idleCannotBeBound() {
+    new GestureCommandEngine.Builder().bind(Gesture.IDLE, PlayerCommand.PLAY_PAUSE);
+  }
+}
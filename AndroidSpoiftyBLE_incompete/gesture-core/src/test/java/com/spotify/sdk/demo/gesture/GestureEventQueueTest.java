@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class GestureEventQueueTest {
+
+  private static final int EVENTS = 2_000_000;
+
+  /** Checks that sequences arrive once each, in order, with their fields intact. */
+  private static final class OrderCheckingHandler implements GestureEventQueue.Handler {
+    final AtomicLong mReceived = new AtomicLong();
+    volatile long mLastSequence = -1;
+    volatile String mFailure;
+
+    @Override
+    public void onGestureEvent(
+        int gestureId, int sequence, long deviceTimeMillis, int confidence, long receivedNanos) {
+      if (mFailure == null) {
+        if (sequence <= mLastSequence) {
+          mFailure = "sequence " + sequence + " after " + mLastSequence;
+        } else if (gestureId != sequence % Gesture.COUNT
+            || deviceTimeMillis != 3L * sequence
+            || confidence != (sequence & 0xff)
+            || receivedNanos != -sequence) {
+          mFailure = "corrupt event " + sequence;
+        }
+      }
+      mLastSequence = sequence;
+      mReceived.incrementAndGet();
+    }
+  }
+
+  private static boolean offer(GestureEventQueue queue, int sequence) {
+    return queue.offer(
+        sequence % Gesture.COUNT, sequence, 3L * sequence, sequence & 0xff, -sequence);
+  }
+
+  @Test
+  public void capacityRoundsUpToPowerOfTwo() {
+    assertEquals(1, new GestureEventQueue(1).capacity());
+    assertEquals(64, new GestureEventQueue(64).capacity());
+    assertEquals(128, new GestureEventQueue(65).capacity());
+  }
+
+  @Test
+  public void overflowDropsNewestAndTracksWatermark() {
+    GestureEventQueue queue = new GestureEventQueue(8);
+    for (int i = 0; i < 8; i++) {
+      assertTrue(offer(queue, i));
+    }
+    for (int i = 8; i < 13; i++) {
+      assertFalse(offer(queue, i));
+    }
+    assertEquals(5, queue.dropped());
+    assertEquals(8, queue.highWatermark());
+    assertEquals(8, queue.published());
+
+    OrderCheckingHandler handler = new OrderCheckingHandler();
+    assertEquals(3, queue.drain(handler, 3));
+    assertEquals(5, queue.drain(handler, 100));
+    assertEquals(null, handler.mFailure);
+    assertEquals(7, handler.mLastSequence);
+    assertTrue(queue.isEmpty());
+
+    // The freed slots take new events; the watermark keeps its peak.
+    assertTrue(offer(queue, 13));
+    assertEquals(8, queue.highWatermark());
+    assertEquals(5, queue.dropped());
+  }
+
+  @Test
+  public void dispatcherDeliversEveryEventOnceBelowCapacity() throws InterruptedException {
+    GestureEventQueue queue = new GestureEventQueue(64);
+    OrderCheckingHandler handler = new OrderCheckingHandler();
+    GestureDispatcher dispatcher = new GestureDispatcher(queue, handler);
+    dispatcher.start();
+    GestureFrame frame = new GestureFrame();
+    try {
+      for (int sequence = 0; sequence < EVENTS; sequence++) {
+        // Flow control keeps the backlog within capacity, so nothing may be dropped.
+        while (sequence - queue.consumed() >= queue.capacity()) {
+          Thread.yield();
+        }
+        frame.gestureId = sequence % Gesture.COUNT;
+        frame.sequence = sequence;
+        frame.deviceTimeMillis = 3L * sequence;
+        frame.confidence = sequence & 0xff;
+        assertTrue(dispatcher.publish(frame, -sequence));
+      }
+      awaitReceived(handler, EVENTS);
+    } finally {
+      dispatcher.stop();
+    }
+    assertEquals(null, handler.mFailure);
+    assertEquals(EVENTS, handler.mReceived.get());
+    assertEquals(EVENTS - 1, handler.mLastSequence);
+    assertEquals(0, queue.dropped());
+    assertEquals(EVENTS, queue.published());
+    assertEquals(EVENTS, queue.consumed());
+    assertTrue(queue.highWatermark() <= queue.capacity());
+  }
+
+  @Test
+  public void overflowUnderLoadCountsEveryRejectedEvent() throws InterruptedException {
+    GestureEventQueue queue = new GestureEventQueue(16);
+    OrderCheckingHandler handler = new OrderCheckingHandler();
+    CountDownLatch done = new CountDownLatch(1);
+    long[] accepted = new long[1];
+    Thread producer =
+        new Thread(
+            () -> {
+              // Unthrottled bursts against a consumer that drains in small, slow batches.
+              for (int sequence = 0; sequence < EVENTS; sequence++) {
+                if (offer(queue, sequence)) {
+                  accepted[0]++;
+                }
+              }
+              done.countDown();
+            });
+    producer.start();
+    while (done.getCount() > 0 || !queue.isEmpty()) {
+      if (queue.drain(handler, 4) == 0) {
+        Thread.yield();
+      }
+    }
+    producer.join();
+
+    assertEquals(null, handler.mFailure);
+    assertTrue("expected overflow", queue.dropped() > 0);
+    assertEquals(EVENTS, accepted[0] + queue.dropped());
+    assertEquals(accepted[0], queue.published());
+    assertEquals(accepted[0], handler.mReceived.get());
+    assertEquals(queue.published(), queue.consumed());
+    assertEquals(queue.capacity(), queue.highWatermark());
+  }
+
+  private static void awaitReceived(OrderCheckingHandler handler, long count)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (handler.mReceived.get() < count && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
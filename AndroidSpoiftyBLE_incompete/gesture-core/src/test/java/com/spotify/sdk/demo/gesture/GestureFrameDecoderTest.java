@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class GestureFrameDecoderTest {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final GestureFrameDecoder mDecoder = new GestureFrameDecoder();
+  private final GestureFrame mFrame = new GestureFrame();
+
+  private static byte[] v1(int gestureId, int sequence, long deviceTimeMillis, int confidence) {
+    byte[] frame = new byte[GestureFrameDecoder.FRAME_V1_LENGTH];
+    GestureFrameDecoder.encodeV1(frame, 0, gestureId, sequence, deviceTimeMillis, confidence);
+    return frame;
+  }
+
+  private static int[] probabilities() {
+    int[] probabilities = new int[GestureFrame.CLASSES];
+    for (int i = 0; i < probabilities.length; i++) {
+      probabilities[i] = 250 - 20 * i;
+    }
+    return probabilities;
+  }
+
+  private static byte[] v3(int gestureId, int[] probabilities) {
+    byte[] frame = new byte[GestureFrameDecoder.FRAME_V3_LENGTH];
+    GestureFrameDecoder.encodeV3(frame, 0, gestureId, 7, 1_000, 250, probabilities);
+    return frame;
+  }
+
+  private void assertRejected() {
+    assertEquals(GestureFrame.GESTURE_UNKNOWN, mFrame.gestureId);
+    assertEquals(GestureFrame.NO_TIMESTAMP, mFrame.deviceTimeMillis);
+    assertEquals(GestureFrame.NO_CONFIDENCE, mFrame.confidence);
+    assertFalse(mFrame.hasProbabilities);
+  }
+
+  @Test
+  public void decodesVersion1Frames() {
+    assertTrue(mDecoder.decode(v1(Gesture.PALM_UP.ordinal(), 0xfffe, 0xfedcba98L, 255), mFrame));
+    assertEquals(Gesture.PALM_UP, mFrame.gesture());
+    assertEquals(0xfffe, mFrame.sequence);
+    // The uint32 timestamp is not sign extended.
+    assertEquals(0xfedcba98L, mFrame.deviceTimeMillis);
+    assertEquals(255, mFrame.confidence);
+    assertEquals(GestureFrame.FORMAT_BINARY, mFrame.format);
+    assertFalse(mFrame.hasProbabilities);
+  }
+
+  @Test
+  public void decodesVersion3ProbabilityBytes() {
+    int[] probabilities = probabilities();
+    probabilities[3] = 0xff;
+    assertTrue(mDecoder.decode(v3(Gesture.FIST_DOWN.ordinal(), probabilities), mFrame));
+    assertEquals(Gesture.FIST_DOWN, mFrame.gesture());
+    assertEquals(7, mFrame.sequence);
+    assertEquals(1_000, mFrame.deviceTimeMillis);
+    assertEquals(250, mFrame.confidence);
+    assertTrue(mFrame.hasProbabilities);
+    // Bytes are unsigned.
+    assertArrayEquals(probabilities, mFrame.probabilities);
+
+    // A following version 1 frame does not inherit them.
+    assertTrue(mDecoder.decode(v1(Gesture.IDLE.ordinal(), 8, 1_010, 0), mFrame));
+    assertFalse(mFrame.hasProbabilities);
+  }
+
+  @Test
+  public void truncatedFramesAreRejected() {
+    byte[] v1 = v1(Gesture.PALM_LEFT.ordinal(), 1, 2, 3);
+    assertFalse(mDecoder.decode(Arrays.copyOf(v1, v1.length - 1), mFrame));
+    assertRejected();
+
+    // Long enough for version 1 but not for the probabilities.
+    byte[] v3 = v3(Gesture.PALM_LEFT.ordinal(), probabilities());
+    assertFalse(mDecoder.decode(Arrays.copyOf(v3, v3.length - 1), mFrame));
+    assertRejected();
+    assertFalse(mDecoder.decode(Arrays.copyOf(v3, GestureFrameDecoder.FRAME_V1_LENGTH), mFrame));
+    assertRejected();
+
+    assertFalse(mDecoder.decode(new byte[0], mFrame));
+    assertFalse(mDecoder.decode(null, mFrame));
+  }
+
+  @Test
+  public void trailingBytesAfterAFrameAreIgnored() {
+    byte[] frame = Arrays.copyOf(v1(Gesture.PALM_RIGHT.ordinal(), 5, 6, 7), 20);
+    Arrays.fill(frame, GestureFrameDecoder.FRAME_V1_LENGTH, frame.length, (byte) 0x55);
+    assertTrue(mDecoder.decode(frame, mFrame));
+    assertEquals(Gesture.PALM_RIGHT, mFrame.gesture());
+    assertEquals(7, mFrame.confidence);
+    assertFalse(mFrame.hasProbabilities);
+  }
+
+  @Test
+  public void decodesFramesInsideALargerBuffer() {
+    byte[] buffer = new byte[4 + GestureFrameDecoder.FRAME_V1_LENGTH];
+    GestureFrameDecoder.encodeV1(buffer, 4, Gesture.FIST_CENTER.ordinal(), 9, 10, 11);
+    assertTrue(mDecoder.decode(buffer, 4, GestureFrameDecoder.FRAME_V1_LENGTH, mFrame));
+    assertEquals(Gesture.FIST_CENTER, mFrame.gesture());
+    assertEquals(9, mFrame.sequence);
+  }
+
+  @Test
+  public void unknownGestureIdsAreRejected() {
+    assertFalse(mDecoder.decode(v1(Gesture.COUNT, 1, 2, 3), mFrame));
+    assertRejected();
+    assertFalse(mDecoder.decode(v3(0xff, probabilities()), mFrame));
+    assertRejected();
+  }
+
+  @Test
+  public void badVersionBytesAreRejected() {
+    byte[] frame = v1(Gesture.PALM_UP.ordinal(), 1, 2, 3);
+    // 0x02 marks raw sample frames, which belong to the other characteristic.
+    for (int version : new int[] {0x00, 0x02, 0x04, 0x7f, 0xff}) {
+      frame[0] = (byte) version;
+      assertFalse("version " + version, mDecoder.decode(frame, mFrame));
+      assertRejected();
+    }
+  }
+
+  @Test
+  public void legacyLabelsDecodeWithALocalSequence() {
+    assertTrue(mDecoder.decode("palm_up".getBytes(ASCII), mFrame));
+    assertEquals(Gesture.PALM_UP, mFrame.gesture());
+    assertEquals(GestureFrame.FORMAT_LEGACY_STRING, mFrame.format);
+    assertEquals(1, mFrame.sequence);
+    assertEquals(GestureFrame.NO_TIMESTAMP, mFrame.deviceTimeMillis);
+
+    // ArduinoBLE pads strings with NULs.
+    assertTrue(mDecoder.decode("Idle\0\0\0".getBytes(ASCII), mFrame));
+    assertEquals(Gesture.IDLE, mFrame.gesture());
+    assertEquals(2, mFrame.sequence);
+
+    assertFalse(mDecoder.decode("palm_u".getBytes(ASCII), mFrame));
+    assertRejected();
+  }
+
+  @Test
+  public void modesRestrictTheAcceptedFormats() {
+    byte[] binary = v1(Gesture.PALM_UP.ordinal(), 1, 2, 3);
+    byte[] legacy = "palm_up".getBytes(ASCII);
+    GestureFrameDecoder binaryOnly = new GestureFrameDecoder(GestureFrameDecoder.MODE_BINARY);
+    GestureFrameDecoder legacyOnly =
+        new GestureFrameDecoder(GestureFrameDecoder.MODE_LEGACY_STRING);
+    assertTrue(binaryOnly.decode(binary, mFrame));
+    assertFalse(binaryOnly.decode(legacy, mFrame));
+    assertFalse(legacyOnly.decode(binary, mFrame));
+    assertTrue(legacyOnly.decode(legacy, mFrame));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownModeIsRejected() {
+    new GestureFrameDecoder(3);
+  }
+}
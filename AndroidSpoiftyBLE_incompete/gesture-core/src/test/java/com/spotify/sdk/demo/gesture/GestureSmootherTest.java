@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.gesture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GestureSmootherTest {
+
+  // The firmware classifies a window, sends IDLE once the EMG drops, and waits about a second.
+  private static final long WINDOW_SPACING_MS = 1300;
+  private static final long IDLE_AFTER_MS = 350;
+
+  private final GestureSmoother mSmoother = new GestureSmoother.Builder().build();
+  private final GestureFrame mFrame = new GestureFrame();
+  private long mNowMs;
+
+  /** A v3 window with {@code p} on {@code gesture} and the rest spread evenly. */
+  private boolean window(Gesture gesture, float p) {
+    mFrame.gestureId = gesture.ordinal();
+    mFrame.hasProbabilities = true;
+    mFrame.confidence = Math.round(p * 255);
+    Arrays.fill(mFrame.probabilities, Math.round((1 - p) / (GestureFrame.CLASSES - 1) * 255));
+    mFrame.probabilities[gesture.ordinal()] = mFrame.confidence;
+    return mSmoother.update(mFrame, TimeUnit.MILLISECONDS.toNanos(mNowMs));
+  }
+
+  private boolean idle() {
+    mFrame.gestureId = Gesture.IDLE.ordinal();
+    mFrame.hasProbabilities = false;
+    return mSmoother.update(mFrame, TimeUnit.MILLISECONDS.toNanos(mNowMs));
+  }
+
+  /** One firmware cycle: a window, then IDLE. Returns the decisions it produced. */
+  private List<Gesture> cycle(Gesture gesture, float p) {
+    List<Gesture> decisions = new ArrayList<>();
+    if (window(gesture, p)) {
+      decisions.add(mFrame.gesture());
+    }
+    mNowMs += IDLE_AFTER_MS;
+    if (idle()) {
+      decisions.add(Gesture.IDLE);
+    }
+    mNowMs += WINDOW_SPACING_MS - IDLE_AFTER_MS;
+    return decisions;
+  }
+
+  @Test
+  public void votesSurviveTheIdleBetweenWindowsOfOneGesture() {
+    assertEquals(Arrays.asList(), cycle(Gesture.FIST_LEFT, 0.7f));
+    assertEquals(Arrays.asList(Gesture.FIST_LEFT, Gesture.IDLE), cycle(Gesture.FIST_LEFT, 0.7f));
+    // Held: every further window repeats it.
+    assertEquals(Arrays.asList(Gesture.FIST_LEFT, Gesture.IDLE), cycle(Gesture.FIST_LEFT, 0.7f));
+    assertEquals(2, mSmoother.emitted());
+    assertEquals(0, mSmoother.instant());
+  }
+
+  @Test
+  public void votesExpireAfterTheVoteTimeout() {
+    cycle(Gesture.FIST_LEFT, 0.7f);
+    mNowMs += 2000;
+    assertEquals(Arrays.asList(), cycle(Gesture.FIST_LEFT, 0.7f));
+    assertEquals(Arrays.asList(Gesture.FIST_LEFT, Gesture.IDLE), cycle(Gesture.FIST_LEFT, 0.7f));
+  }
+
+  @Test
+  public void nextGestureIsNotOutvotedByThePreviousOne() {
+    cycle(Gesture.FIST_LEFT, 0.8f);
+    cycle(Gesture.FIST_LEFT, 0.8f);
+    assertEquals(Arrays.asList(), cycle(Gesture.PALM_UP, 0.7f));
+    assertEquals(Arrays.asList(Gesture.PALM_UP, Gesture.IDLE), cycle(Gesture.PALM_UP, 0.7f));
+  }
+
+  @Test
+  public void uncertainWindowsCastNoVote() {
+    assertFalse(window(Gesture.FIST_UP, 0.4f));
+    mNowMs += WINDOW_SPACING_MS;
+    assertFalse(window(Gesture.FIST_UP, 0.7f));
+    assertEquals(1, mSmoother.rejected());
+    assertEquals(1, mSmoother.suppressed());
+  }
+
+  @Test
+  public void confidentWindowIsDecidedAtOnce() {
+    assertTrue(window(Gesture.PALM_CENTER, 0.95f));
+    assertEquals(Gesture.PALM_CENTER, mFrame.gesture());
+    assertEquals(1, mSmoother.instant());
+  }
+
+  @Test
+  public void realisticSessionWithAnOutlierAndAPause() {
+    List<Gesture> decisions = new ArrayList<>();
+    decisions.addAll(cycle(Gesture.FIST_LEFT, 0.7f));
+    decisions.addAll(cycle(Gesture.FIST_LEFT, 0.65f));
+    // One misclassified window in the middle of the gesture.
+    decisions.addAll(cycle(Gesture.PALM_DOWN, 0.6f));
+    decisions.addAll(cycle(Gesture.FIST_LEFT, 0.7f));
+    mNowMs += 3000;
+    decisions.addAll(cycle(Gesture.PALM_UP, 0.8f));
+    decisions.addAll(cycle(Gesture.PALM_UP, 0.75f));
+
+    assertEquals(
+        Arrays.asList(
+            Gesture.FIST_LEFT,
+            Gesture.IDLE,
+            Gesture.FIST_LEFT,
+            Gesture.IDLE,
+            Gesture.PALM_UP,
+            Gesture.IDLE),
+        decisions);
+    assertEquals(6, mSmoother.windows());
+    assertEquals(3, mSmoother.emitted());
+  }
+}
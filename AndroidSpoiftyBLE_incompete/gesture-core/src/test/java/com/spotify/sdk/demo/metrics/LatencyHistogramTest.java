@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void smallValuesHaveABucketEach() {
+    for (int value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+      assertEquals(value, LatencyHistogram.bucketOf(value));
+      assertEquals(value, LatencyHistogram.lowerBound(value));
+      assertEquals(1, LatencyHistogram.width(value));
+    }
+    assertEquals(0, LatencyHistogram.bucketOf(-5));
+  }
+
+  @Test
+  public void bucketsTileTheLongsWithoutGaps() {
+    for (int bucket = 1; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+      long lower = LatencyHistogram.lowerBound(bucket);
+      assertEquals(
+          LatencyHistogram.lowerBound(bucket - 1) + LatencyHistogram.width(bucket - 1), lower);
+      assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+      assertEquals(bucket - 1, LatencyHistogram.bucketOf(lower - 1));
+      assertEquals(bucket, LatencyHistogram.bucketOf(lower + LatencyHistogram.width(bucket) - 1));
+      // Never wider than a sixteenth of the lower bound.
+      long width = LatencyHistogram.width(bucket);
+      assertTrue(width == 1 || width * LatencyHistogram.SUB_BUCKETS <= lower);
+    }
+    int last = LatencyHistogram.BUCKET_COUNT - 1;
+    assertEquals(last, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    assertEquals(
+        Long.MAX_VALUE, LatencyHistogram.lowerBound(last) + LatencyHistogram.width(last) - 1);
+  }
+
+  @Test
+  public void percentilesAreBucketMidpointsCappedAtTheMax() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.valueAtPercentile(50));
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+    assertEquals(100, histogram.count());
+    assertEquals(100, histogram.max());
+    assertEquals(1, histogram.valueAtPercentile(0));
+    assertEquals(10, histogram.valueAtPercentile(10));
+    // 50 and 51 share a bucket, whose midpoint rounds down.
+    assertEquals(50, histogram.valueAtPercentile(50));
+    // 96 to 99 share a bucket.
+    assertEquals(97, histogram.valueAtPercentile(99));
+    // The bucket of 100 reaches 103, but nothing above 100 was recorded.
+    assertEquals(100, histogram.valueAtPercentile(100));
+  }
+
+  @Test
+  public void percentileErrorStaysWithinABucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long value = 12_345_678;
+    histogram.record(value);
+    histogram.record(value * 10);
+    long p50 = histogram.valueAtPercentile(50);
+    assertTrue(Math.abs(p50 - value) <= value / LatencyHistogram.SUB_BUCKETS);
+  }
+
+  @Test
+  public void addCombinesHistograms() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(3);
+    a.record(3);
+    b.record(3);
+    b.record(1_000);
+    a.add(b);
+    assertEquals(4, a.count());
+    assertEquals(3, a.countAt(3));
+    assertEquals(1, a.countAt(LatencyHistogram.bucketOf(1_000)));
+    assertEquals(1_000, a.max());
+    assertEquals(2, b.count());
+  }
+
+  @Test
+  public void resetClearsEverything() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(42);
+    histogram.reset();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.max());
+    assertEquals(0, histogram.countAt(LatencyHistogram.bucketOf(42)));
+    assertEquals(0, histogram.valueAtPercentile(99));
+  }
+
+  @Test
+  public void concurrentRecordsAreAllCounted() throws InterruptedException {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 10_000; i++) {
+                  histogram.record(i * threads.length + offset);
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40_000, histogram.count());
+    assertEquals(39_999, histogram.max());
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks every int8 stage against vectors written by {@code
+ * ArduinoClassifierBLE/export_reference_vectors.py} from {@code model_quant.h}. Each layer runs on
+ * the exported input of its stage, so a mismatch names the layer that diverged.
+ *
+ * <p>The checked-in vectors come from the script's Python port of the TFLite reference kernels
+ * ({@code --engine=python}), not from a TFLite interpreter. This is a self-consistency check: it
+ * shows that two ports of the same kernels agree, not that either matches TFLite. Regenerating
+ * the vectors with {@code --engine=tflite} makes it a check against the interpreter.
+ */
+public class GestureClassifierConsistencyTest {
+
+  private static final int MAGIC = 0x31524347;
+
+  // TFLite builtin operator codes of the recorded outputs.
+  private static final int OP_ADD = 0;
+  private static final int OP_CONV_2D = 3;
+  private static final int OP_FULLY_CONNECTED = 9;
+  private static final int OP_MAX_POOL_2D = 17;
+  private static final int OP_MUL = 18;
+  private static final int OP_SOFTMAX = 25;
+  private static final int OP_QUANTIZE = 114;
+
+  /** One reference window and the int8 output of every recorded operator. */
+  private static final class Case {
+    final float[] mInput;
+    final byte[][] mOutputs;
+
+    Case(float[] input, byte[][] outputs) {
+      mInput = input;
+      mOutputs = outputs;
+    }
+  }
+
+  private static QuantizedModel sModel;
+  private static int[] sOperators;
+  private static List<Case> sCases;
+
+  static QuantizedModel loadModel() throws IOException {
+    return QuantizedModel.load(ByteBuffer.wrap(resource("/gesture_cnn.bin")));
+  }
+
+  private static byte[] resource(String name) throws IOException {
+    try (InputStream in = GestureClassifierConsistencyTest.class.getResourceAsStream(name)) {
+      if (in == null) {
+        throw new IOException(name + " is not on the classpath");
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int n; (n = in.read(buffer)) != -1; ) {
+        bytes.write(buffer, 0, n);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  @BeforeClass
+  public static void loadReference() throws IOException {
+    sModel = loadModel();
+    ByteBuffer in =
+        ByteBuffer.wrap(resource("gesture_cnn_reference.bin")).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(MAGIC, in.getInt());
+    int caseCount = in.getInt();
+    int steps = in.getInt();
+    int channels = in.getInt();
+    assertEquals(sModel.inputSteps(), steps);
+    assertEquals(sModel.inputChannels(), channels);
+    int recordCount = in.getInt();
+    sOperators = new int[recordCount];
+    int[] sizes = new int[recordCount];
+    for (int i = 0; i < recordCount; i++) {
+      sOperators[i] = in.getInt();
+      sizes[i] = in.getInt();
+    }
+    sCases = new ArrayList<>(caseCount);
+    for (int c = 0; c < caseCount; c++) {
+      float[] input = new float[steps * channels];
+      in.asFloatBuffer().get(input);
+      in.position(in.position() + input.length * 4);
+      byte[][] outputs = new byte[recordCount][];
+      for (int i = 0; i < recordCount; i++) {
+        outputs[i] = new byte[sizes[i]];
+        in.get(outputs[i]);
+      }
+      sCases.add(new Case(input, outputs));
+    }
+    assertEquals("trailing bytes", 0, in.remaining());
+    assertEquals(OP_QUANTIZE, sOperators[0]);
+    assertEquals(OP_SOFTMAX, sOperators[recordCount - 1]);
+  }
+
+  @Test
+  public void inputQuantizationMatchesExport() {
+    byte[] quantized = new byte[sModel.inputSteps() * sModel.inputChannels()];
+    for (int c = 0; c < sCases.size(); c++) {
+      Case reference = sCases.get(c);
+      sModel.quantizeInput(reference.mInput, 0, quantized, 0, sModel.inputSteps());
+      assertArrayEquals("case " + c, reference.mOutputs[0], quantized);
+    }
+  }
+
+  @Test
+  public void everyLayerMatchesExport() {
+    Layer[] layers = sModel.layers();
+    byte[] out = new byte[sModel.maxActivationSize()];
+    for (int c = 0; c < sCases.size(); c++) {
+      Case reference = sCases.get(c);
+      int record = 0;
+      for (int i = 0; i < layers.length; i++) {
+        Layer layer = layers[i];
+        byte[] in = reference.mOutputs[record];
+        record = lastRecordOf(layer, record + 1);
+        layer.forward(in, out, 0, layer.outSteps);
+        String where = "case " + c + ", layer " + i + " " + layer.getClass().getSimpleName();
+        assertArrayEquals(
+            where, reference.mOutputs[record], Arrays.copyOf(out, layer.outputSize()));
+      }
+      byte[] probabilities = new byte[sModel.classCount()];
+      sModel.softmax().forward(reference.mOutputs[record], probabilities, probabilities.length);
+      assertEquals(OP_SOFTMAX, sOperators[record + 1]);
+      assertArrayEquals("case " + c + ", softmax", reference.mOutputs[record + 1], probabilities);
+    }
+  }
+
+  /** Index of the recorded operator that produces the output of {@code layer}. */
+  private static int lastRecordOf(Layer layer, int first) {
+    if (layer instanceof ChannelLutLayer) {
+      // Consecutive MUL and ADD stages are fused into one table.
+      int record = first;
+      while (isChannelOp(sOperators[record + 1])) {
+        record++;
+      }
+      assertTrue(isChannelOp(sOperators[first]));
+      return record;
+    }
+    int expected =
+        layer instanceof Conv1DLayer
+            ? OP_CONV_2D
+            : layer instanceof MaxPool1DLayer ? OP_MAX_POOL_2D : OP_FULLY_CONNECTED;
+    assertEquals(expected, sOperators[first]);
+    return first;
+  }
+
+  private static boolean isChannelOp(int operator) {
+    return operator == OP_MUL || operator == OP_ADD;
+  }
+
+  @Test
+  public void classifyMatchesExport() {
+    GestureClassifier classifier = new GestureClassifier(sModel);
+    float[] probabilities = new float[sModel.classCount()];
+    for (int c = 0; c < sCases.size(); c++) {
+      Case reference = sCases.get(c);
+      byte[] expected = reference.mOutputs[reference.mOutputs.length - 1];
+      int best = classifier.classify(reference.mInput, 0, probabilities);
+      int expectedBest = 0;
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals("case " + c, (expected[i] + 128) / 256f, probabilities[i], 0f);
+        if (expected[i] >= expected[expectedBest]) {
+          expectedBest = i;
+        }
+      }
+      assertEquals("case " + c, expectedBest, best);
+    }
+  }
+
+  @Test
+  public void softmaxStaysWithinOneStepOfFloat() {
+    Int8Softmax softmax = new Int8Softmax(0.155f, 1f);
+    Random random = new Random(42);
+    byte[] logits = new byte[10];
+    byte[] out = new byte[logits.length];
+    double[] exps = new double[logits.length];
+    for (int run = 0; run < 10_000; run++) {
+      random.nextBytes(logits);
+      softmax.forward(logits, out, logits.length);
+      double sum = 0;
+      for (int i = 0; i < logits.length; i++) {
+        exps[i] = Math.exp(logits[i] * 0.155);
+        sum += exps[i];
+      }
+      for (int i = 0; i < logits.length; i++) {
+        double expected = Math.min(exps[i] / sum * 256, 255) - 128;
+        assertEquals(Arrays.toString(logits), expected, out[i], 1.0);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.ml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingGestureClassifierTest {
+
+  private QuantizedModel mModel;
+  private Layer[] mLayers;
+  private int mWindow;
+  private float[] mStream;
+
+  @Before
+  public void setUp() throws IOException {
+    mModel = GestureClassifierConsistencyTest.loadModel();
+    mLayers = mModel.layers();
+    mWindow = mModel.inputSteps() * mModel.inputChannels();
+    // A random walk per channel, so neighbouring windows look like a real recording.
+    Random random = new Random(7);
+    int channels = mModel.inputChannels();
+    mStream = new float[mWindow * 12];
+    for (int i = channels; i < mStream.length; i++) {
+      float step = (float) random.nextGaussian() * 0.3f;
+      mStream[i] = Math.max(-4f, Math.min(4f, mStream[i - channels] * 0.97f + step));
+    }
+  }
+
+  /** Recomputes every stage of the window at {@code firstSample} from scratch. */
+  private byte[][] fullPass(long firstSample) {
+    byte[][] activations = new byte[mLayers.length + 1][];
+    activations[0] = new byte[mWindow];
+    int steps = mModel.inputSteps();
+    mModel.quantizeInput(
+        mStream, (int) firstSample * mModel.inputChannels(), activations[0], 0, steps);
+    for (int i = 0; i < mLayers.length; i++) {
+      activations[i + 1] = new byte[mLayers[i].outputSize()];
+      mLayers[i].forward(activations[i], activations[i + 1], 0, mLayers[i].outSteps);
+    }
+    return activations;
+  }
+
+  private void assertMatchesFullPass(
+      StreamingGestureClassifier streaming, long firstSample, String message) {
+    byte[][] expected = fullPass(firstSample);
+    for (int stage = 0; stage < expected.length; stage++) {
+      assertArrayEquals(
+          message + ", stage " + stage, expected[stage], streaming.activations(stage));
+    }
+  }
+
+  @Test
+  public void everyHopMatchesAFullRecompute() {
+    int[] hops = {1, 2, 3, 7, 10, 14, 20, 75, 148, 149, 150, 151};
+    int channels = mModel.inputChannels();
+    GestureClassifier reference = new GestureClassifier(mModel);
+    float[] expected = new float[mModel.classCount()];
+    float[] actual = new float[mModel.classCount()];
+    for (int hop : hops) {
+      StreamingGestureClassifier streaming = new StreamingGestureClassifier(mModel);
+      for (long first = 0; (first + mModel.inputSteps()) * channels <= mStream.length;
+          first += hop) {
+        int offset = (int) first * channels;
+        int best = streaming.classify(mStream, offset, first, actual);
+        String message = "hop " + hop + ", window at " + first;
+        assertMatchesFullPass(streaming, first, message);
+        assertEquals(message, reference.classify(mStream, offset, expected), best);
+        assertArrayEquals(message, expected, actual, 0f);
+      }
+      if (hop < mModel.inputSteps()) {
+        assertTrue("hop " + hop, streaming.incrementalRuns() > 0);
+      } else {
+        assertEquals("hop " + hop, 0, streaming.incrementalRuns());
+      }
+    }
+  }
+
+  @Test
+  public void mixedHopsAndJumpsBackMatchAFullRecompute() {
+    int channels = mModel.inputChannels();
+    int last = mStream.length / channels - mModel.inputSteps();
+    StreamingGestureClassifier streaming = new StreamingGestureClassifier(mModel);
+    float[] probabilities = new float[mModel.classCount()];
+    Random random = new Random(11);
+    long first = 0;
+    for (int i = 0; i < 400; i++) {
+      int move = random.nextInt(10) == 0 ? -random.nextInt(40) : random.nextInt(30);
+      first = Math.max(0, Math.min(last, first + move));
+      if (random.nextInt(50) == 0) {
+        streaming.reset();
+      }
+      streaming.classify(mStream, (int) first * channels, first, probabilities);
+      assertMatchesFullPass(streaming, first, "call " + i + ", window at " + first);
+    }
+    assertTrue(streaming.incrementalRuns() > 0);
+    assertTrue(streaming.fullRuns() > 1);
+  }
+
+  @Test
+  public void incrementalRunsComputeFewerSteps() {
+    int channels = mModel.inputChannels();
+    StreamingGestureClassifier streaming = new StreamingGestureClassifier(mModel);
+    float[] probabilities = new float[mModel.classCount()];
+    streaming.classify(mStream, 0, 0, probabilities);
+    long fullSteps = streaming.computedSteps();
+    streaming.classify(mStream, 14 * channels, 14, probabilities);
+    assertEquals(1, streaming.incrementalRuns());
+    assertTrue(streaming.computedSteps() - fullSteps < fullSteps / 2);
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandCoalescerTest {
+
+  private static final long SKIP_WINDOW_MS = 400;
+  private static final long ACK_TIMEOUT_MS = 2000;
+
+  /**
+   * Records the calls that reach the player, and when each command was last issued, and if asked
+   * to settles each one at once.
+   */
+  private final class FakeController implements PlayerController {
+    final List<String> mCalls = new ArrayList<>();
+    final Map<PlayerCommand, Long> mIssuedNanos = new EnumMap<>(PlayerCommand.class);
+    CommandCoalescer mSettleOn;
+
+    private void call(PlayerCommand command, String description) {
+      mCalls.add(description);
+      long nowNanos = mClock.nanoTime();
+      mIssuedNanos.put(command, nowNanos);
+      if (mSettleOn != null) {
+        mSettleOn.onCommandSettled(command, nowNanos);
+      }
+    }
+
+    @Override
+    public void skipNext() {
+      call(PlayerCommand.SKIP_NEXT, "next");
+    }
+
+    @Override
+    public void skipPrevious() {
+      call(PlayerCommand.SKIP_PREVIOUS, "previous");
+    }
+
+    @Override
+    public void togglePlayPause() {
+      call(PlayerCommand.PLAY_PAUSE, "playPause");
+    }
+
+    @Override
+    public void seekToRelativePosition(long milliseconds) {
+      call(PlayerCommand.SEEK_RELATIVE, "seek " + milliseconds);
+    }
+
+    @Override
+    public void toggleShuffle() {
+      call(PlayerCommand.TOGGLE_SHUFFLE, "shuffle");
+    }
+
+    @Override
+    public void toggleRepeat() {
+      call(PlayerCommand.TOGGLE_REPEAT, "repeat");
+    }
+
+    @Override
+    public void playUri(String uri) {
+      mCalls.add("play " + uri);
+    }
+  }
+
+  private long mNowNanos;
+  private CommandCoalescer.Clock mClock = () -> mNowNanos;
+  private final FakeController mPlayer = new FakeController();
+  private CommandCoalescer mCoalescer;
+  private ScheduledExecutorService mScheduler;
+
+  @Before
+  public void setUp() {
+    mNowNanos = TimeUnit.SECONDS.toNanos(100);
+    mCoalescer =
+        new CommandCoalescer.Builder()
+            .setSkipWindow(SKIP_WINDOW_MS, TimeUnit.MILLISECONDS)
+            .setAckTimeout(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .setClock(mClock)
+            .build(mPlayer);
+  }
+
+  @After
+  public void tearDown() {
+    if (mScheduler != null) {
+      mScheduler.shutdownNow();
+    }
+  }
+
+  // Real time, as the timer runs on it.
+  private CommandCoalescer timedCoalescer(long ackTimeoutMs) {
+    mScheduler = Executors.newSingleThreadScheduledExecutor();
+    mClock = System::nanoTime;
+    return new CommandCoalescer.Builder()
+        .setAckTimeout(ackTimeoutMs, TimeUnit.MILLISECONDS)
+        .setClock(mClock)
+        .setScheduler(mScheduler)
+        .build(mPlayer);
+  }
+
+  private static void awaitIssued(CommandCoalescer coalescer, long issued)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (coalescer.issued() < issued && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  private void advanceMs(long ms) {
+    mNowNanos += TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  /** Settles the last {@code command} the player was given. */
+  private void settle(PlayerCommand command) {
+    mCoalescer.onCommandSettled(command, mPlayer.mIssuedNanos.get(command));
+  }
+
+  private void assertCalls(String... calls) {
+    assertEquals(Arrays.asList(calls), mPlayer.mCalls);
+  }
+
+  private void assertCounts(long requested, long issued, long saved) {
+    assertEquals("requested", requested, mCoalescer.requested());
+    assertEquals("issued", issued, mCoalescer.issued());
+    assertEquals("saved", saved, mCoalescer.saved());
+  }
+
+  @Test
+  public void seeksWhileOneIsInFlightMergeIntoTheNetOffset() {
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.seekToRelativePosition(5_000);
+    mCoalescer.seekToRelativePosition(5_000);
+    mCoalescer.seekToRelativePosition(-2_000);
+    assertCalls("seek 10000");
+
+    settle(PlayerCommand.SEEK_RELATIVE);
+    assertCalls("seek 10000", "seek 8000");
+    assertEquals(2, mCoalescer.mergedSeeks());
+    assertCounts(4, 2, 2);
+  }
+
+  @Test
+  public void seeksNettingToZeroAreCancelled() {
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.seekToRelativePosition(5_000);
+    mCoalescer.seekToRelativePosition(-5_000);
+    settle(PlayerCommand.SEEK_RELATIVE);
+
+    assertCalls("seek 10000");
+    assertEquals(1, mCoalescer.mergedSeeks());
+    assertEquals(1, mCoalescer.cancelled());
+    assertCounts(3, 1, 2);
+  }
+
+  @Test
+  public void sameDirectionSkipsInsideTheWindowCollapse() {
+    mCoalescer.skipNext();
+    advanceMs(100);
+    mCoalescer.skipNext();
+    advanceMs(100);
+    mCoalescer.skipNext();
+    advanceMs(100);
+    mCoalescer.skipNext();
+    assertCalls("next");
+
+    settle(PlayerCommand.SKIP_NEXT);
+    settle(PlayerCommand.SKIP_NEXT);
+    assertCalls("next", "next");
+    assertEquals(2, mCoalescer.collapsedSkips());
+    assertCounts(4, 2, 2);
+  }
+
+  @Test
+  public void sameDirectionSkipsOutsideTheWindowAreKept() {
+    mCoalescer.skipNext();
+    advanceMs(SKIP_WINDOW_MS + 1);
+    mCoalescer.skipNext();
+    advanceMs(SKIP_WINDOW_MS + 1);
+    mCoalescer.skipNext();
+    assertCalls("next");
+
+    settle(PlayerCommand.SKIP_NEXT);
+    settle(PlayerCommand.SKIP_NEXT);
+    settle(PlayerCommand.SKIP_NEXT);
+    assertCalls("next", "next", "next");
+    assertCounts(3, 3, 0);
+  }
+
+  @Test
+  public void oppositeSkipsCancel() {
+    mCoalescer.skipNext();
+    advanceMs(50);
+    mCoalescer.skipNext();
+    advanceMs(50);
+    mCoalescer.skipPrevious();
+    settle(PlayerCommand.SKIP_NEXT);
+
+    assertCalls("next");
+    assertEquals(2, mCoalescer.cancelled());
+    assertCounts(3, 1, 2);
+  }
+
+  @Test
+  public void skipSupersedesAPendingSeek() {
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.skipNext();
+    mCoalescer.seekToRelativePosition(-3_000);
+    settle(PlayerCommand.SEEK_RELATIVE);
+    settle(PlayerCommand.SKIP_NEXT);
+
+    assertCalls("seek 10000", "next", "seek -3000");
+    assertCounts(4, 3, 1);
+  }
+
+  @Test
+  public void unsettledCommandIsGivenUpAfterTheAckTimeout() {
+    mCoalescer.seekToRelativePosition(10_000);
+    long abandonedNanos = mNowNanos;
+    advanceMs(ACK_TIMEOUT_MS - 1);
+    mCoalescer.seekToRelativePosition(5_000);
+    assertCalls("seek 10000");
+    assertEquals(0, mCoalescer.timeouts());
+
+    advanceMs(1);
+    mCoalescer.seekToRelativePosition(5_000);
+    assertCalls("seek 10000", "seek 10000");
+    assertEquals(1, mCoalescer.timeouts());
+
+    // A late ack for the abandoned seek does not release the new one early.
+    advanceMs(100);
+    mCoalescer.onCommandSettled(PlayerCommand.SEEK_RELATIVE, abandonedNanos);
+    mCoalescer.seekToRelativePosition(1_000);
+    assertCalls("seek 10000", "seek 10000");
+    assertCounts(4, 2, 1);
+
+    settle(PlayerCommand.SEEK_RELATIVE);
+    assertCalls("seek 10000", "seek 10000", "seek 1000");
+  }
+
+  @Test
+  public void settlesOfCommandsSentBeforeAResetAreIgnored() {
+    mCoalescer.skipNext();
+    long beforeResetNanos = mNowNanos;
+    mCoalescer.reset();
+
+    advanceMs(SKIP_WINDOW_MS + 1);
+    mCoalescer.skipNext();
+    advanceMs(SKIP_WINDOW_MS + 1);
+    mCoalescer.skipNext();
+    assertCalls("next", "next");
+
+    mCoalescer.onCommandSettled(PlayerCommand.SKIP_NEXT, beforeResetNanos);
+    assertCalls("next", "next");
+
+    settle(PlayerCommand.SKIP_NEXT);
+    assertCalls("next", "next", "next");
+  }
+
+  @Test
+  public void timerGivesUpOnAnUnsettledCommandWithoutAnotherRequest() throws Exception {
+    CommandCoalescer coalescer = timedCoalescer(50);
+    coalescer.seekToRelativePosition(10_000);
+    long abandonedNanos = mPlayer.mIssuedNanos.get(PlayerCommand.SEEK_RELATIVE);
+    coalescer.seekToRelativePosition(5_000);
+
+    awaitIssued(coalescer, 2);
+    assertCalls("seek 10000", "seek 5000");
+    assertEquals(1, coalescer.timeouts());
+
+    coalescer.onCommandSettled(PlayerCommand.SEEK_RELATIVE, abandonedNanos);
+    coalescer.seekToRelativePosition(1_000);
+    assertEquals(2, coalescer.issued());
+  }
+
+  @Test
+  public void timerDoesNotExpireASettledCommand() throws Exception {
+    CommandCoalescer coalescer = timedCoalescer(50);
+    mPlayer.mSettleOn = coalescer;
+    coalescer.skipNext();
+    coalescer.seekToRelativePosition(5_000);
+    assertCalls("next", "seek 5000");
+
+    Thread.sleep(200);
+    assertEquals(0, coalescer.timeouts());
+  }
+
+  @Test
+  public void instantAcksIssueEveryCommand() {
+    mPlayer.mSettleOn = mCoalescer;
+    mCoalescer.skipNext();
+    mCoalescer.skipNext();
+    mCoalescer.seekToRelativePosition(5_000);
+    mCoalescer.seekToRelativePosition(-5_000);
+    mCoalescer.skipPrevious();
+
+    assertCalls("next", "next", "seek 5000", "seek -5000", "previous");
+    assertCounts(5, 5, 0);
+  }
+
+  @Test
+  public void togglesAndPlayUriPassThrough() {
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.seekToRelativePosition(10_000);
+    mCoalescer.togglePlayPause();
+    mCoalescer.playUri("spotify:track:1");
+    settle(PlayerCommand.SEEK_RELATIVE);
+
+    assertCalls("seek 10000", "playPause", "play spotify:track:1");
+    assertEquals(1, mCoalescer.cancelled());
+    assertCounts(2, 1, 1);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ConflatingTopicTest {
+
+  /** Runs deliveries only when the test drains it, like a busy UI thread. */
+  private static final class ManualExecutor implements Executor {
+    final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      mTasks.add(task);
+    }
+
+    void drain() {
+      Runnable task;
+      while ((task = mTasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  /** Counts values that are not newer than the one before. */
+  private static final class OrderCheck implements ConflatingTopic.Listener<Long> {
+    final AtomicLong mLast = new AtomicLong(-1);
+    final AtomicInteger mBackwards = new AtomicInteger();
+
+    @Override
+    public void onValue(Long value) {
+      if (value <= mLast.getAndSet(value)) {
+        mBackwards.incrementAndGet();
+      }
+    }
+  }
+
+  @Test
+  public void newSubscriberStartsWithTheLatestValue() {
+    ConflatingTopic<String> topic = new ConflatingTopic<>("test");
+    topic.publish("a");
+    topic.publish("b");
+    List<String> values = new ArrayList<>();
+    topic.subscribe("late", ConflatingTopic.DIRECT, values::add);
+    topic.publish("c");
+    assertEquals(Arrays.asList("b", "c"), values);
+  }
+
+  @Test
+  public void slowSubscriberOnlySeesTheLatestValue() {
+    ConflatingTopic<Integer> topic = new ConflatingTopic<>("test");
+    ManualExecutor executor = new ManualExecutor();
+    List<Integer> slow = new ArrayList<>();
+    List<Integer> fast = new ArrayList<>();
+    ConflatingTopic.Subscriber<Integer> subscriber = topic.subscribe("slow", executor, slow::add);
+    topic.subscribe("fast", ConflatingTopic.DIRECT, fast::add);
+    for (int i = 1; i <= 5; i++) {
+      topic.publish(i);
+    }
+    assertEquals(1, executor.mTasks.size());
+    executor.drain();
+
+    assertEquals(Arrays.asList(5), slow);
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), fast);
+    assertEquals(1, subscriber.delivered());
+    assertEquals(4, subscriber.conflated());
+  }
+
+  @Test
+  public void upstreamIsOpenWhileThereAreSubscribers() {
+    ConflatingTopic<Integer> topic = new ConflatingTopic<>("test");
+    AtomicInteger open = new AtomicInteger();
+    topic.setUpstream(
+        new ConflatingTopic.Upstream() {
+          @Override
+          public void open() {
+            open.incrementAndGet();
+          }
+
+          @Override
+          public void close() {
+            open.decrementAndGet();
+          }
+        });
+    assertEquals(0, open.get());
+    ConflatingTopic.Subscriber<Integer> a = topic.subscribe("a", ConflatingTopic.DIRECT, v -> {});
+    ConflatingTopic.Subscriber<Integer> b = topic.subscribe("b", ConflatingTopic.DIRECT, v -> {});
+    assertEquals(1, open.get());
+    a.cancel();
+    assertEquals(1, open.get());
+    b.cancel();
+    assertEquals(0, open.get());
+  }
+
+  /** Publishes a value, if it has one, when opened. */
+  private static final class FakeUpstream implements ConflatingTopic.Upstream {
+    final ConflatingTopic<String> mTopic;
+    final String mValue;
+
+    FakeUpstream(ConflatingTopic<String> topic, String value) {
+      mTopic = topic;
+      mValue = value;
+    }
+
+    @Override
+    public void open() {
+      if (mValue != null) {
+        mTopic.publish(mValue);
+      }
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  @Test
+  public void valuesFromAPreviousUpstreamAreNotReplayed() {
+    ConflatingTopic<String> topic = new ConflatingTopic<>("test");
+    List<String> first = new ArrayList<>();
+    topic.subscribe("first", ConflatingTopic.DIRECT, first::add);
+    topic.setUpstream(new FakeUpstream(topic, "old connection"));
+    assertEquals("old connection", topic.latest());
+
+    topic.setUpstream(null);
+    assertNull(topic.latest());
+    List<String> afterDetach = new ArrayList<>();
+    topic.subscribe("afterDetach", ConflatingTopic.DIRECT, afterDetach::add);
+    assertEquals(Collections.emptyList(), afterDetach);
+
+    topic.setUpstream(new FakeUpstream(topic, "new connection"));
+    List<String> afterReplace = new ArrayList<>();
+    topic.subscribe("afterReplace", ConflatingTopic.DIRECT, afterReplace::add);
+    assertEquals(Arrays.asList("new connection"), afterReplace);
+    assertEquals(Arrays.asList("old connection", "new connection"), first);
+  }
+
+  @Test
+  public void replacingTheUpstreamForgetsTheLatestValue() {
+    ConflatingTopic<String> topic = new ConflatingTopic<>("test");
+    topic.subscribe("a", ConflatingTopic.DIRECT, v -> {});
+    topic.setUpstream(new FakeUpstream(topic, "first"));
+    // The new upstream has nothing yet, and the old value is not handed out meanwhile.
+    topic.setUpstream(new FakeUpstream(topic, null));
+    assertNull(topic.latest());
+    List<String> late = new ArrayList<>();
+    topic.subscribe("late", ConflatingTopic.DIRECT, late::add);
+    assertEquals(Collections.emptyList(), late);
+  }
+
+  @Test
+  public void reopenKeepsTheLatestValue() {
+    ConflatingTopic<String> topic = new ConflatingTopic<>("test");
+    topic.subscribe("a", ConflatingTopic.DIRECT, v -> {});
+    topic.setUpstream(new FakeUpstream(topic, null));
+    topic.publish("value");
+    topic.reopen();
+    assertEquals("value", topic.latest());
+  }
+
+  @Test
+  public void subscribingDuringPublishesNeverDeliversAStaleValue() throws Exception {
+    ConflatingTopic<Long> topic = new ConflatingTopic<>("test");
+    topic.publish(0L);
+    long last = 50_000;
+    CountDownLatch started = new CountDownLatch(1);
+    Thread publisher =
+        new Thread(
+            () -> {
+              started.countDown();
+              for (long i = 1; i <= last; i++) {
+                topic.publish(i);
+              }
+            });
+    publisher.start();
+    started.await();
+    // Each new subscriber is handed the latest value while the publisher races ahead of it.
+    List<OrderCheck> checks = new ArrayList<>();
+    while (publisher.isAlive() && checks.size() < 500) {
+      OrderCheck check = new OrderCheck();
+      checks.add(check);
+      topic.subscribe("s" + checks.size(), ConflatingTopic.DIRECT, check);
+      Thread.yield();
+    }
+    publisher.join(TimeUnit.SECONDS.toMillis(30));
+
+    assertTrue(checks.size() > 1);
+    for (int i = 0; i < checks.size(); i++) {
+      OrderCheck check = checks.get(i);
+      assertEquals("subscriber " + i, 0, check.mBackwards.get());
+      assertEquals("subscriber " + i, last, check.mLast.get());
+    }
+  }
+}
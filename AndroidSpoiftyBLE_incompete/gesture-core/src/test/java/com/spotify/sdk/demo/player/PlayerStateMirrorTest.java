@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PlayerStateMirrorTest {
+
+  private static final long TIMEOUT_MS = 2_000;
+
+  private final PlayerStateMirror mMirror =
+      new PlayerStateMirror(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  private long mNowNanos = TimeUnit.SECONDS.toNanos(100);
+
+  private void advanceMs(long ms) {
+    mNowNanos += TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  private void push(boolean paused, boolean shuffling, int repeatMode) {
+    mMirror.onPlayerState(paused, shuffling, repeatMode, mNowNanos);
+  }
+
+  @Test
+  public void firstStateIsTakenAsIs() {
+    assertFalse(mMirror.hasState());
+    push(true, true, PlayerStateMirror.REPEAT_ONE);
+    assertTrue(mMirror.hasState());
+    assertTrue(mMirror.isPaused());
+    assertTrue(mMirror.isShuffling());
+    assertEquals(PlayerStateMirror.REPEAT_ONE, mMirror.repeatMode());
+  }
+
+  @Test
+  public void toggleIsAppliedAtOnceAndConfirmed() {
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.togglePaused(mNowNanos));
+    assertTrue(mMirror.isPaused());
+
+    // The subscription still carries the state from before the toggle.
+    advanceMs(100);
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.isPaused());
+    assertEquals(1, mMirror.staleEventsMasked());
+
+    advanceMs(100);
+    push(true, false, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.isPaused());
+    assertEquals(1, mMirror.confirmed());
+    assertEquals(0, mMirror.rolledBack());
+
+    // Confirmed, so the subscription is authoritative again at once.
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertFalse(mMirror.isPaused());
+    assertEquals(1, mMirror.staleEventsMasked());
+  }
+
+  @Test
+  public void failedCommandRollsBackToTheConfirmedState() {
+    push(false, true, PlayerStateMirror.REPEAT_OFF);
+    assertFalse(mMirror.toggleShuffling(mNowNanos));
+    assertFalse(mMirror.isShuffling());
+
+    mMirror.revertShuffling();
+    assertTrue(mMirror.isShuffling());
+    assertEquals(1, mMirror.rolledBack());
+
+    // No longer pending, so the next event is simply taken.
+    push(false, true, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.isShuffling());
+    assertEquals(0, mMirror.confirmed());
+    assertEquals(0, mMirror.staleEventsMasked());
+  }
+
+  @Test
+  public void unconfirmedToggleGivesWayToTheSubscriptionAfterTheTimeout() {
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    mMirror.togglePaused(mNowNanos);
+
+    advanceMs(TIMEOUT_MS - 1);
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.isPaused());
+
+    advanceMs(1);
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertFalse(mMirror.isPaused());
+    assertEquals(1, mMirror.staleEventsMasked());
+    assertEquals(1, mMirror.rolledBack());
+  }
+
+  @Test
+  public void eachFieldReconcilesOnItsOwn() {
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    mMirror.togglePaused(mNowNanos);
+    assertEquals(PlayerStateMirror.REPEAT_ALL, mMirror.cycleRepeatMode(mNowNanos));
+
+    // Pause confirmed, repeat still stale, shuffle changed elsewhere and taken as is.
+    advanceMs(50);
+    push(true, true, PlayerStateMirror.REPEAT_OFF);
+    assertTrue(mMirror.isPaused());
+    assertTrue(mMirror.isShuffling());
+    assertEquals(PlayerStateMirror.REPEAT_ALL, mMirror.repeatMode());
+
+    mMirror.revertRepeatMode();
+    assertEquals(PlayerStateMirror.REPEAT_OFF, mMirror.repeatMode());
+    assertTrue(mMirror.isPaused());
+  }
+
+  @Test
+  public void repeatCyclesInTheAppsOrder() {
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertEquals(PlayerStateMirror.REPEAT_ALL, mMirror.cycleRepeatMode(mNowNanos));
+    assertEquals(PlayerStateMirror.REPEAT_ONE, mMirror.cycleRepeatMode(mNowNanos));
+    assertEquals(PlayerStateMirror.REPEAT_OFF, mMirror.cycleRepeatMode(mNowNanos));
+  }
+
+  @Test
+  public void resetForgetsStateAndPendingToggles() {
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    mMirror.togglePaused(mNowNanos);
+    mMirror.reset();
+    assertFalse(mMirror.hasState());
+
+    // A new connection's first state wins even inside the old toggle's timeout.
+    push(false, false, PlayerStateMirror.REPEAT_OFF);
+    assertFalse(mMirror.isPaused());
+    assertEquals(0, mMirror.staleEventsMasked());
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TempoMatcherTest {
+
+  /** Records the URIs started; other commands are not expected. */
+  private static final class RecordingController implements PlayerController {
+    final List<String> mPlayed = new ArrayList<>();
+
+    @Override
+    public void skipNext() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void skipPrevious() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void togglePlayPause() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void seekToRelativePosition(long milliseconds) {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void toggleShuffle() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void toggleRepeat() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void playUri(String uri) {
+      mPlayed.add(uri);
+    }
+  }
+
+  private final RecordingController mPlayer = new RecordingController();
+  private final TempoMatcher mMatcher =
+      new TempoMatcher.Builder()
+          .setSettleTime(10, TimeUnit.SECONDS)
+          .setMinSwitchInterval(60, TimeUnit.SECONDS)
+          .build(mPlayer);
+  private long mNowNanos = TimeUnit.SECONDS.toNanos(100);
+
+  @Before
+  public void setUp() {
+    mMatcher.setCandidates(
+        Arrays.asList(
+            new TempoMatcher.Candidate("slow", 120),
+            new TempoMatcher.Candidate("steady", 150),
+            new TempoMatcher.Candidate("half", 85)));
+    mMatcher.setEnabled(true);
+  }
+
+  // Reports `stepsPerMinute` every half second for `seconds`; returns whether anything started.
+  private boolean cadence(float stepsPerMinute, float seconds) {
+    boolean started = false;
+    for (int i = 0; i < seconds * 2; i++) {
+      mNowNanos += TimeUnit.MILLISECONDS.toNanos(500);
+      started |= mMatcher.onCadence(stepsPerMinute, mNowNanos);
+    }
+    return started;
+  }
+
+  @Test
+  public void parsesTempoFromTitles() {
+    assertEquals(160f, TempoMatcher.parseTempo("Running 160 BPM"), 0f);
+    assertEquals(157.5f, TempoMatcher.parseTempo("150-165 bpm mix"), 0f);
+    assertEquals(170f, TempoMatcher.parseTempo("Tempo 165 to 175bpm"), 0f);
+    assertEquals(0f, TempoMatcher.parseTempo("Top 100 hits"), 0f);
+    assertEquals(0f, TempoMatcher.parseTempo("Drum and bass 999 bpm"), 0f);
+    assertEquals(0f, TempoMatcher.parseTempo(null), 0f);
+  }
+
+  @Test
+  public void halfTimeTracksMatch() {
+    assertEquals(0f, TempoMatcher.mismatch(85, 170), 0f);
+    assertEquals(0f, TempoMatcher.mismatch(170, 170), 0f);
+    assertEquals(0.1f, TempoMatcher.mismatch(165, 150), 1e-6f);
+  }
+
+  @Test
+  public void startsTheClosestCandidateOnceTheCadenceSettles() {
+    assertFalse(cadence(151, 9.5f));
+    assertTrue(mPlayer.mPlayed.isEmpty());
+    assertTrue(cadence(151, 1));
+    assertEquals(Arrays.asList("steady"), mPlayer.mPlayed);
+    assertEquals("steady", mMatcher.current().uri);
+    assertEquals(1, mMatcher.switches());
+  }
+
+  @Test
+  public void matchesAtOneBeatEveryTwoSteps() {
+    cadence(171, 11);
+    assertEquals(Arrays.asList("half"), mPlayer.mPlayed);
+  }
+
+  @Test
+  public void aWanderingCadenceNeverSettles() {
+    for (int i = 0; i < 20; i++) {
+      cadence(i % 2 == 0 ? 120 : 150, 1);
+    }
+    assertTrue(mPlayer.mPlayed.isEmpty());
+  }
+
+  @Test
+  public void unknownCadenceRestartsTheSettleTime() {
+    cadence(150, 8);
+    mNowNanos += TimeUnit.MILLISECONDS.toNanos(500);
+    mMatcher.onCadence(0, mNowNanos);
+    assertFalse(cadence(150, 8));
+    assertTrue(cadence(150, 3));
+  }
+
+  @Test
+  public void keepsPlayingWhileTheCurrentPickStillMatches() {
+    List<TempoMatcher.Candidate> candidates = new ArrayList<>(mMatcher.candidates());
+    candidates.add(new TempoMatcher.Candidate("close", 145));
+    mMatcher.setCandidates(candidates);
+    cadence(150, 11);
+    // Closer to another candidate, but still within tolerance of the pick.
+    cadence(146, 120);
+    assertEquals(Arrays.asList("steady"), mPlayer.mPlayed);
+  }
+
+  @Test
+  public void waitsOutTheMinimumSwitchInterval() {
+    cadence(150, 11);
+    assertFalse(cadence(120, 40));
+    assertTrue(cadence(120, 25));
+    assertEquals(Arrays.asList("steady", "slow"), mPlayer.mPlayed);
+  }
+
+  @Test
+  public void unmatchedCadencesAreCounted() {
+    cadence(200, 11);
+    assertTrue(mPlayer.mPlayed.isEmpty());
+    assertTrue(mMatcher.unmatched() > 0);
+  }
+
+  @Test
+  public void disablingForgetsTheCurrentPick() {
+    cadence(150, 11);
+    mMatcher.setEnabled(false);
+    assertFalse(cadence(120, 20));
+    assertNull(mMatcher.current());
+    mMatcher.setEnabled(true);
+    // No switch interval to wait out after re-enabling.
+    assertTrue(cadence(120, 11));
+    assertEquals(Arrays.asList("steady", "slow"), mPlayer.mPlayed);
+  }
+}
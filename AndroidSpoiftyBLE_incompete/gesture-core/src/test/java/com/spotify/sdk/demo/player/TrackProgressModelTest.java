@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TrackProgressModelTest {
+
+  private static final long START_NANOS = TimeUnit.SECONDS.toNanos(1_000);
+
+  private final TrackProgressModel mModel = new TrackProgressModel();
+
+  private static long afterMs(long ms) {
+    return START_NANOS + TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  @Test
+  public void advancesFromTheAnchorAtTheReportedSpeed() {
+    mModel.setDuration(200_000);
+    mModel.sync(10_000, 1f, START_NANOS);
+    assertTrue(mModel.isAdvancing());
+    assertEquals(10_000, mModel.positionAt(START_NANOS));
+    assertEquals(12_500, mModel.positionAt(afterMs(2_500)));
+
+    mModel.sync(12_000, 1.5f, afterMs(2_500));
+    assertEquals(15_000, mModel.positionAt(afterMs(4_500)));
+  }
+
+  @Test
+  public void pollingDoesNotDrift() {
+    mModel.sync(0, 1f, START_NANOS);
+    // Reads every 333.3 ms would lose a millisecond each if they accumulated.
+    long last = 0;
+    for (int i = 1; i <= 3_000; i++) {
+      last = mModel.positionAt(START_NANOS + i * 333_333_333L);
+    }
+    assertEquals(999_999, last);
+  }
+
+  @Test
+  public void pausedPositionStaysPut() {
+    mModel.sync(42_000, 0f, START_NANOS);
+    assertFalse(mModel.isAdvancing());
+    assertEquals(42_000, mModel.positionAt(afterMs(60_000)));
+  }
+
+  @Test
+  public void clampsToTheTrack() {
+    mModel.setDuration(30_000);
+    mModel.sync(29_000, 1f, START_NANOS);
+    assertEquals(30_000, mModel.positionAt(afterMs(5_000)));
+
+    mModel.sync(-500, 1f, START_NANOS);
+    assertEquals(0, mModel.positionAt(START_NANOS));
+    // A read stamped before the anchor does not go back past the start.
+    mModel.sync(100, 1f, START_NANOS);
+    assertEquals(0, mModel.positionAt(afterMs(-1_000)));
+  }
+
+  @Test
+  public void unknownDurationIsNotAnUpperBound() {
+    mModel.sync(29_000, 1f, START_NANOS);
+    assertEquals(34_000, mModel.positionAt(afterMs(5_000)));
+  }
+
+  @Test
+  public void seekKeepsTheSpeed() {
+    mModel.sync(0, 2f, START_NANOS);
+    mModel.seekTo(60_000, afterMs(1_000));
+    assertEquals(64_000, mModel.positionAt(afterMs(3_000)));
+
+    mModel.sync(5_000, 0f, afterMs(3_000));
+    mModel.seekTo(1_000, afterMs(4_000));
+    assertEquals(1_000, mModel.positionAt(afterMs(9_000)));
+  }
+}
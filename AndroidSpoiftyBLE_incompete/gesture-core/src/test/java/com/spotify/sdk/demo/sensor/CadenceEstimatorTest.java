@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CadenceEstimatorTest {
+
+  private static final float RATE_HZ = 100f;
+  // Sample layout: three accelerometer axes after an unrelated channel.
+  private static final int[] AXES = {1, 2, 3};
+
+  private final float[] mSample = new float[4];
+  private int mIndex;
+
+  private static CadenceEstimator.Builder estimator() {
+    return new CadenceEstimator.Builder(RATE_HZ, AXES);
+  }
+
+  // Feeds `seconds` of a wrist bouncing at `stepsPerMinute`, with every other step `stride`
+  // times stronger, and returns the estimates made.
+  private int run(CadenceEstimator estimator, float stepsPerMinute, float stride, float seconds) {
+    int estimates = 0;
+    double stepHz = stepsPerMinute / 60.0;
+    for (int i = 0; i < seconds * RATE_HZ; i++, mIndex++) {
+      double t = mIndex / RATE_HZ;
+      double bounce =
+          0.3 * Math.sin(2 * Math.PI * stepHz * t)
+              + 0.3 * stride * Math.sin(Math.PI * stepHz * t);
+      // Spread the magnitude over the axes, as a tilted band would see it.
+      float magnitude = (float) (1 + bounce);
+      mSample[0] = 1_000f * (mIndex % 7);
+      mSample[1] = 0.6f * magnitude;
+      mSample[2] = -0.64f * magnitude;
+      mSample[3] = 0.48f * magnitude;
+      if (estimator.update(mSample, 0)) {
+        estimates++;
+      }
+    }
+    return estimates;
+  }
+
+  private void feedStill(CadenceEstimator estimator, float seconds) {
+    for (int i = 0; i < seconds * RATE_HZ; i++, mIndex++) {
+      mSample[1] = 0.6f;
+      mSample[2] = -0.64f;
+      mSample[3] = 0.48f;
+      estimator.update(mSample, 0);
+    }
+  }
+
+  @Test
+  public void locksOntoAPeriodicSignal() {
+    CadenceEstimator estimator = estimator().build();
+    // Nothing until the window has filled, then one estimate per update interval.
+    assertEquals(0, run(estimator, 165, 0, 3.9f));
+    assertFalse(estimator.hasLock());
+    assertEquals(12, run(estimator, 165, 0, 6.1f));
+    assertTrue(estimator.hasLock());
+    assertEquals(165, estimator.cadence(), 1.5);
+    assertTrue(estimator.confidence() > 0.8f);
+    assertEquals(0, estimator.missedEstimates());
+  }
+
+  @Test
+  public void interpolatesBetweenLags() {
+    CadenceEstimator estimator = estimator().build();
+    // A period of 36.4 samples, between two lags.
+    run(estimator, 60 * RATE_HZ / 36.4f, 0, 12);
+    assertEquals(60 * RATE_HZ / 36.4f, estimator.cadence(), 1);
+  }
+
+  @Test
+  public void unevenStepsReportStepsNotStrides() {
+    CadenceEstimator estimator = estimator().build();
+    // The stride, at 105 per minute, is in range too and has the higher peak.
+    run(estimator, 210, 0.3f, 12);
+    assertEquals(210, estimator.cadence(), 2);
+  }
+
+  @Test
+  public void followsAChangeOfPace() {
+    CadenceEstimator estimator = estimator().build();
+    run(estimator, 120, 0, 10);
+    assertEquals(120, estimator.cadence(), 1.5);
+    run(estimator, 180, 0, 15);
+    assertEquals(180, estimator.cadence(), 1.5);
+  }
+
+  @Test
+  public void stoppingDropsTheLock() {
+    CadenceEstimator estimator = estimator().build();
+    run(estimator, 165, 0, 10);
+    assertTrue(estimator.hasLock());
+    long missed = estimator.missedEstimates();
+    // Four misses at 0.5 s, once the recent energy has decayed.
+    feedStill(estimator, 3);
+    assertFalse(estimator.hasLock());
+    assertEquals(0, estimator.cadence(), 0f);
+    assertTrue(estimator.missedEstimates() - missed >= 4);
+  }
+
+  @Test
+  public void featureScaleUndoesTheStreamedEncoding() {
+    CadenceEstimator plain = estimator().build();
+    CadenceEstimator encoded = estimator().setFeatureScale(8, -4).build();
+    float[] features = new float[4];
+    for (int i = 0; i < 10 * RATE_HZ; i++) {
+      double magnitude = 1 + 0.3 * Math.sin(2 * Math.PI * 2.5 * i / RATE_HZ);
+      mSample[1] = (float) magnitude;
+      for (int axis = 1; axis < 4; axis++) {
+        features[axis] = (mSample[axis] + 4) / 8;
+      }
+      plain.update(mSample, 0);
+      encoded.update(features, 0);
+    }
+    assertEquals(150, plain.cadence(), 1.5);
+    assertEquals(plain.cadence(), encoded.cadence(), 0.5);
+  }
+
+  @Test
+  public void resetForgetsTheLock() {
+    CadenceEstimator estimator = estimator().build();
+    run(estimator, 165, 0, 10);
+    estimator.reset();
+    assertFalse(estimator.hasLock());
+    assertEquals(0, run(estimator, 165, 0, 3.9f));
+  }
+
+  @Test
+  public void decimatesFasterSamples() {
+    CadenceEstimator estimator =
+        new CadenceEstimator.Builder(400f, AXES).setAnalysisRate(100f).build();
+    assertEquals(100f, estimator.analysisRateHz(), 0f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyCadenceRangeIsRejected() {
+    estimator().setCadenceRange(180, 180);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Checks firmware rounding against golden vectors from the firmware's own {@code EMGFilters.cpp},
+ * written by {@code ArduinoClassifierBLE/extras/emg_filter_vectors.cpp}. Each configuration runs
+ * several channels through one bank, so it also checks that channels keep separate state.
+ */
+public class EmgFilterBankTest {
+
+  private static final int MAGIC = 0x31564645;
+
+  private static ByteBuffer vectors() throws IOException {
+    try (InputStream in = EmgFilterBankTest.class.getResourceAsStream("emg_filter_vectors.bin")) {
+      if (in == null) {
+        throw new IOException("emg_filter_vectors.bin is not on the classpath");
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int n; (n = in.read(buffer)) != -1; ) {
+        bytes.write(buffer, 0, n);
+      }
+      return ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  @Test
+  public void firmwareRoundingMatchesTheCpp() throws IOException {
+    ByteBuffer in = vectors();
+    assertEquals(MAGIC, in.getInt());
+    int configs = in.getInt();
+    int channels = in.getInt();
+    int samples = in.getInt();
+    assertTrue(configs > 0 && channels > 1);
+    for (int k = 0; k < configs; k++) {
+      int sampleFreq = in.getInt();
+      int notchFreq = in.getInt();
+      int filters = in.getInt();
+      float[] input = new float[samples * channels];
+      int[] expected = new int[samples * channels];
+      for (int c = 0; c < channels; c++) {
+        for (int i = 0; i < samples; i++) {
+          input[i * channels + c] = in.getShort();
+        }
+        for (int i = 0; i < samples; i++) {
+          expected[i * channels + c] = in.getInt();
+        }
+      }
+      EmgFilterBank bank =
+          new EmgFilterBank.Builder(channels)
+              .setSampleFrequency(sampleFreq)
+              .setNotchFrequency(notchFreq)
+              .setFilters((filters & 1) != 0, (filters & 2) != 0, (filters & 4) != 0)
+              .setFirmwareRounding(true)
+              .build();
+      float[] output = new float[input.length];
+      // Uneven batches check that state carries over between calls.
+      int done = 0;
+      for (int batch = 1; done < samples; batch = batch * 3 % 97 + 1) {
+        int frames = Math.min(batch, samples - done);
+        bank.process(input, done * channels, output, done * channels, frames);
+        done += frames;
+      }
+      for (int i = 0; i < output.length; i++) {
+        String where =
+            String.format(
+                "%d Hz, %d Hz notch, filters %d: channel %d, sample %d",
+                sampleFreq, notchFreq, filters, i % channels, i / channels);
+        assertEquals(where, expected[i], output[i], 0f);
+      }
+    }
+    assertEquals("trailing bytes", 0, in.remaining());
+  }
+}
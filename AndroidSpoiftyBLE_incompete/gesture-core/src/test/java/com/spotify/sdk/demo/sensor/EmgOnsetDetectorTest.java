@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EmgOnsetDetectorTest {
+
+  // Burst of a 50 Hz tone at 500 Hz: its envelope is about 0.59 times the amplitude, while
+  // Gaussian noise gives an envelope of about its standard deviation.
+  private static final double BURST_RADIANS_PER_SAMPLE = 2 * Math.PI * 50 / 500;
+
+  private final Random mRandom = new Random(42);
+  private final float[] mSample = new float[2];
+  private long mIndex;
+  private long mFirstOnset = -1;
+
+  private static EmgOnsetDetector.Builder detector() {
+    // The EMG channel follows an unrelated one.
+    return new EmgOnsetDetector.Builder(1);
+  }
+
+  // Feeds `samples` of noise with standard deviation `noise` plus a tone of `burst` amplitude,
+  // returning the onsets.
+  private int feed(EmgOnsetDetector detector, int samples, double noise, double burst) {
+    int onsets = 0;
+    for (int i = 0; i < samples; i++, mIndex++) {
+      mSample[0] = mIndex;
+      mSample[1] =
+          (float) (noise * mRandom.nextGaussian()
+              + burst * Math.sin(BURST_RADIANS_PER_SAMPLE * mIndex));
+      if (detector.update(mSample, 0, mIndex)) {
+        if (mFirstOnset < 0) {
+          mFirstOnset = mIndex;
+        }
+        onsets++;
+      }
+    }
+    return onsets;
+  }
+
+  @Test
+  public void burstAfterQuietNoiseIsAnOnset() {
+    EmgOnsetDetector detector = detector().build();
+    assertEquals(0, feed(detector, 500, 1, 0));
+    long burstStart = mIndex;
+    assertEquals(1, feed(detector, 250, 1, 20));
+    assertTrue(detector.isActive());
+    // Within the RMS window of the burst starting.
+    assertTrue(mFirstOnset - burstStart < 25);
+    assertEquals(mFirstOnset, detector.onsetSample());
+  }
+
+  @Test
+  public void nothingIsReportedDuringWarmup() {
+    EmgOnsetDetector detector = detector().setWarmupSamples(250).build();
+    assertEquals(0, feed(detector, 100, 1, 0));
+    assertEquals(0, feed(detector, 100, 1, 20));
+    assertFalse(detector.isActive());
+  }
+
+  @Test
+  public void staysActiveThroughShortDipsAndTurnsIdleAfterTheHold() {
+    EmgOnsetDetector detector = detector().setHoldSamples(50).build();
+    feed(detector, 500, 1, 0);
+    assertEquals(1, feed(detector, 100, 1, 20));
+    // Shorter than the hold, counting the RMS window draining.
+    feed(detector, 40, 1, 0);
+    assertTrue(detector.isActive());
+    assertEquals(0, feed(detector, 100, 1, 20));
+    long burstEnd = mIndex;
+    feed(detector, 200, 1, 0);
+    assertFalse(detector.isActive());
+    assertTrue(detector.wasActiveSince(burstEnd + 50));
+    assertFalse(detector.wasActiveSince(mIndex - 50));
+    assertEquals(1, detector.onsets());
+  }
+
+  @Test
+  public void floorRisesWithSlowlyGrowingNoise() {
+    EmgOnsetDetector detector = detector().build();
+    feed(detector, 500, 1, 0);
+    // Five times the noise, reached over 20 s at 500 Hz.
+    for (int step = 1; step <= 100; step++) {
+      assertEquals(0, feed(detector, 100, 1 + 4 * step / 100.0, 0));
+    }
+    // A burst that stood out from the original noise is lost in the new one.
+    assertEquals(0, feed(detector, 250, 5, 20));
+    assertEquals(1, feed(detector, 250, 5, 100));
+  }
+
+  @Test
+  public void floorFallsQuicklyWhenNoiseDrops() {
+    EmgOnsetDetector detector = detector().build();
+    feed(detector, 1000, 5, 0);
+    // A tenth of a second of quieter noise brings the floor down.
+    assertEquals(0, feed(detector, 50, 0.5, 0));
+    assertEquals(1, feed(detector, 250, 0.5, 20));
+  }
+
+  @Test
+  public void aSuddenJumpInNoiseIsAnOnset() {
+    EmgOnsetDetector detector = detector().build();
+    feed(detector, 500, 1, 0);
+    assertEquals(1, feed(detector, 250, 8, 0));
+  }
+
+  @Test
+  public void minimumFloorIgnoresTinyBurstsOnAFlatSignal() {
+    EmgOnsetDetector detector = detector().setMinFloor(2f).build();
+    feed(detector, 500, 0, 0);
+    assertEquals(0, feed(detector, 250, 0, 10));
+    assertEquals(1, feed(detector, 250, 0, 20));
+  }
+
+  @Test
+  public void energyInputIsTakenAsSquaredAmplitude() {
+    EmgOnsetDetector detector = detector().setEnergyInput(true).build();
+    for (int i = 0; i < 1000; i++, mIndex++) {
+      double amplitude = mIndex < 500 ? mRandom.nextGaussian() : 20 + mRandom.nextGaussian();
+      mSample[1] = (float) (amplitude * amplitude);
+      if (detector.update(mSample, 0, mIndex) && mFirstOnset < 0) {
+        mFirstOnset = mIndex;
+      }
+    }
+    assertEquals(1, detector.onsets());
+    assertTrue(mFirstOnset >= 500);
+  }
+
+  @Test
+  public void resetStartsAFreshWarmup() {
+    EmgOnsetDetector detector = detector().build();
+    feed(detector, 500, 1, 0);
+    detector.reset();
+    assertEquals(0, feed(detector, 100, 1, 20));
+    assertEquals(500, detector.samples() - 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void offRatioAboveOnRatioIsRejected() {
+    detector().setHysteresis(2, 4);
+  }
+}
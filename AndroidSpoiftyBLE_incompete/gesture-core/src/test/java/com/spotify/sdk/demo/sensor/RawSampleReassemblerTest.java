@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RawSampleReassemblerTest {
+
+  private static final int CHANNELS = 2;
+
+  private final SampleRing mRing = new SampleRing(CHANNELS, 64);
+  private final RawSampleReassembler mReassembler = new RawSampleReassembler(mRing, 4);
+  private final SampleWindow mWindow = new SampleWindow();
+
+  /** Feature value of device sample {@code index}, channel {@code channel}; exact in int16. */
+  private static float feature(long index, int channel) {
+    return ((index & 0xff) + channel * 256) / 1024f;
+  }
+
+  private static byte[] frame(long first, int count) {
+    float[] samples = new float[count * CHANNELS];
+    for (int s = 0; s < count; s++) {
+      for (int c = 0; c < CHANNELS; c++) {
+        samples[s * CHANNELS + c] = feature(first + s, c);
+      }
+    }
+    byte[] out = new byte[RawSampleReassembler.HEADER_LENGTH + count * CHANNELS * 2];
+    RawSampleReassembler.encode(out, 0, samples, 0, count, CHANNELS, first);
+    return out;
+  }
+
+  /** Asserts that ring samples {@code [from, from + deviceIndices.length)} hold those samples. */
+  private void assertSamples(long from, long... deviceIndices) {
+    assertTrue(mRing.window(from, deviceIndices.length, mWindow));
+    for (int s = 0; s < deviceIndices.length; s++) {
+      for (int c = 0; c < CHANNELS; c++) {
+        assertEquals("sample " + s, feature(deviceIndices[s], c), mWindow.get(s, c), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void framesInOrderAreAppended() {
+    assertTrue(mReassembler.onFrame(frame(100, 4)));
+    assertTrue(mReassembler.onFrame(frame(104, 4)));
+    assertEquals(8, mRing.written());
+    assertEquals(8, mReassembler.samples());
+    assertEquals(2, mReassembler.frames());
+    assertSamples(0, 100, 101, 102, 103, 104, 105, 106, 107);
+    assertTrue(mWindow.isContiguous());
+  }
+
+  @Test
+  public void shortGapIsConcealedWithTheLastSample() {
+    mReassembler.onFrame(frame(0, 4));
+    assertTrue(mReassembler.onFrame(frame(7, 2)));
+    assertEquals(3, mReassembler.concealedSamples());
+    assertEquals(0, mReassembler.lostSamples());
+    assertEquals(0, mReassembler.resyncs());
+    assertSamples(0, 0, 1, 2, 3, 3, 3, 3, 7, 8);
+    assertTrue(mWindow.isContiguous());
+  }
+
+  @Test
+  public void longGapMarksADiscontinuity() {
+    mReassembler.onFrame(frame(0, 4));
+    assertTrue(mReassembler.onFrame(frame(9, 2)));
+    assertEquals(5, mReassembler.lostSamples());
+    assertEquals(0, mReassembler.concealedSamples());
+    assertEquals(1, mReassembler.resyncs());
+    assertSamples(0, 0, 1, 2, 3, 9, 10);
+    assertFalse(mWindow.isContiguous());
+    assertTrue(mRing.window(4, 2, mWindow));
+    assertTrue(mWindow.isContiguous());
+  }
+
+  @Test
+  public void repeatedAndLateSamplesAreSkipped() {
+    mReassembler.onFrame(frame(0, 4));
+    assertFalse(mReassembler.onFrame(frame(0, 4)));
+    assertTrue(mReassembler.onFrame(frame(2, 4)));
+    assertEquals(6, mReassembler.staleSamples());
+    assertEquals(6, mReassembler.samples());
+    assertEquals(0, mReassembler.resyncs());
+    assertSamples(0, 0, 1, 2, 3, 4, 5);
+  }
+
+  @Test
+  public void deviceRestartResyncs() {
+    mReassembler.onFrame(frame(1000, 4));
+    assertTrue(mReassembler.onFrame(frame(0, 4)));
+    assertEquals(1, mReassembler.resyncs());
+    assertEquals(0, mReassembler.staleSamples());
+    assertSamples(0, 1000, 1001, 1002, 1003, 0, 1, 2, 3);
+    assertFalse(mWindow.isContiguous());
+  }
+
+  @Test
+  public void deviceIndexWrapsAround() {
+    mReassembler.onFrame(frame(0xfffffffeL, 4));
+    assertTrue(mReassembler.onFrame(frame(2, 4)));
+    assertEquals(0, mReassembler.resyncs());
+    assertEquals(0, mReassembler.concealedSamples());
+    assertSamples(0, 0xfffffffeL, 0xffffffffL, 0, 1, 2, 3, 4, 5);
+    assertTrue(mWindow.isContiguous());
+  }
+
+  @Test
+  public void resetStartsANewSegment() {
+    mReassembler.onFrame(frame(0, 4));
+    mReassembler.reset();
+    assertTrue(mReassembler.onFrame(frame(0, 4)));
+    assertEquals(0, mReassembler.staleSamples());
+    assertSamples(0, 0, 1, 2, 3, 0, 1, 2, 3);
+    assertFalse(mWindow.isContiguous());
+  }
+
+  @Test
+  public void malformedFramesAreCounted() {
+    byte[] wrongType = frame(0, 2);
+    wrongType[0] = 0x01;
+    byte[] truncated = new byte[RawSampleReassembler.HEADER_LENGTH + 3];
+    System.arraycopy(frame(0, 2), 0, truncated, 0, truncated.length);
+    byte[] empty = frame(0, 1);
+    empty[1] = 0;
+
+    assertFalse(mReassembler.onFrame(wrongType));
+    assertFalse(mReassembler.onFrame(truncated));
+    assertFalse(mReassembler.onFrame(empty));
+    assertFalse(mReassembler.onFrame(new byte[2]));
+    assertFalse(mReassembler.onFrame(null));
+    assertEquals(4, mReassembler.malformedFrames());
+    assertEquals(0, mRing.written());
+  }
+
+  @Test
+  public void encodeClampsToTheInt16Range() {
+    byte[] out = new byte[RawSampleReassembler.HEADER_LENGTH + 2 * CHANNELS];
+    RawSampleReassembler.encode(out, 0, new float[] {3f, -3f}, 0, 1, CHANNELS, 0);
+    mReassembler.onFrame(out);
+    assertTrue(mRing.latest(1, mWindow));
+    assertEquals(Short.MAX_VALUE / (float) RawSampleReassembler.FEATURE_ONE, mWindow.get(0, 0), 0f);
+    assertEquals(Short.MIN_VALUE / (float) RawSampleReassembler.FEATURE_ONE, mWindow.get(0, 1), 0f);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SampleRingTest {
+
+  private static void appendUpTo(SampleRing ring, long end) {
+    float[] sample = new float[ring.channels()];
+    for (long i = ring.written(); i < end; i++) {
+      for (int c = 0; c < sample.length; c++) {
+        sample[c] = i * 10 + c;
+      }
+      ring.append(sample, 0);
+    }
+  }
+
+  @Test
+  public void capacityRoundsUpToPowerOfTwo() {
+    assertEquals(1, new SampleRing(1, 1).capacity());
+    assertEquals(8, new SampleRing(1, 8).capacity());
+    assertEquals(16, new SampleRing(1, 9).capacity());
+  }
+
+  @Test
+  public void windowsAreContiguousAcrossTheWrap() {
+    SampleRing ring = new SampleRing(3, 8);
+    SampleWindow window = new SampleWindow();
+    for (long end = 7; end < 40; end++) {
+      appendUpTo(ring, end);
+      assertTrue(ring.latest(7, window));
+      assertEquals(end - 7, window.firstSample());
+      for (int i = 0; i < 7 * 3; i++) {
+        long sample = window.firstSample() + i / 3;
+        assertEquals(sample * 10 + i % 3, window.array()[window.offset() + i], 0f);
+      }
+    }
+  }
+
+  @Test
+  public void windowRejectsUnwrittenAndOverwrittenSamples() {
+    SampleRing ring = new SampleRing(1, 8);
+    SampleWindow window = new SampleWindow();
+    assertFalse(ring.latest(1, window));
+    appendUpTo(ring, 20);
+    assertTrue(ring.window(13, 7, window));
+    assertFalse(ring.window(12, 7, window));
+    assertFalse(ring.window(14, 7, window));
+    assertFalse(ring.latest(8, window));
+    assertFalse(ring.window(-1, 1, window));
+    assertFalse(ring.window(19, 0, window));
+  }
+
+  @Test
+  public void onlyWindowsSpanningADiscontinuityReportIt() {
+    SampleRing ring = new SampleRing(1, 16);
+    SampleWindow window = new SampleWindow();
+    appendUpTo(ring, 5);
+    ring.markDiscontinuity();
+    appendUpTo(ring, 10);
+    assertTrue(ring.window(0, 5, window));
+    assertTrue(window.isContiguous());
+    assertTrue(ring.window(4, 2, window));
+    assertFalse(window.isContiguous());
+    assertTrue(ring.window(5, 5, window));
+    assertTrue(window.isContiguous());
+  }
+
+  @Test
+  public void isIntactDetectsALappedReader() {
+    SampleRing ring = new SampleRing(1, 8);
+    SampleWindow window = new SampleWindow();
+    appendUpTo(ring, 4);
+    assertTrue(ring.window(0, 4, window));
+    appendUpTo(ring, 7);
+    assertTrue(ring.isIntact(window));
+    // The writer may now be writing sample 8 over sample 0.
+    appendUpTo(ring, 8);
+    assertFalse(ring.isIntact(window));
+  }
+
+  @Test
+  public void intactWindowsAreConsistentWhileTheWriterRuns() throws Exception {
+    SampleRing ring = new SampleRing(2, 64);
+    int samples = 2_000_000;
+    String[] failure = new String[1];
+    Thread reader =
+        new Thread(
+            () -> {
+              SampleWindow window = new SampleWindow();
+              float[] copy = new float[16 * 2];
+              while (ring.written() < samples && failure[0] == null) {
+                if (!ring.latest(16, window)) {
+                  continue;
+                }
+                System.arraycopy(window.array(), window.offset(), copy, 0, copy.length);
+                if (!ring.isIntact(window)) {
+                  continue;
+                }
+                for (int i = 0; i < copy.length; i++) {
+                  // Values stay exact in float below 2^24.
+                  long sample = (window.firstSample() + i / 2) % (1 << 20);
+                  if (copy[i] != sample * 10 + i % 2) {
+                    failure[0] = "sample " + (window.firstSample() + i / 2) + " was " + copy[i];
+                  }
+                }
+              }
+            });
+    reader.start();
+    float[] sample = new float[2];
+    for (long i = 0; i < samples; i++) {
+      long value = i % (1 << 20);
+      sample[0] = value * 10;
+      sample[1] = value * 10 + 1;
+      ring.append(sample, 0);
+    }
+    reader.join();
+    assertNull(failure[0]);
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.session;
+
+import static com.spotify.sdk.demo.gesture.Gesture.FIST_LEFT;
+import static com.spotify.sdk.demo.gesture.Gesture.FIST_RIGHT;
+import static com.spotify.sdk.demo.gesture.Gesture.FIST_UP;
+import static com.spotify.sdk.demo.gesture.Gesture.IDLE;
+import static com.spotify.sdk.demo.gesture.Gesture.PALM_UP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.ble.SimulatedPeripheral;
+import com.spotify.sdk.demo.gesture.Gesture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+public class WearableSessionTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final List<Gesture> mDecisions = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicLong mReleased = new AtomicLong();
+  private Phaser mLockstep;
+  private WearableSession mSession;
+  private Thread mFusionThread;
+
+  /**
+   * Runs its peripherals one after the other as a single wearable; the later ones stand for the
+   * same device after a reboot too quick to drop the link.
+   *
+   * <p>Delivery is lock-stepped with the other wearables of the test: all of them hand over their
+   * next gesture frame together, and only once fusion has taken every frame handed over before,
+   * so windows line up however the unpaced peripheral threads are scheduled. A wearable leaving
+   * also waits for fusion to catch up, so it leaves in the middle of any window still open.
+   */
+  private final class Wearable implements GestureTransport, GestureTransport.Listener {
+    private final SimulatedPeripheral[] mLives;
+    private volatile int mLife;
+    private volatile GestureTransport.Listener mListener;
+
+    Wearable(SimulatedPeripheral... lives) {
+      mLives = lives;
+    }
+
+    @Override
+    public void setListener(GestureTransport.Listener listener) {
+      mListener = listener;
+      for (SimulatedPeripheral life : mLives) {
+        life.setListener(this);
+      }
+    }
+
+    @Override
+    public void subscribe(Channel channel) {
+      for (SimulatedPeripheral life : mLives) {
+        life.subscribe(channel);
+      }
+    }
+
+    @Override
+    public void connect() {
+      mLives[0].connect();
+    }
+
+    @Override
+    public void disconnect() {
+      for (SimulatedPeripheral life : mLives) {
+        life.disconnect();
+      }
+    }
+
+    @Override
+    public void onConnected() {
+      if (mLife == 0) {
+        mListener.onConnected();
+      }
+    }
+
+    @Override
+    public void onNotification(Channel channel, byte[] value, long receivedNanos) {
+      if (channel == Channel.GESTURES) {
+        mLockstep.arriveAndAwaitAdvance();
+      }
+      mListener.onNotification(channel, value, receivedNanos);
+    }
+
+    @Override
+    public void onDisconnected() {
+      if (mLife + 1 < mLives.length) {
+        mLives[++mLife].connect();
+        return;
+      }
+      awaitFused();
+      mListener.onDisconnected();
+      mLockstep.arriveAndDeregister();
+    }
+  }
+
+  /** Gesture frames one second apart on the device clock, delivered as fast as possible. */
+  private static SimulatedPeripheral peripheral(Gesture... script) {
+    int[] ids = new int[script.length];
+    for (int i = 0; i < script.length; i++) {
+      ids[i] = script[i].ordinal();
+    }
+    return new SimulatedPeripheral.Builder()
+        // One raw frame every 1000 s: none before the script ends.
+        .setRawSamples(1, 1, 1e-3)
+        .setGestures(1, TimeUnit.SECONDS, ids)
+        .setDuration(script.length * 1000 + 500, TimeUnit.MILLISECONDS)
+        .setPaced(false)
+        .build();
+  }
+
+  /**
+   * A session for {@code devices} wearables. Its window is long enough that only votes and
+   * departures close windows, never a slow test thread.
+   */
+  private WearableSession.Builder session(int devices) {
+    mLockstep =
+        new Phaser(devices) {
+          @Override
+          protected boolean onAdvance(int phase, int registeredParties) {
+            awaitFused();
+            mReleased.addAndGet(registeredParties);
+            return registeredParties == 0;
+          }
+        };
+    return new WearableSession.Builder()
+        .setFusionWindow(5, TimeUnit.SECONDS)
+        .setThreadFactory(
+            runnable -> {
+              mFusionThread = new Thread(runnable, "fusion");
+              mFusionThread.setDaemon(true);
+              return mFusionThread;
+            });
+  }
+
+  /** Runs every wearable to the end and returns the fusion stage once its thread has stopped. */
+  private GestureFusion run(WearableSession.Builder builder, int expectedDecisions)
+      throws InterruptedException {
+    mSession =
+        builder.build(
+            (gestureId, sequence, deviceTimeMillis, confidence, receivedNanos) ->
+                mDecisions.add(Gesture.fromId(gestureId)));
+    mSession.start();
+    mSession.connect();
+    assertTrue("wearables did not finish", await(mLockstep::isTerminated));
+    assertTrue("fusion fell behind", await(() -> mSession.fusion().events() == mReleased.get()));
+    await(() -> mDecisions.size() >= expectedDecisions);
+    mSession.stop();
+    mFusionThread.join();
+    assertEquals(0, mSession.fusion().ignoredEvents());
+    return mSession.fusion();
+  }
+
+  // The event count is a rough snapshot from another thread; good enough to poll.
+  private void awaitFused() {
+    long released = mReleased.get();
+    await(() -> mSession.fusion().events() >= released);
+  }
+
+  private static boolean await(BooleanSupplier condition) {
+    long deadline = System.nanoTime() + TIMEOUT_NANOS;
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() - deadline > 0) {
+        return false;
+      }
+      Thread.yield();
+    }
+    return true;
+  }
+
+  // Every script starts idle, so fusion has seen every wearable connect before a window opens.
+
+  @Test
+  public void unanimousVotesAreFused() throws InterruptedException {
+    WearableSession.Builder builder = session(3);
+    for (int d = 0; d < 3; d++) {
+      builder.addDevice(
+          "wearable" + d,
+          new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, PALM_UP, IDLE)),
+          1f,
+          null);
+    }
+    GestureFusion fusion = run(builder, 4);
+
+    assertEquals(Arrays.asList(FIST_LEFT, IDLE, PALM_UP, IDLE), mDecisions);
+    assertEquals(15, fusion.events());
+    assertEquals(2, fusion.decisions());
+    assertEquals(2, fusion.unanimous());
+    assertEquals(0, fusion.conflicts());
+    assertEquals(0, fusion.timeouts());
+  }
+
+  @Test
+  public void conflictsEmitNothingAndMajoritiesWin() throws InterruptedException {
+    WearableSession.Builder builder = session(3);
+    builder.addDevice(
+        "a", new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, FIST_LEFT, IDLE)), 1f, null);
+    builder.addDevice(
+        "b", new Wearable(peripheral(IDLE, FIST_RIGHT, IDLE, FIST_LEFT, IDLE)), 1f, null);
+    builder.addDevice(
+        "c", new Wearable(peripheral(IDLE, FIST_UP, IDLE, FIST_RIGHT, IDLE)), 1f, null);
+    GestureFusion fusion = run(builder, 2);
+
+    assertEquals(Arrays.asList(FIST_LEFT, IDLE), mDecisions);
+    assertEquals(1, fusion.decisions());
+    assertEquals(0, fusion.unanimous());
+    assertEquals(1, fusion.conflicts());
+    assertEquals(0, fusion.timeouts());
+  }
+
+  @Test
+  public void minAgreementWeighsDevices() throws InterruptedException {
+    // Device a counts double, so two to two is a tie and three to one clears 0.7.
+    WearableSession.Builder builder = session(3).setMinAgreement(0.7f);
+    builder.addDevice(
+        "a",
+        new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, FIST_LEFT, IDLE, FIST_RIGHT, IDLE)),
+        2f,
+        null);
+    builder.addDevice(
+        "b",
+        new Wearable(peripheral(IDLE, FIST_RIGHT, IDLE, FIST_LEFT, IDLE, FIST_LEFT, IDLE)),
+        1f,
+        null);
+    builder.addDevice(
+        "c",
+        new Wearable(peripheral(IDLE, FIST_RIGHT, IDLE, FIST_RIGHT, IDLE, FIST_LEFT, IDLE)),
+        1f,
+        null);
+    GestureFusion fusion = run(builder, 2);
+
+    assertEquals(Arrays.asList(FIST_LEFT, IDLE), mDecisions);
+    assertEquals(1, fusion.decisions());
+    assertEquals(2, fusion.conflicts());
+  }
+
+  @Test
+  public void deviceLeavingMidWindowClosesIt() throws InterruptedException {
+    // b is idle while a gestures, then leaves: the window must not wait out its deadline.
+    WearableSession.Builder builder = session(2);
+    builder.addDevice(
+        "a", new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, PALM_UP, IDLE)), 1f, null);
+    builder.addDevice("b", new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, IDLE)), 1f, null);
+    GestureFusion fusion = run(builder, 4);
+
+    assertEquals(Arrays.asList(FIST_LEFT, IDLE, PALM_UP, IDLE), mDecisions);
+    assertEquals(2, fusion.decisions());
+    assertEquals(2, fusion.unanimous());
+    assertEquals(0, fusion.timeouts());
+  }
+
+  @Test
+  public void clockResetKeepsDevicesAligned() throws InterruptedException {
+    // b reboots after its third frame; its clock starts again from zero.
+    WearableSession.Builder builder = session(2);
+    builder.addDevice(
+        "a", new Wearable(peripheral(IDLE, FIST_LEFT, IDLE, PALM_UP, IDLE)), 1f, null);
+    builder.addDevice(
+        "b",
+        new Wearable(peripheral(IDLE, FIST_LEFT, IDLE), peripheral(PALM_UP, IDLE)),
+        1f,
+        null);
+    GestureFusion fusion = run(builder, 4);
+
+    assertEquals(Arrays.asList(FIST_LEFT, IDLE, PALM_UP, IDLE), mDecisions);
+    assertEquals(1, fusion.clockResets());
+    assertEquals(2, fusion.unanimous());
+    assertEquals(0, fusion.timeouts());
+  }
+}
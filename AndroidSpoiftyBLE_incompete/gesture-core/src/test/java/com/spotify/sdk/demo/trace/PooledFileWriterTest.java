@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PooledFileWriterTest {
+
+  private static final int BUFFER_BYTES = 1024;
+  private static final int RECORD_BYTES = 600;
+
+  @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  // Not started: the test takes and recycles batches in place of the writer thread.
+  private PooledFileWriter newWriter() {
+    File file = new File(mFolder.getRoot(), "a.bin");
+    return new PooledFileWriter(
+        "test-writer", file, ByteBuffer.allocate(0), BUFFER_BYTES, 2, TimeUnit.HOURS.toNanos(1));
+  }
+
+  // Each record takes more than half a buffer, so every record after the first needs a new one.
+  private static boolean append(PooledFileWriter writer) {
+    synchronized (writer) {
+      ByteBuffer out = writer.reserve(RECORD_BYTES);
+      if (out == null) {
+        return false;
+      }
+      out.put(new byte[RECORD_BYTES]);
+      return true;
+    }
+  }
+
+  private static void writeOneBatch(PooledFileWriter writer) throws InterruptedException {
+    ByteBuffer batch = writer.takeBatch();
+    writer.recycle(batch, batch.remaining());
+  }
+
+  @Test
+  public void everyTimeThePoolRunsDryIsCounted() throws Exception {
+    PooledFileWriter writer = newWriter();
+    assertTrue(append(writer));
+    assertTrue(append(writer));
+    assertFalse(append(writer));
+    assertFalse(append(writer));
+    assertEquals(1, writer.backpressureEvents());
+
+    // The recycled buffer becomes the current one; filling it runs the pool dry again.
+    writeOneBatch(writer);
+    assertTrue(append(writer));
+    assertFalse(append(writer));
+    assertEquals(2, writer.backpressureEvents());
+
+    writeOneBatch(writer);
+    writeOneBatch(writer);
+    assertTrue(append(writer));
+    assertTrue(append(writer));
+    assertFalse(append(writer));
+    assertEquals(3, writer.backpressureEvents());
+    assertEquals(3, writer.batches());
+  }
+
+  @Test
+  public void recordsLargerThanABufferAreRefusedWithoutStalling() {
+    PooledFileWriter writer = newWriter();
+    synchronized (writer) {
+      assertNull(writer.reserve(BUFFER_BYTES + 1));
+      ByteBuffer out = writer.reserve(BUFFER_BYTES);
+      assertNotNull(out);
+      assertSame(out, writer.reserve(BUFFER_BYTES));
+    }
+    assertEquals(0, writer.backpressureEvents());
+  }
+}
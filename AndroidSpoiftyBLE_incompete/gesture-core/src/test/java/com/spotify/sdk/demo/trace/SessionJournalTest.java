@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionJournalTest {
+
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  private static void close(SessionJournal journal) throws InterruptedException {
+    journal.close();
+    assertTrue(journal.awaitClosed(5, TimeUnit.SECONDS));
+    assertNull(journal.failure());
+  }
+
+  @Test
+  public void signedVarintsRoundTrip() throws IOException {
+    long[] values = {0, 1, -1, 63, -64, 64, -65, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * TraceFormat.MAX_VARINT_LENGTH);
+    for (long value : values) {
+      TraceFormat.putSignedVarint(buffer, value);
+    }
+    buffer.flip();
+    for (long value : values) {
+      assertEquals(value, TraceFormat.getSignedVarint(buffer));
+    }
+    assertFalse(buffer.hasRemaining());
+
+    // Zigzag keeps small negative deltas as short as positive ones.
+    buffer.clear();
+    TraceFormat.putSignedVarint(buffer, -64);
+    assertEquals(1, buffer.position());
+  }
+
+  @Test
+  public void recordsRoundTripWithDeltasInBothDirections() throws Exception {
+    File file = mFolder.newFile("a.journal");
+    SessionJournal journal = SessionJournal.start(file, 4096, 2, FLUSH_INTERVAL_NANOS);
+    long start = System.nanoTime();
+    journal.recordPlayerState(
+        start + 5, "spotify:track:1", "Song, \"Live\"", "Band", true, false, 2, 61_000, 240_000,
+        1f);
+    // Callbacks can arrive stamped slightly before the previous one.
+    journal.recordPlayerState(
+        start + 2, "spotify:track:1", "Song, \"Live\"", "Band", false, true, 1, 0, 240_000, 0.5f);
+    journal.recordPlayerContext(
+        start + TimeUnit.HOURS.toNanos(3), "spotify:album:2", "Album", null, "album");
+    close(journal);
+    assertEquals(3, journal.records());
+    assertEquals(file.length(), journal.bytesWritten());
+
+    try (SessionJournalReader reader = new SessionJournalReader(file)) {
+      assertTrue(reader.startNanos() - start <= 0);
+      JournalRecord record = new JournalRecord();
+      assertTrue(reader.next(record));
+      assertEquals(JournalRecord.Type.PLAYER_STATE, record.type);
+      assertEquals(start + 5, record.nanos);
+      assertEquals("spotify:track:1", record.trackUri);
+      assertEquals("Song, \"Live\"", record.trackName);
+      assertEquals("Band", record.artist);
+      assertTrue(record.paused);
+      assertFalse(record.shuffling);
+      assertEquals(2, record.repeatMode);
+      assertEquals(61_000, record.positionMs);
+      assertEquals(240_000, record.durationMs);
+      assertEquals(1f, record.playbackSpeed, 0f);
+
+      assertTrue(reader.next(record));
+      assertEquals(start + 2, record.nanos);
+      assertEquals("spotify:track:1", record.trackUri);
+      assertFalse(record.paused);
+      assertTrue(record.shuffling);
+      assertEquals(1, record.repeatMode);
+      assertEquals(0.5f, record.playbackSpeed, 0f);
+
+      assertTrue(reader.next(record));
+      assertEquals(JournalRecord.Type.PLAYER_CONTEXT, record.type);
+      assertEquals(start + TimeUnit.HOURS.toNanos(3), record.nanos);
+      assertEquals("spotify:album:2", record.contextUri);
+      assertEquals("Album", record.contextTitle);
+      assertNull(record.contextSubtitle);
+      assertEquals("album", record.contextType);
+
+      assertFalse(reader.next(record));
+      assertFalse(reader.isTruncated());
+    }
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() throws Exception {
+    File file = mFolder.newFile("interned.journal");
+    SessionJournal journal = SessionJournal.start(file, 4096, 2, FLUSH_INTERVAL_NANOS);
+    String name = "A track name long enough to dominate the record size";
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      journal.recordPlayerState(start + i, "uri", name, "artist", false, false, 0, i, 1, 1f);
+    }
+    close(journal);
+    long bytes = file.length() - JournalFormat.HEADER_LENGTH;
+    // Each record after the first is a few varints referring to the same strings.
+    assertTrue(bytes + " bytes", bytes < name.length() + 10 * 16);
+  }
+
+  @Test
+  public void truncatedTailEndsTheJournalAfterTheLastWholeRecord() throws Exception {
+    File file = mFolder.newFile("cut.journal");
+    SessionJournal journal = SessionJournal.start(file, 4096, 2, FLUSH_INTERVAL_NANOS);
+    long start = System.nanoTime();
+    journal.recordPlayerState(start, "uri-0", "name-0", "artist", false, false, 0, 0, 1, 1f);
+    journal.recordPlayerState(start + 1, "uri-1", "name-1", "artist", false, false, 0, 0, 1, 1f);
+    close(journal);
+    // Cut into the second record's float, after its strings were defined.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 2);
+    }
+
+    try (SessionJournalReader reader = new SessionJournalReader(file)) {
+      JournalRecord record = new JournalRecord();
+      assertTrue(reader.next(record));
+      assertEquals("uri-0", record.trackUri);
+      assertFalse(reader.next(record));
+      assertTrue(reader.isTruncated());
+      assertFalse(reader.next(record));
+    }
+  }
+
+  @Test
+  public void dictionaryResetKeepsLaterRecordsReadable() throws Exception {
+    File file = mFolder.newFile("reset.journal");
+    SessionJournal journal = SessionJournal.start(file, 64 * 1024, 8, FLUSH_INTERVAL_NANOS);
+    int total = SessionJournal.MAX_STRINGS;
+    long start = System.nanoTime();
+    for (int i = 0; i < total; i++) {
+      journal.recordPlayerState(
+          start + i, "uri-" + i, "name-" + i, "artist", false, false, 0, i, 1, 1f);
+    }
+    close(journal);
+    assertEquals(total, journal.records() + journal.droppedRecords());
+
+    long read = 0;
+    try (SessionJournalReader reader = new SessionJournalReader(file)) {
+      JournalRecord record = new JournalRecord();
+      while (reader.next(record)) {
+        int i = (int) (record.nanos - start);
+        assertEquals("uri-" + i, record.trackUri);
+        assertEquals("name-" + i, record.trackName);
+        assertEquals("artist", record.artist);
+        assertEquals(i, record.positionMs);
+        read++;
+      }
+      assertFalse(reader.isTruncated());
+    }
+    assertEquals(journal.records(), read);
+  }
+
+  @Test
+  public void longStringsAreClipped() throws Exception {
+    File file = mFolder.newFile("long.journal");
+    SessionJournal journal = SessionJournal.start(file, 4096, 2, FLUSH_INTERVAL_NANOS);
+    StringBuilder name = new StringBuilder();
+    while (name.length() < JournalFormat.MAX_STRING_CHARS - 1) {
+      name.append('a');
+    }
+    // A surrogate pair straddling the limit is dropped whole.
+    name.append("\ud83c\udfb5tail");
+    journal.recordPlayerContext(System.nanoTime(), "uri", name.toString(), null, null);
+    close(journal);
+
+    try (SessionJournalReader reader = new SessionJournalReader(file)) {
+      JournalRecord record = new JournalRecord();
+      assertTrue(reader.next(record));
+      assertEquals(name.substring(0, JournalFormat.MAX_STRING_CHARS - 1), record.contextTitle);
+    }
+  }
+
+  @Test
+  public void otherFilesAreRejected() throws Exception {
+    File file = mFolder.newFile("not.journal");
+    ByteBuffer header = ByteBuffer.allocate(JournalFormat.HEADER_LENGTH);
+    header.order(ByteOrder.LITTLE_ENDIAN).putInt(TraceFormat.MAGIC).putInt(TraceFormat.VERSION);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.write(header.array());
+    }
+    try {
+      new SessionJournalReader(file).close();
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Not a journal: bad magic", expected.getMessage());
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceRecorderTest {
+
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  private static byte[] payload(int i) {
+    byte[] value = new byte[1 + i % 20];
+    Arrays.fill(value, (byte) i);
+    return value;
+  }
+
+  @Test
+  public void recordsRoundTripThroughTheWriter() throws Exception {
+    File file = new File(mFolder.getRoot(), "sessions/a.trace");
+    TraceRecorder recorder = TraceRecorder.start(file, 1024, 4, FLUSH_INTERVAL_NANOS);
+    long start = System.nanoTime();
+    recorder.recordConnected(0, start);
+    recorder.recordNotification(
+        1, GestureTransport.Channel.GESTURES, new byte[] {1, 2, 3}, start + 5);
+    recorder.recordCommand(PlayerCommand.SEEK_RELATIVE, -15_000, start + 9);
+    recorder.recordDisconnected(255, start + 12);
+    recorder.close();
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+    assertNull(recorder.failure());
+    assertEquals(4, recorder.records());
+    assertEquals(file.length(), recorder.bytesWritten());
+
+    try (TraceReader reader = new TraceReader(file)) {
+      TraceRecord record = new TraceRecord();
+      assertTrue(reader.next(record));
+      assertEquals(TraceRecord.Type.CONNECTED, record.type);
+      assertEquals(0, record.source);
+      assertEquals(start, record.nanos);
+      assertTrue(reader.next(record));
+      assertEquals(TraceRecord.Type.NOTIFICATION, record.type);
+      assertEquals(start + 5, record.nanos);
+      assertEquals(1, record.source);
+      assertEquals(GestureTransport.Channel.GESTURES, record.channel);
+      assertArrayEquals(new byte[] {1, 2, 3}, Arrays.copyOf(record.value, record.length));
+      assertTrue(reader.next(record));
+      assertEquals(TraceRecord.Type.COMMAND, record.type);
+      assertEquals(PlayerCommand.SEEK_RELATIVE, record.command);
+      assertEquals(-15_000, record.argument);
+      assertTrue(reader.next(record));
+      assertEquals(TraceRecord.Type.DISCONNECTED, record.type);
+      assertEquals(255, record.source);
+      assertEquals(start + 12, record.nanos);
+      assertFalse(reader.next(record));
+      assertFalse(reader.isTruncated());
+    }
+  }
+
+  @Test
+  public void burstsSpanBuffersWithoutBlockingOrLosingOrder() throws Exception {
+    File file = mFolder.newFile("burst.trace");
+    TraceRecorder recorder = TraceRecorder.start(file, 1024, 2, FLUSH_INTERVAL_NANOS);
+    int total = 20_000;
+    long start = System.nanoTime();
+    for (int i = 0; i < total; i++) {
+      recorder.recordNotification(0, GestureTransport.Channel.RAW_SAMPLES, payload(i), start + i);
+    }
+    recorder.close();
+    assertTrue(recorder.awaitClosed(10, TimeUnit.SECONDS));
+    assertNull(recorder.failure());
+    assertEquals(total, recorder.records() + recorder.droppedRecords());
+    assertTrue(recorder.flushes() > 1);
+
+    // Whatever was not dropped is on disk, complete and in order.
+    long read = 0;
+    long lastNanos = Long.MIN_VALUE;
+    try (TraceReader reader = new TraceReader(file)) {
+      TraceRecord record = new TraceRecord();
+      while (reader.next(record)) {
+        int i = (int) (record.nanos - start);
+        assertTrue(record.nanos > lastNanos);
+        assertArrayEquals(payload(i), Arrays.copyOf(record.value, record.length));
+        lastNanos = record.nanos;
+        read++;
+      }
+      assertFalse(reader.isTruncated());
+    }
+    assertEquals(recorder.records(), read);
+  }
+
+  @Test
+  public void quietTraceReachesTheDiskAfterTheFlushInterval() throws Exception {
+    File file = mFolder.newFile("quiet.trace");
+    TraceRecorder recorder =
+        TraceRecorder.start(file, 1024, 2, TimeUnit.MILLISECONDS.toNanos(20));
+    recorder.recordConnected(0, System.nanoTime());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (recorder.flushes() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, recorder.flushes());
+    assertTrue(recorder.bytesWritten() > TraceFormat.HEADER_LENGTH);
+    recorder.close();
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void openErrorIsReportedInsteadOfThrown() throws Exception {
+    File notADirectory = mFolder.newFile("plain");
+    TraceRecorder recorder =
+        TraceRecorder.start(new File(notADirectory, "a.trace"), 1024, 2, FLUSH_INTERVAL_NANOS);
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+    assertNotNull(recorder.failure());
+    recorder.recordConnected(0, System.nanoTime());
+    assertEquals(0, recorder.records());
+    assertEquals(1, recorder.droppedRecords());
+  }
+
+  @Test
+  public void version1TracesReadAsSource0() throws Exception {
+    File file = mFolder.newFile("v1.trace");
+    ByteBuffer trace = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    trace.putInt(TraceFormat.MAGIC).putInt(1).putLong(0).putLong(1_000);
+    trace.put((byte) TraceFormat.TYPE_CONNECTED);
+    TraceFormat.putSignedVarint(trace, 5);
+    trace.put((byte) TraceFormat.TYPE_NOTIFICATION);
+    TraceFormat.putSignedVarint(trace, 2);
+    trace.put((byte) GestureTransport.Channel.GESTURES.ordinal());
+    TraceFormat.putVarint(trace, 2);
+    trace.put(new byte[] {7, 8});
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.write(trace.array(), 0, trace.position());
+    }
+
+    try (TraceReader reader = new TraceReader(file)) {
+      TraceRecord record = new TraceRecord();
+      record.source = 3;
+      assertTrue(reader.next(record));
+      assertEquals(TraceRecord.Type.CONNECTED, record.type);
+      assertEquals(0, record.source);
+      assertEquals(1_005, record.nanos);
+      record.source = 3;
+      assertTrue(reader.next(record));
+      assertEquals(0, record.source);
+      assertEquals(1_007, record.nanos);
+      assertArrayEquals(new byte[] {7, 8}, Arrays.copyOf(record.value, record.length));
+      assertFalse(reader.next(record));
+      assertFalse(reader.isTruncated());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sourceOutsideAByteIsRejected() throws Exception {
+    TraceRecorder recorder =
+        TraceRecorder.start(mFolder.newFile("source.trace"), 1024, 2, FLUSH_INTERVAL_NANOS);
+    try {
+      recorder.recordConnected(256, 0);
+    } finally {
+      recorder.close();
+    }
+  }
+
+  @Test
+  public void oversizedNotificationIsDropped() throws Exception {
+    TraceRecorder recorder =
+        TraceRecorder.start(mFolder.newFile("big.trace"), 1024, 2, FLUSH_INTERVAL_NANOS);
+    recorder.recordNotification(0, GestureTransport.Channel.GESTURES, new byte[1024], 0);
+    assertEquals(1, recorder.droppedRecords());
+    recorder.close();
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.sdk.demo.ble.GestureTransport;
+import com.spotify.sdk.demo.player.PlayerCommand;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceReplayerTest {
+
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  // Events of every device in the order the replay delivered them. The replay thread is the
+  // only writer; the test reads after it has finished.
+  private final List<String> mEvents = new ArrayList<>();
+
+  /** Logs the events of one device. */
+  private final class Log implements GestureTransport.Listener {
+    private final String mName;
+
+    Log(String name) {
+      mName = name;
+    }
+
+    @Override
+    public void onConnected() {
+      mEvents.add(mName + " connected");
+    }
+
+    @Override
+    public void onNotification(GestureTransport.Channel channel, byte[] value, long receivedNanos) {
+      mEvents.add(mName + " " + channel + " " + Arrays.toString(value) + " @" + receivedNanos);
+    }
+
+    @Override
+    public void onDisconnected() {
+      mEvents.add(mName + " disconnected");
+    }
+  }
+
+  private static void finish(TraceRecorder recorder) throws InterruptedException {
+    recorder.close();
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+    assertNull(recorder.failure());
+  }
+
+  private static void replay(TraceReplayer replayer) throws InterruptedException {
+    replayer.start();
+    assertTrue(replayer.awaitFinished(5, TimeUnit.SECONDS));
+    assertNull(replayer.failure());
+    assertFalse(replayer.isTruncated());
+  }
+
+  @Test
+  public void everyWearableIsReplayedToItsOwnLinkInRecordedOrder() throws Exception {
+    File file = mFolder.newFile("two.trace");
+    TraceRecorder recorder = TraceRecorder.start(file, 1024, 2, FLUSH_INTERVAL_NANOS);
+    TracingTransportListener left = new TracingTransportListener(0);
+    TracingTransportListener right = new TracingTransportListener(1);
+    left.setRecorder(recorder);
+    right.setRecorder(recorder);
+    left.onConnected();
+    right.onConnected();
+    left.onNotification(GestureTransport.Channel.GESTURES, new byte[] {1}, 100);
+    right.onNotification(GestureTransport.Channel.GESTURES, new byte[] {2}, 101);
+    right.onDisconnected();
+    left.onNotification(GestureTransport.Channel.GESTURES, new byte[] {3}, 150);
+    finish(recorder);
+
+    TraceReplayer replayer = new TraceReplayer(file, TraceReplayer.MAX_SPEED);
+    for (int source = 0; source < 2; source++) {
+      GestureTransport device = replayer.device(source);
+      device.setListener(new Log(source == 0 ? "left" : "right"));
+      device.subscribe(GestureTransport.Channel.GESTURES);
+    }
+    replay(replayer);
+
+    assertEquals(
+        Arrays.asList(
+            "left connected",
+            "right connected",
+            "left GESTURES [1] @100",
+            "right GESTURES [2] @101",
+            "right disconnected",
+            "left GESTURES [3] @150",
+            // Still connected when the trace ended.
+            "left disconnected"),
+        mEvents);
+    assertEquals(3, replayer.notifications());
+  }
+
+  @Test
+  public void recordsWithoutADeviceOrSubscriptionAreSkipped() throws Exception {
+    File file = mFolder.newFile("skipped.trace");
+    TraceRecorder recorder = TraceRecorder.start(file, 1024, 2, FLUSH_INTERVAL_NANOS);
+    // Recording started on live links, so there are no connection records.
+    recorder.recordNotification(0, GestureTransport.Channel.RAW_SAMPLES, new byte[] {9}, 10);
+    recorder.recordNotification(0, GestureTransport.Channel.GESTURES, new byte[] {1}, 20);
+    recorder.recordNotification(1, GestureTransport.Channel.GESTURES, new byte[] {2}, 30);
+    recorder.recordCommand(PlayerCommand.SKIP_NEXT, 0, 40);
+    finish(recorder);
+
+    TraceReplayer replayer = new TraceReplayer(file, TraceReplayer.MAX_SPEED);
+    GestureTransport device = replayer.device(0);
+    device.setListener(new Log("only"));
+    device.subscribe(GestureTransport.Channel.GESTURES);
+    List<PlayerCommand> commands = new ArrayList<>();
+    replayer.setCommandListener((command, argument, nanos) -> commands.add(command));
+    replay(replayer);
+
+    assertEquals(
+        Arrays.asList("only connected", "only GESTURES [1] @20", "only disconnected"), mEvents);
+    assertEquals(1, replayer.notifications());
+    assertEquals(2, replayer.skippedNotifications());
+    assertEquals(Arrays.asList(PlayerCommand.SKIP_NEXT), commands);
+  }
+
+  @Test
+  public void connectingAnyDeviceStartsTheWholeReplay() throws Exception {
+    File file = mFolder.newFile("start.trace");
+    TraceRecorder recorder = TraceRecorder.start(file, 1024, 2, FLUSH_INTERVAL_NANOS);
+    recorder.recordConnected(1, 5);
+    finish(recorder);
+
+    TraceReplayer replayer = new TraceReplayer(file, TraceReplayer.MAX_SPEED);
+    GestureTransport first = replayer.device(0);
+    replayer.device(1).setListener(new Log("second"));
+    first.connect();
+    assertTrue(replayer.awaitFinished(5, TimeUnit.SECONDS));
+    first.disconnect();
+    assertEquals(Arrays.asList("second connected", "second disconnected"), mEvents);
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.simulator;
+
+import com.spotify.sdk.demo.metrics.LatencyHistogram;
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.player.PlayerController;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand-in for the App Remote {@code PlayerApi} that answers each command after a random IPC
+ * latency, failing a configurable share of them, and keeps a minimal player state.
+ *
+ * <p>Calls return at once, as on the real App Remote. Each one is answered by a task on the
+ * executor given to {@link Builder#build}, which waits out the latency before updating the state
+ * and notifying the {@link Listener}. The executor must tolerate tasks that block for that long,
+ * so load tests use a virtual thread per task. Besides the IPC round trip, the fake records how
+ * late each answer came compared to the latency it drew. This is the scheduling delay, which
+ * grows when the executor's threads are saturated.
+ *
+ * <p>Thread safe.
+ */
+public final class FakeAppRemote implements PlayerController {
+
+  /**
+   * Notified on the executor's thread once a command has been answered, with the {@link
+   * System#nanoTime} at which it was issued.
+   */
+  public interface Listener {
+    void onCommandDone(PlayerCommand command, boolean success, long issuedNanos);
+  }
+
+  private static final int REPEAT_MODES = 3;
+
+  private final Executor mExecutor;
+  private final long mMinLatencyNanos;
+  private final long mMaxLatencyNanos;
+  private final double mFailureRate;
+  private volatile Listener mListener;
+
+  // Player state, guarded by this.
+  private boolean mPaused = true;
+  private boolean mShuffling;
+  private int mRepeatMode;
+  private long mPositionMs;
+  private long mTrack;
+  private String mUri;
+
+  private final AtomicLong mIssued = new AtomicLong();
+  private final AtomicLong mSucceeded = new AtomicLong();
+  private final AtomicLong mFailed = new AtomicLong();
+  private final AtomicInteger mInFlight = new AtomicInteger();
+  private final AtomicInteger mMaxInFlight = new AtomicInteger();
+  private final LatencyHistogram mIpcLatency = new LatencyHistogram();
+  private final LatencyHistogram mSchedulingDelay = new LatencyHistogram();
+
+  private FakeAppRemote(Builder builder, Executor executor) {
+    mExecutor = executor;
+    mMinLatencyNanos = builder.mMinLatencyNanos;
+    mMaxLatencyNanos = builder.mMaxLatencyNanos;
+    mFailureRate = builder.mFailureRate;
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public void skipNext() {
+    issue(PlayerCommand.SKIP_NEXT, 0, null);
+  }
+
+  @Override
+  public void skipPrevious() {
+    issue(PlayerCommand.SKIP_PREVIOUS, 0, null);
+  }
+
+  @Override
+  public void togglePlayPause() {
+    issue(PlayerCommand.PLAY_PAUSE, 0, null);
+  }
+
+  @Override
+  public void seekToRelativePosition(long milliseconds) {
+    issue(PlayerCommand.SEEK_RELATIVE, milliseconds, null);
+  }
+
+  @Override
+  public void toggleShuffle() {
+    issue(PlayerCommand.TOGGLE_SHUFFLE, 0, null);
+  }
+
+  @Override
+  public void toggleRepeat() {
+    issue(PlayerCommand.TOGGLE_REPEAT, 0, null);
+  }
+
+  /** Reported to the {@link Listener} as {@link PlayerCommand#NONE}, which no gesture issues. */
+  @Override
+  public void playUri(String uri) {
+    issue(PlayerCommand.NONE, 0, uri);
+  }
+
+  private void issue(PlayerCommand command, long argument, String uri) {
+    long issuedNanos = System.nanoTime();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long latencyNanos = mMinLatencyNanos;
+    if (mMaxLatencyNanos > mMinLatencyNanos) {
+      latencyNanos += random.nextLong(mMaxLatencyNanos - mMinLatencyNanos);
+    }
+    boolean success = random.nextDouble() >= mFailureRate;
+    long answerNanos = issuedNanos + latencyNanos;
+
+    mIssued.incrementAndGet();
+    int inFlight = mInFlight.incrementAndGet();
+    int max;
+    while (inFlight > (max = mMaxInFlight.get()) && !mMaxInFlight.compareAndSet(max, inFlight)) {
+      // Retry until the maximum covers this call.
+    }
+    try {
+      mExecutor.execute(() -> answer(command, argument, uri, issuedNanos, answerNanos, success));
+    } catch (RejectedExecutionException e) {
+      // A shut down executor is a dead service connection: the command fails right away.
+      finish(command, false, issuedNanos);
+    }
+  }
+
+  private void answer(
+      PlayerCommand command,
+      long argument,
+      String uri,
+      long issuedNanos,
+      long answerNanos,
+      boolean success) {
+    long remaining;
+    while ((remaining = answerNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+    mSchedulingDelay.record(System.nanoTime() - answerNanos);
+    if (success) {
+      apply(command, argument, uri);
+    }
+    finish(command, success, issuedNanos);
+  }
+
+  private synchronized void apply(PlayerCommand command, long argument, String uri) {
+    switch (command) {
+      case SKIP_NEXT:
+        mTrack++;
+        mPositionMs = 0;
+        break;
+      case SKIP_PREVIOUS:
+        mTrack = Math.max(0, mTrack - 1);
+        mPositionMs = 0;
+        break;
+      case PLAY_PAUSE:
+        mPaused = !mPaused;
+        break;
+      case SEEK_RELATIVE:
+        mPositionMs = Math.max(0, mPositionMs + argument);
+        break;
+      case TOGGLE_SHUFFLE:
+        mShuffling = !mShuffling;
+        break;
+      case TOGGLE_REPEAT:
+        mRepeatMode = (mRepeatMode + 1) % REPEAT_MODES;
+        break;
+      default:
+        mUri = uri;
+        mTrack = 0;
+        mPositionMs = 0;
+        mPaused = false;
+        break;
+    }
+  }
+
+  private void finish(PlayerCommand command, boolean success, long issuedNanos) {
+    mIpcLatency.record(System.nanoTime() - issuedNanos);
+    (success ? mSucceeded : mFailed).incrementAndGet();
+    mInFlight.decrementAndGet();
+    Listener listener = mListener;
+    if (listener != null) {
+      listener.onCommandDone(command, success, issuedNanos);
+    }
+  }
+
+  public synchronized boolean isPaused() {
+    return mPaused;
+  }
+
+  public synchronized boolean isShuffling() {
+    return mShuffling;
+  }
+
+  /** 0 off, 1 repeat all, 2 repeat one, as in the App Remote {@code Repeat} constants. */
+  public synchronized int repeatMode() {
+    return mRepeatMode;
+  }
+
+  public synchronized long positionMs() {
+    return mPositionMs;
+  }
+
+  /** Index of the current track in the playing context. */
+  public synchronized long track() {
+    return mTrack;
+  }
+
+  /** The last URI played, or null. */
+  public synchronized String uri() {
+    return mUri;
+  }
+
+  /** Commands received. */
+  public long issued() {
+    return mIssued.get();
+  }
+
+  /** Commands answered with success. */
+  public long succeeded() {
+    return mSucceeded.get();
+  }
+
+  /** Commands answered with an error, or rejected by the executor. */
+  public long failed() {
+    return mFailed.get();
+  }
+
+  /** Commands waiting for their answer. */
+  public int inFlight() {
+    return mInFlight.get();
+  }
+
+  /** Most commands ever waiting for their answer at once. */
+  public int maxInFlight() {
+    return mMaxInFlight.get();
+  }
+
+  /** Time from a call to its answer, in nanoseconds. */
+  public LatencyHistogram ipcLatency() {
+    return mIpcLatency;
+  }
+
+  /** How much later than its simulated latency each answer ran, in nanoseconds. */
+  public LatencyHistogram schedulingDelay() {
+    return mSchedulingDelay;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "FakeAppRemote{issued=%d, succeeded=%d, failed=%d, inFlight=%d, maxInFlight=%d}",
+        mIssued.get(),
+        mSucceeded.get(),
+        mFailed.get(),
+        mInFlight.get(),
+        mMaxInFlight.get());
+  }
+
+  /** Configures the simulated IPC. */
+  public static final class Builder {
+
+    private long mMinLatencyNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private long mMaxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(80);
+    private double mFailureRate;
+
+    /** Each answer comes after a uniform random time in [{@code min}, {@code max}). */
+    public Builder setLatency(long min, long max, TimeUnit unit) {
+      if (min < 0 || max < min) {
+        throw new IllegalArgumentException("Need 0 <= min <= max latency");
+      }
+      mMinLatencyNanos = unit.toNanos(min);
+      mMaxLatencyNanos = unit.toNanos(max);
+      return this;
+    }
+
+    /** Share of commands answered with an error. Default 0. */
+    public Builder setFailureRate(double failureRate) {
+      if (failureRate < 0 || failureRate > 1) {
+        throw new IllegalArgumentException("Need 0 <= failureRate <= 1");
+      }
+      mFailureRate = failureRate;
+      return this;
+    }
+
+    /** @param executor runs one blocking task per command until it is answered */
+    public FakeAppRemote build(Executor executor) {
+      if (executor == null) {
+        throw new IllegalArgumentException("executor must not be null");
+      }
+      return new FakeAppRemote(this, executor);
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.sdk.demo.simulator;
+
+import com.spotify.sdk.demo.ble.SimulatedPeripheral;
+import com.spotify.sdk.demo.gesture.Gesture;
+import com.spotify.sdk.demo.gesture.GestureCommandEngine;
+import com.spotify.sdk.demo.gesture.GestureSource;
+import com.spotify.sdk.demo.metrics.LatencyHistogram;
+import com.spotify.sdk.demo.metrics.PipelineLatency;
+import com.spotify.sdk.demo.player.CommandCoalescer;
+import com.spotify.sdk.demo.player.PlayerCommand;
+import com.spotify.sdk.demo.session.WearableSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs thousands of simulated runners at once, each with the full gesture control path of the
+ * app, and reports throughput, tail latency and contention.
+ *
+ * <p>A runner is one or more {@link SimulatedPeripheral}s feeding a {@link WearableSession},
+ * whose gestures go through a {@link GestureCommandEngine} and a {@link CommandCoalescer} to a
+ * {@link FakeAppRemote}. Peripherals, fusion loops and IPC answers all run on virtual threads,
+ * so the number of runners is bounded by memory and CPU rather than by platform threads. Each
+ * runner's wearables connect after a seeded random delay below the gesture period, so runners
+ * gesture out of phase, as real ones would, instead of all at once.
+ *
+ * <p>Contention shows up in three places: the queue wait between a notification and its pickup
+ * by the session's fusion thread, the scheduling delay of the fake IPC answers past their
+ * simulated latency, and frames dropped because a session's queue was full. All three stay flat
+ * while the carrier threads keep up. IPC calls in flight are sampled several times per gesture
+ * period and reported as the peak of each second.
+ *
+ * <pre>
+ * gradle -p gesture-simulator run --args="--runners 5000 --duration 30"
+ * </pre>
+ */
+public final class GestureLoadSimulator {
+
+  private static final double NANOS_PER_MILLI = 1e6;
+  private static final int SCRIPT_LENGTH = 32;
+  private static final int IN_FLIGHT_SAMPLES_PER_PERIOD = 8;
+
+  /** Command line settings, with their defaults. */
+  static final class Settings {
+    int mRunners = 1000;
+    int mWearables = 1;
+    long mDurationSeconds = 30;
+    long mGesturePeriodMillis = 500;
+    long mJitterMillis = 15;
+    double mLoss;
+    long mMinLatencyMillis = 20;
+    long mMaxLatencyMillis = 80;
+    double mFailureRate = 0.01;
+    long mSeed = 1;
+
+    static Settings parse(String[] args) {
+      Settings settings = new Settings();
+      for (int i = 0; i < args.length; i++) {
+        String name = args[i];
+        if (name.equals("--help")) {
+          throw new IllegalArgumentException("");
+        }
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + name);
+        }
+        String value = args[++i];
+        switch (name) {
+          case "--runners" -> settings.mRunners = Integer.parseInt(value);
+          case "--wearables" -> settings.mWearables = Integer.parseInt(value);
+          case "--duration" -> settings.mDurationSeconds = Long.parseLong(value);
+          case "--gesture-period" -> settings.mGesturePeriodMillis = Long.parseLong(value);
+          case "--jitter" -> settings.mJitterMillis = Long.parseLong(value);
+          case "--loss" -> settings.mLoss = Double.parseDouble(value);
+          case "--latency" -> {
+            String[] range = value.split(":", 2);
+            settings.mMinLatencyMillis = Long.parseLong(range[0]);
+            settings.mMaxLatencyMillis = Long.parseLong(range[range.length - 1]);
+          }
+          case "--failure-rate" -> settings.mFailureRate = Double.parseDouble(value);
+          case "--seed" -> settings.mSeed = Long.parseLong(value);
+          default -> throw new IllegalArgumentException("Unknown option " + name);
+        }
+      }
+      if (settings.mRunners <= 0 || settings.mWearables <= 0 || settings.mDurationSeconds <= 0) {
+        throw new IllegalArgumentException("runners, wearables and duration must be positive");
+      }
+      return settings;
+    }
+  }
+
+  /** One simulated runner: wearables, session, command path and fake player. */
+  private static final class Runner {
+    final List<SimulatedPeripheral> mWearables = new ArrayList<>();
+    final GestureSource mSource;
+    final WearableSession mSession;
+    final FakeAppRemote mRemote;
+    // Receive time of the gesture behind the command last issued; read by the IPC answers.
+    volatile long mCommandGestureNanos;
+
+    Runner(
+        int index,
+        Settings settings,
+        ThreadFactory threads,
+        ExecutorService ipc,
+        ScheduledExecutorService timer,
+        PipelineLatency latency,
+        Totals totals) {
+      mRemote =
+          new FakeAppRemote.Builder()
+              .setLatency(
+                  settings.mMinLatencyMillis, settings.mMaxLatencyMillis, TimeUnit.MILLISECONDS)
+              .setFailureRate(settings.mFailureRate)
+              .build(ipc);
+      CommandCoalescer coalescer =
+          new CommandCoalescer.Builder().setScheduler(timer).build(mRemote);
+      GestureCommandEngine engine = GestureCommandEngine.defaults().build(coalescer);
+      mRemote.setListener(
+          (command, success, issuedNanos) -> {
+            coalescer.onCommandSettled(command, issuedNanos);
+            if (success) {
+              // Merged commands are credited to the latest gesture that fed them.
+              latency.record(
+                  PipelineLatency.Stage.END_TO_END, System.nanoTime() - mCommandGestureNanos);
+            }
+          });
+
+      Random random = new Random(settings.mSeed * 31 + index);
+      int[] script = script(engine, random);
+      // The wearables of one runner share a phase so that fusion sees their gestures together.
+      long periodNanos = TimeUnit.MILLISECONDS.toNanos(settings.mGesturePeriodMillis);
+      long phaseNanos = (long) (random.nextDouble() * periodNanos);
+      WearableSession.Builder session =
+          new WearableSession.Builder().setThreadFactory(threads).setLatency(latency);
+      for (int w = 0; w < settings.mWearables; w++) {
+        SimulatedPeripheral wearable =
+            new SimulatedPeripheral.Builder()
+                .setGestures(settings.mGesturePeriodMillis, TimeUnit.MILLISECONDS, script)
+                .setJitter(settings.mJitterMillis, TimeUnit.MILLISECONDS)
+                .setLoss(settings.mLoss, 1)
+                .setConnectDelay(phaseNanos, TimeUnit.NANOSECONDS)
+                .setDuration(settings.mDurationSeconds, TimeUnit.SECONDS)
+                .setSeed(settings.mSeed + (long) index * settings.mWearables + w)
+                .setThreadFactory(threads)
+                .build();
+        mWearables.add(wearable);
+        session.addDevice("wearable" + w, wearable);
+      }
+      mSession =
+          session.build(
+              (gestureId, sequence, deviceTimeMillis, confidence, receivedNanos) -> {
+                long pickupNanos = System.nanoTime();
+                latency.record(PipelineLatency.Stage.QUEUE_WAIT, pickupNanos - receivedNanos);
+                totals.mGestures.incrementAndGet();
+                PlayerCommand command = engine.onGesture(gestureId, receivedNanos);
+                if (command != PlayerCommand.NONE) {
+                  mCommandGestureNanos = receivedNanos;
+                  totals.mCommands.incrementAndGet();
+                  latency.record(PipelineLatency.Stage.DISPATCH, System.nanoTime() - pickupNanos);
+                }
+              });
+      mSource = mSession;
+    }
+
+    void start() {
+      mSource.start();
+      mSession.connect();
+    }
+
+    boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      for (SimulatedPeripheral wearable : mWearables) {
+        if (!wearable.awaitFinished(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void stop() {
+      mSession.disconnect();
+      mSource.stop();
+    }
+
+    long droppedFrames() {
+      long dropped = 0;
+      for (WearableSession.Link link : mSession.links()) {
+        dropped += link.droppedFrames();
+      }
+      return dropped;
+    }
+
+    /** Alternates bound gestures with idle, as a runner's hand comes back to rest. */
+    private static int[] script(GestureCommandEngine engine, Random random) {
+      List<Gesture> bound = new ArrayList<>();
+      for (Gesture gesture : Gesture.values()) {
+        if (gesture != Gesture.IDLE && engine.commandFor(gesture) != PlayerCommand.NONE) {
+          bound.add(gesture);
+        }
+      }
+      int[] script = new int[SCRIPT_LENGTH];
+      for (int i = 0; i < script.length; i++) {
+        script[i] =
+            i % 2 == 0 ? bound.get(random.nextInt(bound.size())).ordinal() : Gesture.IDLE.ordinal();
+      }
+      return script;
+    }
+  }
+
+  /** Counters shared by every runner. */
+  private static final class Totals {
+    final AtomicLong mGestures = new AtomicLong();
+    final AtomicLong mCommands = new AtomicLong();
+  }
+
+  private GestureLoadSimulator() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    Settings settings;
+    try {
+      settings = Settings.parse(args);
+    } catch (IllegalArgumentException e) {
+      if (!e.getMessage().isEmpty()) {
+        System.err.println(e.getMessage());
+      }
+      System.err.println(
+          "Usage: GestureLoadSimulator [--runners N] [--wearables N] [--duration SECONDS]"
+              + " [--gesture-period MS] [--jitter MS] [--loss P] [--latency MIN:MAX_MS]"
+              + " [--failure-rate P] [--seed N]");
+      System.exit(2);
+      return;
+    }
+    run(settings);
+  }
+
+  static void run(Settings settings) throws InterruptedException {
+    ThreadFactory threads = Thread.ofVirtual().name("runner-", 0).factory();
+    PipelineLatency latency = new PipelineLatency();
+    Totals totals = new Totals();
+    List<Runner> runners = new ArrayList<>(settings.mRunners);
+
+    // Gives up on commands the fake player leaves unanswered, as the app's timer does.
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    try (ExecutorService ipc = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < settings.mRunners; i++) {
+        runners.add(new Runner(i, settings, threads, ipc, timer, latency, totals));
+      }
+      System.out.printf(
+          Locale.US,
+          "%d runners with %d wearable(s) each for %d s, a gesture every %d ms, IPC %d-%d ms,"
+              + " %.1f%% failures, on %d cores%n",
+          settings.mRunners,
+          settings.mWearables,
+          settings.mDurationSeconds,
+          settings.mGesturePeriodMillis,
+          settings.mMinLatencyMillis,
+          settings.mMaxLatencyMillis,
+          settings.mFailureRate * 100,
+          Runtime.getRuntime().availableProcessors());
+
+      long samplePeriodNanos =
+          Math.max(
+              1,
+              TimeUnit.MILLISECONDS.toNanos(settings.mGesturePeriodMillis)
+                  / IN_FLIGHT_SAMPLES_PER_PERIOD);
+      long startNanos = System.nanoTime();
+      for (Runner runner : runners) {
+        runner.start();
+      }
+      long lastGestures = 0;
+      long lastCommands = 0;
+      for (long second = 1; second <= settings.mDurationSeconds; second++) {
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(second);
+        int maxInFlight = 0;
+        while (true) {
+          maxInFlight = Math.max(maxInFlight, inFlight(runners));
+          long sleepNanos = Math.min(samplePeriodNanos, endNanos - System.nanoTime());
+          if (sleepNanos <= 0) {
+            break;
+          }
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+        long gestures = totals.mGestures.get();
+        long commands = totals.mCommands.get();
+        System.out.printf(
+            Locale.US,
+            "%4d s  gestures/s %8d  commands/s %8d  ipc in flight max %6d%n",
+            second,
+            gestures - lastGestures,
+            commands - lastCommands,
+            maxInFlight);
+        lastGestures = gestures;
+        lastCommands = commands;
+      }
+      for (Runner runner : runners) {
+        if (!runner.awaitFinished(5, TimeUnit.SECONDS)) {
+          System.out.println("A wearable did not finish in time; stopping it");
+        }
+        runner.stop();
+      }
+      double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      // Let the IPC answers still in flight land before reading the counters.
+      ipc.shutdown();
+      ipc.awaitTermination(1, TimeUnit.MINUTES);
+      report(settings, runners, latency, totals, elapsedSeconds);
+    } finally {
+      timer.shutdownNow();
+    }
+  }
+
+  private static int inFlight(List<Runner> runners) {
+    int inFlight = 0;
+    for (Runner runner : runners) {
+      inFlight += runner.mRemote.inFlight();
+    }
+    return inFlight;
+  }
+
+  private static void report(
+      Settings settings,
+      List<Runner> runners,
+      PipelineLatency latency,
+      Totals totals,
+      double elapsedSeconds) {
+    LatencyHistogram schedulingDelay = new LatencyHistogram();
+    long issued = 0;
+    long succeeded = 0;
+    long failed = 0;
+    long dropped = 0;
+    int maxInFlight = 0;
+    for (Runner runner : runners) {
+      latency.histogram(PipelineLatency.Stage.IPC).add(runner.mRemote.ipcLatency());
+      schedulingDelay.add(runner.mRemote.schedulingDelay());
+      issued += runner.mRemote.issued();
+      succeeded += runner.mRemote.succeeded();
+      failed += runner.mRemote.failed();
+      dropped += runner.droppedFrames();
+      maxInFlight = Math.max(maxInFlight, runner.mRemote.maxInFlight());
+    }
+
+    System.out.println();
+    System.out.printf(
+        Locale.US,
+        "throughput  gestures %.0f/s, commands %.0f/s, IPC calls %.0f/s over %.1f s%n",
+        totals.mGestures.get() / elapsedSeconds,
+        totals.mCommands.get() / elapsedSeconds,
+        issued / elapsedSeconds,
+        elapsedSeconds);
+    System.out.printf(
+        Locale.US,
+        "commands    %d from gestures, %d reached the player (%d merged or cancelled),"
+            + " %d ok, %d failed, at most %d in flight per runner%n",
+        totals.mCommands.get(),
+        issued,
+        totals.mCommands.get() - issued,
+        succeeded,
+        failed,
+        maxInFlight);
+    System.out.printf(
+        Locale.US,
+        "contention  scheduling delay p50 %.2f ms, p99 %.2f ms, max %.2f ms;"
+            + " %d frames dropped on full queues%n",
+        schedulingDelay.valueAtPercentile(50) / NANOS_PER_MILLI,
+        schedulingDelay.valueAtPercentile(99) / NANOS_PER_MILLI,
+        schedulingDelay.max() / NANOS_PER_MILLI,
+        dropped);
+    System.out.println();
+    System.out.println(latency.summary());
+    if (settings.mRunners > 0 && totals.mGestures.get() == 0) {
+      System.out.println("No gestures were handled; is the duration shorter than the period?");
+    }
+  }
+}
@@ -20,9 +20,33 @@
 #define ANALOG_IN_PIN_UP A1
 
 //BLE
+// 1: send 9-byte binary gesture frames, 0: send the gesture label as a string (legacy)
+#define USE_BINARY_FRAMES 1
+#define FRAME_VERSION_1 0x01
+#define GESTURE_IDLE 10
+// 1: append the whole output tensor to binary frames so the phone can smooth it (version 3,
+// 19 bytes, fits the default 20 byte notification payload)
+#define USE_PROBABILITY_FRAMES 1
+#define FRAME_VERSION_3 0x03
+
+// 1: also stream the model's input features on a second characteristic
+#define STREAM_RAW_SAMPLES 1
+#define FRAME_RAW_SAMPLES 0x02
+#define NUM_FEATURES 8
+// 6 byte header + 14 samples * 8 features * int16 = 230 bytes, fits one notification at MTU 247
+#define RAW_SAMPLES_PER_FRAME 14
+#define RAW_FRAME_LENGTH (6 + RAW_SAMPLES_PER_FRAME * NUM_FEATURES * 2)
+#define RAW_FEATURE_ONE 16384.0
+
 BLEService gestureEstimateService("66df5109-edde-4f8a-a5e1-02e02a69cbd5");
-BLEStringCharacteristic gesturePred("741c12b9-e13c-4992-8a5e-fce46dec0bff", BLERead | BLENotify, 15);
+BLECharacteristic gesturePred("741c12b9-e13c-4992-8a5e-fce46dec0bff", BLERead | BLENotify, 20);
+BLECharacteristic rawSamples("741c12ba-e13c-4992-8a5e-fce46dec0bff", BLENotify, RAW_FRAME_LENGTH);
 bool ifIdle = true;
+uint16_t frameSequence = 0;
+
+uint8_t rawFrame[RAW_FRAME_LENGTH];
+uint8_t rawFrameCount = 0;
+uint32_t rawSampleIndex = 0;
 
 // EMG
 EMGFilters myFilter;
@@ -70,6 +94,77 @@ const char* GESTURES[] = {
 // #define NUM_GESTURES (sizeof(GESTURES) / sizeof(GESTURES[0]))
 #define NUM_GESTURES 10
 
+// Layout: version, gesture id, uint16 sequence, uint32 millis(), uint8 confidence (little endian),
+// then for version 3 one uint8 probability per gesture; probabilities is null for idle
+void sendGesture(int gestureId, float confidence, const float* probabilities) {
+#if USE_BINARY_FRAMES
+  uint8_t frame[9 + NUM_GESTURES];
+  size_t length = 9;
+  unsigned long now = millis();
+  frame[0] = FRAME_VERSION_1;
+  frame[1] = (uint8_t) gestureId;
+  frame[2] = (uint8_t) (frameSequence & 0xff);
+  frame[3] = (uint8_t) (frameSequence >> 8);
+  frame[4] = (uint8_t) (now & 0xff);
+  frame[5] = (uint8_t) ((now >> 8) & 0xff);
+  frame[6] = (uint8_t) ((now >> 16) & 0xff);
+  frame[7] = (uint8_t) ((now >> 24) & 0xff);
+  frame[8] = (uint8_t) constrain(confidence * 255.0, 0, 255);
+#if USE_PROBABILITY_FRAMES
+  frame[0] = FRAME_VERSION_3;
+  for (int i = 0; i < NUM_GESTURES; i++) {
+    frame[9 + i] = probabilities ? (uint8_t) constrain(probabilities[i] * 255.0, 0, 255) : 0;
+  }
+  length += NUM_GESTURES;
+#endif
+  frameSequence++;
+  gesturePred.writeValue(frame, length);
+#else
+  gesturePred.writeValue(gestureId == GESTURE_IDLE ? "Idle" : GESTURES[gestureId]);
+#endif
+}
+
+// Normalizes the sensor readings into the model's input features, as ModelTraining.ipynb does.
+// The EMG energies use integer division, which is what model_quant.h has always been fed;
+// dividing in float would need the model to be retrained first.
+void fillFeatures(float* features, int eD, int eU, float aX, float aY, float aZ, float gX, float gY, float gZ) {
+  features[0] = eD / 500000;
+  features[1] = eU / 500000;
+  features[2] = (aX + 4.0) / 8.0;
+  features[3] = (aY + 4.0) / 8.0;
+  features[4] = (aZ + 4.0) / 8.0;
+  features[5] = (gX + 2000.0) / 4000.0;
+  features[6] = (gY + 2000.0) / 4000.0;
+  features[7] = (gZ + 2000.0) / 4000.0;
+}
+
+// Layout: type, sample count, uint32 index of the first sample, then int16 features (little endian)
+void streamSample(const float* features) {
+#if STREAM_RAW_SAMPLES
+  if (rawFrameCount == 0) {
+    rawFrame[0] = FRAME_RAW_SAMPLES;
+    rawFrame[2] = (uint8_t) (rawSampleIndex & 0xff);
+    rawFrame[3] = (uint8_t) ((rawSampleIndex >> 8) & 0xff);
+    rawFrame[4] = (uint8_t) ((rawSampleIndex >> 16) & 0xff);
+    rawFrame[5] = (uint8_t) ((rawSampleIndex >> 24) & 0xff);
+  }
+  uint8_t* p = rawFrame + 6 + rawFrameCount * NUM_FEATURES * 2;
+  for (int i = 0; i < NUM_FEATURES; i++) {
+    int16_t fixed = (int16_t) constrain(lround(features[i] * RAW_FEATURE_ONE), -32768, 32767);
+    p[2 * i] = (uint8_t) (fixed & 0xff);
+    p[2 * i + 1] = (uint8_t) ((fixed >> 8) & 0xff);
+  }
+  rawSampleIndex++;
+  if (++rawFrameCount == RAW_SAMPLES_PER_FRAME) {
+    rawFrame[1] = rawFrameCount;
+    if (rawSamples.subscribed()) {
+      rawSamples.writeValue(rawFrame, RAW_FRAME_LENGTH);
+    }
+    rawFrameCount = 0;
+  }
+#endif
+}
+
 void setup() {
   Serial.begin(9600);
   while (!Serial);
@@ -88,6 +183,9 @@ void setup() {
   BLE.setLocalName("GestureControlForRunners");
   BLE.setAdvertisedService(gestureEstimateService);
   gestureEstimateService.addCharacteristic(gesturePred);
+#if STREAM_RAW_SAMPLES
+  gestureEstimateService.addCharacteristic(rawSamples);
+#endif
   BLE.addService(gestureEstimateService);
 
   BLE.advertise();
@@ -142,6 +240,14 @@ void loop() {
       eD = (eD > 0) ? eD : 0;
       eU = (eU > 0) ? eU : 0;
 
+#if STREAM_RAW_SAMPLES
+      float features[NUM_FEATURES];
+      IMU.readAcceleration(aX, aY, aZ);
+      IMU.readGyroscope(gX, gY, gZ);
+      fillFeatures(features, eD, eU, aX, aY, aZ, gX, gY, gZ);
+      streamSample(features);
+#endif
+
       // check if it's above the threshold
       if ((eD >= emgThreshold) || (eU >= emgThreshold)) {
         samplesRead = 0;
@@ -149,7 +255,7 @@ void loop() {
       }
 
       if (!ifIdle) {
-        gesturePred.writeValue("Idle");
+        sendGesture(GESTURE_IDLE, 1.0, nullptr);
         ifIdle = true;
       }
       delay(1);
@@ -180,14 +286,9 @@ void loop() {
 
         // normalize the IMU data between 0 to 1 and store in the model's
         // input tensor
-        tflInputTensor->data.f[samplesRead * 8 + 0] = eD / 500000;
-        tflInputTensor->data.f[samplesRead * 8 + 1] = eU / 500000;
-        tflInputTensor->data.f[samplesRead * 8 + 2] = (aX + 4.0) / 8.0;
-        tflInputTensor->data.f[samplesRead * 8 + 3] = (aY + 4.0) / 8.0;
-        tflInputTensor->data.f[samplesRead * 8 + 4] = (aZ + 4.0) / 8.0;
-        tflInputTensor->data.f[samplesRead * 8 + 5] = (gX + 2000.0) / 4000.0;
-        tflInputTensor->data.f[samplesRead * 8 + 6] = (gY + 2000.0) / 4000.0;
-        tflInputTensor->data.f[samplesRead * 8 + 7] = (gZ + 2000.0) / 4000.0;
+        float* features = tflInputTensor->data.f + samplesRead * NUM_FEATURES;
+        fillFeatures(features, eD, eU, aX, aY, aZ, gX, gY, gZ);
+        streamSample(features);
 
         samplesRead++;
 
@@ -226,7 +327,7 @@ void loop() {
 
           // send data to BLE
           ifIdle = false;
-          gesturePred.writeValue(GESTURES[max_prob_gesture]);
+          sendGesture(max_prob_gesture, max_prob, tflOutputTensor->data.f);
         }
       }
     }
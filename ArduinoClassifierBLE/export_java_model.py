@@ -0,0 +1,225 @@
+#!/usr/bin/env python3
+# Copyright (c) 2018 Spotify AB
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+"""Converts the quantized TFLite model in model_quant.h into the compact
+little-endian blob read by com.spotify.sdk.demo.ml.QuantizedModel.
+
+Only the standard library is used: the flatbuffer is walked by hand so the
+exact weights flashed to the board end up on the phone.
+
+Usage: export_java_model.py [model_quant.h] [gesture_cnn.bin]
+"""
+
+import os
+import re
+import struct
+import sys
+
+MAGIC = 0x314D4347  # "GCM1"
+
+LAYER_CHANNEL_MUL = 1
+LAYER_CHANNEL_ADD = 2
+LAYER_CONV1D = 3
+LAYER_MAXPOOL1D = 4
+LAYER_DENSE = 5
+
+OP_ADD = 0
+OP_CONV_2D = 3
+OP_DEQUANTIZE = 6
+OP_FULLY_CONNECTED = 9
+OP_MAX_POOL_2D = 17
+OP_MUL = 18
+OP_RESHAPE = 22
+OP_SOFTMAX = 25
+OP_SQUEEZE = 43
+OP_EXPAND_DIMS = 70
+OP_QUANTIZE = 114
+
+ACTIVATION_NONE = 0
+ACTIVATION_RELU = 1
+PADDING_SAME = 0
+
+
+class Table(object):
+  def __init__(self, data, pos):
+    self.data = data
+    self.pos = pos
+    self.vtable = pos - struct.unpack_from('<i', data, pos)[0]
+    self.vtable_len = struct.unpack_from('<H', data, self.vtable)[0]
+
+  def _offset(self, field):
+    if 4 + 2 * field >= self.vtable_len:
+      return 0
+    return struct.unpack_from('<H', self.data, self.vtable + 4 + 2 * field)[0]
+
+  def scalar(self, field, fmt, default=0):
+    o = self._offset(field)
+    return struct.unpack_from('<' + fmt, self.data, self.pos + o)[0] if o else default
+
+  def table(self, field):
+    o = self._offset(field)
+    if not o:
+      return None
+    p = self.pos + o
+    return Table(self.data, p + struct.unpack_from('<I', self.data, p)[0])
+
+  def _vector(self, field):
+    o = self._offset(field)
+    if not o:
+      return 0, 0
+    p = self.pos + o
+    p += struct.unpack_from('<I', self.data, p)[0]
+    return p + 4, struct.unpack_from('<I', self.data, p)[0]
+
+  def tables(self, field):
+    p, n = self._vector(field)
+    return [Table(self.data, p + 4 * i + struct.unpack_from('<I', self.data, p + 4 * i)[0])
+            for i in range(n)]
+
+  def scalars(self, field, fmt):
+    p, n = self._vector(field)
+    size = struct.calcsize(fmt)
+    return [struct.unpack_from('<' + fmt, self.data, p + i * size)[0] for i in range(n)]
+
+  def raw(self, field):
+    p, n = self._vector(field)
+    return self.data[p:p + n]
+
+
+class Graph(object):
+  def __init__(self, data):
+    model = Table(data, struct.unpack_from('<I', data, 0)[0])
+    self.opcodes = [max(c.scalar(0, 'b'), c.scalar(3, 'i')) for c in model.tables(1)]
+    self.buffers = model.tables(4)
+    subgraph = model.tables(2)[0]
+    self.tensors = subgraph.tables(0)
+    self.operators = subgraph.tables(3)
+
+  def shape(self, t):
+    return self.tensors[t].scalars(0, 'i')
+
+  def quant(self, t):
+    q = self.tensors[t].table(4)
+    return q.scalars(2, 'f'), q.scalars(3, 'q')
+
+  def data(self, t):
+    return self.buffers[self.tensors[t].scalar(2, 'I')].raw(0)
+
+
+def activation_range(activation, scale, zero_point):
+  if activation == ACTIVATION_NONE:
+    return -128, 127
+  if activation == ACTIVATION_RELU:
+    return max(-128, zero_point), 127
+  raise ValueError('unsupported fused activation %d' % activation)
+
+
+def export(data):
+  graph = Graph(data)
+  out = []
+  header = None
+  softmax_beta = None
+
+  def quant_pair(t):
+    scales, zero_points = graph.quant(t)
+    return struct.pack('<fi', scales[0], zero_points[0])
+
+  for op in graph.operators:
+    code = graph.opcodes[op.scalar(0, 'I')]
+    inputs = op.scalars(1, 'i')
+    outputs = op.scalars(2, 'i')
+    if code == OP_QUANTIZE:
+      shape = graph.shape(outputs[0])
+      scales, zero_points = graph.quant(outputs[0])
+      header = struct.pack('<iifi', shape[-2], shape[-1], scales[0], zero_points[0])
+    elif code in (OP_MUL, OP_ADD):
+      options = op.table(4)
+      if options and options.scalar(0, 'b') != ACTIVATION_NONE:
+        raise ValueError('fused activations on MUL/ADD are not supported')
+      channels = graph.shape(inputs[1])[0]
+      kind = LAYER_CHANNEL_MUL if code == OP_MUL else LAYER_CHANNEL_ADD
+      out.append(struct.pack('<ii', kind, channels) + quant_pair(inputs[0]) + quant_pair(inputs[1])
+                 + quant_pair(outputs[0]) + graph.data(inputs[1]))
+    elif code == OP_CONV_2D:
+      options = op.table(4)
+      if options.scalar(0, 'b') != PADDING_SAME or options.scalar(1, 'i') != 1:
+        raise ValueError('only stride 1 SAME convolutions are supported')
+      filters, _, kernel, in_channels = graph.shape(inputs[1])
+      weight_scales, _ = graph.quant(inputs[1])
+      out_scales, out_zero_points = graph.quant(outputs[0])
+      act_min, act_max = activation_range(options.scalar(3, 'b'), out_scales[0], out_zero_points[0])
+      out.append(struct.pack('<iiii', LAYER_CONV1D, filters, kernel, in_channels)
+                 + quant_pair(inputs[0]) + quant_pair(outputs[0]) + struct.pack('<ii', act_min, act_max)
+                 + struct.pack('<%df' % filters, *weight_scales)
+                 + graph.data(inputs[1]) + graph.data(inputs[2]))
+    elif code == OP_MAX_POOL_2D:
+      options = op.table(4)
+      # Conv1D is lowered to NHWC with time on the H axis.
+      stride, size = options.scalar(2, 'i'), options.scalar(4, 'i')
+      if stride != size:
+        raise ValueError('only non-overlapping pooling is supported')
+      out.append(struct.pack('<ii', LAYER_MAXPOOL1D, size))
+    elif code == OP_FULLY_CONNECTED:
+      options = op.table(4)
+      units, in_units = graph.shape(inputs[1])
+      weight_scales, _ = graph.quant(inputs[1])
+      if len(weight_scales) == 1:
+        weight_scales = weight_scales * units
+      out_scales, out_zero_points = graph.quant(outputs[0])
+      act_min, act_max = activation_range(options.scalar(0, 'b'), out_scales[0], out_zero_points[0])
+      out.append(struct.pack('<iii', LAYER_DENSE, units, in_units)
+                 + quant_pair(inputs[0]) + quant_pair(outputs[0]) + struct.pack('<ii', act_min, act_max)
+                 + struct.pack('<%df' % units, *weight_scales)
+                 + graph.data(inputs[1]) + graph.data(inputs[2]))
+    elif code == OP_SOFTMAX:
+      options = op.table(4)
+      softmax_beta = options.scalar(0, 'f', 1.0) if options else 1.0
+    elif code in (OP_RESHAPE, OP_EXPAND_DIMS, OP_SQUEEZE, OP_DEQUANTIZE):
+      pass
+    else:
+      raise ValueError('unsupported builtin operator %d' % code)
+
+  if header is None or softmax_beta is None:
+    raise ValueError('expected QUANTIZE input and SOFTMAX output')
+  return (struct.pack('<ii', MAGIC, len(out)) + header + struct.pack('<f', softmax_beta)
+          + b''.join(out))
+
+
+def read_model(path):
+  """The flatbuffer bytes of the C array in a model_quant.h style header."""
+  with open(path) as f:
+    array = f.read().split('{', 1)[1].split('}', 1)[0]
+  return bytes(int(b, 16) for b in re.findall(r'0x([0-9a-fA-F]{2})', array))
+
+
+def main(argv):
+  here = os.path.dirname(os.path.abspath(__file__))
+  source = argv[1] if len(argv) > 1 else os.path.join(here, 'model_quant.h')
+  target = argv[2] if len(argv) > 2 else os.path.join(
+      here, '..', 'AndroidSpoiftyBLE_incompete', 'app-remote-sample', 'src', 'main', 'assets',
+      'gesture_cnn.bin')
+  blob = export(read_model(source))
+  os.makedirs(os.path.dirname(target), exist_ok=True)
+  with open(target, 'wb') as f:
+    f.write(blob)
+  print('wrote %d bytes to %s' % (len(blob), os.path.normpath(target)))
+
+
+if __name__ == '__main__':
+  main(sys.argv)
@@ -0,0 +1,460 @@
+#!/usr/bin/env python3
+# Copyright (c) 2018 Spotify AB
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+"""Writes int8 activations of the gesture CNN for GestureClassifierConsistencyTest.
+
+Seeded windows are run through the TFLite model in model_quant.h and the output of every int8
+operator is recorded. With a TFLite interpreter installed (ai_edge_litert, tflite_runtime or
+tensorflow) its reference kernels produce the vectors. --engine=python instead uses the integer
+port of those kernels below, which walks the same operator graph with only the standard library.
+
+The checked-in gesture_cnn_reference.bin was written with --engine=python, so the Java test only
+shows that the Java and Python ports agree. Rerun with --engine=tflite where an interpreter is
+available to check the Java port against TFLite itself.
+
+Blob layout, little-endian:
+
+  int32 magic "GCR1", int32 caseCount, int32 steps, int32 channels, int32 recordCount
+  recordCount x (int32 builtin operator, int32 size)
+  caseCount x (float32 input[steps * channels], recordCount x int8 output[size])
+
+Usage: export_reference_vectors.py [--engine=auto|tflite|python] [model_quant.h] [out.bin]
+"""
+
+import math
+import os
+import random
+import struct
+import sys
+
+from export_java_model import (ACTIVATION_NONE, ACTIVATION_RELU, Graph, OP_ADD, OP_CONV_2D,
+                               OP_DEQUANTIZE, OP_EXPAND_DIMS, OP_FULLY_CONNECTED, OP_MAX_POOL_2D,
+                               OP_MUL, OP_QUANTIZE, OP_RESHAPE, OP_SOFTMAX, OP_SQUEEZE,
+                               read_model)
+
+MAGIC = 0x31524347  # "GCR1"
+SEED = 20181018
+CASES = 16
+PASS_THROUGH = (OP_RESHAPE, OP_EXPAND_DIMS, OP_SQUEEZE)
+PADDING_SAME = 0
+INT32_MIN = -(1 << 31)
+INT32_MAX = (1 << 31) - 1
+
+
+def windows(steps, channels):
+  """Seeded windows shaped like the firmware's normalised features, plus two saturating ones."""
+  rng = random.Random(SEED)
+  yield [0.0] * (steps * channels)
+  yield [1.0] * (steps * channels)
+  for _ in range(CASES - 2):
+    base = [rng.uniform(0.0, 0.8) for _ in range(channels)]
+    amplitude = rng.uniform(0.01, 0.3)
+    yield [f32(base[c] + rng.gauss(0.0, amplitude)) for _ in range(steps) for c in range(channels)]
+
+
+def recorded_ops(graph):
+  """(operator, output tensor) of every operator with an int8 output worth checking."""
+  ops = []
+  for op in graph.operators:
+    code = graph.opcodes[op.scalar(0, 'I')]
+    if code not in PASS_THROUGH and code != OP_DEQUANTIZE:
+      ops.append((code, op.scalars(2, 'i')[0]))
+  return ops
+
+
+# Integer helpers, after quantization_util.cc, common.h and gemmlowp's fixedpoint.h.
+
+def f32(value):
+  return struct.unpack('<f', struct.pack('<f', value))[0]
+
+
+def round_half_away(value):
+  return -math.floor(-value + 0.5) if value < 0 else math.floor(value + 0.5)
+
+
+def wrap32(value):
+  return (value + (1 << 31)) % (1 << 32) - (1 << 31)
+
+
+def quantize_multiplier(real):
+  if real == 0.0:
+    return 0, 0
+  q, shift = math.frexp(real)
+  q_fixed = round_half_away(q * (1 << 31))
+  if q_fixed == 1 << 31:
+    q_fixed //= 2
+    shift += 1
+  if shift < -31:
+    shift, q_fixed = 0, 0
+  return q_fixed, shift
+
+
+def srdhm(a, b):
+  if a == INT32_MIN and b == INT32_MIN:
+    return INT32_MAX
+  ab = a * b
+  nudge = (1 << 30) if ab >= 0 else 1 - (1 << 30)
+  total = ab + nudge
+  quotient = abs(total) // (1 << 31)
+  return quotient if total >= 0 else -quotient
+
+
+def rounding_divide_by_pot(x, exponent):
+  mask = (1 << exponent) - 1
+  remainder = x & mask
+  threshold = (mask >> 1) + (1 if x < 0 else 0)
+  return (x >> exponent) + (1 if remainder > threshold else 0)
+
+
+def multiply_by_quantized_multiplier(x, multiplier, shift):
+  left, right = max(shift, 0), max(-shift, 0)
+  return rounding_divide_by_pot(srdhm(wrap32(x * (1 << left)), multiplier), right)
+
+
+def saturating_rounding_multiply_by_pot(x, exponent):
+  if exponent <= 0:
+    return rounding_divide_by_pot(x, -exponent)
+  threshold = (1 << (31 - exponent)) - 1
+  if x > threshold:
+    return INT32_MAX
+  if x < -threshold:
+    return INT32_MIN
+  return x << exponent
+
+
+def clamp(value, low, high):
+  return max(low, min(high, value))
+
+
+def activation_range(activation, zero_point):
+  if activation == ACTIVATION_NONE:
+    return -128, 127
+  if activation == ACTIVATION_RELU:
+    return max(-128, zero_point), 127
+  raise ValueError('unsupported fused activation %d' % activation)
+
+
+# Reference kernels.
+
+def quantize(values, scale, zero_point):
+  scale = f32(scale)
+  return [clamp(int(round_half_away(f32(v / scale))) + zero_point, -128, 127) for v in values]
+
+
+def mul(x, x_q, y, y_q, out_q):
+  multiplier, shift = quantize_multiplier(float(x_q[0]) * float(y_q[0]) / float(out_q[0]))
+  channels = len(y)
+  return [clamp(out_q[1] + multiply_by_quantized_multiplier(
+      (v - x_q[1]) * (y[i % channels] - y_q[1]), multiplier, shift), -128, 127)
+          for i, v in enumerate(x)]
+
+
+def add(x, x_q, y, y_q, out_q):
+  left_shift = 20
+  twice_max = 2 * max(float(x_q[0]), float(y_q[0]))
+  x_mul, x_shift = quantize_multiplier(float(x_q[0]) / twice_max)
+  y_mul, y_shift = quantize_multiplier(float(y_q[0]) / twice_max)
+  out_mul, out_shift = quantize_multiplier(twice_max / ((1 << left_shift) * float(out_q[0])))
+  channels = len(y)
+  out = []
+  for i, v in enumerate(x):
+    scaled_x = multiply_by_quantized_multiplier((v - x_q[1]) << left_shift, x_mul, x_shift)
+    scaled_y = multiply_by_quantized_multiplier(
+        (y[i % channels] - y_q[1]) << left_shift, y_mul, y_shift)
+    out.append(clamp(out_q[1] + multiply_by_quantized_multiplier(
+        scaled_x + scaled_y, out_mul, out_shift), -128, 127))
+  return out
+
+
+def same_padding(in_size, filter_size, stride):
+  out_size = (in_size + stride - 1) // stride
+  return out_size, max((out_size - 1) * stride + filter_size - in_size, 0) // 2
+
+
+def conv_2d(x, shape, x_q, weights, weight_shape, weight_scales, bias, out_q, activation):
+  _, height, width, in_channels = shape
+  filters, kernel_h, kernel_w, _ = weight_shape
+  out_h, pad_h = same_padding(height, kernel_h, 1)
+  out_w, pad_w = same_padding(width, kernel_w, 1)
+  act_min, act_max = activation_range(activation, out_q[1])
+  multipliers = [quantize_multiplier(float(x_q[0]) * float(s) / float(out_q[0]))
+                 for s in weight_scales]
+  out = []
+  for oy in range(out_h):
+    for ox in range(out_w):
+      for f in range(filters):
+        acc = 0
+        for ky in range(kernel_h):
+          iy = oy - pad_h + ky
+          if iy < 0 or iy >= height:
+            continue
+          for kx in range(kernel_w):
+            ix = ox - pad_w + kx
+            if ix < 0 or ix >= width:
+              continue
+            for c in range(in_channels):
+              w = weights[((f * kernel_h + ky) * kernel_w + kx) * in_channels + c]
+              acc += w * (x[(iy * width + ix) * in_channels + c] - x_q[1])
+        acc = multiply_by_quantized_multiplier(acc + bias[f], *multipliers[f])
+        out.append(clamp(acc + out_q[1], act_min, act_max))
+  return out
+
+
+def max_pool_2d(x, shape, padding, stride_h, stride_w, size_h, size_w, activation, out_q):
+  _, height, width, channels = shape
+  if padding == PADDING_SAME:
+    out_h, pad_h = same_padding(height, size_h, stride_h)
+    out_w, pad_w = same_padding(width, size_w, stride_w)
+  else:
+    out_h, pad_h = (height - size_h) // stride_h + 1, 0
+    out_w, pad_w = (width - size_w) // stride_w + 1, 0
+  act_min, act_max = activation_range(activation, out_q[1])
+  out = []
+  for oy in range(out_h):
+    for ox in range(out_w):
+      for c in range(channels):
+        best = -128
+        for ky in range(size_h):
+          for kx in range(size_w):
+            iy, ix = oy * stride_h - pad_h + ky, ox * stride_w - pad_w + kx
+            if 0 <= iy < height and 0 <= ix < width:
+              best = max(best, x[(iy * width + ix) * channels + c])
+        out.append(clamp(best, act_min, act_max))
+  return out
+
+
+def fully_connected(x, x_q, weights, weight_q, units, bias, out_q, activation):
+  inputs = len(x)
+  scales = weight_q[0] if len(weight_q[0]) == units else weight_q[0] * units
+  act_min, act_max = activation_range(activation, out_q[1])
+  out = []
+  for u in range(units):
+    acc = sum((weights[u * inputs + i] - weight_q[1][0]) * (v - x_q[1]) for i, v in enumerate(x))
+    multiplier, shift = quantize_multiplier(float(x_q[0]) * float(scales[u]) / float(out_q[0]))
+    acc = multiply_by_quantized_multiplier(acc + bias[u], multiplier, shift)
+    out.append(clamp(acc + out_q[1], act_min, act_max))
+  return out
+
+
+def exp_on_interval_between_negative_one_quarter_and_0_excl(a):
+  constant_term = 1895147668
+  one_third = 715827883
+  x = wrap32(a + (1 << 28))
+  x2 = srdhm(x, x)
+  x3 = srdhm(x2, x)
+  x4 = srdhm(x2, x2)
+  x4_over_4 = saturating_rounding_multiply_by_pot(x4, -2)
+  polynomial = saturating_rounding_multiply_by_pot(
+      wrap32(srdhm(wrap32(x4_over_4 + x3), one_third) + x2), -1)
+  return wrap32(constant_term + srdhm(constant_term, wrap32(x + polynomial)))
+
+
+def exp_on_negative_values(a, integer_bits):
+  fractional_bits = 31 - integer_bits
+  one_quarter = 1 << (fractional_bits - 2)
+  a_mod_quarter_minus_one_quarter = (a & (one_quarter - 1)) - one_quarter
+  result = exp_on_interval_between_negative_one_quarter_and_0_excl(
+      saturating_rounding_multiply_by_pot(a_mod_quarter_minus_one_quarter, integer_bits))
+  remainder = wrap32(a_mod_quarter_minus_one_quarter - a)
+  for exponent, multiplier in ((-2, 1672461947), (-1, 1302514674), (0, 790015084),
+                               (1, 290630308), (2, 39332535), (3, 720401), (4, 242)):
+    if integer_bits > exponent and remainder & (1 << (fractional_bits + exponent)):
+      result = srdhm(result, multiplier)
+  return INT32_MAX if a == 0 else result
+
+
+def rounding_half_sum(a, b):
+  total = a + b
+  half = (abs(total) + 1) // 2
+  return half if total >= 0 else -half
+
+
+def one_over_one_plus_x_for_x_in_0_1(a):
+  half_denominator = rounding_half_sum(a, INT32_MAX)
+  x = wrap32(1515870810 + srdhm(half_denominator, -1010580540))
+  for _ in range(3):
+    one_minus = wrap32((1 << 29) - srdhm(half_denominator, x))
+    x = wrap32(x + saturating_rounding_multiply_by_pot(srdhm(x, one_minus), 2))
+  return saturating_rounding_multiply_by_pot(x, 1)
+
+
+def softmax(x, x_q, beta):
+  scaled_diff_integer_bits = 5
+  accumulation_integer_bits = 12
+  real = min(float(beta) * float(x_q[0]) * (1 << (31 - scaled_diff_integer_bits)),
+             (1 << 31) - 1.0)
+  multiplier, left_shift = quantize_multiplier(real)
+  diff_min = -int(math.floor(((1 << scaled_diff_integer_bits) - 1)
+                             * float(1 << (31 - scaled_diff_integer_bits))
+                             / float(1 << left_shift)))
+  top = max(x)
+
+  def exp_of(v):
+    rescaled = srdhm(wrap32((v - top) * (1 << left_shift)), multiplier)
+    return exp_on_negative_values(rescaled, scaled_diff_integer_bits)
+
+  total = 0
+  for v in x:
+    if v - top >= diff_min:
+      total += rounding_divide_by_pot(exp_of(v), accumulation_integer_bits)
+  headroom_plus_one = 32 - total.bit_length()
+  bits_over_unit = accumulation_integer_bits - headroom_plus_one
+  scale = one_over_one_plus_x_for_x_in_0_1(wrap32((total << headroom_plus_one) - (1 << 31)))
+  out = []
+  for v in x:
+    if v - top >= diff_min:
+      unsaturated = rounding_divide_by_pot(srdhm(scale, exp_of(v)), bits_over_unit + 31 - 8)
+      out.append(clamp(unsaturated - 128, -128, 127))
+    else:
+      out.append(-128)
+  return out
+
+
+def run_python(graph, window):
+  """Outputs of every tensor, as flat int lists, for one float window."""
+  values = {}
+
+  def q(t):
+    scales, zero_points = graph.quant(t)
+    return scales[0], zero_points[0]
+
+  def const(t, fmt):
+    raw = graph.data(t)
+    size = struct.calcsize(fmt)
+    return list(struct.unpack('<%d%s' % (len(raw) // size, fmt), raw))
+
+  for op in graph.operators:
+    code = graph.opcodes[op.scalar(0, 'I')]
+    inputs = op.scalars(1, 'i')
+    out_t = op.scalars(2, 'i')[0]
+    options = op.table(4)
+    if code == OP_QUANTIZE:
+      values[out_t] = quantize(window, *q(out_t))
+    elif code in PASS_THROUGH:
+      values[out_t] = values[inputs[0]]
+    elif code in (OP_MUL, OP_ADD):
+      kernel = mul if code == OP_MUL else add
+      values[out_t] = kernel(values[inputs[0]], q(inputs[0]), const(inputs[1], 'b'),
+                             q(inputs[1]), q(out_t))
+    elif code == OP_CONV_2D:
+      if options.scalar(1, 'i') != 1 or options.scalar(2, 'i') != 1:
+        raise ValueError('only stride 1 convolutions are supported')
+      if options.scalar(0, 'b') != PADDING_SAME:
+        raise ValueError('only SAME convolutions are supported')
+      if options.scalar(4, 'i', 1) != 1 or options.scalar(5, 'i', 1) != 1:
+        raise ValueError('dilated convolutions are not supported')
+      values[out_t] = conv_2d(values[inputs[0]], graph.shape(inputs[0]), q(inputs[0]),
+                                 const(inputs[1], 'b'), graph.shape(inputs[1]),
+                                 graph.quant(inputs[1])[0], const(inputs[2], 'i'), q(out_t),
+                                 options.scalar(3, 'b'))
+    elif code == OP_MAX_POOL_2D:
+      values[out_t] = max_pool_2d(values[inputs[0]], graph.shape(inputs[0]),
+                                  options.scalar(0, 'b'), options.scalar(2, 'i'),
+                                  options.scalar(1, 'i'), options.scalar(4, 'i'),
+                                  options.scalar(3, 'i'), options.scalar(5, 'b'), q(out_t))
+    elif code == OP_FULLY_CONNECTED:
+      units = graph.shape(inputs[1])[0]
+      values[out_t] = fully_connected(values[inputs[0]], q(inputs[0]), const(inputs[1], 'b'),
+                                      graph.quant(inputs[1]), units, const(inputs[2], 'i'),
+                                      q(out_t), options.scalar(0, 'b'))
+    elif code == OP_SOFTMAX:
+      beta = options.scalar(0, 'f', 1.0) if options else 1.0
+      values[out_t] = softmax(values[inputs[0]], q(inputs[0]), beta)
+    elif code == OP_DEQUANTIZE:
+      pass
+    else:
+      raise ValueError('unsupported builtin operator %d' % code)
+  return values
+
+
+def tflite_interpreter(data):
+  """A TFLite interpreter using the reference kernels and keeping every tensor, or None."""
+  for module in ('ai_edge_litert.interpreter', 'tflite_runtime.interpreter',
+                 'tensorflow.lite.python.interpreter'):
+    try:
+      interpreter = __import__(module, fromlist=['Interpreter', 'OpResolverType'])
+    except ImportError:
+      continue
+    result = interpreter.Interpreter(
+        model_content=bytes(data),
+        experimental_op_resolver_type=interpreter.OpResolverType.BUILTIN_REF,
+        experimental_preserve_all_tensors=True)
+    result.allocate_tensors()
+    return result
+  return None
+
+
+def run_tflite(interpreter, window, shape):
+  import numpy
+  details = interpreter.get_input_details()[0]
+  interpreter.set_tensor(details['index'], numpy.array(window, dtype=numpy.float32).reshape(shape))
+  interpreter.invoke()
+  return lambda t: interpreter.get_tensor(t).astype(numpy.int32).ravel().tolist()
+
+
+def tensor_size(graph, t):
+  return math.prod(graph.shape(t))
+
+
+def main(argv):
+  engine = 'auto'
+  args = []
+  for arg in argv[1:]:
+    if arg.startswith('--engine='):
+      engine = arg.split('=', 1)[1]
+    else:
+      args.append(arg)
+  here = os.path.dirname(os.path.abspath(__file__))
+  source = args[0] if args else os.path.join(here, 'model_quant.h')
+  target = args[1] if len(args) > 1 else os.path.join(
+      here, '..', 'AndroidSpoiftyBLE_incompete', 'gesture-core', 'src', 'test', 'resources',
+      'com', 'spotify', 'sdk', 'demo', 'ml', 'gesture_cnn_reference.bin')
+
+  data = read_model(source)
+  graph = Graph(data)
+  input_shape = graph.shape(graph.operators[0].scalars(1, 'i')[0])
+  steps, channels = input_shape[-2], input_shape[-1]
+  records = recorded_ops(graph)
+
+  interpreter = None
+  if engine in ('auto', 'tflite'):
+    interpreter = tflite_interpreter(data)
+    if interpreter is None and engine == 'tflite':
+      raise SystemExit('no TFLite interpreter installed')
+  used = 'tflite' if interpreter is not None else 'python'
+
+  out = [struct.pack('<iiiii', MAGIC, CASES, steps, channels, len(records))]
+  out += [struct.pack('<ii', code, tensor_size(graph, t)) for code, t in records]
+  for window in windows(steps, channels):
+    if interpreter is not None:
+      tensor = run_tflite(interpreter, window, input_shape)
+    else:
+      tensor = run_python(graph, window).__getitem__
+    out.append(struct.pack('<%df' % len(window), *window))
+    for _, t in records:
+      out.append(struct.pack('<%db' % tensor_size(graph, t), *tensor(t)))
+  blob = b''.join(out)
+  os.makedirs(os.path.dirname(target), exist_ok=True)
+  with open(target, 'wb') as f:
+    f.write(blob)
+  print('wrote %d bytes with the %s engine to %s' % (len(blob), used, os.path.normpath(target)))
+
+
+if __name__ == '__main__':
+  main(sys.argv)
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Spotify AB
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// Writes golden vectors of the firmware's EMGFilters for EmgFilterBankTest.
+//
+// Every configuration runs a few channels of synthetic 10-bit ADC input (a slow baseline, EMG-like
+// bursts, mains hum at the notch frequency and noise) through EMGFilters::update(). The filters
+// are globals in EMGFilters.cpp, so each channel gets a fresh init() and its own pass, which is
+// the per-channel state EmgFilterBank keeps.
+//
+// Build without fused multiply-add so the float rounding matches the JVM:
+//
+//   cd ArduinoClassifierBLE/extras
+//   g++ -std=c++11 -O2 -ffp-contract=off -I.. emg_filter_vectors.cpp ../EMGFilters.cpp
+//   ./a.out ../../AndroidSpoiftyBLE_incompete/gesture-core/src/test/resources/com/spotify/sdk/demo/sensor/emg_filter_vectors.bin
+//
+// Blob layout, little-endian:
+//
+//   int32 magic "EFV1", int32 configCount, int32 channels, int32 samples
+//   configCount x (int32 sampleFreq, int32 notchFreq, int32 filters (notch | lowpass << 1 |
+//                  highpass << 2), channels x (int16 input[samples], int32 output[samples]))
+
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+
+#include "EMGFilters.h"
+
+static const int32_t kMagic = 0x31564645;  // "EFV1"
+static const int kChannels = 3;
+static const int kSamples = 1024;
+
+struct Config {
+  SAMPLE_FREQUENCY sampleFreq;
+  NOTCH_FREQUENCY notchFreq;
+  int filters;
+};
+
+static const Config kConfigs[] = {
+    {SAMPLE_FREQ_500HZ, NOTCH_FREQ_50HZ, 7},  {SAMPLE_FREQ_500HZ, NOTCH_FREQ_60HZ, 7},
+    {SAMPLE_FREQ_1000HZ, NOTCH_FREQ_50HZ, 7}, {SAMPLE_FREQ_1000HZ, NOTCH_FREQ_60HZ, 7},
+    {SAMPLE_FREQ_500HZ, NOTCH_FREQ_50HZ, 6},  {SAMPLE_FREQ_1000HZ, NOTCH_FREQ_60HZ, 1},
+};
+
+static uint32_t sRandom = 20181018;
+
+// Uniform in [-1, 1).
+static double noise() {
+  sRandom = sRandom * 1664525u + 1013904223u;
+  return (sRandom >> 8) / (double)(1 << 23) - 1.0;
+}
+
+static void write32(FILE* out, int32_t value) {
+  uint8_t bytes[4] = {(uint8_t)value, (uint8_t)(value >> 8), (uint8_t)(value >> 16),
+                      (uint8_t)(value >> 24)};
+  fwrite(bytes, 1, 4, out);
+}
+
+static void write16(FILE* out, int16_t value) {
+  uint8_t bytes[2] = {(uint8_t)value, (uint8_t)(value >> 8)};
+  fwrite(bytes, 1, 2, out);
+}
+
+int main(int argc, char** argv) {
+  const char* path = argc > 1 ? argv[1] : "emg_filter_vectors.bin";
+  FILE* out = fopen(path, "wb");
+  if (out == NULL) {
+    perror(path);
+    return 1;
+  }
+  int configCount = sizeof(kConfigs) / sizeof(kConfigs[0]);
+  write32(out, kMagic);
+  write32(out, configCount);
+  write32(out, kChannels);
+  write32(out, kSamples);
+  for (int k = 0; k < configCount; k++) {
+    const Config& config = kConfigs[k];
+    write32(out, config.sampleFreq);
+    write32(out, config.notchFreq);
+    write32(out, config.filters);
+    for (int c = 0; c < kChannels; c++) {
+      EMGFilters filters;
+      filters.init(config.sampleFreq, config.notchFreq, config.filters & 1, config.filters & 2,
+                   config.filters & 4);
+      int16_t input[kSamples];
+      for (int i = 0; i < kSamples; i++) {
+        double t = (double)i / config.sampleFreq;
+        double burst = fmod(t + 0.3 * c, 1.0) < 0.4 ? 180.0 : 15.0;
+        double value = 512.0 + 60.0 * sin(2 * M_PI * 0.7 * t + c) + burst * noise()
+                       + 40.0 * sin(2 * M_PI * config.notchFreq * t);
+        input[i] = (int16_t)(value < 0 ? 0 : value > 1023 ? 1023 : value);
+      }
+      for (int i = 0; i < kSamples; i++) {
+        write16(out, input[i]);
+      }
+      for (int i = 0; i < kSamples; i++) {
+        write32(out, filters.update(input[i]));
+      }
+    }
+  }
+  fclose(out);
+  printf("wrote %d configurations to %s\n", configCount, path);
+  return 0;
+}